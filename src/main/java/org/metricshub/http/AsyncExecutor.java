@@ -0,0 +1,93 @@
+package org.metricshub.http;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * HTTP Java Client
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 MetricsHub
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Provides the default {@link Executor} that runs the asynchronous requests of {@link HttpClient}.
+ * <p>
+ * With Java 8 to 20, each request blocks a platform thread while waiting for the server, so the
+ * requests run in a bounded pool of daemon threads, with a bounded queue of pending requests
+ * (requests submitted when the queue is full are rejected).
+ * </p>
+ * <p>
+ * With Java 21 and later, the version of this class located in <code>META-INF/versions/21</code>
+ * runs each request in its own virtual thread instead.
+ * </p>
+ */
+class AsyncExecutor {
+
+	/**
+	 * Maximum number of threads running requests at the same time
+	 */
+	static final int MAX_THREADS = 64;
+
+	/**
+	 * Maximum number of requests waiting for a thread
+	 */
+	static final int MAX_QUEUED_REQUESTS = 10_000;
+
+	/**
+	 * Only static methods, no instance
+	 */
+	private AsyncExecutor() {}
+
+	/**
+	 * Lazy initialization of the default executor, only when an asynchronous request is sent
+	 */
+	private static class Holder {
+
+		private static final Executor DEFAULT_EXECUTOR = createBoundedExecutor();
+	}
+
+	/**
+	 * @return the executor to use when none has been specified in {@link HttpClient.Builder}
+	 */
+	static Executor getDefault() {
+		return Holder.DEFAULT_EXECUTOR;
+	}
+
+	/**
+	 * @return a new bounded pool of daemon threads
+	 */
+	static Executor createBoundedExecutor() {
+		final AtomicInteger threadCount = new AtomicInteger();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(
+			MAX_THREADS,
+			MAX_THREADS,
+			60L,
+			TimeUnit.SECONDS,
+			new LinkedBlockingQueue<>(MAX_QUEUED_REQUESTS),
+			runnable -> {
+				Thread thread = new Thread(runnable, "simple-http-java-async-" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		);
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+}
@@ -0,0 +1,567 @@
+package org.metricshub.http;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * HTTP Java Client
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 MetricsHub
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * A {@link DnsResolver} that keeps the resolved addresses in a bounded cache of its own, with a time-to-live for
+ * each host, independently of the JVM-wide cache of {@link InetAddress}.
+ * <ul>
+ * <li>An address that is used shortly before it expires is resolved again in the background, so that the hosts
+ * that are polled regularly are not resolved again while a request waits.</li>
+ * <li>When a host name cannot be resolved any more (DNS outage), its previous addresses are still used, up to a
+ * maximum staleness, and the resolution is tried again after the negative time-to-live.</li>
+ * <li>A host name that cannot be resolved at all is remembered for the negative time-to-live, so that the DNS is
+ * not queried again for each request.</li>
+ * <li>The least recently used hosts are removed when the cache is full.</li>
+ * </ul>
+ * <p>
+ * The names are actually resolved by a delegate resolver, by default {@link DnsResolver#system()}. The default
+ * time-to-live is the same as the default one of the JVM (30 seconds). The resolver can be shared by several
+ * clients, and is thread-safe.
+ * </p>
+ * <p>
+ * Note that {@link HttpClient} consults the resolver after the JVM has resolved the name of the server (see
+ * {@link HttpClient.Builder#dnsResolver(DnsResolver)}): the cache chooses the addresses that are connected to, and
+ * keeps providing them when the DNS fails, but it doesn't spare the lookup of the JVM.
+ * </p>
+ * <pre>
+ * CachingDnsResolver resolver = CachingDnsResolver.builder()
+ *     .ttl(5, TimeUnit.MINUTES)
+ *     .ttl("bmc01.example.com", 1, TimeUnit.MINUTES)
+ *     .maxStale(1, TimeUnit.HOURS)
+ *     .build();
+ * HttpClient client = HttpClient.builder().dnsResolver(resolver).build();
+ * </pre>
+ */
+public class CachingDnsResolver implements DnsResolver {
+
+	/**
+	 * Default maximum number of hosts in the cache
+	 */
+	public static final int DEFAULT_MAX_ENTRIES = 10_000;
+
+	/**
+	 * Default time-to-live of the resolved addresses, in seconds
+	 */
+	public static final long DEFAULT_TTL_SECONDS = 30;
+
+	/**
+	 * Default time-to-live of the names that cannot be resolved, in seconds
+	 */
+	public static final long DEFAULT_NEGATIVE_TTL_SECONDS = 10;
+
+	/**
+	 * Default maximum time the addresses of a host are still used after they have expired, when its name cannot be
+	 * resolved any more, in seconds
+	 */
+	public static final long DEFAULT_MAX_STALE_SECONDS = 600;
+
+	/**
+	 * Default part of the time-to-live after which a used address is resolved again in the background
+	 */
+	public static final double DEFAULT_REFRESH_AHEAD = 0.75;
+
+	/**
+	 * IPv4 addresses, which are not resolved (like the IPv6 addresses, which contain colons)
+	 */
+	private static final Pattern IPV4_REGEX = Pattern.compile("^\\d{1,3}(\\.\\d{1,3}){3}$");
+
+	/**
+	 * Maximum duration of the settings (100 years), so that the expiration times don't overflow
+	 */
+	private static final long MAX_DURATION_NANOS = TimeUnit.DAYS.toNanos(36_500);
+
+	private final DnsResolver delegate;
+	private final long ttlNanos;
+	private final Map<String, Long> hostTtlNanos;
+	private final long negativeTtlNanos;
+	private final long maxStaleNanos;
+	private final double refreshAhead;
+	private final Executor executor;
+
+	/**
+	 * Resolved hosts, by host name in lower case, the least recently used first
+	 */
+	private final LinkedHashMap<String, Entry> entries;
+
+	/**
+	 * Hosts being resolved because they were missing or expired, with the lookup shared by the threads that need them
+	 */
+	private final ConcurrentHashMap<String, CompletableFuture<Entry>> lookups = new ConcurrentHashMap<>();
+
+	/**
+	 * Hosts being resolved in the background
+	 */
+	private final Set<String> refreshingHosts = ConcurrentHashMap.newKeySet();
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong refreshCount = new AtomicLong();
+	private final AtomicLong staleCount = new AtomicLong();
+
+	/**
+	 * Create a new CachingDnsResolver with the settings of the specified {@link Builder}
+	 *
+	 * @param builder The builder with all the settings
+	 */
+	private CachingDnsResolver(final Builder builder) {
+		delegate = builder.delegate;
+		ttlNanos = builder.ttlNanos;
+		hostTtlNanos = Collections.unmodifiableMap(new HashMap<>(builder.hostTtlNanos));
+		negativeTtlNanos = builder.negativeTtlNanos;
+		maxStaleNanos = builder.maxStaleNanos;
+		refreshAhead = builder.refreshAhead;
+		executor = builder.executor != null ? builder.executor : AsyncExecutor.getDefault();
+		final int maxEntries = builder.maxEntries;
+		entries =
+			new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+					return size() > maxEntries;
+				}
+			};
+	}
+
+	/**
+	 * @return a new {@link Builder} to configure a CachingDnsResolver
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	@Override
+	public InetAddress[] resolve(final String host) throws UnknownHostException {
+		// IP addresses don't need the DNS, nor the cache
+		if (host == null || host.isEmpty() || host.indexOf(':') >= 0 || IPV4_REGEX.matcher(host).matches()) {
+			return delegate.resolve(host);
+		}
+
+		String key = host.toLowerCase(Locale.ROOT);
+		long now = System.nanoTime();
+		Entry entry;
+		synchronized (entries) {
+			entry = entries.get(key);
+		}
+
+		// Not expired: use it (and resolve it again in the background if it expires soon)
+		if (entry != null && now - entry.expirationTime < 0) {
+			hitCount.incrementAndGet();
+			if (entry.addresses != null && now - entry.refreshTime >= 0) {
+				refreshInBackground(key, host);
+			}
+			return entry.getAddresses(host);
+		}
+
+		// Expired or unknown: resolve it now (or wait for the thread that is already resolving it)
+		missCount.incrementAndGet();
+		try {
+			return lookup(key, host, now).addresses.clone();
+		} catch (UnknownHostException e) {
+			// Use the previous addresses, if they're not too old, and try again later
+			if (entry != null && entry.addresses != null && now - entry.staleLimit < 0) {
+				staleCount.incrementAndGet();
+				long retryTime = now + negativeTtlNanos;
+				store(key, new Entry(entry.addresses, retryTime, retryTime, entry.staleLimit));
+				return entry.addresses.clone();
+			}
+			store(key, new Entry(e.getMessage(), now + negativeTtlNanos));
+			throw e;
+		}
+	}
+
+	/**
+	 * Resolve the specified host with the delegate resolver, and cache its addresses, unless another thread is
+	 * already resolving it, in which case its result is shared
+	 *
+	 * @param key The host name in lower case
+	 * @param host The host name
+	 * @param now The current time (see {@link System#nanoTime()})
+	 * @return the new entry
+	 * @throws UnknownHostException when the host name cannot be resolved
+	 */
+	private Entry lookup(final String key, final String host, final long now) throws UnknownHostException {
+		CompletableFuture<Entry> lookup = new CompletableFuture<>();
+		CompletableFuture<Entry> current = lookups.putIfAbsent(key, lookup);
+		if (current == null) {
+			try {
+				Entry entry = load(key, host, now);
+				lookup.complete(entry);
+				return entry;
+			} catch (Throwable t) {
+				lookup.completeExceptionally(t);
+				throw t;
+			} finally {
+				lookups.remove(key, lookup);
+			}
+		}
+
+		try {
+			return current.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof UnknownHostException) {
+				UnknownHostException exception = new UnknownHostException(e.getCause().getMessage());
+				exception.initCause(e.getCause());
+				throw exception;
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Resolve the specified host with the delegate resolver, and cache its addresses
+	 *
+	 * @param key The host name in lower case
+	 * @param host The host name
+	 * @param now The current time (see {@link System#nanoTime()})
+	 * @return the new entry
+	 * @throws UnknownHostException when the host name cannot be resolved
+	 */
+	private Entry load(final String key, final String host, final long now) throws UnknownHostException {
+		InetAddress[] addresses = delegate.resolve(host);
+		if (addresses == null || addresses.length == 0) {
+			throw new UnknownHostException(host);
+		}
+		long ttl = hostTtlNanos.getOrDefault(key, ttlNanos);
+		Entry entry = new Entry(addresses.clone(), now + ttl, now + (long) (ttl * refreshAhead), now + ttl + maxStaleNanos);
+		store(key, entry);
+		return entry;
+	}
+
+	/**
+	 * @param key The host name in lower case
+	 * @param entry The entry to cache
+	 */
+	private void store(final String key, final Entry entry) {
+		synchronized (entries) {
+			entries.put(key, entry);
+		}
+	}
+
+	/**
+	 * Resolve the specified host in the background, unless it's already being resolved. When the name cannot be
+	 * resolved, the current addresses are kept.
+	 *
+	 * @param key The host name in lower case
+	 * @param host The host name
+	 */
+	private void refreshInBackground(final String key, final String host) {
+		if (!refreshingHosts.add(key)) {
+			return;
+		}
+		try {
+			executor.execute(() -> {
+				try {
+					load(key, host, System.nanoTime());
+					refreshCount.incrementAndGet();
+				} catch (UnknownHostException | RuntimeException e) {
+					// Keep the current addresses, they will be resolved again when they expire
+				} finally {
+					refreshingHosts.remove(key);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// The executor is saturated: the addresses will be resolved again when they expire
+			refreshingHosts.remove(key);
+		}
+	}
+
+	/**
+	 * Remove all the hosts from the cache
+	 */
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	/**
+	 * @return the number of hosts in the cache (including the names that cannot be resolved)
+	 */
+	public int getEntryCount() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * @return the number of resolutions served by the cache
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * @return the number of resolutions that waited for the delegate resolver (unknown or expired hosts)
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * @return the number of hosts successfully resolved again in the background, before they expired
+	 */
+	public long getRefreshCount() {
+		return refreshCount.get();
+	}
+
+	/**
+	 * @return the number of times expired addresses have been used, because the name could not be resolved any more
+	 */
+	public long getStaleCount() {
+		return staleCount.get();
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuilder()
+			.append("DNS cache: ")
+			.append(getEntryCount())
+			.append(" hosts, ")
+			.append(getHitCount())
+			.append(" hits, ")
+			.append(getMissCount())
+			.append(" misses, ")
+			.append(getRefreshCount())
+			.append(" refreshed, ")
+			.append(getStaleCount())
+			.append(" stale")
+			.toString();
+	}
+
+	/**
+	 * The addresses of a host (or why its name cannot be resolved), and their expiration
+	 */
+	private static class Entry {
+
+		/**
+		 * Addresses of the host (null if the name cannot be resolved)
+		 */
+		private final InetAddress[] addresses;
+		private final String failure;
+		private final long expirationTime;
+
+		/**
+		 * When the addresses are resolved again in the background, if they're used
+		 */
+		private final long refreshTime;
+
+		/**
+		 * Until when the addresses can still be used if the name cannot be resolved any more
+		 */
+		private final long staleLimit;
+
+		/**
+		 * @param addresses The addresses of the host
+		 * @param expirationTime When the addresses expire (see {@link System#nanoTime()})
+		 * @param refreshTime When the addresses are resolved again in the background, if they're used
+		 * @param staleLimit Until when the addresses can still be used if the name cannot be resolved any more
+		 */
+		Entry(InetAddress[] addresses, long expirationTime, long refreshTime, long staleLimit) {
+			this.addresses = addresses;
+			this.failure = null;
+			this.expirationTime = expirationTime;
+			this.refreshTime = refreshTime;
+			this.staleLimit = staleLimit;
+		}
+
+		/**
+		 * @param failure Why the name cannot be resolved
+		 * @param expirationTime When the name will be resolved again (see {@link System#nanoTime()})
+		 */
+		Entry(String failure, long expirationTime) {
+			this.addresses = null;
+			this.failure = failure;
+			this.expirationTime = expirationTime;
+			this.refreshTime = expirationTime;
+			this.staleLimit = expirationTime;
+		}
+
+		/**
+		 * @param host The host name
+		 * @return a copy of the addresses of the host
+		 * @throws UnknownHostException when the name cannot be resolved
+		 */
+		InetAddress[] getAddresses(String host) throws UnknownHostException {
+			if (addresses == null) {
+				throw new UnknownHostException(failure != null ? failure : host);
+			}
+			return addresses.clone();
+		}
+	}
+
+	/**
+	 * Builder of {@link CachingDnsResolver} instances.
+	 * <p>
+	 * By default, the names are resolved by the JVM, and kept for 30 seconds (10 seconds for the names that cannot
+	 * be resolved), in a cache of 10,000 hosts. They are resolved again in the background when they're used after
+	 * 75% of their time-to-live, and their addresses are still used for 10 minutes after they have expired when
+	 * the DNS fails.
+	 * </p>
+	 */
+	public static class Builder {
+
+		private DnsResolver delegate = DnsResolver.system();
+		private int maxEntries = DEFAULT_MAX_ENTRIES;
+		private long ttlNanos = TimeUnit.SECONDS.toNanos(DEFAULT_TTL_SECONDS);
+		private final Map<String, Long> hostTtlNanos = new HashMap<>();
+		private long negativeTtlNanos = TimeUnit.SECONDS.toNanos(DEFAULT_NEGATIVE_TTL_SECONDS);
+		private long maxStaleNanos = TimeUnit.SECONDS.toNanos(DEFAULT_MAX_STALE_SECONDS);
+		private double refreshAhead = DEFAULT_REFRESH_AHEAD;
+		private Executor executor;
+
+		/**
+		 * Use {@link CachingDnsResolver#builder()}
+		 */
+		private Builder() {}
+
+		/**
+		 * @param resolver The resolver that actually resolves the names (by default, the one of the JVM)
+		 * @return this builder
+		 */
+		public Builder delegate(DnsResolver resolver) {
+			if (resolver == null) {
+				throw new IllegalArgumentException("Delegate resolver must not be null");
+			}
+			this.delegate = resolver;
+			return this;
+		}
+
+		/**
+		 * @param maxEntries Maximum number of hosts in the cache
+		 * @return this builder
+		 */
+		public Builder maxEntries(int maxEntries) {
+			if (maxEntries < 1) {
+				throw new IllegalArgumentException("Invalid maximum number of entries: " + maxEntries);
+			}
+			this.maxEntries = maxEntries;
+			return this;
+		}
+
+		/**
+		 * @param ttl Time-to-live of the resolved addresses
+		 * @param unit Unit of ttl
+		 * @return this builder
+		 */
+		public Builder ttl(long ttl, TimeUnit unit) {
+			this.ttlNanos = toNanos(ttl, unit);
+			return this;
+		}
+
+		/**
+		 * Override the default time-to-live for the specified host
+		 *
+		 * @param host The host name
+		 * @param ttl Time-to-live of the addresses of the host
+		 * @param unit Unit of ttl
+		 * @return this builder
+		 */
+		public Builder ttl(String host, long ttl, TimeUnit unit) {
+			if (host == null || host.isEmpty()) {
+				throw new IllegalArgumentException("Host must not be empty");
+			}
+			hostTtlNanos.put(host.toLowerCase(Locale.ROOT), toNanos(ttl, unit));
+			return this;
+		}
+
+		/**
+		 * @param negativeTtl Time during which a name that cannot be resolved is not resolved again
+		 * @param unit Unit of negativeTtl
+		 * @return this builder
+		 */
+		public Builder negativeTtl(long negativeTtl, TimeUnit unit) {
+			this.negativeTtlNanos = toNanos(negativeTtl, unit);
+			return this;
+		}
+
+		/**
+		 * @param maxStale Maximum time the addresses of a host are still used after they have expired, when its name
+		 * cannot be resolved any more (0 to never use expired addresses)
+		 * @param unit Unit of maxStale
+		 * @return this builder
+		 */
+		public Builder maxStale(long maxStale, TimeUnit unit) {
+			this.maxStaleNanos = toNanos(maxStale, unit);
+			return this;
+		}
+
+		/**
+		 * @param refreshAhead Part of the time-to-live after which an address that is used is resolved again in the
+		 * background (between 0 and 1, 1 to never resolve the addresses in the background)
+		 * @return this builder
+		 */
+		public Builder refreshAhead(double refreshAhead) {
+			if (!(refreshAhead >= 0 && refreshAhead <= 1)) {
+				throw new IllegalArgumentException("Invalid refresh-ahead factor: " + refreshAhead);
+			}
+			this.refreshAhead = refreshAhead;
+			return this;
+		}
+
+		/**
+		 * @param executor The executor to resolve the addresses in the background (null for the default executor
+		 * of the asynchronous requests)
+		 * @return this builder
+		 */
+		public Builder executor(Executor executor) {
+			this.executor = executor;
+			return this;
+		}
+
+		/**
+		 * @param duration A duration
+		 * @param unit Unit of duration
+		 * @return the duration in nanoseconds
+		 */
+		private static long toNanos(long duration, TimeUnit unit) {
+			if (duration < 0) {
+				throw new IllegalArgumentException("Duration must not be negative");
+			}
+			return Math.min(unit.toNanos(duration), MAX_DURATION_NANOS);
+		}
+
+		/**
+		 * @return a new {@link CachingDnsResolver} with the settings of this builder
+		 */
+		public CachingDnsResolver build() {
+			return new CachingDnsResolver(this);
+		}
+	}
+}
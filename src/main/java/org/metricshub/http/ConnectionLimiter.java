@@ -0,0 +1,189 @@
+package org.metricshub.http;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * HTTP Java Client
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 MetricsHub
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the number of concurrent requests to the same route (host, port, proxy and TLS configuration),
+ * and keeps their connections alive between requests.
+ * <p>
+ * When a request is sent with a <code>ConnectionLimiter</code>, the {@link HttpClient} waits until fewer than
+ * {@link #getMaxConnectionsPerRoute()} requests are in progress on the route, fully consumes the response and
+ * leaves the connection open instead of calling <code>disconnect()</code>, unless the server closes it. The
+ * connection then goes back to the keep-alive cache of the JRE (the one used by {@link java.net.HttpURLConnection}),
+ * which decides whether the next request to the same server reuses it. This class doesn't see the sockets, so
+ * it doesn't report their reuse.
+ * </p>
+ * <p>
+ * The keep-alive cache of the JRE is JVM-wide and reads the <code>http.maxConnections</code>,
+ * <code>http.keepAlive.time.server</code> and <code>http.keepAlive.time.proxy</code> system properties once,
+ * when the first connection is made. Set them when starting the JVM to change how many idle connections are kept
+ * per server, and for how long.
+ * </p>
+ * <p>
+ * A <code>ConnectionLimiter</code> is thread-safe and is meant to be shared by all the requests of an application.
+ * </p>
+ */
+public class ConnectionLimiter {
+
+	/**
+	 * Default maximum number of concurrent connections per route
+	 */
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 5;
+
+	private final int maxConnectionsPerRoute;
+
+	private final ConcurrentHashMap<String, Semaphore> routes = new ConcurrentHashMap<>();
+
+	private final AtomicInteger activeCount = new AtomicInteger();
+	private final AtomicLong waitCount = new AtomicLong();
+
+	/**
+	 * Create a new ConnectionLimiter that allows {@value #DEFAULT_MAX_CONNECTIONS_PER_ROUTE} concurrent
+	 * connections per route
+	 */
+	public ConnectionLimiter() {
+		this(DEFAULT_MAX_CONNECTIONS_PER_ROUTE);
+	}
+
+	/**
+	 * Create a new ConnectionLimiter
+	 *
+	 * @param maxConnectionsPerRoute Maximum number of concurrent connections to the same route
+	 */
+	public ConnectionLimiter(int maxConnectionsPerRoute) {
+		if (maxConnectionsPerRoute < 1) {
+			throw new IllegalArgumentException("maxConnectionsPerRoute must be greater than 0");
+		}
+		this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+	}
+
+	/**
+	 * @return the maximum number of concurrent connections to the same route
+	 */
+	public int getMaxConnectionsPerRoute() {
+		return maxConnectionsPerRoute;
+	}
+
+	/**
+	 * @return the number of requests currently in progress (all routes)
+	 */
+	public int getActiveCount() {
+		return activeCount.get();
+	}
+
+	/**
+	 * @return the number of requests that had to wait because their route was at its maximum number of connections
+	 */
+	public long getWaitCount() {
+		return waitCount.get();
+	}
+
+	/**
+	 * Build the key that identifies a route, i.e. the connections that can be shared
+	 *
+	 * @param url URL being requested
+	 * @param proxy Proxy used to connect (may be null)
+	 * @param sslProtocols SSL protocols enabled on the connection (may be null)
+	 * @return a String identifying the route
+	 */
+	static String routeKey(URL url, Proxy proxy, String[] sslProtocols) {
+		StringBuilder key = new StringBuilder()
+			.append(url.getProtocol().toLowerCase())
+			.append("://")
+			.append(url.getHost().toLowerCase())
+			.append(':')
+			.append(url.getPort() == -1 ? url.getDefaultPort() : url.getPort());
+		if (proxy != null && proxy.address() instanceof InetSocketAddress) {
+			InetSocketAddress proxyAddress = (InetSocketAddress) proxy.address();
+			key.append(" via ").append(proxyAddress.getHostString()).append(':').append(proxyAddress.getPort());
+		}
+		if (sslProtocols != null && sslProtocols.length > 0) {
+			key.append(" ").append(String.join(",", sslProtocols));
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Acquire a connection slot for the specified route, waiting for one to be released if the maximum
+	 * number of connections for this route has been reached
+	 *
+	 * @param routeKey The route (see {@link #routeKey(URL, Proxy, String[])})
+	 * @param timeoutMillis Maximum time to wait for a slot
+	 * @return the {@link Lease} to be given back with {@link #release(Lease)}
+	 * @throws IOException when no slot could be obtained in time
+	 */
+	Lease acquire(String routeKey, long timeoutMillis) throws IOException {
+		Semaphore permits = routes.computeIfAbsent(routeKey, k -> new Semaphore(maxConnectionsPerRoute, true));
+		try {
+			// (a zero timeout, unlike tryAcquire(), doesn't jump ahead of the requests already waiting)
+			if (!permits.tryAcquire(0, TimeUnit.MILLISECONDS)) {
+				waitCount.incrementAndGet();
+				if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+					throw new IOException(
+						"Timed out waiting for a connection to " + routeKey + " (" + maxConnectionsPerRoute + " connections in use)"
+					);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for a connection to " + routeKey);
+		}
+		activeCount.incrementAndGet();
+		return new Lease(permits);
+	}
+
+	/**
+	 * Give back a slot acquired with {@link #acquire(String, long)}
+	 *
+	 * @param lease The lease returned by {@link #acquire(String, long)}
+	 */
+	void release(Lease lease) {
+		if (lease.released) {
+			return;
+		}
+		lease.released = true;
+		activeCount.decrementAndGet();
+		lease.permits.release();
+	}
+
+	/**
+	 * A connection slot in use, obtained with {@link ConnectionLimiter#acquire(String, long)}
+	 */
+	static class Lease {
+
+		private final Semaphore permits;
+		private boolean released;
+
+		Lease(Semaphore permits) {
+			this.permits = permits;
+		}
+	}
+}
@@ -0,0 +1,493 @@
+package org.metricshub.http;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * HTTP Java Client
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 MetricsHub
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Disk tier of {@link HttpResponseCache}: keeps the cached responses in files of a local directory, so that they
+ * survive the restarts of the application, and serves their bodies through memory-mapped buffers.
+ * <p>
+ * Each response is stored as 2 files:
+ * </p>
+ * <ul>
+ * <li><code>&lt;hash&gt;.meta</code>: the hash of the key, the status, headers, validators and charset of the
+ * response, and the name of its body file (written last, so a response is visible only once complete)</li>
+ * <li><code>&lt;hash&gt;-&lt;version&gt;.body</code>: the raw bytes of the body (a new file for each version, so that
+ * a body being read is never overwritten)</li>
+ * </ul>
+ * <p>
+ * The key itself is never written, as it contains the headers of the request: the responses are identified by the
+ * SHA-256 hash of their key.
+ * </p>
+ * <p>
+ * The least recently used responses are deleted when the total size of the bodies exceeds the maximum. When the
+ * directory is loaded, the responses are ordered by the date of their <code>.meta</code> file.
+ * </p>
+ */
+class DiskResponseStore {
+
+	private static final String META_EXTENSION = ".meta";
+	private static final String BODY_EXTENSION = ".body";
+	private static final String TEMP_EXTENSION = ".tmp";
+
+	private static final String HASH_PROPERTY = "hash";
+	private static final String STATUS_PROPERTY = "status";
+	private static final String HEADERS_PROPERTY = "headers";
+	private static final String ETAG_PROPERTY = "etag";
+	private static final String LAST_MODIFIED_PROPERTY = "lastModified";
+	private static final String CHARSET_PROPERTY = "charset";
+	private static final String BODY_PROPERTY = "body";
+
+	private final Path directory;
+	private final long maxBytes;
+
+	/**
+	 * Stored responses, by hash of their key, in access order (least recently used first)
+	 */
+	private final LinkedHashMap<String, Record> records = new LinkedHashMap<>(16, 0.75f, true);
+
+	private long totalBytes;
+
+	/**
+	 * Makes the names of the body files unique
+	 */
+	private final AtomicLong versionCounter = new AtomicLong(System.currentTimeMillis());
+
+	/**
+	 * @param directory Directory of the files (created if needed)
+	 * @param maxBytes Maximum total size of the stored bodies, in bytes
+	 * @throws IOException when the directory cannot be created or read
+	 */
+	DiskResponseStore(Path directory, long maxBytes) throws IOException {
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		Files.createDirectories(directory);
+		load();
+	}
+
+	/**
+	 * Load the responses stored in the directory (by a previous instance), and delete the incomplete ones
+	 *
+	 * @throws IOException when the directory cannot be read
+	 */
+	private void load() throws IOException {
+		// Read all the .meta files, oldest first
+		List<Path> metaFiles = new ArrayList<>();
+		List<Path> otherFiles = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+			for (Path file : files) {
+				(file.getFileName().toString().endsWith(META_EXTENSION) ? metaFiles : otherFiles).add(file);
+			}
+		}
+		metaFiles.sort(Comparator.comparingLong(DiskResponseStore::getLastModifiedTime));
+
+		Set<String> bodyFiles = new HashSet<>();
+		for (Path metaFile : metaFiles) {
+			Record record = readRecord(metaFile);
+			if (record == null) {
+				Files.deleteIfExists(metaFile);
+			} else {
+				records.put(record.hash, record);
+				totalBytes += record.size;
+				bodyFiles.add(record.bodyFile);
+			}
+		}
+
+		// Delete the bodies that no response refers to (replaced, or never completed)
+		for (Path file : otherFiles) {
+			if (!bodyFiles.contains(file.getFileName().toString())) {
+				deleteQuietly(file);
+			}
+		}
+		evict();
+	}
+
+	/**
+	 * @param file A file
+	 * @return the last modification time of the file, in milliseconds (0 if unknown)
+	 */
+	private static long getLastModifiedTime(Path file) {
+		try {
+			return Files.getLastModifiedTime(file).toMillis();
+		} catch (IOException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * @param metaFile A <code>.meta</code> file
+	 * @return the record described in the file, or null if it is invalid (or its body is missing)
+	 */
+	private Record readRecord(Path metaFile) {
+		Properties properties = new Properties();
+		try (InputStream in = Files.newInputStream(metaFile)) {
+			properties.load(in);
+			String hash = properties.getProperty(HASH_PROPERTY);
+			String bodyFile = properties.getProperty(BODY_PROPERTY);
+			if (hash == null || bodyFile == null || !metaFile.getFileName().toString().equals(hash + META_EXTENSION)) {
+				return null;
+			}
+			return new Record(
+				hash,
+				Integer.parseInt(properties.getProperty(STATUS_PROPERTY)),
+				properties.getProperty(HEADERS_PROPERTY, ""),
+				properties.getProperty(ETAG_PROPERTY),
+				properties.getProperty(LAST_MODIFIED_PROPERTY),
+				Charset.forName(properties.getProperty(CHARSET_PROPERTY, StandardCharsets.UTF_8.name())),
+				bodyFile,
+				Files.size(directory.resolve(bodyFile))
+			);
+		} catch (IOException | RuntimeException e) {
+			// Invalid or incomplete: ignore
+			return null;
+		}
+	}
+
+	/**
+	 * @param key The key of the request
+	 * @return the stored response, with its body mapped in memory, or null if none (or if it cannot be read)
+	 */
+	HttpResponseCache.Entry get(String key) {
+		Record record;
+		synchronized (this) {
+			record = records.get(hash(key));
+		}
+		if (record == null) {
+			return null;
+		}
+
+		// Map the body (the mapping remains valid even if the file is deleted afterward)
+		HttpResponse response = new HttpResponse();
+		response.setStatusCode(record.statusCode);
+		for (String header : record.headers.split("\n")) {
+			int colon = header.indexOf(": ");
+			if (colon > 0) {
+				response.appendHeader(header.substring(0, colon), header.substring(colon + 2));
+			}
+		}
+		try (FileChannel channel = FileChannel.open(directory.resolve(record.bodyFile), StandardOpenOption.READ)) {
+			ByteBuffer body = record.size > 0 ? channel.map(FileChannel.MapMode.READ_ONLY, 0, record.size) : ByteBuffer.allocate(0);
+			response.setBody(body, record.charset);
+		} catch (IOException e) {
+			// The file has been deleted or replaced in the meantime
+			return null;
+		}
+		return new HttpResponseCache.Entry(response, record.etag, record.lastModified, record.size);
+	}
+
+	/**
+	 * Store the specified response (replacing the previous one, if any)
+	 *
+	 * @param key The key of the request
+	 * @param response The response
+	 * @param etag Its entity tag (may be null)
+	 * @param lastModified Its last modification date (may be null)
+	 * @throws IOException when the files cannot be written
+	 */
+	void put(String key, HttpResponse response, String etag, String lastModified) throws IOException {
+		ByteBuffer body = response.getBodyBuffer();
+		if (body.remaining() > maxBytes) {
+			remove(key);
+			return;
+		}
+
+		// Write the body in a new file
+		String hash = hash(key);
+		String bodyFile = hash + "-" + versionCounter.incrementAndGet() + BODY_EXTENSION;
+		Path bodyPath = directory.resolve(bodyFile);
+		Path tempMetaPath = directory.resolve(bodyFile + TEMP_EXTENSION);
+		try {
+			try (
+				FileChannel channel = FileChannel.open(
+					bodyPath,
+					StandardOpenOption.CREATE_NEW,
+					StandardOpenOption.WRITE
+				)
+			) {
+				while (body.hasRemaining()) {
+					channel.write(body);
+				}
+			}
+			store(hash, response, etag, lastModified, bodyFile, bodyPath, tempMetaPath);
+		} catch (IOException e) {
+			// Don't leave incomplete files behind
+			deleteQuietly(bodyPath);
+			deleteQuietly(tempMetaPath);
+			throw e;
+		}
+	}
+
+	/**
+	 * Replace the status and headers of the stored response to the specified request, if any (its body file is kept)
+	 *
+	 * @param key The key of the request
+	 * @param response The response, with the same body as the stored one
+	 * @param etag Its entity tag (may be null)
+	 * @param lastModified Its last modification date (may be null)
+	 * @throws IOException when the description cannot be written (or the body file has been replaced meanwhile)
+	 */
+	void updateHeaders(String key, HttpResponse response, String etag, String lastModified) throws IOException {
+		String hash = hash(key);
+		Record record;
+		synchronized (this) {
+			record = records.get(hash);
+		}
+		if (record == null) {
+			return;
+		}
+
+		Path tempMetaPath = directory.resolve(record.bodyFile + "-" + versionCounter.incrementAndGet() + TEMP_EXTENSION);
+		try {
+			store(hash, response, etag, lastModified, record.bodyFile, directory.resolve(record.bodyFile), tempMetaPath);
+		} catch (IOException e) {
+			deleteQuietly(tempMetaPath);
+			throw e;
+		}
+	}
+
+	/**
+	 * Write the description of a response whose body has been written, and replace the previous one
+	 *
+	 * @param hash The hash of the key of the request
+	 * @param response The response
+	 * @param etag Its entity tag (may be null)
+	 * @param lastModified Its last modification date (may be null)
+	 * @param bodyFile The name of the file of its body
+	 * @param bodyPath The file of its body
+	 * @param tempMetaPath The temporary file to write its description to
+	 * @throws IOException when the description cannot be written
+	 */
+	private void store(
+		String hash,
+		HttpResponse response,
+		String etag,
+		String lastModified,
+		String bodyFile,
+		Path bodyPath,
+		Path tempMetaPath
+	) throws IOException {
+
+		// Its description, replaced atomically
+		Record record = new Record(
+			hash,
+			response.getStatusCode(),
+			response.getHeader(),
+			etag,
+			lastModified,
+			response.getBodyCharset(),
+			bodyFile,
+			Files.size(bodyPath)
+		);
+		Properties properties = new Properties();
+		properties.setProperty(HASH_PROPERTY, record.hash);
+		properties.setProperty(STATUS_PROPERTY, String.valueOf(record.statusCode));
+		properties.setProperty(HEADERS_PROPERTY, record.headers);
+		if (etag != null) {
+			properties.setProperty(ETAG_PROPERTY, etag);
+		}
+		if (lastModified != null) {
+			properties.setProperty(LAST_MODIFIED_PROPERTY, lastModified);
+		}
+		properties.setProperty(CHARSET_PROPERTY, record.charset.name());
+		properties.setProperty(BODY_PROPERTY, bodyFile);
+		try (OutputStream out = Files.newOutputStream(tempMetaPath)) {
+			properties.store(out, null);
+		}
+
+		synchronized (this) {
+			Files.move(
+				tempMetaPath,
+				directory.resolve(record.hash + META_EXTENSION),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE
+			);
+			Record previous = records.put(record.hash, record);
+			totalBytes += record.size;
+			if (previous != null) {
+				totalBytes -= previous.size;
+				if (!previous.bodyFile.equals(record.bodyFile)) {
+					deleteQuietly(directory.resolve(previous.bodyFile));
+				}
+			}
+			evict();
+		}
+	}
+
+	/**
+	 * Remove the stored response to the specified request, if any
+	 *
+	 * @param key The key of the request
+	 */
+	synchronized void remove(String key) {
+		Record record = records.remove(hash(key));
+		if (record != null) {
+			delete(record);
+		}
+	}
+
+	/**
+	 * Remove all the stored responses
+	 */
+	synchronized void clear() {
+		records.values().forEach(this::delete);
+		records.clear();
+	}
+
+	/**
+	 * Delete the least recently used responses, until the total size fits within the maximum
+	 */
+	private synchronized void evict() {
+		Iterator<Record> iterator = records.values().iterator();
+		while (totalBytes > maxBytes && iterator.hasNext()) {
+			Record record = iterator.next();
+			iterator.remove();
+			delete(record);
+		}
+	}
+
+	/**
+	 * Delete the files of the specified response
+	 *
+	 * @param record The stored response
+	 */
+	private void delete(Record record) {
+		totalBytes -= record.size;
+		deleteQuietly(directory.resolve(record.hash + META_EXTENSION));
+		deleteQuietly(directory.resolve(record.bodyFile));
+	}
+
+	/**
+	 * Delete the specified file, if possible
+	 * <p>
+	 * On Windows, a file cannot be deleted while it is mapped in memory: it will be deleted when loading the
+	 * directory next time.
+	 * </p>
+	 *
+	 * @param file The file to delete
+	 */
+	private static void deleteQuietly(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			// Still mapped, or not accessible: ignore
+		}
+	}
+
+	/**
+	 * @return the number of stored responses
+	 */
+	synchronized int getEntryCount() {
+		return records.size();
+	}
+
+	/**
+	 * @return the total size of the stored bodies, in bytes
+	 */
+	synchronized long getSize() {
+		return totalBytes;
+	}
+
+	/**
+	 * @param value The key of a request (or any value that must not be stored as is)
+	 * @return the SHA-256 hash of the value, in hexadecimal (e.g. to name the files of a response)
+	 */
+	static String hash(String value) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// SHA-256 is supported by all the JREs
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * A stored response
+	 */
+	private static class Record {
+
+		private final String hash;
+		private final int statusCode;
+		private final String headers;
+		private final String etag;
+		private final String lastModified;
+		private final Charset charset;
+		private final String bodyFile;
+		private final long size;
+
+		/**
+		 * @param hash The hash of the key of the request
+		 * @param statusCode The status code of the response
+		 * @param headers The headers of the response (<code>name: value</code> lines)
+		 * @param etag Its entity tag (may be null)
+		 * @param lastModified Its last modification date (may be null)
+		 * @param charset The charset of its body
+		 * @param bodyFile The name of the file of its body
+		 * @param size The size of its body
+		 */
+		Record(
+			String hash,
+			int statusCode,
+			String headers,
+			String etag,
+			String lastModified,
+			Charset charset,
+			String bodyFile,
+			long size
+		) {
+			this.hash = hash;
+			this.statusCode = statusCode;
+			this.headers = headers;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.charset = charset;
+			this.bodyFile = bodyFile;
+			this.size = size;
+		}
+	}
+}
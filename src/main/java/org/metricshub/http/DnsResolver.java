@@ -0,0 +1,51 @@
+package org.metricshub.http;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * HTTP Java Client
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 MetricsHub
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Resolves the host names of the servers that {@link HttpClient} connects to
+ * (see {@link HttpClient.Builder#dnsResolver(DnsResolver)}).
+ * <p>
+ * The implementations must be thread-safe. See {@link CachingDnsResolver}, which keeps the resolved addresses in a
+ * cache of its own, instead of the cache of the JVM.
+ * </p>
+ */
+@FunctionalInterface
+public interface DnsResolver {
+	/**
+	 * Resolve the specified host name
+	 *
+	 * @param host The host name (or IP address) of the server
+	 * @return the addresses of the host, in the order they should be tried (at least one)
+	 * @throws UnknownHostException when the host name cannot be resolved
+	 */
+	InetAddress[] resolve(String host) throws UnknownHostException;
+
+	/**
+	 * @return the resolver of the JVM ({@link InetAddress#getAllByName(String)}), with its cache
+	 */
+	static DnsResolver system() {
+		return InetAddress::getAllByName;
+	}
+}
@@ -0,0 +1,461 @@
+package org.metricshub.http;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * HTTP Java Client
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 MetricsHub
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the requests of an {@link HttpClient} to each host (<code>host:port</code>), to protect the fragile servers:
+ * <ul>
+ * <li>a bulkhead: a maximum number of requests sent at the same time to the host</li>
+ * <li>a rate limit: a token bucket, refilled with a number of requests per second, up to a maximum burst</li>
+ * </ul>
+ * <p>
+ * A request that exceeds the limits of its host either waits (up to a maximum time), or fails right away
+ * (fast-fail mode), with a {@link RejectedRequestException}. The limits apply to each exchange with the server
+ * (each segment of a segmented download, for instance), and the other hosts are not affected.
+ * </p>
+ * <p>
+ * The default limits apply to all the hosts, and can be overridden for specific hosts (<code>host</code> or
+ * <code>host:port</code>). The throttle can be shared by several clients, and is thread-safe.
+ * </p>
+ * <pre>
+ * HostThrottle throttle = HostThrottle.builder()
+ *     .maxConcurrentRequests(4)
+ *     .rateLimit(20, 40)
+ *     .host("bmc01.example.com", 1, 2, 2)
+ *     .maxWait(30, TimeUnit.SECONDS)
+ *     .build();
+ * HttpClient client = HttpClient.builder().hostThrottle(throttle).build();
+ * </pre>
+ */
+public class HostThrottle {
+
+	private final Limits defaultLimits;
+	private final Map<String, Limits> hostLimits;
+
+	/**
+	 * Maximum time to wait for the limits of a host, in nanoseconds (0 to fail right away)
+	 */
+	private final long maxWaitNanos;
+
+	/**
+	 * State of each host, by <code>host:port</code>
+	 */
+	private final ConcurrentHashMap<String, Host> hosts = new ConcurrentHashMap<>();
+
+	private final AtomicLong queuedCount = new AtomicLong();
+	private final AtomicLong rejectedCount = new AtomicLong();
+
+	/**
+	 * Create a new HostThrottle with the settings of the specified {@link Builder}
+	 *
+	 * @param builder The builder with all the settings
+	 */
+	private HostThrottle(Builder builder) {
+		defaultLimits = builder.defaultLimits;
+		hostLimits = Collections.unmodifiableMap(new HashMap<>(builder.hostLimits));
+		maxWaitNanos = builder.maxWaitNanos;
+	}
+
+	/**
+	 * @return a new {@link Builder} to configure a HostThrottle
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * Wait until a request may be sent to the specified host
+	 *
+	 * @param hostKey The host and port of the server (<code>host:port</code>, in lower case)
+	 * @return the host, to release once the request has completed
+	 * @throws RejectedRequestException when the limits of the host are exceeded, and waiting is not allowed (or too
+	 * long)
+	 * @throws InterruptedIOException when the current thread is interrupted while waiting
+	 */
+	Host acquire(String hostKey) throws IOException {
+		Host host = hosts.computeIfAbsent(hostKey, this::newHost);
+		long start = System.nanoTime();
+		boolean queued = false;
+
+		try {
+			// Bulkhead: a slot among the concurrent requests of the host
+			if (host.slots != null && !host.slots.tryAcquire()) {
+				if (maxWaitNanos == 0) {
+					throw reject(host, "Too many concurrent requests to " + hostKey);
+				}
+				countQueued(host);
+				queued = true;
+				if (!host.slots.tryAcquire(getRemainingWait(start), TimeUnit.NANOSECONDS)) {
+					throw reject(host, "Timed out waiting for a concurrent request to " + hostKey + " to complete");
+				}
+			}
+
+			// Rate limit: a token of the bucket of the host (possibly a future one)
+			long waitNanos = host.reserveToken(getRemainingWait(start));
+			if (waitNanos < 0) {
+				host.release();
+				throw reject(host, "Rate limit exceeded for " + hostKey);
+			}
+			if (waitNanos > 0) {
+				if (!queued) {
+					countQueued(host);
+				}
+				try {
+					TimeUnit.NANOSECONDS.sleep(waitNanos);
+				} catch (InterruptedException e) {
+					host.release();
+					throw e;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the limits of " + hostKey);
+		}
+		return host;
+	}
+
+	/**
+	 * @param start When the request started to wait (see {@link System#nanoTime()})
+	 * @return the time the request may still wait, in nanoseconds
+	 */
+	private long getRemainingWait(long start) {
+		if (maxWaitNanos == Long.MAX_VALUE) {
+			return Long.MAX_VALUE;
+		}
+		return Math.max(0, maxWaitNanos - (System.nanoTime() - start));
+	}
+
+	/**
+	 * @param hostKey The host and port of the server (<code>host:port</code>)
+	 * @return a new host, with its limits
+	 */
+	private Host newHost(String hostKey) {
+		Limits limits = hostLimits.get(hostKey);
+		if (limits == null) {
+			int colon = hostKey.lastIndexOf(':');
+			limits = hostLimits.getOrDefault(colon > 0 ? hostKey.substring(0, colon) : hostKey, defaultLimits);
+		}
+		return new Host(limits);
+	}
+
+	/**
+	 * Count a request that has to wait
+	 *
+	 * @param host The host of the request
+	 */
+	private void countQueued(Host host) {
+		queuedCount.incrementAndGet();
+		host.queuedCount.incrementAndGet();
+	}
+
+	/**
+	 * Count a rejected request
+	 *
+	 * @param host The host of the request
+	 * @param message The reason of the rejection
+	 * @return the exception to throw
+	 */
+	private RejectedRequestException reject(Host host, String message) {
+		rejectedCount.incrementAndGet();
+		host.rejectedCount.incrementAndGet();
+		return new RejectedRequestException(message);
+	}
+
+	/**
+	 * @return the number of requests that had to wait for the limits of their host, all hosts
+	 */
+	public long getQueuedCount() {
+		return queuedCount.get();
+	}
+
+	/**
+	 * @return the number of requests rejected because of the limits of their host, all hosts
+	 */
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	/**
+	 * @param hostPort The host and port of the server (<code>host:port</code>)
+	 * @return the number of requests to the specified host that had to wait
+	 */
+	public long getQueuedCount(String hostPort) {
+		Host host = hosts.get(hostPort.toLowerCase(Locale.ROOT));
+		return host == null ? 0 : host.queuedCount.get();
+	}
+
+	/**
+	 * @param hostPort The host and port of the server (<code>host:port</code>)
+	 * @return the number of requests to the specified host that have been rejected
+	 */
+	public long getRejectedCount(String hostPort) {
+		Host host = hosts.get(hostPort.toLowerCase(Locale.ROOT));
+		return host == null ? 0 : host.rejectedCount.get();
+	}
+
+	/**
+	 * @param hostPort The host and port of the server (<code>host:port</code>)
+	 * @return the number of requests being sent to the specified host (only when its concurrency is limited)
+	 */
+	public int getActiveCount(String hostPort) {
+		Host host = hosts.get(hostPort.toLowerCase(Locale.ROOT));
+		return host == null || host.slots == null ? 0 : host.limits.maxConcurrentRequests - host.slots.availablePermits();
+	}
+
+	/**
+	 * @return the hosts (<code>host:port</code>) to which at least one request has been sent
+	 */
+	public Set<String> getHosts() {
+		return Collections.unmodifiableSet(hosts.keySet());
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuilder()
+			.append("Host throttle: ")
+			.append(getQueuedCount())
+			.append(" queued, ")
+			.append(getRejectedCount())
+			.append(" rejected")
+			.toString();
+	}
+
+	/**
+	 * Thrown when a request exceeds the limits of its host, and cannot wait
+	 */
+	public static class RejectedRequestException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * @param message The reason of the rejection
+		 */
+		public RejectedRequestException(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * The limits of a host
+	 */
+	private static class Limits {
+
+		private final int maxConcurrentRequests;
+		private final double requestsPerSecond;
+		private final int burst;
+
+		/**
+		 * @param maxConcurrentRequests Maximum number of requests at the same time (0 for no limit)
+		 * @param requestsPerSecond Number of requests per second (0 for no limit)
+		 * @param burst Maximum number of requests sent at once, when the host has been idle
+		 */
+		Limits(int maxConcurrentRequests, double requestsPerSecond, int burst) {
+			if (maxConcurrentRequests < 0) {
+				throw new IllegalArgumentException("Invalid maximum number of concurrent requests: " + maxConcurrentRequests);
+			}
+			if (requestsPerSecond < 0 || Double.isNaN(requestsPerSecond) || Double.isInfinite(requestsPerSecond)) {
+				throw new IllegalArgumentException("Invalid number of requests per second: " + requestsPerSecond);
+			}
+			if (requestsPerSecond > 0 && burst < 1) {
+				throw new IllegalArgumentException("Invalid burst: " + burst);
+			}
+			this.maxConcurrentRequests = maxConcurrentRequests;
+			this.requestsPerSecond = requestsPerSecond;
+			this.burst = burst;
+		}
+	}
+
+	/**
+	 * The state of a host: its concurrent requests and its token bucket
+	 */
+	static class Host {
+
+		private final Limits limits;
+
+		/**
+		 * Slots of the concurrent requests (null for no limit)
+		 */
+		private final Semaphore slots;
+
+		/**
+		 * Tokens in the bucket (negative when future tokens are reserved by waiting requests)
+		 */
+		private double tokens;
+		private long refillTime = System.nanoTime();
+
+		private final AtomicLong queuedCount = new AtomicLong();
+		private final AtomicLong rejectedCount = new AtomicLong();
+
+		/**
+		 * @param limits The limits of the host
+		 */
+		Host(Limits limits) {
+			this.limits = limits;
+			this.slots = limits.maxConcurrentRequests > 0 ? new Semaphore(limits.maxConcurrentRequests, true) : null;
+			this.tokens = limits.burst;
+		}
+
+		/**
+		 * Take a token from the bucket, now or in the future
+		 *
+		 * @param maxWaitNanos Maximum time to wait for a token, in nanoseconds
+		 * @return the time to wait before sending the request, in nanoseconds (0 to send it right away), or -1 if it
+		 * would be longer than the maximum (no token is taken)
+		 */
+		private synchronized long reserveToken(long maxWaitNanos) {
+			if (limits.requestsPerSecond <= 0) {
+				return 0;
+			}
+
+			// Refill the bucket, up to the burst
+			long now = System.nanoTime();
+			tokens = Math.min(limits.burst, tokens + (now - refillTime) * limits.requestsPerSecond / 1_000_000_000d);
+			refillTime = now;
+
+			if (tokens >= 1) {
+				tokens--;
+				return 0;
+			}
+			long waitNanos = (long) Math.ceil((1 - tokens) / limits.requestsPerSecond * 1_000_000_000d);
+			if (waitNanos > maxWaitNanos) {
+				return -1;
+			}
+			tokens--;
+			return waitNanos;
+		}
+
+		/**
+		 * Record that a request to this host has completed, and free its slot
+		 */
+		void release() {
+			if (slots != null) {
+				slots.release();
+			}
+		}
+	}
+
+	/**
+	 * Builder of {@link HostThrottle} instances.
+	 * <p>
+	 * By default, there is no limit, and the requests wait as long as needed.
+	 * </p>
+	 */
+	public static class Builder {
+
+		private int maxConcurrentRequests;
+		private double requestsPerSecond;
+		private int burst;
+		private Limits defaultLimits = new Limits(0, 0, 0);
+		private final Map<String, Limits> hostLimits = new HashMap<>();
+		private long maxWaitNanos = Long.MAX_VALUE;
+
+		/**
+		 * Use {@link HostThrottle#builder()}
+		 */
+		private Builder() {}
+
+		/**
+		 * @param maxConcurrentRequests Maximum number of requests sent at the same time to each host (0 for no
+		 * limit)
+		 * @return this builder
+		 */
+		public Builder maxConcurrentRequests(int maxConcurrentRequests) {
+			this.maxConcurrentRequests = maxConcurrentRequests;
+			defaultLimits = new Limits(maxConcurrentRequests, requestsPerSecond, burst);
+			return this;
+		}
+
+		/**
+		 * @param requestsPerSecond Number of requests per second to each host, on average (0 for no limit)
+		 * @param burst Maximum number of requests sent at once to a host that has been idle
+		 * @return this builder
+		 */
+		public Builder rateLimit(double requestsPerSecond, int burst) {
+			this.requestsPerSecond = requestsPerSecond;
+			this.burst = burst;
+			defaultLimits = new Limits(maxConcurrentRequests, requestsPerSecond, burst);
+			return this;
+		}
+
+		/**
+		 * Override the default limits for the specified host
+		 *
+		 * @param host The host (<code>host</code> for all its ports, or <code>host:port</code>)
+		 * @param maxConcurrentRequests Maximum number of requests sent at the same time to the host (0 for no limit)
+		 * @param requestsPerSecond Number of requests per second to the host, on average (0 for no limit)
+		 * @param burst Maximum number of requests sent at once to the host when it has been idle
+		 * @return this builder
+		 */
+		public Builder host(String host, int maxConcurrentRequests, double requestsPerSecond, int burst) {
+			if (host == null || host.isEmpty()) {
+				throw new IllegalArgumentException("Host must not be empty");
+			}
+			hostLimits.put(host.toLowerCase(Locale.ROOT), new Limits(maxConcurrentRequests, requestsPerSecond, burst));
+			return this;
+		}
+
+		/**
+		 * Make the requests that exceed the limits of their host wait, up to the specified time (by default, they
+		 * wait as long as needed)
+		 *
+		 * @param maxWait Maximum time to wait (0 to fail right away)
+		 * @param unit Unit of maxWait
+		 * @return this builder
+		 */
+		public Builder maxWait(long maxWait, TimeUnit unit) {
+			if (maxWait < 0) {
+				throw new IllegalArgumentException("Maximum wait must not be negative");
+			}
+			this.maxWaitNanos = unit.toNanos(maxWait);
+			return this;
+		}
+
+		/**
+		 * Make the requests that exceed the limits of their host fail right away, with a
+		 * {@link RejectedRequestException}
+		 *
+		 * @return this builder
+		 */
+		public Builder failFast() {
+			this.maxWaitNanos = 0;
+			return this;
+		}
+
+		/**
+		 * @return a new {@link HostThrottle} with the settings of this builder
+		 */
+		public HostThrottle build() {
+			return new HostThrottle(this);
+		}
+	}
+}
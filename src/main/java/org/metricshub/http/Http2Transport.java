@@ -0,0 +1,90 @@
+package org.metricshub.http;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * HTTP Java Client
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 MetricsHub
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.io.IOException;
+import java.net.ProxySelector;
+import java.net.URL;
+import java.util.Map;
+import javax.net.ssl.SSLContext;
+
+/**
+ * Sends the requests of an {@link HttpClient} with the <code>java.net.http</code> client of the JRE,
+ * which negotiates HTTP/2 and multiplexes the concurrent requests to the same server over a single connection.
+ * <p>
+ * This is the Java 8 version of this class: <code>java.net.http</code> is not available, so no transport is
+ * created and {@link HttpClient} sends all requests with HttpURLConnection.
+ * </p>
+ * <p>
+ * With Java 21 and later, the version of this class located in <code>META-INF/versions/21</code>
+ * is used instead.
+ * </p>
+ */
+class Http2Transport {
+
+	/**
+	 * No instance with Java 8
+	 */
+	private Http2Transport() {}
+
+	/**
+	 * Creates the transport, if java.net.http is available in this JRE
+	 *
+	 * @param sslContext The SSL context of the HTTPS connections
+	 * @param sslProtocols The SSL protocols to enable (null to use the default ones)
+	 * @param proxySelector Selects the proxy to connect through (null for a direct connection)
+	 * @param proxyUsername Username to connect to the proxy (if any)
+	 * @param proxyPassword Password associated to the proxy username
+	 * @return null, as java.net.http is not available
+	 */
+	static Http2Transport create(
+		SSLContext sslContext,
+		String[] sslProtocols,
+		ProxySelector proxySelector,
+		String proxyUsername,
+		char[] proxyPassword
+	) {
+		return null;
+	}
+
+	/**
+	 * Send an HTTP request
+	 *
+	 * @param url The URL to be requested
+	 * @param method GET|POST|PUT|DELETE or whatever HTTP verb is supported
+	 * @param headers Headers of the request
+	 * @param body Body of the request (null for no body)
+	 * @param timeout Timeout in seconds before the operation is canceled
+	 * @param expectContinue Whether to wait for the server to accept the request before sending the body
+	 * @return the response, or null if this transport cannot send this request
+	 * @throws IOException when anything wrong happens during the connection
+	 */
+	RawResponse send(
+		URL url,
+		String method,
+		Map<String, String> headers,
+		RequestBody body,
+		int timeout,
+		boolean expectContinue
+	) throws IOException {
+		return null;
+	}
+}
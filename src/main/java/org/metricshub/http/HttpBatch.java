@@ -0,0 +1,571 @@
+package org.metricshub.http;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * HTTP Java Client
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 MetricsHub
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * A batch of requests sent by an {@link HttpClient}, with a maximum number of concurrent requests overall, and per
+ * host (see {@link HttpClient#sendBatch(Collection, int, int)}).
+ * <p>
+ * The requests are dispatched in turn to each host (<code>host:port</code>), so that a host with many requests
+ * doesn't delay the other hosts, and the results are delivered as soon as the requests complete, with
+ * {@link #take()} or {@link #forEach(Consumer)}. A failed request doesn't fail the batch: its result holds its
+ * exception.
+ * </p>
+ * <p>
+ * The pending requests are kept in the batch, not in the executor of the client, which only runs the requests being
+ * sent.
+ * </p>
+ * <pre>
+ * HttpBatch batch = client.sendBatch(requests, 64, 2);
+ * batch.forEach(result -&gt; {
+ *     if (result.isSuccess()) {
+ *         process(result.getRequest(), result.getResponse());
+ *     } else {
+ *         log(result.getRequest(), result.getException());
+ *     }
+ * });
+ * </pre>
+ */
+public class HttpBatch {
+
+	/**
+	 * Sends a single request of the batch
+	 */
+	interface Sender {
+		/**
+		 * @param request The request to send
+		 * @return the response
+		 * @throws IOException when the request fails
+		 */
+		HttpResponse send(HttpRequest request) throws IOException;
+	}
+
+	private final int size;
+	private final int maxConcurrency;
+	private final int maxConcurrencyPerHost;
+	private final Executor executor;
+	private final Sender sender;
+
+	/**
+	 * Completed requests, not taken yet
+	 */
+	private final LinkedBlockingQueue<Result> results = new LinkedBlockingQueue<>();
+
+	/**
+	 * Number of results not taken yet (including the ones of the requests not completed yet)
+	 */
+	private final AtomicInteger remainingCount;
+
+	/**
+	 * Hosts that have pending requests and may send one more, in turn
+	 */
+	private final ArrayDeque<Host> readyHosts = new ArrayDeque<>();
+
+	/**
+	 * All the hosts, by <code>host:port</code>
+	 */
+	private final Map<String, Host> hosts = new HashMap<>();
+
+	private int runningCount;
+	private int queuedCount;
+	private int completedCount;
+
+	/**
+	 * Whether a thread is dispatching the pending requests
+	 */
+	private boolean dispatching;
+
+	/**
+	 * Whether the state changed while a thread was dispatching, so that it must dispatch again
+	 */
+	private boolean dispatchAgain;
+
+	/**
+	 * Create the batch, and start sending its requests
+	 *
+	 * @param requests The requests to send
+	 * @param maxConcurrency Maximum number of requests sent at the same time
+	 * @param maxConcurrencyPerHost Maximum number of requests sent at the same time to the same host
+	 * @param executor Executor that runs the requests
+	 * @param sender Sends each request
+	 */
+	HttpBatch(
+		Collection<HttpRequest> requests,
+		int maxConcurrency,
+		int maxConcurrencyPerHost,
+		Executor executor,
+		Sender sender
+	) {
+		if (maxConcurrency < 1) {
+			throw new IllegalArgumentException("Invalid maximum concurrency: " + maxConcurrency);
+		}
+		if (maxConcurrencyPerHost < 1) {
+			throw new IllegalArgumentException("Invalid maximum concurrency per host: " + maxConcurrencyPerHost);
+		}
+		this.size = requests.size();
+		this.maxConcurrency = maxConcurrency;
+		this.maxConcurrencyPerHost = maxConcurrencyPerHost;
+		this.executor = executor;
+		this.sender = sender;
+		this.remainingCount = new AtomicInteger(size);
+
+		// Queue the requests by host
+		int index = 0;
+		synchronized (this) {
+			for (HttpRequest request : requests) {
+				Task task = new Task(index++, request);
+				Host host = hosts.computeIfAbsent(getHostKey(request.getParsedUrl()), k -> new Host());
+				if (host.pendingTasks.isEmpty()) {
+					readyHosts.add(host);
+				}
+				host.pendingTasks.add(task);
+				queuedCount++;
+			}
+		}
+		dispatch();
+	}
+
+	/**
+	 * @param url A URL
+	 * @return the <code>host:port</code> of the URL, in lower case
+	 * @throws MalformedURLException when the URL is invalid
+	 */
+	static String getHostKey(String url) throws MalformedURLException {
+		return getHostKey(new URL(url));
+	}
+
+	/**
+	 * @param url A URL
+	 * @return the <code>host:port</code> of the URL, in lower case
+	 */
+	static String getHostKey(URL url) {
+		int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+		return url.getHost().toLowerCase(Locale.ROOT) + ":" + port;
+	}
+
+	/**
+	 * Start as many pending requests as the limits allow, taking the hosts in turn.
+	 * <p>
+	 * Only one thread dispatches at a time, in a loop: a request that completes meanwhile (possibly in the same thread,
+	 * when the executor runs it in the caller thread) only makes that thread loop again, so the calls never nest. The
+	 * requests rejected by the executor go back to the front of their host queue, and are sent by the running requests
+	 * when they complete. When no other request of the batch is running, the current thread sends one of them itself,
+	 * unless the executor has been shut down, in which case they fail. A request that the executor fails to start with
+	 * any other exception fails with this exception.
+	 * </p>
+	 */
+	private void dispatch() {
+		synchronized (this) {
+			if (dispatching) {
+				dispatchAgain = true;
+				return;
+			}
+			dispatching = true;
+		}
+
+		// Whatever happens, let the next calls dispatch
+		boolean dispatched = false;
+		try {
+			dispatchPending();
+			dispatched = true;
+		} finally {
+			if (!dispatched) {
+				synchronized (this) {
+					dispatching = false;
+					dispatchAgain = false;
+				}
+			}
+		}
+	}
+
+	/**
+	 * The loop of {@link #dispatch()}, in the dispatching thread (which it releases when there is nothing more to
+	 * dispatch)
+	 */
+	private void dispatchPending() {
+		List<Task> tasks = new ArrayList<>();
+		List<Task> rejectedTasks = new ArrayList<>();
+		RejectedExecutionException rejection = null;
+		while (true) {
+			Task callerTask = null;
+			synchronized (this) {
+				// Requeue the rejected requests, or fail them if nothing will ever send them
+				if (!rejectedTasks.isEmpty()) {
+					boolean requeue = runningCount > rejectedTasks.size();
+					boolean shutdown = executor instanceof ExecutorService && ((ExecutorService) executor).isShutdown();
+					for (Task task : rejectedTasks) {
+						if (!requeue && !shutdown && callerTask == null) {
+							// Nothing else would send it: it keeps its place among the running requests
+							callerTask = task;
+							continue;
+						}
+						Host host = task.host;
+						boolean ready = !host.pendingTasks.isEmpty() && host.runningCount < maxConcurrencyPerHost;
+						host.runningCount--;
+						runningCount--;
+						if (!shutdown) {
+							host.pendingTasks.addFirst(task);
+							queuedCount++;
+						} else {
+							complete(task, null, rejection);
+						}
+						if (!ready && !host.pendingTasks.isEmpty()) {
+							readyHosts.add(host);
+						}
+					}
+					rejectedTasks.clear();
+					if (requeue) {
+						// The executor is saturated: the running requests will send the next ones
+						dispatching = false;
+						dispatchAgain = false;
+						return;
+					}
+				}
+				dispatchAgain = false;
+
+				Task task;
+				while (callerTask == null && (task = pollTask()) != null) {
+					tasks.add(task);
+				}
+				if (callerTask == null && tasks.isEmpty()) {
+					dispatching = false;
+					return;
+				}
+			}
+
+			if (callerTask != null) {
+				send(callerTask, false);
+				continue;
+			}
+
+			// Submit the requests outside of the lock
+			for (Task task : tasks) {
+				try {
+					executor.execute(() -> run(task));
+				} catch (RejectedExecutionException e) {
+					rejection = e;
+					rejectedTasks.add(task);
+				} catch (RuntimeException e) {
+					// The executor is broken: the request will never run
+					release(task, null, e, false);
+				}
+			}
+			tasks.clear();
+		}
+	}
+
+	/**
+	 * Take the next request to send, from the next host in turn, and count it as running (with the lock held)
+	 *
+	 * @return the request, or null if there is none, or if the limits don't allow sending one more request
+	 */
+	private Task pollTask() {
+		if (runningCount >= maxConcurrency || readyHosts.isEmpty()) {
+			return null;
+		}
+		Host host = readyHosts.poll();
+		Task task = host.pendingTasks.poll();
+		task.host = host;
+		host.runningCount++;
+		runningCount++;
+		queuedCount--;
+		if (!host.pendingTasks.isEmpty() && host.runningCount < maxConcurrencyPerHost) {
+			readyHosts.add(host);
+		}
+		return task;
+	}
+
+	/**
+	 * Send the specified request and record its result, then send the next requests in the same thread, as long as
+	 * the limits allow
+	 *
+	 * @param task The request of the batch
+	 */
+	private void run(Task task) {
+		while (task != null) {
+			task = send(task, true);
+		}
+	}
+
+	/**
+	 * Send the specified request, and record its result
+	 *
+	 * @param task The request of the batch
+	 * @param takeNext Whether to take the next request to send in the current thread
+	 * @return the next request to send in the current thread, or null if there is none
+	 */
+	private Task send(Task task, boolean takeNext) {
+		HttpResponse response = null;
+		Throwable exception = null;
+		try {
+			response = sender.send(task.request);
+		} catch (Throwable t) {
+			exception = t;
+		}
+		return release(task, response, exception, takeNext);
+	}
+
+	/**
+	 * Record the result of a request that has been started, and start the next ones
+	 *
+	 * @param task The request of the batch
+	 * @param response Its response (null if it failed)
+	 * @param exception Its exception (null if it succeeded)
+	 * @param takeNext Whether to take the next request to send in the current thread
+	 * @return the next request to send in the current thread, or null if there is none
+	 */
+	private Task release(Task task, HttpResponse response, Throwable exception, boolean takeNext) {
+		Task next;
+		boolean more;
+		synchronized (this) {
+			Host host = task.host;
+			if (host.runningCount-- == maxConcurrencyPerHost && !host.pendingTasks.isEmpty()) {
+				// The host was saturated, it may send again
+				readyHosts.add(host);
+			}
+			runningCount--;
+			complete(task, response, exception);
+			next = takeNext ? pollTask() : null;
+			more = runningCount < maxConcurrency && !readyHosts.isEmpty();
+		}
+
+		// Start the requests that a previous rejection left behind
+		if (more) {
+			dispatch();
+		}
+		return next;
+	}
+
+	/**
+	 * Deliver the result of a request
+	 *
+	 * @param task The request of the batch
+	 * @param response Its response (null if it failed)
+	 * @param exception Its exception (null if it succeeded)
+	 */
+	private synchronized void complete(Task task, HttpResponse response, Throwable exception) {
+		completedCount++;
+		results.add(new Result(task.index, task.request, response, exception));
+	}
+
+	/**
+	 * Wait for the next completed request
+	 *
+	 * @return the result of the next completed request, or null if all the results have been taken
+	 * @throws InterruptedException when the current thread is interrupted while waiting
+	 */
+	public Result take() throws InterruptedException {
+		if (remainingCount.getAndDecrement() <= 0) {
+			remainingCount.incrementAndGet();
+			return null;
+		}
+		try {
+			return results.take();
+		} catch (InterruptedException e) {
+			remainingCount.incrementAndGet();
+			throw e;
+		}
+	}
+
+	/**
+	 * Process the results of the requests as they complete, until all of them have completed
+	 *
+	 * @param action Processes each result (in the current thread)
+	 * @throws InterruptedException when the current thread is interrupted while waiting
+	 */
+	public void forEach(Consumer<? super Result> action) throws InterruptedException {
+		Result result;
+		while ((result = take()) != null) {
+			action.accept(result);
+		}
+	}
+
+	/**
+	 * Cancel the requests that have not been sent yet: their results hold a {@link CancellationException}. The
+	 * requests being sent complete normally.
+	 */
+	public void cancel() {
+		synchronized (this) {
+			readyHosts.clear();
+			for (Host host : hosts.values()) {
+				Task task;
+				while ((task = host.pendingTasks.poll()) != null) {
+					queuedCount--;
+					complete(task, null, new CancellationException("Batch canceled"));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the number of requests in this batch
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the number of requests waiting to be sent (because of the concurrency limits)
+	 */
+	public synchronized int getQueuedCount() {
+		return queuedCount;
+	}
+
+	/**
+	 * @return the number of requests being sent
+	 */
+	public synchronized int getRunningCount() {
+		return runningCount;
+	}
+
+	/**
+	 * @return the number of completed requests (successfully or not)
+	 */
+	public synchronized int getCompletedCount() {
+		return completedCount;
+	}
+
+	/**
+	 * @return whether all the requests have completed
+	 */
+	public synchronized boolean isDone() {
+		return completedCount == size;
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuilder()
+			.append("HTTP batch: ")
+			.append(getCompletedCount())
+			.append(" completed, ")
+			.append(getRunningCount())
+			.append(" running, ")
+			.append(getQueuedCount())
+			.append(" queued, out of ")
+			.append(size)
+			.toString();
+	}
+
+	/**
+	 * The result of a request of the batch
+	 */
+	public static class Result {
+
+		private final int index;
+		private final HttpRequest request;
+		private final HttpResponse response;
+		private final Throwable exception;
+
+		/**
+		 * @param index The position of the request in the batch
+		 * @param request The request
+		 * @param response Its response (null if it failed)
+		 * @param exception Its exception (null if it succeeded)
+		 */
+		Result(int index, HttpRequest request, HttpResponse response, Throwable exception) {
+			this.index = index;
+			this.request = request;
+			this.response = response;
+			this.exception = exception;
+		}
+
+		/**
+		 * @return the position of the request in the collection of requests of the batch
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		/**
+		 * @return the request
+		 */
+		public HttpRequest getRequest() {
+			return request;
+		}
+
+		/**
+		 * @return the response of the server (with any status code), or null if the request failed
+		 */
+		public HttpResponse getResponse() {
+			return response;
+		}
+
+		/**
+		 * @return the exception that made the request fail (typically an IOException), or null if it succeeded
+		 */
+		public Throwable getException() {
+			return exception;
+		}
+
+		/**
+		 * @return whether a response has been received
+		 */
+		public boolean isSuccess() {
+			return exception == null;
+		}
+	}
+
+	/**
+	 * A host of the batch, with its pending requests
+	 */
+	private static class Host {
+
+		private final ArrayDeque<Task> pendingTasks = new ArrayDeque<>();
+		private int runningCount;
+	}
+
+	/**
+	 * A request of the batch
+	 */
+	private static class Task {
+
+		private final int index;
+		private final HttpRequest request;
+		private Host host;
+
+		/**
+		 * @param index The position of the request in the batch
+		 * @param request The request
+		 */
+		Task(int index, HttpRequest request) {
+			this.index = index;
+			this.request = request;
+		}
+	}
+}
@@ -20,40 +20,84 @@ package org.metricshub.http;
  * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
  */
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.Authenticator;
+import java.net.ConnectException;
 import java.net.HttpURLConnection;
 import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
+import java.net.NoRouteToHostException;
+import java.net.ProtocolException;
 import java.net.Proxy;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.LongConsumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.InflaterInputStream;
+import java.util.stream.Stream;
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
-import javax.net.ssl.X509TrustManager;
+import javax.net.ssl.X509ExtendedTrustManager;
 
 /**
  * Simple HTTP Client implementation for Java's HttpURLConnection.<br>
  * It has no external dependencies and facilitates the execution of HTTP requests.
+ * <p>
+ * Requests can be sent with the static {@link #sendRequest(String, String, String[], String, char[], String, int, String, char[], String, Map, String, int, String)}
+ * method, which sets everything up for each request, or with an instance of HttpClient, configured once
+ * with its {@link Builder} (SSL protocols, proxy, user agent, default headers, etc.) and reused for all
+ * the requests:
+ * </p>
+ * <pre>
+ * HttpClient client = HttpClient.builder().sslProtocols("TLSv1.2").userAgent("MyAgent").build();
+ * HttpResponse response = client.sendRequest(url, "GET", username, password, null, null, 30, null);
+ * </pre>
+ * <p>
+ * An HttpClient instance is immutable and thread-safe.
+ * </p>
  */
 public class HttpClient {
 	static {
@@ -68,8 +112,22 @@ public class HttpClient {
 		"Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/51.0.2704.79 Safari/537.36 Edge/14.14393 org.metricshub.http";
 	private static final int MAX_CONTENT_LENGTH = 50 * 1024 * 1024; // 50 MB max
 	private static final int BUFFER_SIZE = 64 * 1024; // 64 KB chunks
+	private static final int DOWNLOAD_BUFFER_SIZE = 1024 * 1024; // 1 MB written at once to the downloaded files
+	private static final long RESUME_RECORD_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1); // Progress of resumable downloads recorded every second
 	private static final Charset UTF8_CHARSET = StandardCharsets.UTF_8;
 	private static final Pattern CHARSET_REGEX = Pattern.compile("charset=\\s*\"?([^; \"]+)", Pattern.CASE_INSENSITIVE);
+	private static final Pattern BASIC_CHALLENGE_REGEX = Pattern.compile("(^|,)\\s*Basic(\\s|$)", Pattern.CASE_INSENSITIVE);
+	private static final Pattern CONTENT_RANGE_REGEX = Pattern.compile("^\\s*bytes\\s+(\\d+)-(\\d+)/(\\d+|\\*)\\s*$");
+
+	/**
+	 * Content encodings that this client can decode, advertised in the <code>Accept-Encoding</code> header
+	 */
+	private static final String ACCEPTED_ENCODINGS = "gzip, deflate";
+
+	/**
+	 * Inflaters that decode the compressed responses, shared by all clients
+	 */
+	private static final InflaterPool INFLATER_POOL = new InflaterPool(32);
 
 	/**
 	 * Hostname verifier that doesn't verify sh*t
@@ -77,134 +135,2264 @@ public class HttpClient {
 	private static final HostnameVerifier LOUSY_HOSTNAME_VERIFIER = (String urlHostName, SSLSession session) -> true;
 
 	/**
-	 * Trust manager that welcomes any certificate from anywhere
+	 * Trust manager that welcomes any certificate from anywhere.
+	 * <p>
+	 * It is an X509ExtendedTrustManager, so that the JRE doesn't wrap it with the verification of the
+	 * host name, which java.net.http requests regardless of any HostnameVerifier.
+	 * </p>
 	 */
 	private static final TrustManager[] LOUSY_TRUST_MANAGER = new TrustManager[] {
-		new X509TrustManager() {
+		new X509ExtendedTrustManager() {
 			@Override
 			public java.security.cert.X509Certificate[] getAcceptedIssuers() {
 				return null;
 			}
 
-			@Override
-			public void checkClientTrusted(java.security.cert.X509Certificate[] certs, String authType) {}
-
-			@Override
-			public void checkServerTrusted(java.security.cert.X509Certificate[] certs, String authType) {}
+			@Override
+			public void checkClientTrusted(java.security.cert.X509Certificate[] certs, String authType) {}
+
+			@Override
+			public void checkServerTrusted(java.security.cert.X509Certificate[] certs, String authType) {}
+
+			@Override
+			public void checkClientTrusted(java.security.cert.X509Certificate[] certs, String authType, Socket socket) {}
+
+			@Override
+			public void checkServerTrusted(java.security.cert.X509Certificate[] certs, String authType, Socket socket) {}
+
+			@Override
+			public void checkClientTrusted(java.security.cert.X509Certificate[] certs, String authType, SSLEngine engine) {}
+
+			@Override
+			public void checkServerTrusted(java.security.cert.X509Certificate[] certs, String authType, SSLEngine engine) {}
+		}
+	};
+
+	/**
+	 * The lousy SSL context, that accepts any certificate
+	 */
+	private static final SSLContext BASE_SSL_CONTEXT;
+
+	/**
+	 * The lousy SSL Socket Factory, that accepts any certificate
+	 */
+	private static final SSLSocketFactory BASE_SOCKET_FACTORY;
+
+	/**
+	 * The default SSL protocols available in this JRE
+	 */
+	private static final String[] DEFAULT_SSL_PROTOCOLS;
+
+	static {
+		BASE_SSL_CONTEXT = createSslContext();
+		BASE_SOCKET_FACTORY = BASE_SSL_CONTEXT.getSocketFactory();
+		DEFAULT_SSL_PROTOCOLS = BASE_SSL_CONTEXT.getDefaultSSLParameters().getProtocols();
+	}
+
+	/**
+	 * Creates a new lousy SSL context, that accepts any certificate
+	 *
+	 * @return the new SSLContext (with its own TLS session cache)
+	 */
+	private static SSLContext createSslContext() {
+		SSLContext sc = null;
+		try {
+			sc = SSLContext.getInstance("SSL");
+			sc.init(null, LOUSY_TRUST_MANAGER, new java.security.SecureRandom());
+		} catch (NoSuchAlgorithmException | KeyManagementException e) {}
+		return sc;
+	}
+
+	/**
+	 * The SSL socket factories that override the enabled protocols, one per set of protocols.
+	 * <p>
+	 * The keep-alive cache of the JRE only reuses an HTTPS connection with the very same
+	 * socket factory instance, so we must not create a new one for each request.
+	 * </p>
+	 */
+	private static final Map<String, SSLSocketFactory> PROTOCOL_SOCKET_FACTORIES = new ConcurrentHashMap<>();
+
+	/**
+	 * Returns the InputStream that will be properly decoded, according to the
+	 * content encoding of the HTTP response.
+	 *
+	 * @param rawResponse The response, as received by the transport
+	 * @return the input stream to read from (null if the response has no body)
+	 * @throws IOException when the body is not properly encoded
+	 */
+	private static InputStream getDecodedStream(RawResponse rawResponse) throws IOException {
+		InputStream stream = rawResponse.getBody();
+		if (stream == null) {
+			return null;
+		}
+		String contentEncoding = rawResponse.getHeaderField("Content-Encoding");
+
+		try {
+			// In case of a GZIP-encoded content, well, unzip it!
+			// (with a pooled Inflater, released as soon as the stream is closed)
+			if ("gzip".equalsIgnoreCase(contentEncoding)) {
+				return INFLATER_POOL.gzip(stream);
+			} else if ("deflate".equalsIgnoreCase(contentEncoding)) {
+				return INFLATER_POOL.deflate(stream);
+			} else {
+				return stream;
+			}
+		} catch (EOFException e) {
+			// Empty body (e.g. HEAD request), despite the content encoding
+			stream.close();
+			return null;
+		}
+	}
+
+	/**
+	 * Clean-up the specified list of SSL protocols: remove the ones that are not supported
+	 * by this JRE, and SSLv2Hello
+	 *
+	 * @param specifiedSslProtocolArray Array of string of the SSL protocols to use (e.g.: "SSLv3", "TLSv1", etc.)
+	 * @return the protocols to enable, or null to use the default ones
+	 * @throws IllegalArgumentException when none of the specified protocols is supported by this JRE
+	 */
+	static String[] getProtocolsToEnable(String[] specifiedSslProtocolArray) {
+		// If no protocols were specified (as normal), use the default ones
+		if (specifiedSslProtocolArray == null || specifiedSslProtocolArray.length == 0) {
+			return null;
+		}
+
+		// Ignore SSLv2Hello, which is not a protocol by itself
+		String[] specifiedProtocols = Arrays
+			.stream(specifiedSslProtocolArray)
+			.filter(p -> p != null && !"SSLv2Hello".equalsIgnoreCase(p))
+			.toArray(String[]::new);
+		if (specifiedProtocols.length == 0) {
+			return null;
+		}
+
+		// Clean-up the list of specified protocols (remove non supported ones)
+		String[] protocolsToEnable = Arrays
+			.stream(specifiedProtocols)
+			.filter(p -> Arrays.stream(DEFAULT_SSL_PROTOCOLS).anyMatch(d -> d.equalsIgnoreCase(p)))
+			.toArray(String[]::new);
+
+		// Never fall back silently to the default protocols when the specified ones are all unsupported
+		if (protocolsToEnable.length == 0) {
+			throw new IllegalArgumentException("Unsupported SSL protocols: " + String.join(", ", specifiedProtocols));
+		}
+
+		return protocolsToEnable;
+	}
+
+	/**
+	 * Returns the SSL socket factory to use for the specified protocols
+	 *
+	 * @param protocolsToEnable The SSL protocols to enable, as returned by {@link #getProtocolsToEnable(String[])}
+	 * @return the base socket factory if no protocols are specified, or the factory that overrides the protocols
+	 */
+	static SSLSocketFactory getSslSocketFactory(String[] protocolsToEnable) {
+		// No protocols? Simply use the base socket factory
+		if (protocolsToEnable == null) {
+			return BASE_SOCKET_FACTORY;
+		}
+
+		// Get the SSL socket factory with these settings (create it the first time)
+		return PROTOCOL_SOCKET_FACTORIES.computeIfAbsent(
+			String.join(",", protocolsToEnable),
+			k -> new ProtocolOverridingSSLSocketFactory(BASE_SOCKET_FACTORY, protocolsToEnable)
+		);
+	}
+
+	/**
+	 * SSL protocols to enable (null to use the default ones)
+	 */
+	private final String[] sslProtocols;
+
+	/**
+	 * SSL socket factory for HTTPS connections, matching {@link #sslProtocols}
+	 */
+	private final SSLSocketFactory sslSocketFactory;
+
+	/**
+	 * Statistics of the TLS handshakes (only when this client has its own TLS session cache)
+	 */
+	private final TlsSessionStatistics tlsSessionStatistics;
+
+	/**
+	 * Proxies to connect through, in the order of preference (unresolved), or empty for a direct connection
+	 */
+	private final List<InetSocketAddress> proxyAddresses;
+
+	/**
+	 * Resolves the proxies, and keeps track of the ones that cannot be connected to
+	 */
+	private final ProxyRegistry proxyRegistry;
+	private final String proxyUsername;
+	private final char[] proxyPassword;
+
+	/**
+	 * User-Agent header sent with each request
+	 */
+	private final String userAgent;
+
+	/**
+	 * Headers sent with each request (already validated)
+	 */
+	private final Map<String, String> defaultHeaders;
+
+	/**
+	 * Limits the concurrent connections per route and keeps them alive (null to close each connection after use)
+	 */
+	private final ConnectionLimiter connectionLimiter;
+
+	/**
+	 * Executor that runs the asynchronous requests
+	 */
+	private final Executor asyncExecutor;
+
+	/**
+	 * Transport based on java.net.http, which negotiates HTTP/2 (null to send all requests with HttpURLConnection)
+	 */
+	private final Http2Transport http2Transport;
+
+	/**
+	 * Whether to send the credentials with the Basic scheme without waiting for the challenge of the server
+	 */
+	private final boolean preemptiveBasicAuthentication;
+
+	/**
+	 * Whether to send <code>Expect: 100-continue</code> with the streamed request bodies
+	 */
+	private final boolean expectContinue;
+
+	/**
+	 * Content encoding of the compressed request bodies (<code>gzip</code> or <code>deflate</code>), or null to send
+	 * them as is
+	 */
+	private final String requestCompression;
+
+	/**
+	 * Size in bytes below which the request bodies are not compressed
+	 */
+	private final long requestCompressionThreshold;
+
+	/**
+	 * Whether to send the <code>Accept-Encoding</code> header, so that the server compresses its responses
+	 */
+	private final boolean acceptCompression;
+
+	/**
+	 * Whether to flush the downloaded files to the storage device before returning
+	 */
+	private final boolean syncDownloads;
+
+	/**
+	 * Number of concurrent range requests of the segmented downloads (1 to download each file with a single stream)
+	 */
+	private final int downloadSegments;
+
+	/**
+	 * Size in bytes below which the files are downloaded with a single stream
+	 */
+	private final long segmentedDownloadThreshold;
+
+	/**
+	 * Whether the interrupted downloads are recorded, and resumed with the next request
+	 */
+	private final boolean resumableDownloads;
+
+	/**
+	 * Cache of the responses, revalidated with conditional requests (null to disable the cache)
+	 */
+	private final HttpResponseCache responseCache;
+
+	/**
+	 * Limits of the requests to each host (null for no limit)
+	 */
+	private final HostThrottle hostThrottle;
+
+	/**
+	 * Create a new HttpClient with the default settings: default SSL protocols, no proxy,
+	 * default User-Agent, no additional headers and no connection pool
+	 */
+	public HttpClient() {
+		this(new Builder());
+	}
+
+	/**
+	 * Create a new HttpClient with the settings of the specified {@link Builder}
+	 *
+	 * @param builder The builder with all the settings
+	 */
+	private HttpClient(Builder builder) {
+		sslProtocols = getProtocolsToEnable(builder.sslProtocols);
+		SSLContext sslContext;
+		if (builder.tlsSessionCacheSize >= 0) {
+			// This client has its own SSL context, so its own TLS session cache, with the specified settings
+			sslContext = createSslContext();
+			SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+			sessionContext.setSessionCacheSize(builder.tlsSessionCacheSize);
+			sessionContext.setSessionTimeout(builder.tlsSessionTimeout);
+			tlsSessionStatistics = new TlsSessionStatistics();
+			sslSocketFactory =
+				new ProtocolOverridingSSLSocketFactory(
+					sslContext.getSocketFactory(),
+					sslProtocols,
+					tlsSessionStatistics,
+					builder.dnsResolver,
+					builder.happyEyeballs
+				);
+		} else {
+			// Share the SSL context (and its TLS session cache) of all clients
+			sslContext = BASE_SSL_CONTEXT;
+			tlsSessionStatistics = null;
+			sslSocketFactory =
+				builder.dnsResolver == null && !builder.happyEyeballs
+					? getSslSocketFactory(sslProtocols)
+					: new ProtocolOverridingSSLSocketFactory(
+						BASE_SOCKET_FACTORY,
+						sslProtocols,
+						null,
+						builder.dnsResolver,
+						builder.happyEyeballs
+					);
+		}
+		// The proxies are resolved by the registry, when needed
+		List<InetSocketAddress> proxies = new ArrayList<>();
+		if (builder.proxyServer != null && !builder.proxyServer.isEmpty()) {
+			proxies.add(InetSocketAddress.createUnresolved(builder.proxyServer, builder.proxyPort));
+		}
+		proxies.addAll(builder.failoverProxies);
+		proxyAddresses = Collections.unmodifiableList(proxies);
+		proxyRegistry = builder.proxyRegistry != null ? builder.proxyRegistry : ProxyRegistry.getDefault();
+		proxyUsername = builder.proxyUsername;
+		proxyPassword = builder.proxyPassword;
+		userAgent = builder.userAgent == null || builder.userAgent.isEmpty() ? DEFAULT_USER_AGENT : builder.userAgent;
+		defaultHeaders = Collections.unmodifiableMap(new LinkedHashMap<>(builder.headers));
+		connectionLimiter = builder.connectionLimiter;
+		asyncExecutor = builder.asyncExecutor != null ? builder.asyncExecutor : AsyncExecutor.getDefault();
+		http2Transport =
+			builder.http2
+				? Http2Transport.create(
+					sslContext,
+					sslProtocols,
+					proxyAddresses.isEmpty() ? null : proxyRegistry.selector(proxyAddresses),
+					proxyUsername,
+					proxyPassword
+				)
+				: null;
+		preemptiveBasicAuthentication = builder.preemptiveBasicAuthentication;
+		expectContinue = builder.expectContinue;
+		requestCompression = builder.requestCompression;
+		requestCompressionThreshold = builder.requestCompressionThreshold;
+		acceptCompression = builder.acceptCompression;
+		syncDownloads = builder.syncDownloads;
+		downloadSegments = builder.downloadSegments;
+		segmentedDownloadThreshold = builder.segmentedDownloadThreshold;
+		resumableDownloads = builder.resumableDownloads;
+		responseCache = builder.responseCache;
+		hostThrottle = builder.hostThrottle;
+	}
+
+	/**
+	 * @return a new {@link Builder} to configure an HttpClient
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * Builder of {@link HttpClient} instances.
+	 * <p>
+	 * All settings are optional. The SSL socket factory, the proxy and the headers are prepared once,
+	 * in {@link #build()}, so that they are not set up again for each request.
+	 * </p>
+	 */
+	public static class Builder {
+
+		private String[] sslProtocols;
+		private String proxyServer;
+		private int proxyPort;
+		private final List<InetSocketAddress> failoverProxies = new ArrayList<>();
+		private ProxyRegistry proxyRegistry;
+		private String proxyUsername;
+		private char[] proxyPassword;
+		private String userAgent;
+		private final Map<String, String> headers = new LinkedHashMap<>();
+		private ConnectionLimiter connectionLimiter;
+		private int tlsSessionCacheSize = -1;
+		private int tlsSessionTimeout;
+		private Executor asyncExecutor;
+		private boolean http2;
+		private boolean preemptiveBasicAuthentication;
+		private boolean expectContinue;
+		private String requestCompression;
+		private long requestCompressionThreshold;
+		private boolean acceptCompression = true;
+		private boolean syncDownloads;
+		private int downloadSegments = 1;
+		private long segmentedDownloadThreshold;
+		private boolean resumableDownloads;
+		private HttpResponseCache responseCache;
+		private HostThrottle hostThrottle;
+		private DnsResolver dnsResolver;
+		private boolean happyEyeballs;
+
+		/**
+		 * Use {@link HttpClient#builder()}
+		 */
+		private Builder() {}
+
+		/**
+		 * @param protocols SSL protocols to use (e.g.: "SSLv3", "TLSv1", etc.). Leave empty or null to use the default ones.
+		 * The protocols that are not supported by this JRE are ignored, but at least one of them must be supported.
+		 * @return this builder
+		 */
+		public Builder sslProtocols(String... protocols) {
+			this.sslProtocols = protocols == null ? null : protocols.clone();
+			return this;
+		}
+
+		/**
+		 * @param server Host name of IP address of the proxy. Leave empty or null if no proxy is required.
+		 * @param port Port of the proxy (e.g. 3128)
+		 * @return this builder
+		 */
+		public Builder proxy(String server, int port) {
+			this.proxyServer = server;
+			this.proxyPort = port;
+			return this;
+		}
+
+		/**
+		 * Add a proxy to use when the previous ones cannot be connected to (the proxy set with
+		 * {@link #proxy(String, int)} is tried first). A proxy that cannot be connected to is set aside for a while,
+		 * see {@link ProxyRegistry}.
+		 *
+		 * @param server Host name of IP address of the proxy
+		 * @param port Port of the proxy (e.g. 3128)
+		 * @return this builder
+		 */
+		public Builder failoverProxy(String server, int port) {
+			if (server == null || server.isEmpty()) {
+				throw new IllegalArgumentException("Proxy server must not be empty");
+			}
+			failoverProxies.add(InetSocketAddress.createUnresolved(server, port));
+			return this;
+		}
+
+		/**
+		 * @param registry The registry that resolves the proxies of this client, and keeps them for a time-to-live
+		 * (by default, the registry shared by all clients, see {@link ProxyRegistry#getDefault()})
+		 * @return this builder
+		 */
+		public Builder proxyRegistry(ProxyRegistry registry) {
+			this.proxyRegistry = registry;
+			return this;
+		}
+
+		/**
+		 * @param username Username to connect to the proxy (if any)
+		 * @param password Password associated to the proxy username
+		 * @return this builder
+		 */
+		public Builder proxyCredentials(String username, char[] password) {
+			this.proxyUsername = username;
+			this.proxyPassword = password;
+			return this;
+		}
+
+		/**
+		 * @param userAgent String of the user agent to specify in the requests (if null, will use a default one)
+		 * @return this builder
+		 */
+		public Builder userAgent(String userAgent) {
+			this.userAgent = userAgent;
+			return this;
+		}
+
+		/**
+		 * Add a header to be sent with each request (ignored if the name or the value is null or empty)
+		 *
+		 * @param name Header name (e.g. "Accept")
+		 * @param value Header value (e.g. "application/json")
+		 * @return this builder
+		 */
+		public Builder header(String name, String value) {
+			if (name != null && value != null && !name.isEmpty() && !value.isEmpty()) {
+				headers.put(name, value);
+			}
+			return this;
+		}
+
+		/**
+		 * Add headers to be sent with each request
+		 *
+		 * @param headerMap Headers (pairs of key and value)
+		 * @return this builder
+		 */
+		public Builder headers(Map<String, String> headerMap) {
+			if (headerMap != null) {
+				headerMap.forEach(this::header);
+			}
+			return this;
+		}
+
+		/**
+		 * @param connectionLimiter The {@link ConnectionLimiter} that caps the number of concurrent connections per
+		 * route and keeps the connections alive between requests (if null, each connection is closed once the
+		 * response has been read)
+		 * @return this builder
+		 */
+		public Builder connectionLimiter(ConnectionLimiter connectionLimiter) {
+			this.connectionLimiter = connectionLimiter;
+			return this;
+		}
+
+		/**
+		 * Give this client its own TLS session cache, with the specified settings, and keep track of the
+		 * full and resumed TLS handshakes (see {@link HttpClient#getTlsSessionStatistics()}).
+		 * <p>
+		 * Connecting again to the same host (and port) then resumes the TLS session established during the previous
+		 * connection with an abbreviated handshake, as long as the session is in the cache and has not expired.
+		 * </p>
+		 * <p>
+		 * Without this setting, all clients share the same TLS session cache, with the default settings of the JRE.
+		 * </p>
+		 *
+		 * @param cacheSize Maximum number of TLS sessions in the cache (0 for no limit)
+		 * @param timeoutSeconds Time in seconds after which a TLS session expires (0 for no limit)
+		 * @return this builder
+		 */
+		public Builder tlsSessionCache(int cacheSize, int timeoutSeconds) {
+			if (cacheSize < 0 || timeoutSeconds < 0) {
+				throw new IllegalArgumentException("TLS session cache size and timeout must not be negative");
+			}
+			this.tlsSessionCacheSize = cacheSize;
+			this.tlsSessionTimeout = timeoutSeconds;
+			return this;
+		}
+
+		/**
+		 * Specify the {@link Executor} that runs the requests sent with
+		 * {@link HttpClient#sendRequestAsync(String, String, String, char[], Map, String, int, String) sendRequestAsync()}.
+		 * <p>
+		 * By default, with Java 21 and later, each asynchronous request runs in its own virtual thread. With
+		 * older versions of Java, the requests run in a shared, bounded pool of daemon threads.
+		 * </p>
+		 *
+		 * @param executor The executor to run the asynchronous requests (null for the default one)
+		 * @return this builder
+		 */
+		public Builder asyncExecutor(Executor executor) {
+			this.asyncExecutor = executor;
+			return this;
+		}
+
+		/**
+		 * Send the requests with the <code>java.net.http</code> client of the JRE, which negotiates HTTP/2 with the
+		 * HTTPS servers that support it, so that the concurrent requests to the same server are multiplexed over a
+		 * single connection.
+		 * <p>
+		 * This requires Java 21 or later. With older versions of Java, this setting is ignored and the requests are
+		 * sent with HttpURLConnection, as usual. The requests to <code>http://</code> URLs use HTTP/1.1 (no
+		 * <code>h2c</code> upgrade).
+		 * </p>
+		 * <p>
+		 * java.net.http manages its own connections: the {@link ConnectionLimiter} and the TLS session statistics of
+		 * this client only apply to the requests sent with HttpURLConnection, which is still used for the requests
+		 * that require an authentication scheme other than <code>Basic</code>.
+		 * </p>
+		 *
+		 * @param enabled Whether to send the requests with java.net.http, when available
+		 * @return this builder
+		 */
+		public Builder http2(boolean enabled) {
+			this.http2 = enabled;
+			return this;
+		}
+
+		/**
+		 * Send the credentials of the requests with the <code>Basic</code> authentication scheme right away, in the
+		 * <code>Authorization</code> header, instead of waiting for the server to reject the request with a
+		 * <code>401 Unauthorized</code> response and then sending it again with the credentials.
+		 * <p>
+		 * This saves a round trip for each authenticated request, with the servers that use the Basic scheme.
+		 * The header is built from the credentials of each request and nothing is cached, so a request with a wrong
+		 * password still fails. It is not sent if the request already has an <code>Authorization</code> header.
+		 * </p>
+		 * <p>
+		 * If the server requires another authentication scheme (e.g. Digest), the request is sent again the regular
+		 * way. Note that the Basic scheme exposes the credentials to anyone who can read the request: use it with
+		 * HTTPS only.
+		 * </p>
+		 *
+		 * @param enabled Whether to send the credentials preemptively
+		 * @return this builder
+		 */
+		public Builder preemptiveBasicAuthentication(boolean enabled) {
+			this.preemptiveBasicAuthentication = enabled;
+			return this;
+		}
+
+		/**
+		 * Send the <code>Expect: 100-continue</code> header with the request bodies streamed by
+		 * {@link HttpClient#send(String, String, String, char[], Map, RequestBody, int, String) send()}, and wait for
+		 * the server to accept the request before sending the body.
+		 * <p>
+		 * A server that rejects the request (e.g. <code>401 Unauthorized</code>, <code>413 Payload Too Large</code>)
+		 * answers right away, and a large upload is not sent for nothing. The servers that ignore this header receive
+		 * the body after a short delay (at most 5 seconds).
+		 * </p>
+		 *
+		 * @param enabled Whether to send the <code>Expect: 100-continue</code> header
+		 * @return this builder
+		 */
+		public Builder expectContinue(boolean enabled) {
+			this.expectContinue = enabled;
+			return this;
+		}
+
+		/**
+		 * Compress the request bodies while sending them, and specify the <code>Content-Encoding</code> header
+		 * accordingly. The server must support the compressed requests (unlike the responses, nothing lets the client
+		 * know in advance).
+		 * <p>
+		 * The bodies smaller than the specified threshold are sent as is: compressing a few bytes costs more than it
+		 * saves. The bodies of unknown length (streams) are always compressed, and the bodies of the requests that
+		 * already have a <code>Content-Encoding</code> header are never compressed.
+		 * </p>
+		 * <p>
+		 * The compressed body is streamed in chunks (its length is not known in advance) by
+		 * {@link HttpClient#send(String, String, String, char[], Map, RequestBody, int, String) send()}.
+		 * </p>
+		 *
+		 * @param contentEncoding <code>gzip</code> or <code>deflate</code> (null to disable the compression)
+		 * @param threshold Size in bytes below which the request bodies are not compressed (e.g. 1024)
+		 * @return this builder
+		 * @throws IllegalArgumentException when the content encoding is not supported
+		 */
+		public Builder requestCompression(String contentEncoding, long threshold) {
+			if (contentEncoding != null) {
+				contentEncoding = contentEncoding.toLowerCase(Locale.ROOT);
+				if (!"gzip".equals(contentEncoding) && !"deflate".equals(contentEncoding)) {
+					throw new IllegalArgumentException("Unsupported content encoding: " + contentEncoding);
+				}
+			}
+			this.requestCompression = contentEncoding;
+			this.requestCompressionThreshold = threshold;
+			return this;
+		}
+
+		/**
+		 * Send the <code>Accept-Encoding: gzip, deflate</code> header with each request (enabled by default), so that
+		 * the servers that support it compress their responses. The responses are decoded transparently.
+		 * <p>
+		 * The header is not sent if the request already has an <code>Accept-Encoding</code> header.
+		 * </p>
+		 *
+		 * @param enabled Whether to ask for compressed responses
+		 * @return this builder
+		 */
+		public Builder acceptCompression(boolean enabled) {
+			this.acceptCompression = enabled;
+			return this;
+		}
+
+		/**
+		 * Flush each downloaded file (see the <code>downloadToPath</code> argument of the requests) to the storage
+		 * device before returning the response, so that the file is not lost (or truncated) if the system crashes
+		 * right after the download.
+		 * <p>
+		 * This makes the downloads slower, as it waits for the data to be physically written, instead of letting the
+		 * operating system write it in the background.
+		 * </p>
+		 *
+		 * @param enabled Whether to sync the downloaded files (disabled by default)
+		 * @return this builder
+		 */
+		public Builder syncDownloads(boolean enabled) {
+			this.syncDownloads = enabled;
+			return this;
+		}
+
+		/**
+		 * Download the large files (see the <code>downloadToPath</code> argument of the GET requests) in several
+		 * segments, fetched concurrently with <code>Range</code> requests, and written directly to their region of
+		 * the file.
+		 * <p>
+		 * A <code>HEAD</code> request first checks that the server supports the ranges
+		 * (<code>Accept-Ranges: bytes</code>), and gets the size of the file. The file is downloaded with a single
+		 * stream when the server doesn't support the ranges, when the size of the file is unknown or smaller than the
+		 * specified threshold, or when the file changes during the download.
+		 * </p>
+		 * <p>
+		 * The segments are fetched in the executor of this client (see {@link #asyncExecutor(Executor)}), and by the
+		 * calling thread. Each segment uses its own connection (see {@link ConnectionLimiter} to cap the number of
+		 * connections per server), or its own stream with HTTP/2.
+		 * </p>
+		 *
+		 * @param segments Number of segments (1 to disable the segmented downloads)
+		 * @param threshold Size in bytes below which the files are downloaded with a single stream
+		 * @return this builder
+		 * @throws IllegalArgumentException when the number of segments is less than 1
+		 */
+		public Builder segmentedDownloads(int segments, long threshold) {
+			if (segments < 1) {
+				throw new IllegalArgumentException("Invalid number of segments: " + segments);
+			}
+			this.downloadSegments = segments;
+			this.segmentedDownloadThreshold = threshold;
+			return this;
+		}
+
+		/**
+		 * Resume the interrupted downloads (see the <code>downloadToPath</code> argument of the GET requests) where they
+		 * stopped, instead of downloading the entire file again.
+		 * <p>
+		 * During the download, a sidecar file (<code>&lt;file&gt;.resume</code>) records every second the number of
+		 * bytes written and the version of the file (its <code>ETag</code> or <code>Last-Modified</code> date), so
+		 * that the download can be resumed even if the process stops abruptly. When a download fails, the partially
+		 * downloaded file and its sidecar file are kept. The next request of the same URL to the same file asks only
+		 * for the missing bytes, with the <code>Range</code> and <code>If-Range</code> headers, and downloads the
+		 * entire file again only if it has changed in the meantime (<code>200</code> response). Any other response
+		 * (e.g. <code>503</code>) fails the request, and keeps the file and its sidecar file for a later attempt.
+		 * The sidecar file is deleted once the download is complete.
+		 * </p>
+		 * <p>
+		 * The files are then downloaded as is (<code>Accept-Encoding: identity</code>), as the ranges apply to the
+		 * encoded content. The download of a file to a directory (whose name is known only once the response is
+		 * received) is not resumed.
+		 * </p>
+		 *
+		 * @param enabled Whether to resume the interrupted downloads (disabled by default)
+		 * @return this builder
+		 */
+		public Builder resumableDownloads(boolean enabled) {
+			this.resumableDownloads = enabled;
+			return this;
+		}
+
+		/**
+		 * Cache the responses to the GET requests, and revalidate them with conditional requests
+		 * (<code>If-None-Match</code>, <code>If-Modified-Since</code>): when the server answers
+		 * <code>304 Not Modified</code>, the cached response is returned.
+		 * <p>
+		 * This is useful when the same URLs are polled periodically, and their content rarely changes. The downloads
+		 * (<code>downloadToPath</code>), the requests with a body, and the requests that already have a conditional
+		 * header are not cached. See {@link HttpResponseCache}.
+		 * </p>
+		 *
+		 * @param cache The cache (may be shared by several clients), or null to disable the cache
+		 * @return this builder
+		 */
+		public Builder responseCache(HttpResponseCache cache) {
+			this.responseCache = cache;
+			return this;
+		}
+
+		/**
+		 * Limit the number of concurrent requests to each host, and their rate, to protect the fragile servers.
+		 * <p>
+		 * A request that exceeds the limits of its host waits, or fails with a
+		 * {@link HostThrottle.RejectedRequestException}, depending on the settings of the throttle. See
+		 * {@link HostThrottle}.
+		 * </p>
+		 *
+		 * @param throttle The limits (may be shared by several clients), or null for no limit
+		 * @return this builder
+		 */
+		public Builder hostThrottle(HostThrottle throttle) {
+			this.hostThrottle = throttle;
+			return this;
+		}
+
+		/**
+		 * Choose the addresses that the HTTPS connections of HttpURLConnection are established with, with the
+		 * specified resolver, typically a {@link CachingDnsResolver}.
+		 * <p>
+		 * This doesn't replace the lookup of the JVM: HttpURLConnection always resolves the host name of the server
+		 * through the JVM (and its cache) before connecting, and the resolver is consulted afterward. The connection
+		 * is then established with the addresses returned by the resolver, in the order of <i>Happy Eyeballs</i>
+		 * (see {@link #happyEyeballs(boolean)}), also when the JVM cannot resolve the name (a name known only to the
+		 * resolver, or the stale addresses of a {@link CachingDnsResolver} during a DNS outage). The plain HTTP
+		 * connections, and the connections of <code>java.net.http</code> (HTTP/2), are established by the JRE with
+		 * the addresses it resolved. The names of the servers reached through a proxy are resolved by the proxy.
+		 * </p>
+		 *
+		 * @param resolver The resolver (may be shared by several clients), or null to let the JRE resolve the names
+		 * @return this builder
+		 */
+		public Builder dnsResolver(DnsResolver resolver) {
+			this.dnsResolver = resolver;
+			return this;
+		}
+
+		/**
+		 * Race the connection attempts to the IPv6 and IPv4 addresses of the servers (<i>Happy Eyeballs</i>, RFC
+		 * 8305), so that a black-holed network path doesn't make the connection wait for the whole timeout.
+		 * <p>
+		 * The addresses of the server (see {@link #dnsResolver(DnsResolver)}) are tried alternately IPv6 and
+		 * IPv4, the next one starting when the previous one hasn't connected within 250 ms, or has failed, and the
+		 * first connection established is kept. This applies to the HTTPS connections of HttpURLConnection, without
+		 * proxy (the plain HTTP connections of HttpURLConnection, and the connections of
+		 * <code>java.net.http</code>, are established by the JRE).
+		 * </p>
+		 *
+		 * @param happyEyeballs Whether to race the connection attempts (disabled by default)
+		 * @return this builder
+		 */
+		public Builder happyEyeballs(boolean happyEyeballs) {
+			this.happyEyeballs = happyEyeballs;
+			return this;
+		}
+
+		/**
+		 * @return a new {@link HttpClient} with the settings of this builder
+		 * @throws IllegalArgumentException when none of the specified SSL protocols is supported by this JRE
+		 */
+		public HttpClient build() {
+			return new HttpClient(this);
+		}
+	}
+
+	/**
+	 * @param url The URL to be requested (e.g. https://w3.test.org/site/list.jsp)
+	 * @param method GET|POST|PUT|DELETE or whatever HTTP verb is supported
+	 * @param specifiedSslProtocolArray Array of string of the SSL protocols to use (e.g.: "SSLv3", "TLSv1", etc.)
+	 * @param username Username to access the specified URL
+	 * @param password Password associated to username
+	 * @param proxyServer Host name of IP address of the proxy. Leave empty or null if no proxy is required.
+	 * @param proxyPort Port of the proxy (e.g. 3128)
+	 * @param proxyUsername Username to connect to the proxy (if any)
+	 * @param proxyPassword Password associated to the proxy username
+	 * @param userAgent String of the user agent to specify in the request (if null, will use a default one)
+	 * @param addHeaderMap Additional headers to be added to the HTTP request (pairs of key and value)
+	 * @param body Body of the HTTP request to be sent
+	 * @param timeout Timeout in seconds before the operation is canceled
+	 * @param downloadToPath A path where to download the content of the HTTP response to
+	 * @return an HttpResponse, which itself contains the HTTP status code, the headers and the body of the response
+	 * @throws MalformedURLException when the specified URL is invalid
+	 * @throws IOException when anything wrong happens during the connection and while downloading information from the Web server
+	 * @throws FileNotFoundException when the specified downloadToPath is not correct (not a file, not accessible, etc.)
+	 */
+	public static HttpResponse sendRequest(
+		String url,
+		String method,
+		String[] specifiedSslProtocolArray,
+		String username,
+		char[] password,
+		String proxyServer,
+		int proxyPort,
+		String proxyUsername,
+		char[] proxyPassword,
+		String userAgent,
+		Map<String, String> addHeaderMap,
+		String body,
+		int timeout,
+		String downloadToPath
+	) throws IOException {
+		return sendRequest(
+			url,
+			method,
+			specifiedSslProtocolArray,
+			username,
+			password,
+			proxyServer,
+			proxyPort,
+			proxyUsername,
+			proxyPassword,
+			userAgent,
+			addHeaderMap,
+			body,
+			timeout,
+			downloadToPath,
+			null
+		);
+	}
+
+	/**
+	 * @param url The URL to be requested (e.g. https://w3.test.org/site/list.jsp)
+	 * @param method GET|POST|PUT|DELETE or whatever HTTP verb is supported
+	 * @param specifiedSslProtocolArray Array of string of the SSL protocols to use (e.g.: "SSLv3", "TLSv1", etc.)
+	 * @param username Username to access the specified URL
+	 * @param password Password associated to username
+	 * @param proxyServer Host name of IP address of the proxy. Leave empty or null if no proxy is required.
+	 * @param proxyPort Port of the proxy (e.g. 3128)
+	 * @param proxyUsername Username to connect to the proxy (if any)
+	 * @param proxyPassword Password associated to the proxy username
+	 * @param userAgent String of the user agent to specify in the request (if null, will use a default one)
+	 * @param addHeaderMap Additional headers to be added to the HTTP request (pairs of key and value)
+	 * @param body Body of the HTTP request to be sent
+	 * @param timeout Timeout in seconds before the operation is canceled
+	 * @param downloadToPath A path where to download the content of the HTTP response to
+	 * @param connectionLimiter The {@link ConnectionLimiter} that caps the concurrent connections per route and
+	 * keeps the connections alive for the next requests (if null, the connection is closed once the response has
+	 * been read)
+	 * @return an HttpResponse, which itself contains the HTTP status code, the headers and the body of the response
+	 * @throws MalformedURLException when the specified URL is invalid
+	 * @throws IOException when anything wrong happens during the connection and while downloading information from the Web server
+	 * @throws FileNotFoundException when the specified downloadToPath is not correct (not a file, not accessible, etc.)
+	 */
+	public static HttpResponse sendRequest(
+		String url,
+		String method,
+		String[] specifiedSslProtocolArray,
+		String username,
+		char[] password,
+		String proxyServer,
+		int proxyPort,
+		String proxyUsername,
+		char[] proxyPassword,
+		String userAgent,
+		Map<String, String> addHeaderMap,
+		String body,
+		int timeout,
+		String downloadToPath,
+		ConnectionLimiter connectionLimiter
+	) throws IOException {
+		return builder()
+			.sslProtocols(specifiedSslProtocolArray)
+			.proxy(proxyServer, proxyPort)
+			.proxyCredentials(proxyUsername, proxyPassword)
+			.userAgent(userAgent)
+			.connectionLimiter(connectionLimiter)
+			.build()
+			.sendRequest(url, method, username, password, addHeaderMap, body, timeout, downloadToPath);
+	}
+
+	/**
+	 * Send an HTTP request asynchronously.
+	 * <p>
+	 * With Java 21 and later, the request runs in a virtual thread. With older versions of Java, it runs in a
+	 * bounded pool of threads.
+	 * </p>
+	 *
+	 * @param url The URL to be requested (e.g. https://w3.test.org/site/list.jsp)
+	 * @param method GET|POST|PUT|DELETE or whatever HTTP verb is supported
+	 * @param specifiedSslProtocolArray Array of string of the SSL protocols to use (e.g.: "SSLv3", "TLSv1", etc.)
+	 * @param username Username to access the specified URL
+	 * @param password Password associated to username
+	 * @param proxyServer Host name of IP address of the proxy. Leave empty or null if no proxy is required.
+	 * @param proxyPort Port of the proxy (e.g. 3128)
+	 * @param proxyUsername Username to connect to the proxy (if any)
+	 * @param proxyPassword Password associated to the proxy username
+	 * @param userAgent String of the user agent to specify in the request (if null, will use a default one)
+	 * @param addHeaderMap Additional headers to be added to the HTTP request (pairs of key and value)
+	 * @param body Body of the HTTP request to be sent
+	 * @param timeout Timeout in seconds before the operation is canceled
+	 * @param downloadToPath A path where to download the content of the HTTP response to
+	 * @return a CompletableFuture completed with the HttpResponse, or completed exceptionally with the
+	 * IOException that occurred during the request
+	 */
+	public static CompletableFuture<HttpResponse> sendRequestAsync(
+		String url,
+		String method,
+		String[] specifiedSslProtocolArray,
+		String username,
+		char[] password,
+		String proxyServer,
+		int proxyPort,
+		String proxyUsername,
+		char[] proxyPassword,
+		String userAgent,
+		Map<String, String> addHeaderMap,
+		String body,
+		int timeout,
+		String downloadToPath
+	) {
+		return builder()
+			.sslProtocols(specifiedSslProtocolArray)
+			.proxy(proxyServer, proxyPort)
+			.proxyCredentials(proxyUsername, proxyPassword)
+			.userAgent(userAgent)
+			.build()
+			.sendRequestAsync(url, method, username, password, addHeaderMap, body, timeout, downloadToPath);
+	}
+
+	/**
+	 * @return the statistics of the full and resumed TLS handshakes of this client, or null if this client doesn't have
+	 * its own TLS session cache (see {@link Builder#tlsSessionCache(int, int)})
+	 */
+	public TlsSessionStatistics getTlsSessionStatistics() {
+		return tlsSessionStatistics;
+	}
+
+	/**
+	 * Send an HTTP request asynchronously, with the settings of this HttpClient.
+	 * <p>
+	 * The request runs in the executor of this client (see {@link Builder#asyncExecutor(Executor)}).
+	 * </p>
+	 *
+	 * @param url The URL to be requested (e.g. https://w3.test.org/site/list.jsp)
+	 * @param method GET|POST|PUT|DELETE or whatever HTTP verb is supported
+	 * @param username Username to access the specified URL
+	 * @param password Password associated to username
+	 * @param addHeaderMap Additional headers to be added to the HTTP request (pairs of key and value), on top of the default headers of this client
+	 * @param body Body of the HTTP request to be sent
+	 * @param timeout Timeout in seconds before the operation is canceled
+	 * @param downloadToPath A path where to download the content of the HTTP response to
+	 * @return a CompletableFuture completed with the HttpResponse, or completed exceptionally with the
+	 * IOException that occurred during the request (or the RejectedExecutionException if the executor is saturated)
+	 */
+	public CompletableFuture<HttpResponse> sendRequestAsync(
+		String url,
+		String method,
+		String username,
+		char[] password,
+		Map<String, String> addHeaderMap,
+		String body,
+		int timeout,
+		String downloadToPath
+	) {
+		CompletableFuture<HttpResponse> future = new CompletableFuture<>();
+		try {
+			asyncExecutor.execute(() -> {
+				try {
+					future.complete(sendRequest(url, method, username, password, addHeaderMap, body, timeout, downloadToPath));
+				} catch (Throwable t) {
+					future.completeExceptionally(t);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/**
+	 * Send an HTTP request with the settings of this HttpClient
+	 *
+	 * @param url The URL to be requested (e.g. https://w3.test.org/site/list.jsp)
+	 * @param method GET|POST|PUT|DELETE or whatever HTTP verb is supported
+	 * @param username Username to access the specified URL
+	 * @param password Password associated to username
+	 * @param addHeaderMap Additional headers to be added to the HTTP request (pairs of key and value), on top of the default headers of this client
+	 * @param body Body of the HTTP request to be sent
+	 * @param timeout Timeout in seconds before the operation is canceled
+	 * @param downloadToPath A path where to download the content of the HTTP response to
+	 * @return an HttpResponse, which itself contains the HTTP status code, the headers and the body of the response
+	 * @throws MalformedURLException when the specified URL is invalid
+	 * @throws IOException when anything wrong happens during the connection and while downloading information from the Web server
+	 * @throws FileNotFoundException when the specified downloadToPath is not correct (not a file, not accessible, etc.)
+	 */
+	public HttpResponse sendRequest(
+		String url,
+		String method,
+		String username,
+		char[] password,
+		Map<String, String> addHeaderMap,
+		String body,
+		int timeout,
+		String downloadToPath
+	) throws IOException {
+		return sendRequest(
+			new URL(url),
+			method,
+			username,
+			password,
+			addHeaderMap,
+			toRequestBody(body),
+			false,
+			timeout,
+			downloadToPath
+		);
+	}
+
+	/**
+	 * Send an HTTP request with the settings of this HttpClient, with the specified body, streamed to the server.
+	 * <p>
+	 * The body is sent with a fixed length when its size is known, or in chunks otherwise, without being buffered
+	 * in memory (see {@link Builder#expectContinue(boolean)} to let the server reject the request before the body
+	 * is sent).
+	 * </p>
+	 * <p>
+	 * A streamed body cannot be sent twice, so when credentials are specified, the body is buffered in memory by
+	 * HttpURLConnection (to answer the authentication challenge of the server), unless the credentials are sent
+	 * preemptively (see {@link Builder#preemptiveBasicAuthentication(boolean)}).
+	 * </p>
+	 *
+	 * @param url The URL to be requested (e.g. https://w3.test.org/site/list.jsp)
+	 * @param method GET|POST|PUT|DELETE or whatever HTTP verb is supported
+	 * @param username Username to access the specified URL
+	 * @param password Password associated to username
+	 * @param addHeaderMap Additional headers to be added to the HTTP request (pairs of key and value), on top of the default headers of this client
+	 * @param body Body of the HTTP request to be sent (null for no body)
+	 * @param timeout Timeout in seconds before the operation is canceled
+	 * @param downloadToPath A path where to download the content of the HTTP response to
+	 * @return an HttpResponse, which itself contains the HTTP status code, the headers and the body of the response
+	 * @throws MalformedURLException when the specified URL is invalid
+	 * @throws IOException when anything wrong happens during the connection and while downloading information from the Web server
+	 * @throws FileNotFoundException when the specified downloadToPath is not correct (not a file, not accessible, etc.)
+	 */
+	public HttpResponse send(
+		String url,
+		String method,
+		String username,
+		char[] password,
+		Map<String, String> addHeaderMap,
+		RequestBody body,
+		int timeout,
+		String downloadToPath
+	) throws IOException {
+		return sendRequest(new URL(url), method, username, password, addHeaderMap, body, true, timeout, downloadToPath);
+	}
+
+	/**
+	 * Send a batch of HTTP requests with the settings of this HttpClient, concurrently, and deliver their results as
+	 * they complete.
+	 * <p>
+	 * At most <code>maxConcurrency</code> requests are sent at the same time, and at most
+	 * <code>maxConcurrencyPerHost</code> to the same host (<code>host:port</code>), the hosts being served in turn. The
+	 * requests run in the executor of this client (see {@link Builder#asyncExecutor(Executor)}), while the pending
+	 * requests wait in the batch. A failed request doesn't fail the batch: its result holds its exception.
+	 * </p>
+	 *
+	 * @param requests The requests to send
+	 * @param maxConcurrency Maximum number of requests sent at the same time
+	 * @param maxConcurrencyPerHost Maximum number of requests sent at the same time to the same host
+	 * @return the batch, to take the results from as they complete
+	 */
+	public HttpBatch sendBatch(Collection<HttpRequest> requests, int maxConcurrency, int maxConcurrencyPerHost) {
+		return new HttpBatch(requests, maxConcurrency, maxConcurrencyPerHost, asyncExecutor, this::send);
+	}
+
+	/**
+	 * Send the specified HTTP request with the settings of this HttpClient.
+	 * <p>
+	 * The request has been prepared once, when it was built (parsed URL, validated headers, encoded body): only the
+	 * I/O is done here. Its body is streamed, as with
+	 * {@link #send(String, String, String, char[], Map, RequestBody, int, String)}.
+	 * </p>
+	 *
+	 * @param request The request
+	 * @return an HttpResponse, which itself contains the HTTP status code, the headers and the body of the response
+	 * @throws IOException when anything wrong happens during the connection and while downloading information from the Web server
+	 * @throws FileNotFoundException when the download path of the request is not correct (not a file, not accessible, etc.)
+	 */
+	public HttpResponse send(HttpRequest request) throws IOException {
+		return sendRequest(
+			request.getParsedUrl(),
+			request.getMethod(),
+			request.getUsername(),
+			request.getPassword(),
+			request.getHeaders(),
+			request.getBody(),
+			true,
+			request.getTimeout(),
+			request.getDownloadToPath()
+		);
+	}
+
+	/**
+	 * Send the specified HTTP request asynchronously, with the settings of this HttpClient.
+	 * <p>
+	 * The request runs in the executor of this client (see {@link Builder#asyncExecutor(Executor)}).
+	 * </p>
+	 *
+	 * @param request The request
+	 * @return a CompletableFuture completed with the HttpResponse, or completed exceptionally with the
+	 * IOException that occurred during the request (or the RejectedExecutionException if the executor is saturated)
+	 */
+	public CompletableFuture<HttpResponse> sendAsync(HttpRequest request) {
+		CompletableFuture<HttpResponse> future = new CompletableFuture<>();
+		try {
+			asyncExecutor.execute(() -> {
+				try {
+					future.complete(send(request));
+				} catch (Throwable t) {
+					future.completeExceptionally(t);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/**
+	 * @param body Body of the HTTP request, as text (may be null or empty)
+	 * @return the corresponding RequestBody, encoded with UTF-8 (null if no body)
+	 */
+	private static RequestBody toRequestBody(String body) {
+		return body != null && !body.isEmpty() ? RequestBody.of(body) : null;
+	}
+
+	/**
+	 * Send an HTTP request, and read its response entirely, or download it to a file
+	 *
+	 * @param url The URL to be requested
+	 * @param method GET|POST|PUT|DELETE or whatever HTTP verb is supported
+	 * @param username Username to access the specified URL
+	 * @param password Password associated to username
+	 * @param addHeaderMap Additional headers to be added to the HTTP request
+	 * @param body Body of the HTTP request to be sent (null for no body)
+	 * @param streamBody Whether to stream the body (otherwise HttpURLConnection buffers it)
+	 * @param timeout Timeout in seconds before the operation is canceled
+	 * @param downloadToPath A path where to download the content of the HTTP response to
+	 * @return an HttpResponse, which itself contains the HTTP status code, the headers and the body of the response
+	 * @throws IOException when anything wrong happens during the connection and while downloading information from the Web server
+	 */
+	private HttpResponse sendRequest(
+		URL url,
+		String method,
+		String username,
+		char[] password,
+		Map<String, String> addHeaderMap,
+		RequestBody body,
+		boolean streamBody,
+		int timeout,
+		String downloadToPath
+	) throws IOException {
+		// Download to a file?
+		// Perform some verifications on the specified downloadToPath
+		File downloadToFile = null;
+		if (downloadToPath != null && !downloadToPath.isEmpty()) {
+			// So, the user specified a file path to download to
+			downloadToFile = new File(downloadToPath);
+
+			// Check whether the user specified a path whose path doesn't exist
+			File parentDirectory = downloadToFile.getParentFile();
+			if (parentDirectory != null && !parentDirectory.exists()) {
+				// So, the parent directory of the specified filed path does not exist
+				try {
+					// We therefore need to create the directory (and maybe the grand-parent directories, and so on...)
+					parentDirectory.mkdirs();
+				} catch (SecurityException e) {
+					throw new IOException("Couldn't create the necessary directories for " + downloadToPath);
+				}
+			}
+		}
+
+		// Resume the interrupted download of this file, if any
+		ResumeRecord resumeRecord = null;
+		if (
+			resumableDownloads &&
+			downloadToFile != null &&
+			!downloadToFile.isDirectory() &&
+			body == null &&
+			"GET".equalsIgnoreCase(method)
+		) {
+			// The ranges apply to the encoded content: ask for the content as is
+			addHeaderMap = addHeaderMap == null ? new LinkedHashMap<>() : new LinkedHashMap<>(addHeaderMap);
+			if (!hasHeader("Accept-Encoding", addHeaderMap)) {
+				addHeaderMap.put("Accept-Encoding", "identity");
+			}
+			resumeRecord = ResumeRecord.read(downloadToFile.toPath(), url.toString());
+		}
+
+		// Download a large file in segments, if the server supports the ranges
+		if (
+			resumeRecord == null &&
+			downloadToFile != null &&
+			downloadSegments > 1 &&
+			body == null &&
+			"GET".equalsIgnoreCase(method)
+		) {
+			HttpResponse response = downloadSegments(
+				url,
+				username,
+				password,
+				addHeaderMap,
+				timeout,
+				downloadToFile,
+				downloadToPath
+			);
+			if (response != null) {
+				return response;
+			}
+			// Otherwise, download the file with a single stream
+		}
+
+		// Revalidate the cached response, if any
+		if (
+			responseCache != null &&
+			downloadToFile == null &&
+			body == null &&
+			"GET".equalsIgnoreCase(method) &&
+			!hasHeader("If-None-Match", addHeaderMap) &&
+			!hasHeader("If-Modified-Since", addHeaderMap)
+		) {
+			return sendCachedRequest(url, username, password, addHeaderMap, timeout);
+		}
+
+		// Ask only for the missing bytes, if the file hasn't changed
+		Map<String, String> headers = addHeaderMap;
+		if (resumeRecord != null) {
+			headers = new LinkedHashMap<>(addHeaderMap);
+			headers.put("Range", "bytes=" + resumeRecord.getLength() + "-");
+			headers.put("If-Range", resumeRecord.getValidator());
+		}
+
+		// Read the entire body, or download it to the file
+		final File responseFile = downloadToFile;
+		final ResumeRecord responseResumeRecord = resumeRecord;
+		try {
+			return execute(
+				url,
+				method,
+				username,
+				password,
+				headers,
+				body,
+				streamBody,
+				timeout,
+				rawResponse -> readResponse(rawResponse, url, responseFile, downloadToPath, responseResumeRecord)
+			);
+		} catch (RangeNotSatisfiedException e) {
+			// The recorded download is not valid anymore: download the entire file
+			ResumeRecord.delete(downloadToFile.toPath());
+			return execute(
+				url,
+				method,
+				username,
+				password,
+				addHeaderMap,
+				body,
+				streamBody,
+				timeout,
+				rawResponse -> readResponse(rawResponse, url, responseFile, downloadToPath, null)
+			);
+		}
+	}
+
+	/**
+	 * Send a GET request, conditionally if its response is cached, and return the cached response if the server
+	 * confirms that it is still valid (see {@link Builder#responseCache(HttpResponseCache)})
+	 *
+	 * @param url The URL to be requested
+	 * @param username Username to access the specified URL
+	 * @param password Password associated to username
+	 * @param addHeaderMap Additional headers to be added to the HTTP request
+	 * @param timeout Timeout in seconds before the operation is canceled
+	 * @return the HttpResponse, received or cached
+	 * @throws IOException when anything wrong happens during the connection
+	 */
+	private HttpResponse sendCachedRequest(
+		URL url,
+		String username,
+		char[] password,
+		Map<String, String> addHeaderMap,
+		int timeout
+	) throws IOException {
+		// The key covers all the headers of the request, so that clients with different default headers (or
+		// User-Agent) sharing the cache don't get each other's responses
+		Map<String, String> requestHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		setRequestHeaders(addHeaderMap, requestHeaders::put);
+		String key = HttpResponseCache.key(url.toString(), username, requestHeaders);
+		HttpResponseCache.Entry entry = responseCache.get(key);
+
+		// Ask the server whether the cached response is still valid
+		Map<String, String> headers = addHeaderMap;
+		if (entry != null) {
+			headers = addHeaderMap == null ? new LinkedHashMap<>() : new LinkedHashMap<>(addHeaderMap);
+			if (entry.getEtag() != null) {
+				headers.put("If-None-Match", entry.getEtag());
+			}
+			if (entry.getLastModified() != null) {
+				headers.put("If-Modified-Since", entry.getLastModified());
+			}
+		}
+
+		HttpResponse response = execute(
+			url,
+			"GET",
+			username,
+			password,
+			headers,
+			null,
+			false,
+			timeout,
+			rawResponse -> readResponse(rawResponse, url, null, null, null)
+		);
+
+		// On disk only without credentials, unless the cache is configured otherwise
+		boolean authenticated =
+			username != null && !username.isEmpty() ||
+			requestHeaders.keySet().stream().anyMatch(HttpResponseCache::isCredentialHeader);
+
+		// Not modified: the cached response is still valid
+		if (entry != null && response.getStatusCode() == 304) {
+			HttpResponse cached = responseCache.hit(key, entry, response, authenticated);
+			cached.setTimings(response.getTimings());
+			return cached;
+		}
+
+		// Cache the new response
+		responseCache.update(key, response, authenticated);
+		return response;
+	}
+
+	/**
+	 * Download a file in segments, fetched concurrently with range requests (see
+	 * {@link Builder#segmentedDownloads(int, long)})
+	 *
+	 * @param url The URL of the file
+	 * @param username Username to access the specified URL
+	 * @param password Password associated to username
+	 * @param addHeaderMap Additional headers to be added to the HTTP requests
+	 * @param timeout Timeout in seconds before each request is canceled
+	 * @param downloadToFile The file or directory where to download the file to
+	 * @param downloadToPath The path of downloadToFile
+	 * @return the HttpResponse (with the headers of the file, and the path of the downloaded file as the body), or
+	 * null if the file must be downloaded with a single stream
+	 * @throws IOException when anything wrong happens during the connections, or while writing the file
+	 */
+	private HttpResponse downloadSegments(
+		URL url,
+		String username,
+		char[] password,
+		Map<String, String> addHeaderMap,
+		int timeout,
+		File downloadToFile,
+		String downloadToPath
+	) throws IOException {
+		// The ranges apply to the encoded content: ask for the content as is
+		Map<String, String> headers = addHeaderMap == null ? new LinkedHashMap<>() : new LinkedHashMap<>(addHeaderMap);
+		headers.put("Accept-Encoding", "identity");
+
+		// Does the server support the ranges, and what is the size of the file?
+		RawResponse probe = execute(
+			url,
+			"HEAD",
+			username,
+			password,
+			headers,
+			null,
+			false,
+			timeout,
+			rawResponse -> rawResponse
+		);
+		long size = getContentLength(probe);
+		String acceptRanges = probe.getHeaderField("Accept-Ranges");
+		String contentEncoding = probe.getHeaderField("Content-Encoding");
+		if (
+			probe.getStatusCode() != 200 ||
+			acceptRanges == null ||
+			!"bytes".equalsIgnoreCase(acceptRanges.trim()) ||
+			(contentEncoding != null && !"identity".equalsIgnoreCase(contentEncoding)) ||
+			size <= 0 ||
+			size < segmentedDownloadThreshold
+		) {
+			return null;
+		}
+
+		// Each range is requested only if the file hasn't changed since the probe (otherwise, the server sends the
+		// entire file, and the segmented download is abandoned)
+		String validator = getValidator(probe);
+		if (validator != null) {
+			headers.put("If-Range", validator);
+		}
+
+		// Request the URL where we've been redirected to, if any
+		URL fileUrl = probe.getUrl() != null ? probe.getUrl() : url;
+		String path = getDownloadPath(downloadToFile, downloadToPath, probe.getUrl());
+
+		try (FileChannel channel = openDownloadChannel(Paths.get(path), true)) {
+			// Split the file
+			long segmentSize = (size + downloadSegments - 1) / downloadSegments;
+			List<SegmentTask> tasks = new ArrayList<>();
+			for (long start = 0; start < size; start += segmentSize) {
+				long end = Math.min(start + segmentSize, size) - 1;
+				Map<String, String> segmentHeaders = new LinkedHashMap<>(headers);
+				segmentHeaders.put("Range", "bytes=" + start + "-" + end);
+				long segmentStart = start;
+				tasks.add(
+					new SegmentTask(() ->
+						execute(
+							fileUrl,
+							"GET",
+							username,
+							password,
+							segmentHeaders,
+							null,
+							false,
+							timeout,
+							rawResponse -> writeSegment(rawResponse, channel, segmentStart, end, size)
+						)
+					)
+				);
+			}
+
+			// Fetch the segments in the executor, and in this thread
+			// (which also runs the segments that the executor hasn't started yet, if it is busy)
+			for (SegmentTask task : tasks.subList(1, tasks.size())) {
+				try {
+					asyncExecutor.execute(task);
+				} catch (RejectedExecutionException e) {
+					// This thread will fetch the segment
+				}
+			}
+			for (SegmentTask task : tasks) {
+				task.run();
+				if (task.hasFailed()) {
+					break;
+				}
+			}
+
+			// Wait for all the segments, even if one failed (they all write to the channel)
+			IOException error = null;
+			for (SegmentTask task : tasks) {
+				try {
+					task.await();
+				} catch (IOException e) {
+					if (error == null) {
+						error = e;
+						// Don't start the remaining segments
+						tasks.forEach(SegmentTask::cancel);
+					}
+				}
+			}
+			if (error instanceof RangeNotSatisfiedException) {
+				return null;
+			} else if (error != null) {
+				throw error;
+			}
+
+			if (syncDownloads) {
+				channel.force(true);
+			}
+		}
+
+		// The response to the probe, with the path of the file as the body
+		HttpResponse response = newHttpResponse(probe);
+		response.appendBody(path);
+		return response;
+	}
+
+	/**
+	 * Write the segment of a file received with a range request
+	 *
+	 * @param rawResponse The response to the range request
+	 * @param channel The file
+	 * @param start Position of the first byte of the segment
+	 * @param end Position of the last byte of the segment
+	 * @param size Size of the file
+	 * @return null
+	 * @throws RangeNotSatisfiedException when the response is not the requested segment
+	 * @throws IOException when the segment cannot be read, or written
+	 */
+	private static Void writeSegment(RawResponse rawResponse, FileChannel channel, long start, long end, long size)
+		throws IOException {
+		// Is this the requested segment of the same file?
+		String contentRange = rawResponse.getHeaderField("Content-Range");
+		Matcher rangeMatcher = contentRange != null ? CONTENT_RANGE_REGEX.matcher(contentRange) : null;
+		if (
+			rawResponse.getStatusCode() != 206 ||
+			rangeMatcher == null ||
+			!rangeMatcher.matches() ||
+			Long.parseLong(rangeMatcher.group(1)) != start ||
+			Long.parseLong(rangeMatcher.group(2)) != end ||
+			!String.valueOf(size).equals(rangeMatcher.group(3)) ||
+			rawResponse.getHeaderField("Content-Encoding") != null
+		) {
+			throw new RangeNotSatisfiedException();
+		}
+
+		long writtenBytes = writeToChannel(rawResponse.getBody(), channel, start, end - start + 1, null, null);
+		if (writtenBytes != end - start + 1) {
+			throw new EOFException("Unexpected end of the segment " + start + "-" + end + " (" + writtenBytes + " bytes)");
+		}
+		return null;
+	}
+
+	/**
+	 * Thrown when the server doesn't send the requested range of a file (so the file must be downloaded with a
+	 * single stream)
+	 */
+	private static class RangeNotSatisfiedException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		RangeNotSatisfiedException() {
+			super("Range not satisfied");
+		}
+	}
+
+	/**
+	 * The download of a segment, run only once, either by the executor or by the thread that waits for it
+	 */
+	private static class SegmentTask implements Runnable {
+
+		/**
+		 * Downloads the segment
+		 */
+		private final IORunnable download;
+
+		private final AtomicBoolean started = new AtomicBoolean();
+		private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+		/**
+		 * @param download Downloads the segment
+		 */
+		SegmentTask(IORunnable download) {
+			this.download = download;
+		}
+
+		@Override
+		public void run() {
+			if (started.compareAndSet(false, true)) {
+				try {
+					download.run();
+					result.complete(null);
+				} catch (Throwable t) {
+					result.completeExceptionally(t);
+				}
+			}
+		}
+
+		/**
+		 * Cancel the download, unless already started
+		 */
+		void cancel() {
+			if (started.compareAndSet(false, true)) {
+				result.complete(null);
+			}
+		}
+
+		/**
+		 * @return whether the download has failed
+		 */
+		boolean hasFailed() {
+			return result.isCompletedExceptionally();
+		}
+
+		/**
+		 * Wait for the download to complete
+		 *
+		 * @throws IOException when the download failed
+		 */
+		void await() throws IOException {
+			try {
+				result.join();
+			} catch (CompletionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new IOException(e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * A task that may throw an IOException
+	 */
+	@FunctionalInterface
+	private interface IORunnable {
+		/**
+		 * @throws IOException when the task fails
+		 */
+		void run() throws IOException;
+	}
+
+	/**
+	 * Send an HTTP request with the settings of this HttpClient, and let the specified handler read the body of the
+	 * response, as a stream.
+	 * <p>
+	 * The handler is called once the status and the headers of the response have been received, and the body is
+	 * neither buffered nor limited in size: large responses can be processed incrementally, with constant memory.
+	 * The body stream is decoded according to the content encoding of the response (gzip, deflate), and closed
+	 * once the handler returns.
+	 * </p>
+	 * <pre>
+	 * long lines = client.streamRequest(url, "GET", null, null, null, null, 30, (response, body) -&gt;
+	 *     new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8)).lines().count()
+	 * );
+	 * </pre>
+	 *
+	 * @param <T> Type of the result of the handler
+	 * @param url The URL to be requested (e.g. https://w3.test.org/site/list.jsp)
+	 * @param method GET|POST|PUT|DELETE or whatever HTTP verb is supported
+	 * @param username Username to access the specified URL
+	 * @param password Password associated to username
+	 * @param addHeaderMap Additional headers to be added to the HTTP request (pairs of key and value), on top of the default headers of this client
+	 * @param body Body of the HTTP request to be sent
+	 * @param timeout Timeout in seconds before the operation is canceled
+	 * @param handler Reads the body of the response
+	 * @return the result of the handler
+	 * @throws MalformedURLException when the specified URL is invalid
+	 * @throws IOException when anything wrong happens during the connection, or in the handler
+	 */
+	public <T> T streamRequest(
+		String url,
+		String method,
+		String username,
+		char[] password,
+		Map<String, String> addHeaderMap,
+		String body,
+		int timeout,
+		ResponseHandler<T> handler
+	) throws IOException {
+		return execute(
+			new URL(url),
+			method,
+			username,
+			password,
+			addHeaderMap,
+			toRequestBody(body),
+			false,
+			timeout,
+			rawResponse -> streamResponse(rawResponse, handler)
+		);
+	}
+
+	/**
+	 * ByteArrayOutputStream that gives access to its buffer, to avoid copying the body
+	 */
+	private static class BodyOutputStream extends ByteArrayOutputStream {
+
+		/**
+		 * @param size Initial size of the buffer
+		 */
+		BodyOutputStream(int size) {
+			super(size);
+		}
+
+		/**
+		 * @return the buffer, whose first {@link #size()} bytes are valid
+		 */
+		byte[] getBuffer() {
+			return buf;
+		}
+	}
+
+	/**
+	 * Reads a response while its connection is open (internal counterpart of {@link ResponseHandler})
+	 *
+	 * @param <T> Type of the result
+	 */
+	@FunctionalInterface
+	private interface RawResponseHandler<T> {
+		/**
+		 * @param rawResponse The status, headers and body stream of the response
+		 * @return the result
+		 * @throws IOException when the response cannot be read
+		 */
+		T handle(RawResponse rawResponse) throws IOException;
+	}
+
+	/**
+	 * Send an HTTP request with the transport of this client, within the limits of its host (see
+	 * {@link Builder#hostThrottle(HostThrottle)}), and read its response with the specified handler
+	 *
+	 * @param <T> Type of the result of the handler
+	 * @param url The URL to be requested
+	 * @param method GET|POST|PUT|DELETE or whatever HTTP verb is supported
+	 * @param username Username to access the specified URL
+	 * @param password Password associated to username
+	 * @param addHeaderMap Additional headers to be added to the HTTP request
+	 * @param body Body of the HTTP request to be sent (null for no body)
+	 * @param streamBody Whether to stream the body (otherwise HttpURLConnection buffers it)
+	 * @param timeout Timeout in seconds before the operation is canceled
+	 * @param handler Reads the response
+	 * @return the result of the handler
+	 * @throws IOException when anything wrong happens during the connection and while reading the response
+	 */
+	private <T> T execute(
+		URL url,
+		String method,
+		String username,
+		char[] password,
+		Map<String, String> addHeaderMap,
+		RequestBody body,
+		boolean streamBody,
+		int timeout,
+		RawResponseHandler<T> handler
+	) throws IOException {
+		if (hostThrottle == null) {
+			return transmit(url, method, username, password, addHeaderMap, body, streamBody, timeout, handler);
+		}
+
+		// Wait for the limits of the host (or fail right away)
+		HostThrottle.Host host = hostThrottle.acquire(HttpBatch.getHostKey(url));
+		try {
+			return transmit(url, method, username, password, addHeaderMap, body, streamBody, timeout, handler);
+		} finally {
+			host.release();
+		}
+	}
+
+	/**
+	 * Send an HTTP request with the transport of this client, and read its response with the specified handler,
+	 * without any limit
+	 *
+	 * @param <T> Type of the result of the handler
+	 * @param url The URL to be requested
+	 * @param method GET|POST|PUT|DELETE or whatever HTTP verb is supported
+	 * @param username Username to access the specified URL
+	 * @param password Password associated to username
+	 * @param addHeaderMap Additional headers to be added to the HTTP request
+	 * @param body Body of the HTTP request to be sent (null for no body)
+	 * @param streamBody Whether to stream the body (otherwise HttpURLConnection buffers it)
+	 * @param timeout Timeout in seconds before the operation is canceled
+	 * @param handler Reads the response
+	 * @return the result of the handler
+	 * @throws IOException when anything wrong happens during the connection and while reading the response
+	 */
+	private <T> T transmit(
+		URL url,
+		String method,
+		String username,
+		char[] password,
+		Map<String, String> addHeaderMap,
+		RequestBody body,
+		boolean streamBody,
+		int timeout,
+		RawResponseHandler<T> handler
+	) throws IOException {
+		// Record the time spent in each phase of the request, until its response has been read
+		RequestTimings timings = RequestTimings.start(method, url);
+		Throwable failure = null;
+		try {
+			return exchange(url, method, username, password, addHeaderMap, body, streamBody, timeout, handler);
+		} catch (IOException | RuntimeException | Error e) {
+			failure = e;
+			throw e;
+		} finally {
+			timings.finish(failure);
+		}
+	}
+
+	/**
+	 * Send an HTTP request with the transport of this client, and read its response with the specified handler
+	 *
+	 * @param <T> Type of the result of the handler
+	 * @param url The URL to be requested
+	 * @param method GET|POST|PUT|DELETE or whatever HTTP verb is supported
+	 * @param username Username to access the specified URL
+	 * @param password Password associated to username
+	 * @param addHeaderMap Additional headers to be added to the HTTP request
+	 * @param body Body of the HTTP request to be sent (null for no body)
+	 * @param streamBody Whether to stream the body (otherwise HttpURLConnection buffers it)
+	 * @param timeout Timeout in seconds before the operation is canceled
+	 * @param handler Reads the response
+	 * @return the result of the handler
+	 * @throws IOException when anything wrong happens during the connection and while reading the response
+	 */
+	private <T> T exchange(
+		URL url,
+		String method,
+		String username,
+		char[] password,
+		Map<String, String> addHeaderMap,
+		RequestBody body,
+		boolean streamBody,
+		int timeout,
+		RawResponseHandler<T> handler
+	) throws IOException {
+		// Compress the body, if large enough
+		if (
+			requestCompression != null &&
+			body != null &&
+			body.getContentLength() != 0 &&
+			(body.getContentLength() < 0 || body.getContentLength() >= requestCompressionThreshold) &&
+			!hasHeader("Content-Encoding", addHeaderMap)
+		) {
+			body = RequestBody.compress(body, requestCompression);
+			addHeaderMap = addHeaderMap == null ? new LinkedHashMap<>() : new LinkedHashMap<>(addHeaderMap);
+			addHeaderMap.put("Content-Encoding", requestCompression);
+		}
+
+		// Send the credentials right away?
+		boolean preemptive =
+			preemptiveBasicAuthentication &&
+			username != null &&
+			!username.isEmpty() &&
+			password != null &&
+			!hasHeader("Authorization", addHeaderMap);
+
+		// Otherwise, the server will ask for the credentials, and the body will have to be sent again
+		boolean challengeExpected = username != null && !username.isEmpty() && !preemptive;
+
+		// Send the request with java.net.http (HTTP/2), if enabled and available in this JRE
+		// (java.net.http always streams the body, so it must be repeatable if the server asks for credentials)
+		if (http2Transport != null && !(challengeExpected && body != null && !body.isRepeatable())) {
+			RawResponse rawResponse;
+			try {
+				rawResponse = sendHttp2Request(url, method, username, password, addHeaderMap, body, timeout, preemptive);
+			} catch (ConnectException e) {
+				// The proxy cannot be connected to: set it aside, and send the request through the next one, with
+				// HttpURLConnection
+				if (proxyAddresses.size() < 2 || (body != null && !body.isRepeatable())) {
+					throw e;
+				}
+				proxyRegistry.markFailed(proxyRegistry.select(proxyAddresses).get(0));
+				rawResponse = null;
+			}
+			if (rawResponse != null) {
+				return handleResponse(rawResponse, handler);
+			}
+			// Otherwise, java.net.http cannot handle this request: fall back to HttpURLConnection
+		}
+
+		// The body can be streamed only if the server won't ask for the credentials
+		// (HttpURLConnection cannot send a streamed body again)
+		boolean streaming = streamBody && body != null && !challengeExpected;
+
+		if (preemptive) {
+			try {
+				return sendUrlConnectionRequest(
+					url,
+					method,
+					username,
+					password,
+					addHeaderMap,
+					body,
+					streaming,
+					timeout,
+					true,
+					handler
+				);
+			} catch (PreemptiveAuthenticationRejectedException e) {
+				// The server requires another authentication scheme: send the request again, the regular way
+				// (the server will ask for the credentials, so the body cannot be streamed)
+				streaming = false;
+			}
+		}
+		return sendUrlConnectionRequest(
+			url,
+			method,
+			username,
+			password,
+			addHeaderMap,
+			body,
+			streaming,
+			timeout,
+			false,
+			handler
+		);
+	}
+
+	/**
+	 * Thrown when the server rejected the credentials sent preemptively with the Basic scheme,
+	 * and requires another authentication scheme
+	 */
+	private static class PreemptiveAuthenticationRejectedException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * @param challenge The authentication challenge of the server
+		 */
+		PreemptiveAuthenticationRejectedException(List<String> challenge) {
+			super("Basic authentication scheme not supported by the server: " + challenge);
+		}
+	}
+
+	/**
+	 * @param challenges Values of the <code>WWW-Authenticate</code> header of a response
+	 * @return whether the server accepts the Basic authentication scheme
+	 */
+	static boolean acceptsBasicAuthentication(List<String> challenges) {
+		return challenges.stream().anyMatch(challenge -> BASIC_CHALLENGE_REGEX.matcher(challenge).find());
+	}
+
+	/**
+	 * @param name Header name, in any case
+	 * @param addHeaderMap Additional headers of the request (may be null)
+	 * @return whether the specified header is set, either in the default headers of this client or in the specified
+	 * additional headers
+	 */
+	private boolean hasHeader(String name, Map<String, String> addHeaderMap) {
+		return Stream
+			.of(defaultHeaders, addHeaderMap)
+			.filter(Objects::nonNull)
+			.flatMap(headers -> headers.entrySet().stream())
+			.anyMatch(header ->
+				name.equalsIgnoreCase(header.getKey()) && header.getValue() != null && !header.getValue().isEmpty()
+			);
+	}
+
+	/**
+	 * Calls the specified handler, and closes the body stream of the response in any case
+	 *
+	 * @param <T> Type of the result of the handler
+	 * @param rawResponse The response
+	 * @param handler Reads the response
+	 * @return the result of the handler
+	 * @throws IOException when the response cannot be read
+	 */
+	private static <T> T handleResponse(RawResponse rawResponse, RawResponseHandler<T> handler) throws IOException {
+		try {
+			return handler.handle(rawResponse);
+		} finally {
+			if (rawResponse.getBody() != null) {
+				rawResponse.getBody().close();
+			}
+		}
+	}
+
+	/**
+	 * Set the User-Agent, the default headers of this client and the specified additional headers,
+	 * with the specified setter (which must replace the previous value of a header, regardless of its case)
+	 *
+	 * @param addHeaderMap Additional headers to be added to the HTTP request (they override the default ones)
+	 * @param setter Sets a header of the request
+	 */
+	private void setRequestHeaders(Map<String, String> addHeaderMap, BiConsumer<String, String> setter) {
+		// User agent, supported content encodings and default headers of this client
+		setter.accept("User-Agent", userAgent);
+		if (acceptCompression) {
+			setter.accept("Accept-Encoding", ACCEPTED_ENCODINGS);
+		}
+		defaultHeaders.forEach(setter);
+
+		// Add the additional specified headers (they override the default ones)
+		if (addHeaderMap != null) {
+			addHeaderMap.forEach((header, value) -> {
+				if (header != null && value != null && !header.isEmpty() && !value.isEmpty()) {
+					setter.accept(header, value);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Send an HTTP request with java.net.http (see {@link Builder#http2(boolean)})
+	 * <p>
+	 * java.net.http handles the authentication challenges with an authenticator set once for all in the
+	 * client, and caches the credentials. So, a <code>Basic</code> challenge is answered here, with the
+	 * credentials of this request, and the requests that need another authentication scheme (Digest, NTLM, etc.)
+	 * are sent with HttpURLConnection instead.
+	 * </p>
+	 *
+	 * @param url The URL to be requested
+	 * @param method GET|POST|PUT|DELETE or whatever HTTP verb is supported
+	 * @param username Username to access the specified URL
+	 * @param password Password associated to username
+	 * @param addHeaderMap Additional headers to be added to the HTTP request
+	 * @param body Body of the HTTP request to be sent (null for no body)
+	 * @param timeout Timeout in seconds before the operation is canceled
+	 * @param preemptive Whether to send the credentials with the Basic scheme right away
+	 * @return the response (its body still to be read), or null if the request must be sent with HttpURLConnection instead
+	 * @throws IOException when anything wrong happens during the connection
+	 */
+	private RawResponse sendHttp2Request(
+		URL url,
+		String method,
+		String username,
+		char[] password,
+		Map<String, String> addHeaderMap,
+		RequestBody body,
+		int timeout,
+		boolean preemptive
+	) throws IOException {
+		// Headers (java.net.http replaces the value of a header regardless of the case of its name)
+		Map<String, String> headers = new LinkedHashMap<>();
+		setRequestHeaders(addHeaderMap, headers::put);
+		if (preemptive) {
+			headers.put("Authorization", getBasicAuthorization(username, password));
+		}
+
+		// Go! (java.net.http doesn't report its connections, so the time to first byte includes them)
+		RequestTimings.markRequestStart();
+		RawResponse rawResponse = http2Transport.send(url, method, headers, body, timeout, expectContinue);
+		if (rawResponse == null) {
+			return null;
+		}
+		RequestTimings.markResponse(rawResponse.getStatusCode());
+
+		// Authentication required? (unless the credentials have already been sent with the Basic scheme)
+		if (rawResponse.getStatusCode() == HttpURLConnection.HTTP_UNAUTHORIZED && username != null && !username.isEmpty()) {
+			boolean acceptsBasic = acceptsBasicAuthentication(rawResponse.getHeaderValues("WWW-Authenticate"));
+			if (preemptive && acceptsBasic || body != null && !body.isRepeatable()) {
+				return rawResponse;
+			}
+			if (rawResponse.getBody() != null) {
+				rawResponse.getBody().close();
+			}
+			if (!acceptsBasic) {
+				return null;
+			}
+
+			// Send the request again, with the credentials
+			headers.put("Authorization", getBasicAuthorization(username, password));
+			RequestTimings.markRequestStart();
+			rawResponse = http2Transport.send(url, method, headers, body, timeout, expectContinue);
+			if (rawResponse != null) {
+				RequestTimings.markResponse(rawResponse.getStatusCode());
+			}
 		}
-	};
+
+		return rawResponse;
+	}
 
 	/**
-	 * The lousy SSL Socket Factory, that accepts any certificate
+	 * Builds the value of the <code>Authorization</code> header for the Basic authentication scheme
+	 *
+	 * @param username Username
+	 * @param password Password associated to username (may be null)
+	 * @return the value of the header, i.e. <code>Basic base64(username:password)</code>
 	 */
-	private static final SSLSocketFactory BASE_SOCKET_FACTORY;
+	static String getBasicAuthorization(String username, char[] password) {
+		String credentials = username + ":" + (password == null ? "" : new String(password));
+		return "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.ISO_8859_1));
+	}
 
 	/**
-	 * The default SSL protocols available in this JRE
+	 * Send an HTTP request with HttpURLConnection, directly or through the first proxy that can be connected to
+	 *
+	 * @param <T> Type of the result of the handler
+	 * @param url The URL to be requested
+	 * @param method GET|POST|PUT|DELETE or whatever HTTP verb is supported
+	 * @param username Username to access the specified URL
+	 * @param password Password associated to username
+	 * @param addHeaderMap Additional headers to be added to the HTTP request
+	 * @param body Body of the HTTP request to be sent (null for no body)
+	 * @param streaming Whether to stream the body (otherwise HttpURLConnection buffers it)
+	 * @param timeout Timeout in seconds before the operation is canceled
+	 * @param preemptive Whether to send the credentials with the Basic scheme right away
+	 * @param handler Reads the response, while the connection is open
+	 * @return the result of the handler
+	 * @throws PreemptiveAuthenticationRejectedException when the credentials sent preemptively are rejected, and the
+	 * server requires another authentication scheme
+	 * @throws IOException when anything wrong happens during the connection and while reading the response
 	 */
-	private static final String[] DEFAULT_SSL_PROTOCOLS;
+	private <T> T sendUrlConnectionRequest(
+		URL url,
+		String method,
+		String username,
+		char[] password,
+		Map<String, String> addHeaderMap,
+		RequestBody body,
+		boolean streaming,
+		int timeout,
+		boolean preemptive,
+		RawResponseHandler<T> handler
+	) throws IOException {
+		// Direct connection
+		if (proxyAddresses.isEmpty()) {
+			return sendUrlConnectionRequest(
+				null,
+				url,
+				method,
+				username,
+				password,
+				addHeaderMap,
+				body,
+				streaming,
+				timeout,
+				preemptive,
+				handler
+			);
+		}
 
-	static {
-		SSLContext sc = null;
-		try {
-			sc = SSLContext.getInstance("SSL");
-			sc.init(null, LOUSY_TRUST_MANAGER, new java.security.SecureRandom());
-		} catch (NoSuchAlgorithmException | KeyManagementException e) {}
-		BASE_SOCKET_FACTORY = sc.getSocketFactory();
-		DEFAULT_SSL_PROTOCOLS = sc.getDefaultSSLParameters().getProtocols();
+		// Through the proxies, in the order of preference: the next one, if a proxy cannot be connected to
+		List<Proxy> proxies = proxyRegistry.select(proxyAddresses);
+		for (int i = 0;; i++) {
+			try {
+				return sendUrlConnectionRequest(
+					proxies.get(i),
+					url,
+					method,
+					username,
+					password,
+					addHeaderMap,
+					body,
+					streaming,
+					timeout,
+					preemptive,
+					handler
+				);
+			} catch (ProxyConnectException e) {
+				proxyRegistry.markFailed(proxies.get(i));
+				if (i == proxies.size() - 1) {
+					throw e.getCause();
+				}
+			}
+		}
 	}
 
 	/**
-	 * Returns the InputStream that will be properly decoded, according to the
-	 * content encoding of the HTTP response.
-	 *
-	 * @param httpURL HttpURLConnection instance
-	 * @return the input stream to read from
+	 * Thrown when the proxy cannot be connected to (nothing has been sent yet, so the request can be sent through
+	 * another proxy)
 	 */
-	private static InputStream getDecodedStream(HttpURLConnection httpURL) {
-		String contentEncoding = httpURL.getContentEncoding();
+	private static class ProxyConnectException extends IOException {
 
-		try {
-			// In case of a GZIP-encoded content, well, unzip it!
-			if ("gzip".equalsIgnoreCase(contentEncoding)) {
-				return new GZIPInputStream(httpURL.getInputStream());
-			} else if ("deflate".equalsIgnoreCase(contentEncoding)) {
-				return new InflaterInputStream(httpURL.getInputStream());
-			} else {
-				return httpURL.getInputStream();
-			}
-		} catch (IOException e) {
-			// If getInputStream() failed, then use the error stream, if available
-			return httpURL.getErrorStream();
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * @param cause The failure to connect to the proxy
+		 */
+		ProxyConnectException(IOException cause) {
+			super(cause);
+		}
+
+		@Override
+		public synchronized IOException getCause() {
+			return (IOException) super.getCause();
 		}
 	}
 
 	/**
-	 * @param url The URL to be requested (e.g. https://w3.test.org/site/list.jsp)
+	 * Whether the failure of <code>connect()</code> through the specified proxy means that the proxy itself cannot
+	 * be reached.
+	 * <p>
+	 * Through a proxy, the JRE only opens a TCP connection to the proxy, but <code>connect()</code> also covers the
+	 * CONNECT tunnel to the server and the TLS handshake with it. A server that doesn't answer makes these time out
+	 * while reading ("Read timed out"), which is not the fault of the proxy.
+	 * </p>
+	 *
+	 * @param proxy The proxy the request was sent through
+	 * @param e The failure of <code>connect()</code>
+	 * @return whether the TCP connection to the proxy was refused, unreachable or timed out, or whether the name of
+	 * the proxy cannot be resolved
+	 */
+	static boolean isProxyUnreachable(Proxy proxy, IOException e) {
+		if (e instanceof ConnectException || e instanceof NoRouteToHostException) {
+			return true;
+		}
+		if (e instanceof UnknownHostException) {
+			// The server is resolved by the proxy: only the name of the proxy can be unknown here
+			return (
+				proxy.address() instanceof InetSocketAddress &&
+				((InetSocketAddress) proxy.address()).getHostString().equalsIgnoreCase(e.getMessage())
+			);
+		}
+		if (e instanceof SocketTimeoutException) {
+			// "connect timed out" (Java 8 to 11) or "Connect timed out" (Java 13 and later)
+			return e.getMessage() != null && e.getMessage().toLowerCase().contains("connect timed out");
+		}
+		return false;
+	}
+
+	/**
+	 * Send an HTTP request with HttpURLConnection
+	 *
+	 * @param <T> Type of the result of the handler
+	 * @param proxy The proxy to connect through (null for a direct connection)
+	 * @param url The URL to be requested
 	 * @param method GET|POST|PUT|DELETE or whatever HTTP verb is supported
-	 * @param specifiedSslProtocolArray Array of string of the SSL protocols to use (e.g.: "SSLv3", "TLSv1", etc.)
 	 * @param username Username to access the specified URL
 	 * @param password Password associated to username
-	 * @param proxyServer Host name of IP address of the proxy. Leave empty or null if no proxy is required.
-	 * @param proxyPort Port of the proxy (e.g. 3128)
-	 * @param proxyUsername Username to connect to the proxy (if any)
-	 * @param proxyPassword Password associated to the proxy username
-	 * @param userAgent String of the user agent to specify in the request (if null, will use a default one)
-	 * @param addHeaderMap Additional headers to be added to the HTTP request (pairs of key and value)
-	 * @param body Body of the HTTP request to be sent
+	 * @param addHeaderMap Additional headers to be added to the HTTP request
+	 * @param body Body of the HTTP request to be sent (null for no body)
+	 * @param streaming Whether to stream the body (otherwise HttpURLConnection buffers it)
 	 * @param timeout Timeout in seconds before the operation is canceled
-	 * @param downloadToPath A path where to download the content of the HTTP response to
-	 * @return an HttpResponse, which itself contains the HTTP status code, the headers and the body of the response
-	 * @throws MalformedURLException when the specified URL is invalid
-	 * @throws IOException when anything wrong happens during the connection and while downloading information from the Web server
-	 * @throws FileNotFoundException when the specified downloadToPath is not correct (not a file, not accessible, etc.)
+	 * @param preemptive Whether to send the credentials with the Basic scheme right away
+	 * @param handler Reads the response, while the connection is open
+	 * @return the result of the handler
+	 * @throws PreemptiveAuthenticationRejectedException when the credentials sent preemptively are rejected, and the
+	 * server requires another authentication scheme
+	 * @throws ProxyConnectException when the proxy cannot be connected to
+	 * @throws IOException when anything wrong happens during the connection and while reading the response
 	 */
-	public static HttpResponse sendRequest(
-		String url,
+	private <T> T sendUrlConnectionRequest(
+		Proxy proxy,
+		URL url,
 		String method,
-		String[] specifiedSslProtocolArray,
 		String username,
 		char[] password,
-		String proxyServer,
-		int proxyPort,
-		String proxyUsername,
-		char[] proxyPassword,
-		String userAgent,
 		Map<String, String> addHeaderMap,
-		String body,
+		RequestBody body,
+		boolean streaming,
 		int timeout,
-		String downloadToPath
+		boolean preemptive,
+		RawResponseHandler<T> handler
 	) throws IOException {
-		// Connect through a proxy?
-		boolean useProxy = proxyServer != null && !proxyServer.isEmpty();
-
-		// Connect directly (no proxy)
+		// Connect directly (no proxy) or through the proxy
 		HttpURLConnection httpURL;
-		if (!useProxy) {
-			httpURL = (HttpURLConnection) new URL(url).openConnection();
+		if (proxy == null) {
+			httpURL = (HttpURLConnection) url.openConnection();
 		} else {
-			Proxy proxy = new Proxy(Proxy.Type.HTTP, new InetSocketAddress(proxyServer, proxyPort));
-			httpURL = (HttpURLConnection) new URL(url).openConnection(proxy);
-		}
-
-		// Download to a file?
-		// Perform some verifications on the specified downloadToPath
-		File downloadToFile = null;
-		if (downloadToPath != null && !downloadToPath.isEmpty()) {
-			// So, the user specified a file path to download to
-			downloadToFile = new File(downloadToPath);
-
-			// Check whether the user specified a path whose path doesn't exist
-			File parentDirectory = downloadToFile.getParentFile();
-			if (parentDirectory != null && !parentDirectory.exists()) {
-				// So, the parent directory of the specified filed path does not exist
-				try {
-					// We therefore need to create the directory (and maybe the grand-parent directories, and so on...)
-					parentDirectory.mkdirs();
-				} catch (SecurityException e) {
-					throw new IOException("Couldn't create the necessary directories for " + downloadToPath);
-				}
-			}
+			httpURL = (HttpURLConnection) url.openConnection(proxy);
 		}
 
 		/////////////////////////////////////////
@@ -217,25 +2405,8 @@ public class HttpClient {
 			// our own lousy -- very untight -- verifiers
 			((HttpsURLConnection) httpURL).setHostnameVerifier(LOUSY_HOSTNAME_VERIFIER);
 
-			// If no protocols were specified (as normal), use the default ones
-			if (specifiedSslProtocolArray == null || specifiedSslProtocolArray.length == 0) {
-				// So, simply use the base socket factory
-				((HttpsURLConnection) httpURL).setSSLSocketFactory(BASE_SOCKET_FACTORY);
-			} else {
-				// Clean-up the list of specified protocols (remove non supported ones, incl. SSLv2Hello)
-				String[] protocolsToEnable = Arrays
-					.stream(specifiedSslProtocolArray)
-					.filter(p -> p != null && !"SSLv2Hello".equalsIgnoreCase(p))
-					.filter(p -> Arrays.stream(DEFAULT_SSL_PROTOCOLS).anyMatch(d -> d.equalsIgnoreCase(p)))
-					.toArray(String[]::new);
-
-				// Create a new SSL socket factory with these settings
-				SSLSocketFactory overridenSocketFactory = new ProtocolOverridingSSLSocketFactory(
-					BASE_SOCKET_FACTORY,
-					protocolsToEnable
-				);
-				((HttpsURLConnection) httpURL).setSSLSocketFactory(overridenSocketFactory);
-			}
+			// Use the socket factory prepared for the SSL protocols of this client
+			((HttpsURLConnection) httpURL).setSSLSocketFactory(sslSocketFactory);
 		}
 
 		// Setup the HTTP connection
@@ -248,131 +2419,546 @@ public class HttpClient {
 		httpURL.setAllowUserInteraction(false);
 		httpURL.setInstanceFollowRedirects(true);
 
-		// User agent
-		if (userAgent == null || userAgent.isEmpty()) {
-			userAgent = DEFAULT_USER_AGENT;
+		// User agent, default headers of this client and additional headers
+		setRequestHeaders(addHeaderMap, httpURL::setRequestProperty);
+		if (preemptive) {
+			httpURL.setRequestProperty("Authorization", getBasicAuthorization(username, password));
 		}
-		httpURL.addRequestProperty("User-Agent", userAgent);
 
-		// Add the additional specified headers
-		if (addHeaderMap != null) {
-			addHeaderMap.forEach((header, value) -> {
-				if (header != null && value != null && !header.isEmpty() && !value.isEmpty()) {
-					httpURL.addRequestProperty(header, value);
-				}
-			});
+		// Stream the body, instead of letting HttpURLConnection buffer it
+		if (streaming) {
+			long contentLength = body.getContentLength();
+			if (contentLength >= 0) {
+				httpURL.setFixedLengthStreamingMode(contentLength);
+			} else {
+				httpURL.setChunkedStreamingMode(BUFFER_SIZE);
+			}
+			if (expectContinue) {
+				httpURL.setRequestProperty("Expect", "100-continue");
+			}
+		}
+
+		// Limited connections? Wait for our turn on this route
+		ConnectionLimiter.Lease lease = null;
+		boolean reusable = false;
+		if (connectionLimiter != null) {
+			lease =
+				connectionLimiter.acquire(
+					ConnectionLimiter.routeKey(httpURL.getURL(), proxy, sslProtocols),
+					TimeUnit.SECONDS.toMillis(timeout)
+				);
 		}
 
 		// Authentication
-		ThreadSafeNoCacheAuthenticator.setCredentials(username, password, proxyUsername, proxyPassword);
-		Authenticator.setDefault(ThreadSafeNoCacheAuthenticator.getInstance());
+		ThreadSafeNoCacheAuthenticator.setCredentials(httpURL, username, password, proxyUsername, proxyPassword);
 
 		// Go!
 		try {
-			httpURL.connect();
+			try {
+				// (the resolver and the socket factory of this client record the phases of the connection)
+				RequestTimings.markConnectStart();
+				httpURL.connect();
+				RequestTimings.markConnected();
+			} catch (IOException e) {
+				// Nothing of the request has been written yet: it can be sent through another proxy, if this one
+				// cannot be reached
+				throw proxy != null && isProxyUnreachable(proxy, e) ? new ProxyConnectException(e) : e;
+			}
 
 			// Send our request
-			if (body != null && !body.isEmpty()) {
+			if (body != null) {
 				try (OutputStream os = httpURL.getOutputStream()) {
-					os.write(body.getBytes(UTF8_CHARSET));
+					body.writeTo(os);
+				} catch (ProtocolException e) {
+					// With "Expect: 100-continue", the server may reject the request before we send the body:
+					// its response will be read below
+					if (!streaming || !expectContinue) {
+						throw e;
+					}
 				}
 			}
 
-			// New HttpResponse
-			HttpResponse response = new HttpResponse();
-
 			// Get the HTTP response code
 			// Note: this may fail and trigger an IOException with JRE1.6 on some 401 (Unauthorized) responses
-			response.setStatusCode(httpURL.getResponseCode());
-
-			// Read the response headers
-			httpURL
-				.getHeaderFields()
-				.forEach((header, valueList) -> valueList.forEach(value -> response.appendHeader(header, value)));
-
-			// Do we have a file path to write to?
-			if (downloadToFile != null) {
-				// If the specified downloadToPath is a directory, we will have to make up a file name
-				// by retrieving the name of the resource that we're downloading, basically
-				// We can do this only at the very last second because the user may have specified a
-				// URL which doesn't not specify a file (like .../download.php?file=Avatar1080p.mkv)
-				// which will be then redirected to the real URL (..../A09230E9FB58A0459284/Avatar1080p.mkv)
-				// So, only now we can retrieve the URL of the httpURL connection, which should be the
-				// latest one that we've queried after we've been redirected
-				if (downloadToFile.isDirectory()) {
-					String tempFilename = httpURL.getURL().getPath();
-					String filename = tempFilename.substring(tempFilename.lastIndexOf('/'));
-					downloadToPath = new File(downloadToFile, filename).getPath();
+			int statusCode = httpURL.getResponseCode();
+			RequestTimings.markResponse(statusCode);
+
+			// Read the response
+			RawResponse rawResponse = new RawResponse(
+				statusCode,
+				httpURL.getHeaderFields(),
+				getResponseStream(httpURL),
+				httpURL.getURL(),
+				getProtocol(httpURL.getHeaderField(0))
+			);
+
+			// HttpURLConnection doesn't answer the challenge of the server when the Authorization header is set
+			if (preemptive && statusCode == HttpURLConnection.HTTP_UNAUTHORIZED && (body == null || body.isRepeatable())) {
+				List<String> challenges = rawResponse.getHeaderValues("WWW-Authenticate");
+				if (!challenges.isEmpty() && !acceptsBasicAuthentication(challenges)) {
+					throw new PreemptiveAuthenticationRejectedException(challenges);
 				}
+			}
+
+			T result = handleResponse(rawResponse, handler);
+
+			// The response has been entirely read: the JRE can reuse the connection, if the server keeps it open
+			if (lease != null) {
+				reusable = !"close".equalsIgnoreCase(rawResponse.getHeaderField("Connection"));
+			}
+			return result;
+		} finally {
+			// Disconnect, unless the connection goes back to the keep-alive cache of the JRE
+			if (lease != null) {
+				connectionLimiter.release(lease);
+			}
+			if (!reusable) {
+				httpURL.disconnect();
+			}
+
+			// Clear the credentials
+			ThreadSafeNoCacheAuthenticator.clearCredentials();
+		}
+	}
+
+	/**
+	 * Returns the stream of the response body, or the error stream if the server returned an error
+	 *
+	 * @param httpURL HttpURLConnection instance, connected
+	 * @return the stream to read the body from (may be null)
+	 */
+	private static InputStream getResponseStream(HttpURLConnection httpURL) {
+		try {
+			return httpURL.getInputStream();
+		} catch (IOException e) {
+			// If getInputStream() failed, then use the error stream, if available
+			return httpURL.getErrorStream();
+		}
+	}
+
+	/**
+	 * Read the response received by one of the transports, and build the corresponding HttpResponse
+	 *
+	 * @param rawResponse The status, headers and body stream of the response
+	 * @param url The requested URL
+	 * @param downloadToFile The file or directory where to download the content of the HTTP response to (or null)
+	 * @param downloadToPath The path of downloadToFile
+	 * @param resumeRecord The record of the interrupted download that the request resumes (or null)
+	 * @return an HttpResponse, which itself contains the HTTP status code, the headers and the body of the response
+	 * (or the path of the downloaded file)
+	 * @throws IOException when the body cannot be read or written to the file
+	 */
+	private HttpResponse readResponse(
+		RawResponse rawResponse,
+		URL url,
+		File downloadToFile,
+		String downloadToPath,
+		ResumeRecord resumeRecord
+	) throws IOException {
+		// New HttpResponse, with the status and the headers
+		HttpResponse response = newHttpResponse(rawResponse);
+
+		// Do we have a file path to write to?
+		if (downloadToFile != null) {
+			downloadToPath = getDownloadPath(downloadToFile, downloadToPath, rawResponse.getUrl());
+
+			Path path = Paths.get(downloadToPath);
+			String contentEncoding = rawResponse.getHeaderField("Content-Encoding");
+			boolean identity = contentEncoding == null || "identity".equalsIgnoreCase(contentEncoding);
 
-				// Download the content directly to the file
-				try (
-					FileOutputStream fileStream = new FileOutputStream(downloadToPath);
-					InputStream httpStream = getDecodedStream(httpURL)
+			// Did the server send the missing bytes of the interrupted download?
+			long offset = 0;
+			if (resumeRecord != null) {
+				if (rawResponse.getStatusCode() == 416) {
+					throw new RangeNotSatisfiedException();
+				}
+				if (
+					rawResponse.getStatusCode() == 206 &&
+					identity &&
+					getContentRangeStart(rawResponse) == resumeRecord.getLength()
 				) {
-					byte[] tempBuf = new byte[BUFFER_SIZE];
-					int readBytes;
-					while ((readBytes = httpStream.read(tempBuf)) != -1) {
-						fileStream.write(tempBuf, 0, readBytes);
-					}
+					offset = resumeRecord.getLength();
+
+					// The file is complete, like with a 200 response
+					response.setStatusCode(200);
+				} else if (rawResponse.getStatusCode() != 200) {
+					// Any other response (e.g. 503) doesn't replace the downloaded bytes: keep them, and the record
+					throw new IOException(
+						"Cannot resume the download of " + url + " (HTTP status " + rawResponse.getStatusCode() + ")"
+					);
 				}
+				// Otherwise, the file has changed, and the server sent the entire file
+			}
 
-				// As we have successfully created the file, we will put in the returned "body" of the
-				// HTTP response the path to the file that we just created, so that the client can reference it
-				response.appendBody(downloadToPath);
+			// Record the version of the file, to resume the download if it fails
+			String validator = null;
+			if (resumableDownloads && identity && (rawResponse.getStatusCode() == 200 || offset > 0)) {
+				validator = getValidator(rawResponse);
+				if (validator == null && offset > 0) {
+					validator = resumeRecord.getValidator();
+				}
+			}
 
-				// Return
-				return response;
+			// Record the progress of the download periodically, so that it can be resumed even if this process
+			// stops abruptly
+			LongConsumer checkpoint = null;
+			if (validator != null) {
+				final String recordValidator = validator;
+				final long recordOffset = offset;
+				final long[] nextRecordTime = { System.nanoTime() };
+				checkpoint =
+					bytes -> {
+						long now = System.nanoTime();
+						if (now - nextRecordTime[0] >= 0) {
+							nextRecordTime[0] = now + RESUME_RECORD_INTERVAL_NANOS;
+							try {
+								new ResumeRecord(url.toString(), recordValidator, recordOffset + bytes).write(path);
+							} catch (IOException e) {
+								// The record will be written again at the next checkpoint, or if the download fails
+							}
+						}
+					};
+			}
+
+			// Download the content directly to the file
+			// (its final size is known only if the content is not encoded)
+			long contentLength = identity ? getContentLength(rawResponse) : -1;
+			AtomicLong writtenBytes = new AtomicLong();
+			try (InputStream httpStream = getDecodedStream(rawResponse)) {
+				long fileSize = writeToFile(
+					httpStream,
+					path,
+					offset,
+					contentLength >= 0 ? offset + contentLength : -1,
+					syncDownloads,
+					writtenBytes,
+					checkpoint
+				);
+
+				// HttpURLConnection doesn't report a connection closed before the end of the content
+				if (contentLength >= 0 && fileSize != offset + contentLength) {
+					throw new EOFException(
+						"Unexpected end of the content (" + writtenBytes.get() + " bytes out of " + contentLength + ")"
+					);
+				}
+			} catch (IOException e) {
+				// Keep what has been downloaded
+				if (validator != null && offset + writtenBytes.get() > 0) {
+					new ResumeRecord(url.toString(), validator, offset + writtenBytes.get()).write(path);
+				}
+				throw e;
+			}
+			if (resumableDownloads) {
+				ResumeRecord.delete(path);
 			}
 
-			// Read the content (expecting a text string, as it's going to be returned as a String, and not a byte[])
+			// As we have successfully created the file, we will put in the returned "body" of the
+			// HTTP response the path to the file that we just created, so that the client can reference it
+			response.appendBody(downloadToPath);
+			return response;
+		}
+
+		// Read the content (expecting a text string, as it's going to be returned as a String, and not a byte[])
+
+		// First, what is the content length?
+		long contentLength = getContentLength(rawResponse);
 
-			// First, what is the content length?
-			int contentLength = httpURL.getContentLength();
+		// If content is too large, then discard it
+		if (contentLength > MAX_CONTENT_LENGTH) {
+			throw new IOException("Content is too large (" + contentLength + " bytes > " + MAX_CONTENT_LENGTH + " bytes)");
+		}
 
-			// If content is too large, then discard it
-			if (contentLength > MAX_CONTENT_LENGTH) {
-				throw new IOException("Content is too large (" + contentLength + " bytes > " + MAX_CONTENT_LENGTH + " bytes)");
+		// What is the encoding (so we can build the String accordingly)
+		Charset charset = UTF8_CHARSET;
+		String contentType = rawResponse.getHeaderField("Content-Type");
+		if (contentType != null) {
+			Matcher charsetMatcher = CHARSET_REGEX.matcher(contentType);
+			if (charsetMatcher.find()) {
+				charset = Charset.forName(charsetMatcher.group(1));
 			}
+		}
 
-			// What is the encoding (so we can build the String accordingly)
-			Charset charset = UTF8_CHARSET;
-			String contentType = httpURL.getContentType();
-			if (contentType != null) {
-				Matcher charsetMatcher = CHARSET_REGEX.matcher(contentType);
-				if (charsetMatcher.find()) {
-					charset = Charset.forName(charsetMatcher.group(1));
+		// Read body by chunks
+		BodyOutputStream bodyBytes = new BodyOutputStream(contentLength > 0 ? (int) contentLength : 32);
+
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int totalBytesCount = 0;
+		int bytesCount;
+
+		try (InputStream httpStream = getDecodedStream(rawResponse)) {
+			while (httpStream != null && (bytesCount = httpStream.read(buffer)) != -1) {
+				bodyBytes.write(buffer, 0, bytesCount);
+				totalBytesCount += bytesCount;
+				if (totalBytesCount > MAX_CONTENT_LENGTH) {
+					throw new IOException("Content is too large (maximum " + MAX_CONTENT_LENGTH + " bytes)");
 				}
 			}
+		}
+		// Keep the raw bytes as they are, they will be decoded only if needed
+		response.setBody(bodyBytes.getBuffer(), bodyBytes.size(), charset);
 
-			// Read body by chunks
-			ByteArrayOutputStream bodyBytes = contentLength > 0
-				? new ByteArrayOutputStream(contentLength)
-				: new ByteArrayOutputStream();
+		return response;
+	}
 
-			byte[] buffer = new byte[BUFFER_SIZE];
-			int totalBytesCount = 0;
-			int bytesCount;
+	/**
+	 * Hand the decoded body stream of the response to the specified handler
+	 *
+	 * @param <T> Type of the result of the handler
+	 * @param rawResponse The response
+	 * @param handler Reads the body stream
+	 * @return the result of the handler
+	 * @throws IOException when the body cannot be read
+	 */
+	private static <T> T streamResponse(RawResponse rawResponse, ResponseHandler<T> handler) throws IOException {
+		HttpResponse response = newHttpResponse(rawResponse);
+		InputStream decodedStream = getDecodedStream(rawResponse);
+		try (InputStream body = decodedStream != null ? decodedStream : new ByteArrayInputStream(new byte[0])) {
+			return handler.handle(response, body);
+		}
+	}
 
-			try (InputStream httpStream = getDecodedStream(httpURL)) {
-				while (httpStream != null && (bytesCount = httpStream.read(buffer)) != -1) {
-					bodyBytes.write(buffer, 0, bytesCount);
-					totalBytesCount += bytesCount;
-					if (totalBytesCount > MAX_CONTENT_LENGTH) {
-						throw new IOException("Content is too large (maximum " + MAX_CONTENT_LENGTH + " bytes)");
-					}
+	/**
+	 * @param statusLine The status line of a response received by HttpURLConnection (e.g. "HTTP/1.1 200 OK")
+	 * @return the protocol of the response (e.g. "HTTP/1.1"), or null if the status line is not valid
+	 */
+	static String getProtocol(String statusLine) {
+		if (statusLine == null || !statusLine.startsWith("HTTP/")) {
+			return null;
+		}
+		int space = statusLine.indexOf(' ');
+		return space < 0 ? statusLine : statusLine.substring(0, space);
+	}
+
+	/**
+	 * @param rawResponse The response
+	 * @return a new HttpResponse with the status code and the headers of the response (and no body)
+	 */
+	private static HttpResponse newHttpResponse(RawResponse rawResponse) {
+		HttpResponse response = new HttpResponse();
+		response.setStatusCode(rawResponse.getStatusCode());
+		response.setProtocol(rawResponse.getProtocol());
+		response.setTimings(RequestTimings.current());
+
+		// Read the response headers
+		rawResponse
+			.getHeaderFields()
+			.forEach((header, valueList) -> valueList.forEach(value -> response.appendHeader(header, value)));
+		return response;
+	}
+
+	/**
+	 * @param downloadToFile The file or directory where to download the content of the HTTP response to
+	 * @param downloadToPath The path of downloadToFile
+	 * @param url The URL of the response
+	 * @return the path of the file to write the content of the response to
+	 */
+	private static String getDownloadPath(File downloadToFile, String downloadToPath, URL url) {
+		// If the specified downloadToPath is a directory, we will have to make up a file name
+		// by retrieving the name of the resource that we're downloading, basically
+		// We can do this only at the very last second because the user may have specified a
+		// URL which doesn't not specify a file (like .../download.php?file=Avatar1080p.mkv)
+		// which will be then redirected to the real URL (..../A09230E9FB58A0459284/Avatar1080p.mkv)
+		// So, only now we can retrieve the URL of the response, which should be the
+		// latest one that we've queried after we've been redirected
+		if (downloadToFile.isDirectory()) {
+			String tempFilename = url.getPath();
+			String filename = tempFilename.substring(tempFilename.lastIndexOf('/'));
+			return new File(downloadToFile, filename).getPath();
+		}
+		return downloadToPath;
+	}
+
+	/**
+	 * Write the specified stream to a file, with large positional writes of a FileChannel.
+	 * <p>
+	 * The response body is an InputStream (not a channel), so <code>FileChannel.transferFrom()</code> would only
+	 * copy it through an internal 8 KB buffer: the stream is rather read in a 1 MB buffer, written at once.
+	 * </p>
+	 *
+	 * @param stream The stream to write (null to create an empty file)
+	 * @param path The file to create, or overwrite
+	 * @param offset Position in the file where to write the stream (0 to overwrite the file, or the number of bytes
+	 * already downloaded, which are kept)
+	 * @param size The expected size of the file (-1 if unknown), to size the write buffer
+	 * @param sync Whether to flush the file to the storage device before returning
+	 * @param writtenBytes Counts the bytes written so far, even if the stream fails (may be null)
+	 * @return the size of the file (if the stream fails, the file is truncated to the bytes written so far)
+	 * @throws IOException when the stream cannot be read, or the file cannot be written
+	 */
+	static long writeToFile(
+		InputStream stream,
+		Path path,
+		long offset,
+		long size,
+		boolean sync,
+		AtomicLong writtenBytes
+	) throws IOException {
+		return writeToFile(stream, path, offset, size, sync, writtenBytes, null);
+	}
+
+	/**
+	 * Write the specified stream to a file, like {@link #writeToFile(InputStream, Path, long, long, boolean, AtomicLong)},
+	 * and report the progress after each write
+	 *
+	 * @param stream The stream to write (null to create an empty file)
+	 * @param path The file to create, or overwrite
+	 * @param offset Position in the file where to write the stream (0 to overwrite the file, or the number of bytes
+	 * already downloaded, which are kept)
+	 * @param size The expected size of the file (-1 if unknown), to size the write buffer
+	 * @param sync Whether to flush the file to the storage device before returning
+	 * @param writtenBytes Counts the bytes written so far, even if the stream fails (may be null)
+	 * @param checkpoint Called with the number of bytes written so far, after each write (may be null)
+	 * @return the size of the file (if the stream fails, the file is truncated to the bytes written so far)
+	 * @throws IOException when the stream cannot be read, or the file cannot be written
+	 */
+	static long writeToFile(
+		InputStream stream,
+		Path path,
+		long offset,
+		long size,
+		boolean sync,
+		AtomicLong writtenBytes,
+		LongConsumer checkpoint
+	) throws IOException {
+		try (FileChannel channel = openDownloadChannel(path, offset == 0)) {
+			AtomicLong progress = writtenBytes != null ? writtenBytes : new AtomicLong();
+			try {
+				if (stream != null) {
+					writeToChannel(stream, channel, offset, size > 0 ? size - offset : -1, progress, checkpoint);
+				}
+			} finally {
+				// When resuming, the file may hold more bytes than the ones kept and written
+				long position = offset + progress.get();
+				if (channel.size() > position) {
+					channel.truncate(position);
 				}
 			}
-			response.appendBody(new String(bodyBytes.toByteArray(), charset));
 
-			// Return
-			return response;
-		} finally {
-			// Disconnect
-			httpURL.disconnect();
+			if (sync) {
+				channel.force(true);
+			}
+			return offset + progress.get();
+		}
+	}
 
-			// Clear the credentials
-			ThreadSafeNoCacheAuthenticator.clearCredentials();
+	/**
+	 * @param path The file to create, or overwrite
+	 * @param truncate Whether to discard the current content of the file
+	 * @return a new FileChannel to write the file (at any position: the file grows with the writes)
+	 * @throws IOException when the file cannot be created
+	 */
+	private static FileChannel openDownloadChannel(Path path, boolean truncate) throws IOException {
+		return truncate
+			? FileChannel.open(
+				path,
+				StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING
+			)
+			: FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * Write the specified stream at the specified position of a file, until the end of the stream
+	 *
+	 * @param stream The stream to write
+	 * @param channel The file
+	 * @param position Position in the file where to write the stream
+	 * @param size The expected size of the stream (-1 if unknown), to size the buffer
+	 * @param progress Counts the bytes written so far, even if the stream fails (may be null)
+	 * @param checkpoint Called with the number of bytes written so far, after each write (may be null)
+	 * @return the number of bytes written
+	 * @throws IOException when the stream cannot be read, or the file cannot be written
+	 */
+	private static long writeToChannel(
+		InputStream stream,
+		FileChannel channel,
+		long position,
+		long size,
+		AtomicLong progress,
+		LongConsumer checkpoint
+	) throws IOException {
+		byte[] buffer = new byte[(int) Math.min(DOWNLOAD_BUFFER_SIZE, size > 0 ? size : DOWNLOAD_BUFFER_SIZE)];
+		long writtenBytes = 0;
+		boolean endOfStream = false;
+		while (!endOfStream) {
+			// Fill the buffer (the network stream returns much smaller chunks)
+			int bytesCount = 0;
+			IOException readException = null;
+			try {
+				int readBytes;
+				while (
+					bytesCount < buffer.length &&
+					(readBytes = stream.read(buffer, bytesCount, buffer.length - bytesCount)) != -1
+				) {
+					bytesCount += readBytes;
+				}
+				endOfStream = bytesCount < buffer.length;
+			} catch (IOException e) {
+				// Write what has been received before the failure
+				readException = e;
+			}
+
+			// Write it at once
+			ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, bytesCount);
+			while (chunk.hasRemaining()) {
+				int chunkBytes = channel.write(chunk, position + writtenBytes);
+				writtenBytes += chunkBytes;
+				if (progress != null) {
+					progress.addAndGet(chunkBytes);
+				}
+			}
+
+			if (readException != null) {
+				throw readException;
+			}
+			if (checkpoint != null && bytesCount > 0) {
+				checkpoint.accept(writtenBytes);
+			}
+		}
+		return writtenBytes;
+	}
+
+	/**
+	 * @param rawResponse A <code>206 Partial Content</code> response
+	 * @return the position of the first byte of the range sent by the server (in the <code>Content-Range</code>
+	 * header), or -1 if not specified (or invalid)
+	 */
+	private static long getContentRangeStart(RawResponse rawResponse) {
+		String contentRange = rawResponse.getHeaderField("Content-Range");
+		if (contentRange != null) {
+			Matcher rangeMatcher = CONTENT_RANGE_REGEX.matcher(contentRange);
+			if (rangeMatcher.matches()) {
+				return Long.parseLong(rangeMatcher.group(1));
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param rawResponse The response
+	 * @return the validator of the version of the content, to send in an <code>If-Range</code> header: its strong
+	 * entity tag, or its last modification date (null if none)
+	 */
+	private static String getValidator(RawResponse rawResponse) {
+		// Note: If-Range requires a strong entity tag
+		String etag = rawResponse.getHeaderField("ETag");
+		return etag != null && !etag.startsWith("W/") ? etag : rawResponse.getHeaderField("Last-Modified");
+	}
+
+	/**
+	 * @param rawResponse The response
+	 * @return the value of the <code>Content-Length</code> header, or -1 if not specified (or invalid)
+	 */
+	private static long getContentLength(RawResponse rawResponse) {
+		String contentLength = rawResponse.getHeaderField("Content-Length");
+		if (contentLength != null) {
+			try {
+				return Long.parseLong(contentLength.trim());
+			} catch (NumberFormatException e) {
+				// Invalid, like if not specified
+			}
 		}
+		return -1;
 	}
 }
@@ -0,0 +1,324 @@
+package org.metricshub.http;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * HTTP Java Client
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 MetricsHub
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Immutable HTTP request, to send with {@link HttpClient#send(HttpRequest)} or
+ * {@link HttpClient#sendBatch(java.util.Collection, int, int)}.
+ * <p>
+ * Everything that doesn't depend on the connection is prepared once, in {@link Builder#build()}: the URL is parsed,
+ * the headers are validated, and a text body is encoded. Sending the request only does the I/O, so a request that is
+ * sent periodically should be built once, and sent again and again.
+ * </p>
+ * <p>
+ * Instances can be shared by several threads, and sent several times (unless their body is not repeatable, see
+ * {@link RequestBody#isRepeatable()}).
+ * </p>
+ * <pre>
+ * HttpRequest request = HttpRequest.builder("https://host/api/status")
+ *     .credentials("user", password)
+ *     .header("Accept", "application/json")
+ *     .timeout(30)
+ *     .build();
+ * </pre>
+ */
+public final class HttpRequest {
+
+	/**
+	 * Default timeout of the requests, in seconds
+	 */
+	public static final int DEFAULT_TIMEOUT = 120;
+
+	private final String url;
+	private final URL parsedUrl;
+	private final String method;
+	private final String username;
+	private final char[] password;
+	private final Map<String, String> headers;
+	private final RequestBody body;
+	private final int timeout;
+	private final String downloadToPath;
+
+	/**
+	 * Create a new HttpRequest with the settings of the specified {@link Builder}
+	 *
+	 * @param builder The builder with all the settings
+	 */
+	private HttpRequest(Builder builder) {
+		url = builder.url;
+		parsedUrl = builder.parsedUrl;
+		method = builder.method;
+		username = builder.username;
+		password = builder.password == null ? null : builder.password.clone();
+		headers = Collections.unmodifiableMap(new LinkedHashMap<>(builder.headers));
+		body = builder.body;
+		timeout = builder.timeout;
+		downloadToPath = builder.downloadToPath;
+	}
+
+	/**
+	 * @param url The URL to be requested (e.g. https://w3.test.org/site/list.jsp)
+	 * @return a new {@link Builder} of a GET request to the specified URL
+	 * @throws IllegalArgumentException when the URL is invalid
+	 */
+	public static Builder builder(String url) {
+		return new Builder(url);
+	}
+
+	/**
+	 * @return the URL to be requested
+	 */
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * @return the parsed URL
+	 */
+	URL getParsedUrl() {
+		return parsedUrl;
+	}
+
+	/**
+	 * @return the HTTP method (GET, POST, etc.)
+	 */
+	public String getMethod() {
+		return method;
+	}
+
+	/**
+	 * @return the username to access the URL (null if none)
+	 */
+	public String getUsername() {
+		return username;
+	}
+
+	/**
+	 * @return the password associated to the username (null if none)
+	 */
+	char[] getPassword() {
+		return password;
+	}
+
+	/**
+	 * @return the additional headers of the request (unmodifiable, validated), on top of the default headers of the
+	 * client
+	 */
+	public Map<String, String> getHeaders() {
+		return headers;
+	}
+
+	/**
+	 * @return the body of the request (null if none)
+	 */
+	public RequestBody getBody() {
+		return body;
+	}
+
+	/**
+	 * @return the timeout in seconds before the request is canceled
+	 */
+	public int getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * @return the path where to download the content of the response to (null to read it in memory)
+	 */
+	public String getDownloadToPath() {
+		return downloadToPath;
+	}
+
+	@Override
+	public String toString() {
+		return method + " " + url;
+	}
+
+	/**
+	 * @param name A header name
+	 * @return whether the name is a valid token (RFC 9110)
+	 */
+	static boolean isValidHeaderName(String name) {
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (c <= ' ' || c >= 127 || "\"(),/:;<=>?@[\\]{}".indexOf(c) >= 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param value A header value
+	 * @return whether the value doesn't contain any line break or other control character (except tab)
+	 */
+	static boolean isValidHeaderValue(String value) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if ((c < ' ' && c != '\t') || c == 127) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Builder of {@link HttpRequest} instances.
+	 */
+	public static class Builder {
+
+		private final String url;
+		private final URL parsedUrl;
+		private String method = "GET";
+		private String username;
+		private char[] password;
+		private final Map<String, String> headers = new LinkedHashMap<>();
+		private RequestBody body;
+		private int timeout = DEFAULT_TIMEOUT;
+		private String downloadToPath;
+
+		/**
+		 * @param url The URL to be requested
+		 * @throws IllegalArgumentException when the URL is invalid
+		 */
+		private Builder(String url) {
+			if (url == null || url.isEmpty()) {
+				throw new IllegalArgumentException("URL must not be empty");
+			}
+			try {
+				this.parsedUrl = new URL(url);
+			} catch (MalformedURLException e) {
+				throw new IllegalArgumentException("Invalid URL: " + url, e);
+			}
+			this.url = url;
+		}
+
+		/**
+		 * @param method GET|POST|PUT|DELETE or whatever HTTP verb is supported (GET by default)
+		 * @return this builder
+		 */
+		public Builder method(String method) {
+			if (method == null || method.isEmpty()) {
+				throw new IllegalArgumentException("Method must not be empty");
+			}
+			this.method = method;
+			return this;
+		}
+
+		/**
+		 * @param username Username to access the URL
+		 * @param password Password associated to username (copied)
+		 * @return this builder
+		 */
+		public Builder credentials(String username, char[] password) {
+			this.username = username;
+			this.password = password == null ? null : password.clone();
+			return this;
+		}
+
+		/**
+		 * Add a header to the request (replacing the previous value of the same header, if any). Like with the
+		 * other methods of {@link HttpClient}, a header whose name or value is null or empty is ignored.
+		 *
+		 * @param name Header name (e.g. "Accept")
+		 * @param value Header value (e.g. "application/json")
+		 * @return this builder
+		 * @throws IllegalArgumentException when the name is not a valid token, or the value contains a line break
+		 */
+		public Builder header(String name, String value) {
+			if (name == null || value == null || name.isEmpty() || value.isEmpty()) {
+				return this;
+			}
+			if (!isValidHeaderName(name)) {
+				throw new IllegalArgumentException("Invalid header name: " + name);
+			}
+			if (!isValidHeaderValue(value)) {
+				throw new IllegalArgumentException("Invalid value of header " + name);
+			}
+			headers.put(name, value);
+			return this;
+		}
+
+		/**
+		 * @param headers Additional headers of the request (pairs of key and value)
+		 * @return this builder
+		 */
+		public Builder headers(Map<String, String> headers) {
+			if (headers != null) {
+				headers.forEach(this::header);
+			}
+			return this;
+		}
+
+		/**
+		 * @param body Body of the request, encoded with UTF-8 right away (null or empty for no body)
+		 * @return this builder
+		 */
+		public Builder body(String body) {
+			this.body = body == null || body.isEmpty() ? null : RequestBody.of(body);
+			return this;
+		}
+
+		/**
+		 * @param body Body of the request (null for no body). A request with a body that is not repeatable can be sent
+		 * only once.
+		 * @return this builder
+		 */
+		public Builder body(RequestBody body) {
+			this.body = body;
+			return this;
+		}
+
+		/**
+		 * @param timeout Timeout in seconds before the request is canceled ({@link #DEFAULT_TIMEOUT} by default)
+		 * @return this builder
+		 */
+		public Builder timeout(int timeout) {
+			if (timeout < 0) {
+				throw new IllegalArgumentException("Timeout must not be negative");
+			}
+			this.timeout = timeout;
+			return this;
+		}
+
+		/**
+		 * @param downloadToPath A path where to download the content of the response to (a file, or a directory)
+		 * @return this builder
+		 */
+		public Builder downloadTo(String downloadToPath) {
+			this.downloadToPath = downloadToPath;
+			return this;
+		}
+
+		/**
+		 * @return a new immutable {@link HttpRequest} with the settings of this builder
+		 */
+		public HttpRequest build() {
+			return new HttpRequest(this);
+		}
+	}
+}
@@ -20,6 +20,18 @@ package org.metricshub.http;
  * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
  */
 
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
 /**
  * Represents an HTTP Response in a simplified way
  * <ul>
@@ -27,20 +39,81 @@ package org.metricshub.http;
  * <li>Header (Content-type: application/json, etc.)</li>
  * <li>Body</li>
  * </ul>
+ * <p>
+ * The body received by {@link HttpClient} is kept as raw bytes, and decoded to a String (with the charset of the
+ * response) only when {@link #getBody()} is first called. Binary content can be read with {@link #getBodyBytes()}
+ * or {@link #getBodyBuffer()}, without going through a charset at all.
+ * </p>
+ * <p>
+ * The body of a response served from the disk tier of an {@link HttpResponseCache} is a memory-mapped view of the
+ * cached file: {@link #getBodyBuffer()} returns it without loading it in the heap.
+ * </p>
+ * <p>
+ * The headers are indexed by name, regardless of its case: use {@link #getHeader(String)} and
+ * {@link #getHeaders(String)} to get the value(s) of a header.
+ * </p>
  */
 public class HttpResponse {
 
 	private int statusCode;
-	private StringBuilder body;
-	private StringBuilder header;
+
+	/**
+	 * Protocol of the response, e.g. HTTP/1.1 or HTTP/2 (null if unknown)
+	 */
+	private String protocol;
+
+	/**
+	 * Header fields (pairs of name and value), in the order they were added
+	 */
+	private final List<String[]> headerFields = new ArrayList<>();
+
+	/**
+	 * Header values, by header name in lower case
+	 */
+	private final Map<String, List<String>> headerIndex = new HashMap<>();
+
+	/**
+	 * The headers as a single string (null until needed)
+	 */
+	private String headerText;
+
+	/**
+	 * Raw bytes of the body (only the first <code>bodyLength</code> bytes are valid), or null if the body is built
+	 * with {@link #appendBody(String)}
+	 */
+	private byte[] bodyBytes;
+	private int bodyLength;
+
+	/**
+	 * Body held in a buffer (typically mapped from a file), or null if the body is held in <code>bodyBytes</code>
+	 */
+	private ByteBuffer bodyBuffer;
+
+	/**
+	 * Charset of the body, to convert between its bytes and its text
+	 */
+	private Charset bodyCharset = StandardCharsets.UTF_8;
+
+	/**
+	 * Body built with {@link #appendBody(String)} (null if the body comes from raw bytes)
+	 */
+	private StringBuilder appendedBody;
+
+	/**
+	 * The body as text, once decoded (null until needed)
+	 */
+	private String bodyText;
+
+	/**
+	 * The time spent in each phase of the request (null if this response hasn't been received by HttpClient)
+	 */
+	private RequestTimings timings;
 
 	/**
 	 * Create a new HTTP Response
 	 */
 	public HttpResponse() {
 		statusCode = 0;
-		header = new StringBuilder();
-		body = new StringBuilder();
 	}
 
 	/**
@@ -59,6 +132,21 @@ public class HttpResponse {
 		statusCode = code;
 	}
 
+	/**
+	 * @return the protocol with which this response has been received (e.g. "HTTP/1.1", "HTTP/2"), or null if
+	 * this response hasn't been received by {@link HttpClient}
+	 */
+	public String getProtocol() {
+		return protocol;
+	}
+
+	/**
+	 * @param protocol The protocol with which this response has been received (e.g. "HTTP/1.1", "HTTP/2")
+	 */
+	void setProtocol(String protocol) {
+		this.protocol = protocol;
+	}
+
 	/**
 	 * Get the HTTP header as a single string like below:
 	 * <pre>
@@ -68,7 +156,36 @@ public class HttpResponse {
 	 * @return the HTTP header
 	 */
 	public String getHeader() {
-		return header.toString();
+		if (headerText == null) {
+			StringBuilder header = new StringBuilder();
+			for (String[] field : headerFields) {
+				header.append(field[0]).append(": ").append(field[1]).append("\n");
+			}
+			headerText = header.toString();
+		}
+		return headerText;
+	}
+
+	/**
+	 * Get the value of the specified header
+	 *
+	 * @param name Header name, in any case (e.g. "content-type")
+	 * @return the first value of the header, or null if the response doesn't have this header
+	 */
+	public String getHeader(String name) {
+		List<String> values = name == null ? null : headerIndex.get(name.toLowerCase(Locale.ROOT));
+		return values == null ? null : values.get(0);
+	}
+
+	/**
+	 * Get all the values of the specified header (e.g. "Set-Cookie")
+	 *
+	 * @param name Header name, in any case
+	 * @return the values of the header (empty if the response doesn't have this header)
+	 */
+	public List<String> getHeaders(String name) {
+		List<String> values = name == null ? null : headerIndex.get(name.toLowerCase(Locale.ROOT));
+		return values == null ? Collections.emptyList() : Collections.unmodifiableList(values);
 	}
 
 	/**
@@ -78,15 +195,28 @@ public class HttpResponse {
 	 */
 	public void appendHeader(String name, String value) {
 		if (name != null && value != null && !name.isEmpty() && !value.isEmpty()) {
-			header.append(name).append(": ").append(value).append("\n");
+			headerFields.add(new String[] { name, value });
+			headerIndex.computeIfAbsent(name.toLowerCase(Locale.ROOT), k -> new ArrayList<>(1)).add(value);
+			headerText = null;
 		}
 	}
 
 	/**
-	 * @return the body of the HTTP response
+	 * @return the body of the HTTP response (decoded with the charset of the response on the first call)
 	 */
 	public String getBody() {
-		return body.toString();
+		if (bodyText == null) {
+			if (appendedBody != null) {
+				bodyText = appendedBody.toString();
+			} else if (bodyBuffer != null) {
+				bodyText = bodyCharset.decode(bodyBuffer.duplicate()).toString();
+			} else if (bodyBytes != null) {
+				bodyText = new String(bodyBytes, 0, bodyLength, bodyCharset);
+			} else {
+				bodyText = "";
+			}
+		}
+		return bodyText;
 	}
 
 	/**
@@ -95,7 +225,158 @@ public class HttpResponse {
 	 * @param data Data to append
 	 */
 	public void appendBody(String data) {
-		body.append(data);
+		if (appendedBody == null) {
+			appendedBody = new StringBuilder(getBody());
+		}
+		appendedBody.append(data);
+		bodyText = null;
+		bodyBytes = null;
+		bodyBuffer = null;
+	}
+
+	/**
+	 * Set the raw bytes of the body, as received (without copying them)
+	 *
+	 * @param bytes Buffer with the body
+	 * @param length Number of valid bytes in the buffer
+	 * @param charset Charset to decode the body with
+	 */
+	void setBody(byte[] bytes, int length, Charset charset) {
+		bodyBytes = bytes;
+		bodyLength = length;
+		bodyBuffer = null;
+		bodyCharset = charset;
+		appendedBody = null;
+		bodyText = null;
+	}
+
+	/**
+	 * Set the body as a buffer (typically mapped from a file), without copying it
+	 *
+	 * @param buffer Buffer with the body, between its position and its limit
+	 * @param charset Charset to decode the body with
+	 */
+	void setBody(ByteBuffer buffer, Charset charset) {
+		bodyBuffer = buffer.asReadOnlyBuffer();
+		bodyBytes = null;
+		bodyLength = 0;
+		bodyCharset = charset;
+		appendedBody = null;
+		bodyText = null;
+	}
+
+	/**
+	 * @return the charset of the body, to convert between its bytes and its text
+	 */
+	Charset getBodyCharset() {
+		return bodyCharset;
+	}
+
+	/**
+	 * Returns the body of the HTTP response as raw bytes.
+	 * <p>
+	 * The returned array is the one held by this response, not a copy, and must not be modified.
+	 * </p>
+	 *
+	 * @return the bytes of the body (encoded with the charset of the response, if the body was built as text)
+	 */
+	public byte[] getBodyBytes() {
+		ensureBodyBytes();
+		if (bodyBytes.length != bodyLength) {
+			bodyBytes = Arrays.copyOf(bodyBytes, bodyLength);
+		}
+		return bodyBytes;
+	}
+
+	/**
+	 * @return a read-only view of the bytes of the body, without any copy (a memory-mapped view, for a response
+	 * served from the disk tier of an {@link HttpResponseCache})
+	 */
+	public ByteBuffer getBodyBuffer() {
+		if (bodyBuffer != null) {
+			return bodyBuffer.duplicate();
+		}
+		ensureBodyBytes();
+		return ByteBuffer.wrap(bodyBytes, 0, bodyLength).asReadOnlyBuffer();
+	}
+
+	/**
+	 * Copy the buffer of the body, or encode its text, if the body has no raw bytes
+	 */
+	private void ensureBodyBytes() {
+		if (bodyBytes == null && bodyBuffer != null) {
+			bodyBytes = new byte[bodyBuffer.remaining()];
+			bodyBuffer.duplicate().get(bodyBytes);
+			bodyLength = bodyBytes.length;
+		} else if (bodyBytes == null) {
+			bodyBytes = getBody().getBytes(bodyCharset);
+			bodyLength = bodyBytes.length;
+		}
+	}
+
+	/**
+	 * @return the time spent in each phase of the request of this response (DNS, connection, TLS handshake, time
+	 * to first byte, transfer), or null if this response hasn't been received by {@link HttpClient}
+	 */
+	public RequestTimings getTimings() {
+		return timings;
+	}
+
+	/**
+	 * @param timings The time spent in each phase of the request of this response
+	 */
+	void setTimings(RequestTimings timings) {
+		this.timings = timings;
+	}
+
+	/**
+	 * @return a copy of this response (sharing the bytes or the buffer of the body, which must not be modified)
+	 */
+	HttpResponse copy() {
+		HttpResponse copy = new HttpResponse();
+		copy.statusCode = statusCode;
+		copy.protocol = protocol;
+		headerFields.forEach(field -> copy.appendHeader(field[0], field[1]));
+		return copyBody(copy);
+	}
+
+	/**
+	 * @param update A newer response to the same request, without body (e.g. <code>304 Not Modified</code>)
+	 * @param keptHeaders Names (in lower case) of the headers of this response that the update must not replace
+	 * @return a copy of this response (see {@link #copy()}), whose headers are replaced with the ones of the update
+	 */
+	HttpResponse copyWithHeaders(HttpResponse update, Set<String> keptHeaders) {
+		HttpResponse copy = new HttpResponse();
+		copy.statusCode = statusCode;
+		copy.protocol = protocol;
+
+		// The headers of this response that are not updated, then the ones of the update
+		for (String[] field : headerFields) {
+			String name = field[0].toLowerCase(Locale.ROOT);
+			if (keptHeaders.contains(name) || !update.headerIndex.containsKey(name)) {
+				copy.appendHeader(field[0], field[1]);
+			}
+		}
+		for (String[] field : update.headerFields) {
+			if (!keptHeaders.contains(field[0].toLowerCase(Locale.ROOT))) {
+				copy.appendHeader(field[0], field[1]);
+			}
+		}
+		return copyBody(copy);
+	}
+
+	/**
+	 * @param copy A copy of this response
+	 * @return the copy, with the body of this response (shared, not copied)
+	 */
+	private HttpResponse copyBody(HttpResponse copy) {
+		if (bodyBytes == null && bodyBuffer != null) {
+			copy.setBody(bodyBuffer, bodyCharset);
+			return copy;
+		}
+		byte[] bytes = getBodyBytes();
+		copy.setBody(bytes, bytes.length, bodyCharset);
+		return copy;
 	}
 
 	/**
@@ -103,6 +384,6 @@ public class HttpResponse {
 	 */
 	@Override
 	public String toString() {
-		return new StringBuilder().append(header).append("\n").append(body).toString();
+		return new StringBuilder().append(getHeader()).append("\n").append(getBody()).toString();
 	}
 }
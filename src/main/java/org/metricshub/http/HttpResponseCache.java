@@ -0,0 +1,484 @@
+package org.metricshub.http;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * HTTP Java Client
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 MetricsHub
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Bounded in-memory cache of the responses of an {@link HttpClient}, revalidated with conditional requests.
+ * <p>
+ * The responses to the GET requests that have a validator (<code>ETag</code> or <code>Last-Modified</code>
+ * header) are kept in memory. When the same URL is requested again (with the same credentials and the same
+ * headers, including the <code>User-Agent</code> and the default headers of the client), the request is sent with the
+ * <code>If-None-Match</code> and <code>If-Modified-Since</code> headers, and if the server answers
+ * <code>304 Not Modified</code>, the cached response is returned: the server doesn't send the body again, and the
+ * client doesn't read and decode it again. The headers of the cached response are updated with the ones of the
+ * <code>304</code> response (<code>Date</code>, <code>Cache-Control</code>, <code>ETag</code>, etc.), as specified by
+ * RFC 9111.
+ * </p>
+ * <p>
+ * The server is asked each time, so a cached response is never served without its approval. The least recently
+ * used responses are evicted when the cache exceeds its maximum number of entries, or its maximum size (the total
+ * size of the cached bodies).
+ * </p>
+ * <p>
+ * Optionally, the responses are also stored in a directory on the local disk (with its own maximum size), which
+ * keeps the bodies too large for the memory, and survives the restarts of the application: the directory is loaded
+ * again by the next cache created on it. The bodies of the responses served from the disk are memory-mapped, not
+ * loaded in the heap (see {@link HttpResponse#getBodyBuffer()}).
+ * </p>
+ * <p>
+ * The credentials never reach the disk: the files don't contain the headers of the requests, and the responses to
+ * authenticated requests (with a username, or a credential header like <code>Authorization</code>,
+ * <code>Cookie</code> or an API key) and the responses that set cookies are kept in memory only, unless specified
+ * otherwise.
+ * </p>
+ * <p>
+ * The cache can be shared by several clients, and is thread-safe. A directory must not be shared by several caches.
+ * </p>
+ * <pre>
+ * HttpClient client = HttpClient.builder().responseCache(new HttpResponseCache(1000, 64 * 1024 * 1024)).build();
+ * </pre>
+ */
+public class HttpResponseCache {
+
+	/**
+	 * Names of the request headers that carry credentials (in lower case)
+	 */
+	private static final Pattern CREDENTIAL_HEADER_REGEX = Pattern.compile(
+		"auth|cookie|token|api-?key|secret|passw|session|credential"
+	);
+
+	/**
+	 * Headers (in lower case) of a cached response that are not updated by a <code>304 Not Modified</code> response,
+	 * as they describe the stored body or the connection (RFC 9111, section 3.2)
+	 */
+	private static final Set<String> KEPT_HEADERS = new HashSet<>(
+		Arrays.asList(
+			"content-length",
+			"content-encoding",
+			"content-range",
+			"transfer-encoding",
+			"connection",
+			"keep-alive"
+		)
+	);
+
+	private final int maxEntries;
+	private final long maxBytes;
+
+	/**
+	 * Whether the responses to authenticated requests are stored in the disk tier
+	 */
+	private final boolean storeAuthenticatedResponses;
+
+	/**
+	 * Cached responses, by key, in access order (least recently used first)
+	 */
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * Disk tier (null if none)
+	 */
+	private final DiskResponseStore diskStore;
+
+	private long totalBytes;
+	private long hitCount;
+	private long missCount;
+	private long evictionCount;
+
+	/**
+	 * @param maxEntries Maximum number of cached responses
+	 * @param maxBytes Maximum total size of the cached bodies, in bytes
+	 */
+	public HttpResponseCache(int maxEntries, long maxBytes) {
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("Invalid maximum number of entries: " + maxEntries);
+		}
+		if (maxBytes < 1) {
+			throw new IllegalArgumentException("Invalid maximum size: " + maxBytes);
+		}
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+		this.diskStore = null;
+		this.storeAuthenticatedResponses = false;
+	}
+
+	/**
+	 * Create a cache that also stores the responses in the specified directory (and loads the responses stored there
+	 * by a previous instance), except the responses to authenticated requests
+	 *
+	 * @param maxEntries Maximum number of responses cached in memory
+	 * @param maxBytes Maximum total size of the bodies cached in memory, in bytes
+	 * @param directory Directory of the disk tier (created if needed)
+	 * @param maxDiskBytes Maximum total size of the bodies stored in the directory, in bytes
+	 * @throws IOException when the directory cannot be created or read
+	 */
+	public HttpResponseCache(int maxEntries, long maxBytes, Path directory, long maxDiskBytes) throws IOException {
+		this(maxEntries, maxBytes, directory, maxDiskBytes, false);
+	}
+
+	/**
+	 * Create a cache that also stores the responses in the specified directory (and loads the responses stored there
+	 * by a previous instance)
+	 *
+	 * @param maxEntries Maximum number of responses cached in memory
+	 * @param maxBytes Maximum total size of the bodies cached in memory, in bytes
+	 * @param directory Directory of the disk tier (created if needed)
+	 * @param maxDiskBytes Maximum total size of the bodies stored in the directory, in bytes
+	 * @param storeAuthenticatedResponses Whether to store also the responses to authenticated requests, and the
+	 * responses that set cookies, in the directory (which must then be protected accordingly)
+	 * @throws IOException when the directory cannot be created or read
+	 */
+	public HttpResponseCache(
+		int maxEntries,
+		long maxBytes,
+		Path directory,
+		long maxDiskBytes,
+		boolean storeAuthenticatedResponses
+	) throws IOException {
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("Invalid maximum number of entries: " + maxEntries);
+		}
+		if (maxBytes < 1) {
+			throw new IllegalArgumentException("Invalid maximum size: " + maxBytes);
+		}
+		if (directory == null) {
+			throw new IllegalArgumentException("Directory must not be null");
+		}
+		if (maxDiskBytes < 1) {
+			throw new IllegalArgumentException("Invalid maximum disk size: " + maxDiskBytes);
+		}
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+		this.diskStore = new DiskResponseStore(directory, maxDiskBytes);
+		this.storeAuthenticatedResponses = storeAuthenticatedResponses;
+	}
+
+	/**
+	 * @param name Name of a request header, in any case
+	 * @return whether the header carries credentials (<code>Authorization</code>, <code>Cookie</code>, API keys,
+	 * tokens, etc.)
+	 */
+	static boolean isCredentialHeader(String name) {
+		return name != null && CREDENTIAL_HEADER_REGEX.matcher(name.toLowerCase(Locale.ROOT)).find();
+	}
+
+	/**
+	 * @param url The requested URL
+	 * @param username The username of the request (may be null)
+	 * @param headers All the headers sent with the request, including the <code>User-Agent</code> and the default
+	 * headers of the client (may be null)
+	 * @return the key of the response to the specified request (the values of the credential headers are hashed)
+	 */
+	static String key(String url, String username, Map<String, String> headers) {
+		StringBuilder key = new StringBuilder(url).append('\n').append(username == null ? "" : username);
+		if (headers != null) {
+			// The headers are sorted, so that their order doesn't matter
+			Map<String, String> sortedHeaders = new TreeMap<>();
+			headers.forEach((name, value) -> {
+				if (name != null && value != null) {
+					sortedHeaders.put(
+						name.toLowerCase(Locale.ROOT),
+						isCredentialHeader(name) ? DiskResponseStore.hash(value) : value
+					);
+				}
+			});
+			sortedHeaders.forEach((name, value) -> key.append('\n').append(name).append(": ").append(value));
+		}
+		return key.toString();
+	}
+
+	/**
+	 * @param key The key of the request
+	 * @return the cached response to the specified request (in memory, or else on disk), or null if none
+	 */
+	Entry get(String key) {
+		synchronized (this) {
+			Entry entry = entries.get(key);
+			if (entry != null || diskStore == null) {
+				return entry;
+			}
+		}
+		return diskStore.get(key);
+	}
+
+	/**
+	 * Record that the server confirmed that the cached response is still valid, and update its headers with the ones
+	 * of the <code>304 Not Modified</code> response (RFC 9111, section 4.3.4)
+	 *
+	 * @param key The key of the request
+	 * @param entry The cached response
+	 * @param notModified The <code>304 Not Modified</code> response of the server
+	 * @param authenticated Whether the request carried credentials (see {@link #update(String, HttpResponse, boolean)})
+	 * @return a copy of the updated response
+	 */
+	HttpResponse hit(String key, Entry entry, HttpResponse notModified, boolean authenticated) {
+		HttpResponse response = entry.response.copyWithHeaders(notModified, KEPT_HEADERS);
+		Entry updated = new Entry(response, response.getHeader("ETag"), response.getHeader("Last-Modified"), entry.size);
+		boolean cacheable = isCacheable(response);
+
+		// Replace the response in memory, if it is still there (it may have been served from the disk tier)
+		synchronized (this) {
+			hitCount++;
+			if (entries.get(key) == entry) {
+				if (cacheable) {
+					entries.put(key, updated);
+				} else {
+					entries.remove(key);
+					totalBytes -= entry.size;
+				}
+			}
+		}
+
+		// And on disk (only the description, the body is the same)
+		if (diskStore != null) {
+			if (!cacheable || !mayStoreOnDisk(response, authenticated)) {
+				diskStore.remove(key);
+			} else {
+				try {
+					diskStore.updateHeaders(key, response, updated.etag, updated.lastModified);
+				} catch (IOException e) {
+					diskStore.remove(key);
+				}
+			}
+		}
+
+		return response.copy();
+	}
+
+	/**
+	 * Cache the specified response to a request without credentials, if it has a validator, or remove the
+	 * previous one
+	 *
+	 * @param key The key of the request
+	 * @param response The complete response received from the server
+	 */
+	void update(String key, HttpResponse response) {
+		update(key, response, false);
+	}
+
+	/**
+	 * Cache the specified response, if it has a validator, or remove the previous one
+	 *
+	 * @param key The key of the request
+	 * @param response The complete response received from the server
+	 * @param authenticated Whether the request carried credentials (then the response is stored in the disk tier
+	 * only if specified so)
+	 */
+	void update(String key, HttpResponse response, boolean authenticated) {
+		Entry entry = null;
+		if (response.getStatusCode() == 200 && isCacheable(response)) {
+			String etag = response.getHeader("ETag");
+			String lastModified = response.getHeader("Last-Modified");
+			if (etag != null || lastModified != null) {
+				// Copy the response, as the caller may modify it
+				HttpResponse copy = response.copy();
+				entry = new Entry(copy, etag, lastModified, copy.getBodyBytes().length);
+			}
+		}
+
+		synchronized (this) {
+			missCount++;
+			Entry previous = entry != null && entry.size <= maxBytes ? entries.put(key, entry) : entries.remove(key);
+			if (previous != null) {
+				totalBytes -= previous.size;
+			}
+			if (entry != null && entry.size <= maxBytes) {
+				totalBytes += entry.size;
+				evict();
+			}
+		}
+
+		// Write through to the disk tier (which keeps the responses evicted from memory)
+		if (diskStore != null) {
+			if (entry == null || !mayStoreOnDisk(response, authenticated)) {
+				diskStore.remove(key);
+			} else {
+				try {
+					diskStore.put(key, entry.response, entry.etag, entry.lastModified);
+				} catch (IOException e) {
+					// The disk is full or not writable: the response is only cached in memory
+					diskStore.remove(key);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param response The response
+	 * @param authenticated Whether the request carried credentials
+	 * @return whether the response may be stored in the disk tier (not private, unless specified otherwise)
+	 */
+	private boolean mayStoreOnDisk(HttpResponse response, boolean authenticated) {
+		return storeAuthenticatedResponses || !authenticated && response.getHeader("Set-Cookie") == null;
+	}
+
+	/**
+	 * @param response The response
+	 * @return whether the response may be stored (according to its <code>Cache-Control</code> and
+	 * <code>Vary</code> headers)
+	 */
+	private static boolean isCacheable(HttpResponse response) {
+		String cacheControl = response.getHeader("Cache-Control");
+		if (cacheControl != null && cacheControl.toLowerCase(Locale.ROOT).contains("no-store")) {
+			return false;
+		}
+		String vary = response.getHeader("Vary");
+		return vary == null || !vary.trim().equals("*");
+	}
+
+	/**
+	 * Evict the least recently used responses, until this cache fits within its limits
+	 */
+	private void evict() {
+		Iterator<Entry> iterator = entries.values().iterator();
+		while ((entries.size() > maxEntries || totalBytes > maxBytes) && iterator.hasNext()) {
+			totalBytes -= iterator.next().size;
+			iterator.remove();
+			evictionCount++;
+		}
+	}
+
+	/**
+	 * Remove all the cached responses (including the files of the disk tier)
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		totalBytes = 0;
+		if (diskStore != null) {
+			diskStore.clear();
+		}
+	}
+
+	/**
+	 * @return the number of cached responses
+	 */
+	public synchronized int getEntryCount() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the total size of the cached bodies, in bytes
+	 */
+	public synchronized long getSize() {
+		return totalBytes;
+	}
+
+	/**
+	 * @return the number of responses stored in the disk tier (0 if none)
+	 */
+	public int getDiskEntryCount() {
+		return diskStore == null ? 0 : diskStore.getEntryCount();
+	}
+
+	/**
+	 * @return the total size of the bodies stored in the disk tier, in bytes (0 if none)
+	 */
+	public long getDiskSize() {
+		return diskStore == null ? 0 : diskStore.getSize();
+	}
+
+	/**
+	 * @return the number of requests answered with a cached response (<code>304 Not Modified</code>)
+	 */
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * @return the number of requests answered with a complete response by the server
+	 */
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * @return the number of responses evicted from memory to fit within the limits of this cache
+	 */
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuilder()
+			.append("Response cache: ")
+			.append(getEntryCount())
+			.append(" entries, ")
+			.append(getSize())
+			.append(" bytes, ")
+			.append(getHitCount())
+			.append(" hits, ")
+			.append(getMissCount())
+			.append(" misses")
+			.toString();
+	}
+
+	/**
+	 * A cached response, with its validators
+	 */
+	static class Entry {
+
+		private final HttpResponse response;
+		private final String etag;
+		private final String lastModified;
+		private final long size;
+
+		/**
+		 * @param response The cached response
+		 * @param etag Its entity tag (may be null)
+		 * @param lastModified Its last modification date (may be null)
+		 * @param size The size of its body
+		 */
+		Entry(HttpResponse response, String etag, String lastModified, long size) {
+			this.response = response;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.size = size;
+		}
+
+		/**
+		 * @return the entity tag of the response, to send in the <code>If-None-Match</code> header (may be null)
+		 */
+		String getEtag() {
+			return etag;
+		}
+
+		/**
+		 * @return the last modification date of the response, to send in the <code>If-Modified-Since</code> header
+		 * (may be null)
+		 */
+		String getLastModified() {
+			return lastModified;
+		}
+	}
+}
@@ -0,0 +1,314 @@
+package org.metricshub.http;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * HTTP Java Client
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 MetricsHub
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Bounded pool of {@link Inflater} instances, to decode the compressed response bodies
+ * (<code>gzip</code> and <code>deflate</code> content encodings).
+ * <p>
+ * Each Inflater holds native zlib memory, which is freed only when the Inflater is ended, or garbage-collected.
+ * With {@link java.util.zip.GZIPInputStream}, a new Inflater is created for each response, and its native memory
+ * piles up until the next GC. Here, the Inflater is reset and returned to the pool as soon as the stream is closed,
+ * and ended right away if the pool is full.
+ * </p>
+ * <p>
+ * Like GZIPInputStream, the <code>gzip</code> streams made of several members (concatenated, as allowed by RFC 1952)
+ * are decoded entirely, and the bytes that follow the last member, if not a valid GZIP header, are ignored.
+ * </p>
+ */
+class InflaterPool {
+
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	// GZIP header flags (RFC 1952)
+	private static final int FHCRC = 2;
+	private static final int FEXTRA = 4;
+	private static final int FNAME = 8;
+	private static final int FCOMMENT = 16;
+
+	/**
+	 * Idle inflaters of the zlib format (<code>deflate</code>)
+	 */
+	private final BlockingQueue<Inflater> zlibInflaters;
+
+	/**
+	 * Idle inflaters of the raw deflate format (<code>gzip</code>, whose header and trailer are parsed here)
+	 */
+	private final BlockingQueue<Inflater> rawInflaters;
+
+	/**
+	 * @param maxIdle Maximum number of idle inflaters kept for each format
+	 */
+	InflaterPool(int maxIdle) {
+		zlibInflaters = new ArrayBlockingQueue<>(maxIdle);
+		rawInflaters = new ArrayBlockingQueue<>(maxIdle);
+	}
+
+	/**
+	 * @param in The <code>gzip</code> stream
+	 * @return a stream of the decoded data, which returns its Inflater to this pool when closed
+	 * @throws EOFException when the stream is empty
+	 * @throws IOException when the GZIP header cannot be read, or is invalid
+	 */
+	InputStream gzip(InputStream in) throws IOException {
+		readGzipHeader(in);
+		return new PooledInflaterInputStream(in, acquire(rawInflaters, true), true);
+	}
+
+	/**
+	 * @param in The <code>deflate</code> stream (zlib format)
+	 * @return a stream of the decoded data, which returns its Inflater to this pool when closed
+	 */
+	InputStream deflate(InputStream in) {
+		return new PooledInflaterInputStream(in, acquire(zlibInflaters, false), false);
+	}
+
+	/**
+	 * @return the number of idle inflaters in this pool
+	 */
+	int getIdleCount() {
+		return zlibInflaters.size() + rawInflaters.size();
+	}
+
+	/**
+	 * @param inflaters The idle inflaters of the requested format
+	 * @param nowrap Whether the inflater decodes raw deflate data (without the zlib header and checksum)
+	 * @return an idle inflater, or a new one
+	 */
+	private static Inflater acquire(BlockingQueue<Inflater> inflaters, boolean nowrap) {
+		Inflater inflater = inflaters.poll();
+		return inflater != null ? inflater : new Inflater(nowrap);
+	}
+
+	/**
+	 * Return the specified inflater to the pool, or free its native memory if the pool is full
+	 *
+	 * @param inflaters The idle inflaters of its format
+	 * @param inflater The inflater, no longer used
+	 */
+	private static void release(BlockingQueue<Inflater> inflaters, Inflater inflater) {
+		inflater.reset();
+		if (!inflaters.offer(inflater)) {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Read (and skip) the GZIP header
+	 *
+	 * @param in The <code>gzip</code> stream
+	 * @throws EOFException when the stream ends before the end of the header
+	 * @throws IOException when the header is invalid
+	 */
+	private static void readGzipHeader(InputStream in) throws IOException {
+		readGzipHeader(in, readUByte(in));
+	}
+
+	/**
+	 * Read (and skip) the GZIP header, whose first byte has already been read
+	 *
+	 * @param in The <code>gzip</code> stream
+	 * @param firstByte The first byte of the header
+	 * @throws EOFException when the stream ends before the end of the header
+	 * @throws IOException when the header is invalid
+	 */
+	private static void readGzipHeader(InputStream in, int firstByte) throws IOException {
+		// Magic number, and compression method (always "deflate")
+		if (firstByte != 0x1f || readUByte(in) != 0x8b) {
+			throw new ZipException("Not in GZIP format");
+		}
+		if (readUByte(in) != 8) {
+			throw new ZipException("Unsupported compression method");
+		}
+		int flags = readUByte(in);
+
+		// Modification time, extra flags and operating system
+		skipBytes(in, 6);
+
+		// Optional fields
+		if ((flags & FEXTRA) != 0) {
+			skipBytes(in, readUByte(in) | (readUByte(in) << 8));
+		}
+		if ((flags & FNAME) != 0) {
+			while (readUByte(in) != 0) {}
+		}
+		if ((flags & FCOMMENT) != 0) {
+			while (readUByte(in) != 0) {}
+		}
+		if ((flags & FHCRC) != 0) {
+			skipBytes(in, 2);
+		}
+	}
+
+	/**
+	 * @param in The stream to read
+	 * @return the next byte, as an unsigned value
+	 * @throws EOFException when the stream has ended
+	 * @throws IOException when the stream cannot be read
+	 */
+	private static int readUByte(InputStream in) throws IOException {
+		int b = in.read();
+		if (b == -1) {
+			throw new EOFException("Unexpected end of GZIP stream");
+		}
+		return b;
+	}
+
+	/**
+	 * @param in The stream to read
+	 * @param count Number of bytes to skip
+	 * @throws EOFException when the stream has ended
+	 * @throws IOException when the stream cannot be read
+	 */
+	private static void skipBytes(InputStream in, int count) throws IOException {
+		for (int i = 0; i < count; i++) {
+			readUByte(in);
+		}
+	}
+
+	/**
+	 * Decoding stream that returns its Inflater to the pool when closed, and verifies the GZIP trailer of each member
+	 */
+	private class PooledInflaterInputStream extends InflaterInputStream {
+
+		private final boolean gzip;
+		private final CRC32 crc = new CRC32();
+		private boolean ended;
+		private boolean closed;
+
+		/**
+		 * @param in The encoded stream (after the GZIP header, if any)
+		 * @param inflater The inflater of the format of the stream
+		 * @param gzip Whether the stream is followed by the GZIP trailer
+		 */
+		PooledInflaterInputStream(InputStream in, Inflater inflater, boolean gzip) {
+			super(in, inflater, BUFFER_SIZE);
+			this.gzip = gzip;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (ended) {
+				return -1;
+			}
+			int bytesCount = super.read(b, off, len);
+			if (gzip) {
+				if (bytesCount > 0) {
+					crc.update(b, off, bytesCount);
+				} else if (bytesCount == -1 && !readTrailer()) {
+					// Next member
+					return read(b, off, len);
+				}
+			}
+			return bytesCount;
+		}
+
+		/**
+		 * Read the GZIP trailer, verify the CRC-32 and the size of the decoded data, and start decoding the next
+		 * member, if any
+		 *
+		 * @return whether the stream has ended (no other member)
+		 * @throws IOException when the trailer is missing, or does not match the decoded data
+		 */
+		private boolean readTrailer() throws IOException {
+			ended = true;
+
+			// The beginning of the trailer (and of the next member) may have already been read in the buffer, after
+			// the compressed data
+			byte[] trailer = new byte[8];
+			int buffered = inf.getRemaining();
+			int fromBuffer = Math.min(buffered, trailer.length);
+			System.arraycopy(buf, len - buffered, trailer, 0, fromBuffer);
+			int remaining = fromBuffer;
+			while (remaining < trailer.length) {
+				int bytesCount = in.read(trailer, remaining, trailer.length - remaining);
+				if (bytesCount == -1) {
+					throw new EOFException("Unexpected end of GZIP trailer");
+				}
+				remaining += bytesCount;
+			}
+
+			// CRC-32 and size (modulo 2^32) of the decoded data, as little-endian integers
+			long expectedCrc = 0;
+			long expectedSize = 0;
+			for (int i = 3; i >= 0; i--) {
+				expectedCrc = (expectedCrc << 8) | (trailer[i] & 0xff);
+				expectedSize = (expectedSize << 8) | (trailer[4 + i] & 0xff);
+			}
+			if (expectedCrc != crc.getValue() || expectedSize != (inf.getBytesWritten() & 0xffffffffL)) {
+				throw new ZipException("Corrupt GZIP trailer");
+			}
+
+			// Another member? Its header starts with the rest of the buffer, if any
+			ByteArrayInputStream rest = new ByteArrayInputStream(buf, len - buffered + fromBuffer, buffered - fromBuffer);
+			InputStream source = in;
+			InputStream next = new InputStream() {
+				@Override
+				public int read() throws IOException {
+					return rest.available() > 0 ? rest.read() : source.read();
+				}
+			};
+			int firstByte = next.read();
+			if (firstByte == -1) {
+				return true;
+			}
+			try {
+				readGzipHeader(next, firstByte);
+			} catch (ZipException | EOFException e) {
+				// Not a member: ignore the trailing bytes, like GZIPInputStream
+				return true;
+			}
+
+			// Decode the next member, starting with what's left in the buffer
+			inf.reset();
+			crc.reset();
+			if (rest.available() > 0) {
+				inf.setInput(buf, len - rest.available(), rest.available());
+			}
+			ended = false;
+			return false;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			try {
+				super.close();
+			} finally {
+				release(gzip ? rawInflaters : zlibInflaters, inf);
+			}
+		}
+	}
+}
@@ -23,6 +23,7 @@ package org.metricshub.http;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.Socket;
+import javax.net.ssl.SSLSession;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 
@@ -30,12 +31,23 @@ import javax.net.ssl.SSLSocketFactory;
  * A {@link SSLSocketFactory} which uses an existing {@link SSLSocketFactory} to delegate its operations to and overrides the
  * {@link javax.net.ssl.SSLSocket#getEnabledProtocols() enabled protocols} to the protocols that were passed to its
  * {@link #ProtocolOverridingSSLSocketFactory(javax.net.ssl.SSLSocketFactory, String[]) constructor}
- *
+ * <p>
+ * Optionally, it records in {@link TlsSessionStatistics} whether the handshake of each socket resumed a
+ * previous TLS session.
+ * </p>
+ * <p>
+ * Optionally, the connections are established with the addresses returned by a {@link DnsResolver}, and the
+ * connection attempts to the IPv6 and IPv4 addresses of the server are raced (<i>Happy Eyeballs</i>, see
+ * {@link #createSocket()}).
+ * </p>
  */
 public class ProtocolOverridingSSLSocketFactory extends SSLSocketFactory {
 
 	private final SSLSocketFactory underlyingSSLSocketFactory;
 	private final String[] enabledProtocols;
+	private final TlsSessionStatistics sessionStatistics;
+	private final DnsResolver dnsResolver;
+	private final boolean happyEyeballs;
 
 	/**
 	 * Constructs a {@code ProtocolOverridingSSLSocketFactory} with the given
@@ -45,8 +57,68 @@ public class ProtocolOverridingSSLSocketFactory extends SSLSocketFactory {
 	 * @param enabledProtocols The array of protocols to be set as enabled protocols.
 	 */
 	public ProtocolOverridingSSLSocketFactory(final SSLSocketFactory delegate, final String[] enabledProtocols) {
+		this(delegate, enabledProtocols, null);
+	}
+
+	/**
+	 * Constructs a {@code ProtocolOverridingSSLSocketFactory} with the given
+	 * delegate {@link SSLSocketFactory}, array of enabled protocols and statistics of the handshakes.
+	 *
+	 * @param delegate          The underlying {@link SSLSocketFactory} to delegate operations to.
+	 * @param enabledProtocols  The array of protocols to be set as enabled protocols (null to keep the default ones).
+	 * @param sessionStatistics Where to record the full and resumed handshakes (may be null).
+	 */
+	public ProtocolOverridingSSLSocketFactory(
+		final SSLSocketFactory delegate,
+		final String[] enabledProtocols,
+		final TlsSessionStatistics sessionStatistics
+	) {
+		this(delegate, enabledProtocols, sessionStatistics, null);
+	}
+
+	/**
+	 * Constructs a {@code ProtocolOverridingSSLSocketFactory} with the given
+	 * delegate {@link SSLSocketFactory}, array of enabled protocols, statistics of the handshakes and resolver of
+	 * the host names.
+	 *
+	 * @param delegate          The underlying {@link SSLSocketFactory} to delegate operations to.
+	 * @param enabledProtocols  The array of protocols to be set as enabled protocols (null to keep the default ones).
+	 * @param sessionStatistics Where to record the full and resumed handshakes (may be null).
+	 * @param dnsResolver       Resolves the host names of the servers (null to let the JRE resolve them).
+	 */
+	public ProtocolOverridingSSLSocketFactory(
+		final SSLSocketFactory delegate,
+		final String[] enabledProtocols,
+		final TlsSessionStatistics sessionStatistics,
+		final DnsResolver dnsResolver
+	) {
+		this(delegate, enabledProtocols, sessionStatistics, dnsResolver, false);
+	}
+
+	/**
+	 * Constructs a {@code ProtocolOverridingSSLSocketFactory} with the given
+	 * delegate {@link SSLSocketFactory}, array of enabled protocols, statistics of the handshakes, resolver of
+	 * the host names, and connection strategy.
+	 *
+	 * @param delegate          The underlying {@link SSLSocketFactory} to delegate operations to.
+	 * @param enabledProtocols  The array of protocols to be set as enabled protocols (null to keep the default ones).
+	 * @param sessionStatistics Where to record the full and resumed handshakes (may be null).
+	 * @param dnsResolver       Resolves the host names of the servers (null to let the JRE resolve them, or
+	 *                          the resolver of the JVM with <i>Happy Eyeballs</i>).
+	 * @param happyEyeballs     Whether to race the connection attempts to the addresses of the servers (RFC 8305).
+	 */
+	public ProtocolOverridingSSLSocketFactory(
+		final SSLSocketFactory delegate,
+		final String[] enabledProtocols,
+		final TlsSessionStatistics sessionStatistics,
+		final DnsResolver dnsResolver,
+		final boolean happyEyeballs
+	) {
 		this.underlyingSSLSocketFactory = delegate;
 		this.enabledProtocols = enabledProtocols;
+		this.sessionStatistics = sessionStatistics;
+		this.dnsResolver = dnsResolver == null && happyEyeballs ? DnsResolver.system() : dnsResolver;
+		this.happyEyeballs = happyEyeballs;
 	}
 
 	@Override
@@ -59,30 +131,52 @@ public class ProtocolOverridingSSLSocketFactory extends SSLSocketFactory {
 		return underlyingSSLSocketFactory.getSupportedCipherSuites();
 	}
 
+	/**
+	 * Create an unconnected socket, which connects to the addresses returned by the {@link DnsResolver} of this
+	 * factory, racing the IPv6 and IPv4 addresses with <i>Happy Eyeballs</i>. The JRE then layers the SSL socket
+	 * over it, with {@link #createSocket(Socket, String, int, boolean)}.
+	 * <p>
+	 * Without resolver nor <i>Happy Eyeballs</i>, unconnected sockets are not supported, and the JRE connects a
+	 * plain socket itself.
+	 * </p>
+	 *
+	 * @return the unconnected socket
+	 * @throws IOException when unconnected sockets are not supported
+	 */
+	@Override
+	public Socket createSocket() throws IOException {
+		if (dnsResolver == null) {
+			return super.createSocket();
+		}
+		return new ResolvingSocket(dnsResolver, happyEyeballs);
+	}
+
 	@Override
 	public Socket createSocket(final Socket socket, final String host, final int port, final boolean autoClose)
 		throws IOException {
+		// The TCP connection is established, the TLS handshake starts (see RequestTimings)
+		RequestTimings.markHandshakeStart();
 		Socket underlyingSocket = underlyingSSLSocketFactory.createSocket(socket, host, port, autoClose);
-		return overrideProtocol(underlyingSocket);
+		return trackSession(overrideProtocol(underlyingSocket), host, port);
 	}
 
 	@Override
 	public Socket createSocket(final String host, final int port) throws IOException {
 		Socket underlyingSocket = underlyingSSLSocketFactory.createSocket(host, port);
-		return overrideProtocol(underlyingSocket);
+		return trackSession(overrideProtocol(underlyingSocket), host, port);
 	}
 
 	@Override
 	public Socket createSocket(final String host, final int port, final InetAddress localAddress, final int localPort)
 		throws IOException {
 		Socket underlyingSocket = underlyingSSLSocketFactory.createSocket(host, port, localAddress, localPort);
-		return overrideProtocol(underlyingSocket);
+		return trackSession(overrideProtocol(underlyingSocket), host, port);
 	}
 
 	@Override
 	public Socket createSocket(final InetAddress host, final int port) throws IOException {
 		Socket underlyingSocket = underlyingSSLSocketFactory.createSocket(host, port);
-		return overrideProtocol(underlyingSocket);
+		return trackSession(overrideProtocol(underlyingSocket), host.getHostAddress(), port);
 	}
 
 	@Override
@@ -93,7 +187,7 @@ public class ProtocolOverridingSSLSocketFactory extends SSLSocketFactory {
 		final int localPort
 	) throws IOException {
 		Socket underlyingSocket = underlyingSSLSocketFactory.createSocket(host, port, localAddress, localPort);
-		return overrideProtocol(underlyingSocket);
+		return trackSession(overrideProtocol(underlyingSocket), host.getHostAddress(), port);
 	}
 
 	/**
@@ -109,4 +203,30 @@ public class ProtocolOverridingSSLSocketFactory extends SSLSocketFactory {
 		}
 		return socket;
 	}
+
+	/**
+	 * Record in {@link #sessionStatistics} whether the handshake of the <code>socket</code> (if it is a {@link SSLSocket})
+	 * resumed a previous TLS session.
+	 * <p>
+	 * A resumed session keeps the creation time of the session it was resumed from (with TLS 1.2 and TLS 1.3),
+	 * while a full handshake creates a new session. So a session created before this socket was created has
+	 * necessarily been resumed.
+	 * </p>
+	 *
+	 * @param socket The Socket
+	 * @param host   The host name (or IP address) of the server
+	 * @param port   The port of the server
+	 * @return the socket
+	 */
+	private Socket trackSession(final Socket socket, final String host, final int port) {
+		if (socket instanceof SSLSocket && sessionStatistics != null) {
+			final long socketCreationTime = System.currentTimeMillis();
+			final String hostPort = host + ":" + port;
+			((SSLSocket) socket).addHandshakeCompletedListener(event -> {
+					SSLSession session = event.getSession();
+					sessionStatistics.record(hostPort, session.getCreationTime() < socketCreationTime);
+				});
+		}
+		return socket;
+	}
 }
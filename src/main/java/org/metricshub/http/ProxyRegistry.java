@@ -0,0 +1,278 @@
+package org.metricshub.http;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * HTTP Java Client
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 MetricsHub
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resolves the HTTP proxies of {@link HttpClient} once, and keeps them for a time-to-live, so that the name of a
+ * proxy is not resolved again for each request (nor for each client).
+ * <p>
+ * The same {@link Proxy} instance is returned as long as the address of the proxy doesn't change, so that the
+ * connections (and the <code>CONNECT</code> tunnels of the HTTPS connections) kept alive by the JRE can be reused
+ * through the proxy. When the name of a proxy cannot be resolved again, its previous address is still used.
+ * </p>
+ * <p>
+ * When a client has several proxies (see {@link HttpClient.Builder#failoverProxy(String, int)}), a proxy that cannot
+ * be connected to is set aside for a cooldown period, and the requests go through the next proxies in the meantime.
+ * Only the failures to reach the proxy count (refused, unreachable or timed out TCP connection, unknown name): when
+ * the proxy is connected to, but the server doesn't answer the <code>CONNECT</code> tunnel or the TLS handshake
+ * in time, the request fails and the proxy is kept.
+ * </p>
+ * <p>
+ * By default, all the clients share the same registry ({@link #getDefault()}). The registry is thread-safe.
+ * </p>
+ */
+public class ProxyRegistry {
+
+	/**
+	 * Default time-to-live of the resolved proxies, in seconds
+	 */
+	public static final long DEFAULT_TTL_SECONDS = 60;
+
+	/**
+	 * Default time a proxy that cannot be connected to is set aside, in seconds
+	 */
+	public static final long DEFAULT_FAILURE_COOLDOWN_SECONDS = 30;
+
+	private static final ProxyRegistry DEFAULT_REGISTRY = new ProxyRegistry(
+		DEFAULT_TTL_SECONDS,
+		DEFAULT_FAILURE_COOLDOWN_SECONDS,
+		TimeUnit.SECONDS
+	);
+
+	private final long ttlNanos;
+	private final long failureCooldownNanos;
+
+	/**
+	 * Proxies, by <code>host:port</code> in lower case
+	 */
+	private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+	private final AtomicLong resolutionCount = new AtomicLong();
+	private final AtomicLong failureCount = new AtomicLong();
+
+	/**
+	 * @param ttl Time-to-live of the resolved proxies
+	 * @param failureCooldown Time a proxy that cannot be connected to is set aside
+	 * @param unit Unit of ttl and failureCooldown
+	 */
+	public ProxyRegistry(long ttl, long failureCooldown, TimeUnit unit) {
+		if (ttl < 0 || failureCooldown < 0) {
+			throw new IllegalArgumentException("Time-to-live and failure cooldown must not be negative");
+		}
+		this.ttlNanos = unit.toNanos(ttl);
+		this.failureCooldownNanos = unit.toNanos(failureCooldown);
+	}
+
+	/**
+	 * @return the registry shared by the clients that don't have their own (see
+	 * {@link HttpClient.Builder#proxyRegistry(ProxyRegistry)})
+	 */
+	public static ProxyRegistry getDefault() {
+		return DEFAULT_REGISTRY;
+	}
+
+	/**
+	 * @param address The host and port of the proxy (unresolved)
+	 * @return the key of the proxy
+	 */
+	private static String key(InetSocketAddress address) {
+		return address.getHostString().toLowerCase(Locale.ROOT) + ":" + address.getPort();
+	}
+
+	/**
+	 * @param address The host and port of the proxy (typically unresolved)
+	 * @return the proxy, resolved (resolved again when its time-to-live has expired)
+	 */
+	Proxy getProxy(InetSocketAddress address) {
+		Entry entry = entries.computeIfAbsent(key(address), k -> new Entry(address));
+		long now = System.nanoTime();
+		if (entry.proxy == null) {
+			// First resolution: the other threads wait for it
+			synchronized (entry) {
+				if (entry.proxy == null) {
+					resolve(entry, now);
+				}
+			}
+		} else if (now - entry.resolutionTime >= ttlNanos && entry.resolving.compareAndSet(false, true)) {
+			// Expired: this thread resolves it again, the other threads use the current address in the meantime
+			try {
+				resolve(entry, now);
+			} finally {
+				entry.resolving.set(false);
+			}
+		}
+		return entry.proxy;
+	}
+
+	/**
+	 * Resolve the address of the specified proxy, and replace its Proxy instance if the address has changed
+	 *
+	 * @param entry The proxy
+	 * @param now The current time (see {@link System#nanoTime()})
+	 */
+	private void resolve(Entry entry, long now) {
+		resolutionCount.incrementAndGet();
+		InetSocketAddress resolved = new InetSocketAddress(entry.address.getHostString(), entry.address.getPort());
+		Proxy current = entry.proxy;
+		if (current == null || (!resolved.isUnresolved() && !resolved.equals(current.address()))) {
+			// New address (or the name cannot be resolved, and there is no previous address)
+			entry.proxy = new Proxy(Proxy.Type.HTTP, resolved);
+		}
+		entry.resolutionTime = now;
+	}
+
+	/**
+	 * @param addresses The hosts and ports of the proxies, in the order of preference
+	 * @return the proxies, resolved, the ones that are set aside after a failure being moved to the end
+	 */
+	List<Proxy> select(List<InetSocketAddress> addresses) {
+		if (addresses.size() == 1) {
+			return Collections.singletonList(getProxy(addresses.get(0)));
+		}
+		List<Proxy> available = new ArrayList<>(addresses.size());
+		List<Proxy> failed = new ArrayList<>(1);
+		long now = System.nanoTime();
+		for (InetSocketAddress address : addresses) {
+			Proxy proxy = getProxy(address);
+			Entry entry = entries.get(key(address));
+			if (entry != null && entry.failureTime != 0 && now - entry.failureTime < failureCooldownNanos) {
+				failed.add(proxy);
+			} else {
+				available.add(proxy);
+			}
+		}
+		available.addAll(failed);
+		return available;
+	}
+
+	/**
+	 * Set aside the specified proxy, which cannot be connected to
+	 *
+	 * @param proxy The proxy
+	 */
+	void markFailed(Proxy proxy) {
+		if (proxy.address() instanceof InetSocketAddress) {
+			Entry entry = entries.get(key((InetSocketAddress) proxy.address()));
+			if (entry != null) {
+				failureCount.incrementAndGet();
+				long now = System.nanoTime();
+				// 0 means no failure
+				entry.failureTime = now == 0 ? 1 : now;
+			}
+		}
+	}
+
+	/**
+	 * @param addresses The hosts and ports of the proxies, in the order of preference
+	 * @return a ProxySelector of the specified proxies, backed by this registry (for java.net.http)
+	 */
+	ProxySelector selector(List<InetSocketAddress> addresses) {
+		return new ProxySelector() {
+			@Override
+			public List<Proxy> select(URI uri) {
+				return ProxyRegistry.this.select(addresses);
+			}
+
+			@Override
+			public void connectFailed(URI uri, SocketAddress address, IOException e) {
+				if (address instanceof InetSocketAddress) {
+					markFailed(new Proxy(Proxy.Type.HTTP, address));
+				}
+			}
+		};
+	}
+
+	/**
+	 * Forget all the resolved proxies
+	 */
+	public void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * @return the number of proxy names resolved
+	 */
+	public long getResolutionCount() {
+		return resolutionCount.get();
+	}
+
+	/**
+	 * @return the number of times a proxy could not be connected to, and was set aside
+	 */
+	public long getFailureCount() {
+		return failureCount.get();
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuilder()
+			.append("Proxy registry: ")
+			.append(entries.size())
+			.append(" proxies, ")
+			.append(getResolutionCount())
+			.append(" resolutions, ")
+			.append(getFailureCount())
+			.append(" failures")
+			.toString();
+	}
+
+	/**
+	 * A proxy, with its current address
+	 */
+	private static class Entry {
+
+		/**
+		 * The host and port of the proxy, as configured
+		 */
+		private final InetSocketAddress address;
+
+		private volatile Proxy proxy;
+		private volatile long resolutionTime;
+		private volatile long failureTime;
+
+		/**
+		 * Whether a thread is resolving the proxy again
+		 */
+		private final AtomicBoolean resolving = new AtomicBoolean();
+
+		/**
+		 * @param address The host and port of the proxy, as configured
+		 */
+		Entry(InetSocketAddress address) {
+			this.address = address;
+		}
+	}
+}
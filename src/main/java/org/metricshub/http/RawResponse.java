@@ -0,0 +1,118 @@
+package org.metricshub.http;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * HTTP Java Client
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 MetricsHub
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The status, headers and body of an HTTP response, as received by one of the transports of
+ * {@link HttpClient}, before the body is decoded and read.
+ */
+class RawResponse {
+
+	private final int statusCode;
+	private final Map<String, List<String>> headerFields;
+	private final InputStream body;
+	private final URL url;
+	private final String protocol;
+
+	/**
+	 * @param statusCode HTTP status code (200, 302, etc.)
+	 * @param headerFields Header values, by header name (the names may be in any case)
+	 * @param body Stream of the body, still encoded as specified in the <code>Content-Encoding</code> header (may be null)
+	 * @param url URL of the response, after the redirections
+	 * @param protocol Protocol of the response (e.g. "HTTP/1.1", "HTTP/2"), or null if unknown
+	 */
+	RawResponse(int statusCode, Map<String, List<String>> headerFields, InputStream body, URL url, String protocol) {
+		this.statusCode = statusCode;
+		this.headerFields = headerFields == null ? Collections.emptyMap() : headerFields;
+		this.body = body;
+		this.url = url;
+		this.protocol = protocol;
+	}
+
+	/**
+	 * @return HTTP status code (200, 302, etc.)
+	 */
+	int getStatusCode() {
+		return statusCode;
+	}
+
+	/**
+	 * @return all the header values, by header name
+	 */
+	Map<String, List<String>> getHeaderFields() {
+		return headerFields;
+	}
+
+	/**
+	 * Returns the value of the specified header (the last one, if the header is repeated)
+	 *
+	 * @param name Header name, in any case (e.g. "Content-Type")
+	 * @return the value of the header, or null if the response doesn't have this header
+	 */
+	String getHeaderField(String name) {
+		List<String> values = getHeaderValues(name);
+		return values.isEmpty() ? null : values.get(values.size() - 1);
+	}
+
+	/**
+	 * Returns all the values of the specified header
+	 *
+	 * @param name Header name, in any case (e.g. "WWW-Authenticate")
+	 * @return the values of the header (empty if the response doesn't have this header)
+	 */
+	List<String> getHeaderValues(String name) {
+		List<String> values = new ArrayList<>();
+		headerFields.forEach((key, valueList) -> {
+			if (name.equalsIgnoreCase(key) && valueList != null) {
+				values.addAll(valueList);
+			}
+		});
+		return values;
+	}
+
+	/**
+	 * @return the stream of the body, still encoded (may be null)
+	 */
+	InputStream getBody() {
+		return body;
+	}
+
+	/**
+	 * @return the URL of the response, after the redirections
+	 */
+	URL getUrl() {
+		return url;
+	}
+
+	/**
+	 * @return the protocol of the response (e.g. "HTTP/1.1", "HTTP/2"), or null if unknown
+	 */
+	String getProtocol() {
+		return protocol;
+	}
+}
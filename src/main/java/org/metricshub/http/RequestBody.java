@@ -0,0 +1,408 @@
+package org.metricshub.http;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * HTTP Java Client
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 MetricsHub
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The body of an HTTP request, sent with
+ * {@link HttpClient#send(String, String, String, char[], java.util.Map, RequestBody, int, String) HttpClient.send()}.
+ * <p>
+ * The body is streamed to the server, without being copied in memory: with a fixed length when its size is known
+ * (text, byte array, buffer, file, or stream of a specified length), or in chunks otherwise (stream of an unknown
+ * length).
+ * </p>
+ * <pre>
+ * client.send(url, "PUT", username, password, null, RequestBody.of(Paths.get("export.json")), 60, null);
+ * </pre>
+ */
+public abstract class RequestBody {
+
+	private static final int BUFFER_SIZE = 64 * 1024; // 64 KB chunks
+
+	/**
+	 * Use the static factory methods
+	 */
+	RequestBody() {}
+
+	/**
+	 * @param text The body, as text (encoded with UTF-8)
+	 * @return a new RequestBody
+	 */
+	public static RequestBody of(String text) {
+		return of(text, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @param text The body, as text
+	 * @param charset The charset to encode the text with
+	 * @return a new RequestBody
+	 */
+	public static RequestBody of(String text, Charset charset) {
+		return of(text.getBytes(charset));
+	}
+
+	/**
+	 * @param bytes The body (the array is not copied, and must not be modified until the request is sent)
+	 * @return a new RequestBody
+	 */
+	public static RequestBody of(byte[] bytes) {
+		return of(ByteBuffer.wrap(bytes));
+	}
+
+	/**
+	 * @param buffer The body: the remaining bytes of the buffer (the position of the buffer is not modified)
+	 * @return a new RequestBody
+	 */
+	public static RequestBody of(ByteBuffer buffer) {
+		return new BufferBody(buffer.duplicate());
+	}
+
+	/**
+	 * @param file The file to send as the body
+	 * @return a new RequestBody
+	 */
+	public static RequestBody of(Path file) {
+		return new FileBody(file);
+	}
+
+	/**
+	 * @param stream The stream to send as the body, in chunks (it will be read until its end, and closed)
+	 * @return a new RequestBody, which can be sent only once
+	 */
+	public static RequestBody of(InputStream stream) {
+		return of(stream, -1);
+	}
+
+	/**
+	 * @param stream The stream to send as the body (it will be read until its end, and closed)
+	 * @param length The number of bytes in the stream (-1 if unknown)
+	 * @return a new RequestBody, which can be sent only once
+	 */
+	public static RequestBody of(InputStream stream, long length) {
+		return new StreamBody(stream, length);
+	}
+
+	/**
+	 * @param body The body to compress
+	 * @param contentEncoding <code>gzip</code> or <code>deflate</code>
+	 * @return a new RequestBody that compresses the specified body while it is sent (its length is unknown)
+	 */
+	static RequestBody compress(RequestBody body, String contentEncoding) {
+		return new CompressedBody(body, "gzip".equalsIgnoreCase(contentEncoding));
+	}
+
+	/**
+	 * @return the number of bytes of the body, or -1 if unknown (the body is then sent in chunks)
+	 */
+	public abstract long getContentLength();
+
+	/**
+	 * @return whether the body can be sent several times (e.g. to answer an authentication challenge)
+	 */
+	public boolean isRepeatable() {
+		return true;
+	}
+
+	/**
+	 * @return a new stream of the body (or the stream itself, for a body built from a stream)
+	 * @throws IOException when the body cannot be read
+	 */
+	abstract InputStream openStream() throws IOException;
+
+	/**
+	 * Write the body to the specified stream
+	 *
+	 * @param out The stream to write to
+	 * @throws IOException when the body cannot be read, or written
+	 */
+	void writeTo(OutputStream out) throws IOException {
+		try (InputStream in = openStream()) {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int bytesCount;
+			while ((bytesCount = in.read(buffer)) != -1) {
+				out.write(buffer, 0, bytesCount);
+			}
+		}
+	}
+
+	/**
+	 * Body in memory
+	 */
+	private static class BufferBody extends RequestBody {
+
+		private final ByteBuffer buffer;
+
+		/**
+		 * @param buffer The body (its remaining bytes)
+		 */
+		BufferBody(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public long getContentLength() {
+			return buffer.remaining();
+		}
+
+		@Override
+		InputStream openStream() {
+			if (buffer.hasArray()) {
+				return new ByteArrayInputStream(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+			}
+			byte[] bytes = new byte[buffer.remaining()];
+			buffer.duplicate().get(bytes);
+			return new ByteArrayInputStream(bytes);
+		}
+
+		@Override
+		void writeTo(OutputStream out) throws IOException {
+			if (buffer.hasArray()) {
+				// Write the array directly, without any copy
+				out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+			} else {
+				super.writeTo(out);
+			}
+		}
+	}
+
+	/**
+	 * Body read from a file
+	 */
+	private static class FileBody extends RequestBody {
+
+		private final Path file;
+
+		/**
+		 * @param file The file to send
+		 */
+		FileBody(Path file) {
+			this.file = file;
+		}
+
+		@Override
+		public long getContentLength() {
+			try {
+				return Files.size(file);
+			} catch (IOException e) {
+				// The error will be reported when reading the file
+				return -1;
+			}
+		}
+
+		@Override
+		InputStream openStream() throws IOException {
+			return Files.newInputStream(file);
+		}
+	}
+
+	/**
+	 * Body read from a stream, only once
+	 */
+	private static class StreamBody extends RequestBody {
+
+		private final InputStream stream;
+		private final long length;
+
+		/**
+		 * @param stream The stream to send
+		 * @param length The number of bytes in the stream (-1 if unknown)
+		 */
+		StreamBody(InputStream stream, long length) {
+			this.stream = stream;
+			this.length = length;
+		}
+
+		@Override
+		public long getContentLength() {
+			return length;
+		}
+
+		@Override
+		public boolean isRepeatable() {
+			return false;
+		}
+
+		@Override
+		InputStream openStream() {
+			return stream;
+		}
+	}
+
+	/**
+	 * Body compressed on the fly, with the <code>gzip</code> or <code>deflate</code> (zlib) format
+	 */
+	private static class CompressedBody extends RequestBody {
+
+		/**
+		 * GZIP header: magic number, "deflate" compression method, no flags, no modification time, unknown OS
+		 */
+		private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+		private final RequestBody body;
+		private final boolean gzip;
+
+		/**
+		 * @param body The body to compress
+		 * @param gzip Whether to use the <code>gzip</code> format (otherwise <code>deflate</code>)
+		 */
+		CompressedBody(RequestBody body, boolean gzip) {
+			this.body = body;
+			this.gzip = gzip;
+		}
+
+		@Override
+		public long getContentLength() {
+			return -1;
+		}
+
+		@Override
+		public boolean isRepeatable() {
+			return body.isRepeatable();
+		}
+
+		@Override
+		void writeTo(OutputStream out) throws IOException {
+			// The compressing stream is closed (to release its native resources), but not the underlying stream
+			OutputStream uncloseableOut = new FilterOutputStream(out) {
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					out.write(b, off, len);
+				}
+
+				@Override
+				public void close() throws IOException {
+					flush();
+				}
+			};
+			try (
+				OutputStream compressingOut = gzip
+					? new GZIPOutputStream(uncloseableOut, BUFFER_SIZE)
+					: new DeflaterOutputStream(uncloseableOut, new Deflater(), BUFFER_SIZE, false) {
+						@Override
+						public void close() throws IOException {
+							try {
+								super.close();
+							} finally {
+								def.end();
+							}
+						}
+					}
+			) {
+				body.writeTo(compressingOut);
+			}
+		}
+
+		@Override
+		InputStream openStream() throws IOException {
+			// No "GZIPInputStream" that compresses in the JDK: wrap the raw deflate stream with the GZIP header
+			// and trailer (CRC-32 and size of the uncompressed data)
+			Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, gzip);
+			CRC32 crc = new CRC32();
+			long[] uncompressedSize = new long[1];
+			InputStream source = body.openStream();
+			InputStream deflated = new DeflaterInputStream(
+				gzip ? new CheckedInputStream(source, crc) : source,
+				deflater,
+				BUFFER_SIZE
+			) {
+				private boolean closed;
+
+				@Override
+				public void close() throws IOException {
+					// May be closed several times
+					if (closed) {
+						return;
+					}
+					closed = true;
+					try {
+						super.close();
+					} finally {
+						uncompressedSize[0] = deflater.getBytesRead();
+						deflater.end();
+					}
+				}
+			};
+			if (!gzip) {
+				return deflated;
+			}
+
+			// The trailer is built once all the data has been deflated (SequenceInputStream closes each stream
+			// before getting the next one)
+			return new SequenceInputStream(
+				new Enumeration<InputStream>() {
+					private int index;
+
+					@Override
+					public boolean hasMoreElements() {
+						return index < 3;
+					}
+
+					@Override
+					public InputStream nextElement() {
+						switch (index++) {
+							case 0:
+								return new ByteArrayInputStream(GZIP_HEADER);
+							case 1:
+								return deflated;
+							case 2:
+								return new ByteArrayInputStream(gzipTrailer(crc.getValue(), uncompressedSize[0]));
+							default:
+								throw new NoSuchElementException();
+						}
+					}
+				}
+			);
+		}
+
+		/**
+		 * @param crc CRC-32 of the uncompressed data
+		 * @param size Size of the uncompressed data
+		 * @return the GZIP trailer (both values as 32-bit little-endian integers)
+		 */
+		private static byte[] gzipTrailer(long crc, long size) {
+			byte[] trailer = new byte[8];
+			for (int i = 0; i < 4; i++) {
+				trailer[i] = (byte) (crc >>> (8 * i));
+				trailer[4 + i] = (byte) (size >>> (8 * i));
+			}
+			return trailer;
+		}
+	}
+}
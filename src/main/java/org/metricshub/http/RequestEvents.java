@@ -0,0 +1,65 @@
+package org.metricshub.http;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * HTTP Java Client
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 MetricsHub
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.net.URL;
+
+/**
+ * Records the requests of {@link HttpClient} as JDK Flight Recorder events.
+ * <p>
+ * This is the Java 8 version of this class: JDK Flight Recorder custom events are not available, so no event is
+ * recorded.
+ * </p>
+ * <p>
+ * With Java 21 and later, the version of this class located in <code>META-INF/versions/21</code>
+ * is used instead.
+ * </p>
+ */
+class RequestEvents {
+
+	/**
+	 * Only static methods, no instance
+	 */
+	private RequestEvents() {}
+
+	/**
+	 * Start the event of a request
+	 *
+	 * @return the event, or null if the requests are not recorded
+	 */
+	static Object begin() {
+		return null;
+	}
+
+	/**
+	 * Record the event of a request, if Flight Recorder is recording it
+	 *
+	 * @param event The event returned by {@link #begin()} (may be null)
+	 * @param timings The timings of the request
+	 * @param method The HTTP method of the request
+	 * @param url The URL of the request
+	 * @param statusCode The HTTP status code of the response (0 if no response was received)
+	 * @param failure Why the request failed (null if it succeeded)
+	 */
+	static void commit(Object event, RequestTimings timings, String method, URL url, int statusCode, Throwable failure) {
+		// Nothing to record with Java 8
+	}
+}
@@ -0,0 +1,309 @@
+package org.metricshub.http;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * HTTP Java Client
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 MetricsHub
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time spent in each phase of a request sent by {@link HttpClient} (see {@link HttpResponse#getTimings()}):
+ * <ul>
+ * <li>DNS: resolution of the host name of the server, when the connection is established with the
+ * {@link DnsResolver} of the client, including the lookup of the JVM that precedes it (otherwise, the JRE resolves
+ * the name while connecting, and this time is included in the connection)</li>
+ * <li>Connect: establishment of the TCP connection (close to 0 when a connection kept alive is reused)</li>
+ * <li>TLS handshake: negotiation of the TLS session of an HTTPS connection</li>
+ * <li>Time to first byte: from the moment the request is sent (including its body) until the status and the
+ * headers of the response are received</li>
+ * <li>Transfer: reception of the body of the response</li>
+ * </ul>
+ * <p>
+ * The timestamps are taken with {@link System#nanoTime()}, so they are monotonic, and the times are in
+ * nanoseconds. A phase that hasn't been measured (because it didn't happen, or because the transport doesn't
+ * report it, like the connection of <code>java.net.http</code>) has a time of <code>-1</code>. The times of the
+ * body are known once the body has been entirely read.
+ * </p>
+ * <p>
+ * With Java 21 and later, each request is also recorded as an <code>org.metricshub.http.Request</code> event of
+ * JDK Flight Recorder, with the same times.
+ * </p>
+ */
+public final class RequestTimings {
+
+	/**
+	 * Boundaries of the phases, in chronological order (indexes in {@link #timestamps})
+	 */
+	static final int DNS_START = 0;
+	static final int DNS_END = 1;
+	static final int CONNECT_START = 2;
+	static final int CONNECT_END = 3;
+	static final int HANDSHAKE_START = 4;
+	static final int HANDSHAKE_END = 5;
+	static final int REQUEST_START = 6;
+	static final int RESPONSE_START = 7;
+
+	/**
+	 * Timestamp of a phase boundary that hasn't been reached
+	 */
+	private static final long UNSET = Long.MIN_VALUE;
+
+	/**
+	 * The timings of the request being sent by the current thread
+	 */
+	private static final ThreadLocal<RequestTimings> CURRENT = new ThreadLocal<>();
+
+	private final String method;
+	private final URL url;
+	private final long startTime;
+	private final long[] timestamps = new long[RESPONSE_START + 1];
+	private long endTime = UNSET;
+	private int statusCode;
+
+	/**
+	 * The Flight Recorder event of the request (null if not recorded)
+	 */
+	private final Object event;
+
+	/**
+	 * The timings of the request that was being sent by the current thread when this one started (usually null)
+	 */
+	private final RequestTimings previous;
+
+	/**
+	 * @param method The HTTP method of the request
+	 * @param url The URL of the request
+	 * @param previous The timings of the request that was being sent by the current thread (usually null)
+	 */
+	private RequestTimings(String method, URL url, RequestTimings previous) {
+		this.method = method;
+		this.url = url;
+		this.previous = previous;
+		Arrays.fill(timestamps, UNSET);
+		event = RequestEvents.begin();
+		startTime = System.nanoTime();
+	}
+
+	/**
+	 * Start recording the timings of a request sent by the current thread
+	 *
+	 * @param method The HTTP method of the request
+	 * @param url The URL of the request
+	 * @return the timings of the request, to {@link #finish(Throwable) finish} once the response has been read
+	 */
+	static RequestTimings start(String method, URL url) {
+		RequestTimings timings = new RequestTimings(method, url, CURRENT.get());
+		CURRENT.set(timings);
+		return timings;
+	}
+
+	/**
+	 * @return the timings of the request being sent by the current thread (null if none)
+	 */
+	static RequestTimings current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Record that the request being sent by the current thread (if any) starts connecting to the server (or to its
+	 * proxy). The boundaries of a previous attempt (through a previous proxy, for instance) are cleared.
+	 */
+	static void markConnectStart() {
+		RequestTimings timings = CURRENT.get();
+		if (timings != null) {
+			Arrays.fill(timings.timestamps, UNSET);
+			timings.timestamps[CONNECT_START] = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Record that the request being sent by the current thread (if any) is sent (again, with credentials for
+	 * instance). The response of a previous attempt is cleared.
+	 */
+	static void markRequestStart() {
+		RequestTimings timings = CURRENT.get();
+		if (timings != null) {
+			timings.timestamps[REQUEST_START] = System.nanoTime();
+			timings.timestamps[RESPONSE_START] = UNSET;
+		}
+	}
+
+	/**
+	 * Record that the request being sent by the current thread (if any) reaches the specified phase boundary. The
+	 * other boundaries are kept.
+	 *
+	 * @param boundary The phase boundary ({@link #DNS_START}, {@link #CONNECT_END}, etc.)
+	 */
+	static void mark(int boundary) {
+		RequestTimings timings = CURRENT.get();
+		if (timings != null) {
+			timings.timestamps[boundary] = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Record that the TLS handshake of the request being sent by the current thread (if any) starts, so its TCP
+	 * connection is established
+	 */
+	static void markHandshakeStart() {
+		RequestTimings timings = CURRENT.get();
+		if (timings != null) {
+			if (timings.timestamps[CONNECT_END] == UNSET) {
+				timings.timestamps[CONNECT_END] = System.nanoTime();
+			}
+			mark(HANDSHAKE_START);
+		}
+	}
+
+	/**
+	 * Record that the request being sent by the current thread (if any) is connected to the server: the TCP
+	 * connection and the TLS handshake (if any) are complete, and the request is about to be sent
+	 */
+	static void markConnected() {
+		RequestTimings timings = CURRENT.get();
+		if (timings != null) {
+			long now = System.nanoTime();
+			if (timings.timestamps[HANDSHAKE_START] != UNSET) {
+				timings.timestamps[HANDSHAKE_END] = now;
+			}
+			if (timings.timestamps[CONNECT_END] == UNSET) {
+				timings.timestamps[CONNECT_END] = now;
+			}
+			timings.timestamps[REQUEST_START] = now;
+		}
+	}
+
+	/**
+	 * Record that the status and the headers of the response to the request being sent by the current thread (if
+	 * any) have been received
+	 *
+	 * @param statusCode The HTTP status code of the response
+	 */
+	static void markResponse(int statusCode) {
+		RequestTimings timings = CURRENT.get();
+		if (timings != null) {
+			timings.timestamps[RESPONSE_START] = System.nanoTime();
+			timings.statusCode = statusCode;
+		}
+	}
+
+	/**
+	 * Stop recording the timings of this request (the response has been read, or the request failed), and
+	 * record its Flight Recorder event
+	 *
+	 * @param failure Why the request failed (null if it succeeded)
+	 */
+	void finish(Throwable failure) {
+		endTime = System.nanoTime();
+		if (CURRENT.get() == this) {
+			if (previous == null) {
+				CURRENT.remove();
+			} else {
+				CURRENT.set(previous);
+			}
+		}
+		RequestEvents.commit(event, this, method, url, statusCode, failure);
+	}
+
+	/**
+	 * @param from The start boundary of a phase
+	 * @param to The end boundary of the phase
+	 * @return the time between the two boundaries, in nanoseconds, or -1 if they haven't both been reached
+	 */
+	private long between(int from, int to) {
+		return timestamps[from] == UNSET || timestamps[to] == UNSET ? -1 : timestamps[to] - timestamps[from];
+	}
+
+	/**
+	 * @return when the request started, as returned by {@link System#nanoTime()}
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * @return the time spent resolving the host name of the server, in nanoseconds (-1 if it hasn't been measured)
+	 */
+	public long getDnsTime() {
+		return between(DNS_START, DNS_END);
+	}
+
+	/**
+	 * @return the time spent establishing the TCP connection, in nanoseconds (-1 if it hasn't been measured)
+	 */
+	public long getConnectTime() {
+		return between(CONNECT_START, CONNECT_END);
+	}
+
+	/**
+	 * @return the time spent negotiating the TLS session, in nanoseconds (-1 if there was no TLS handshake, or if it
+	 * hasn't been measured)
+	 */
+	public long getTlsHandshakeTime() {
+		return between(HANDSHAKE_START, HANDSHAKE_END);
+	}
+
+	/**
+	 * @return the time between the moment the request was sent and the moment the status and the headers of the
+	 * response were received, in nanoseconds (-1 if the response hasn't been received)
+	 */
+	public long getTimeToFirstByte() {
+		return between(REQUEST_START, RESPONSE_START);
+	}
+
+	/**
+	 * @return the time spent receiving the body of the response, in nanoseconds (-1 if the body hasn't been read
+	 * yet)
+	 */
+	public long getTransferTime() {
+		return timestamps[RESPONSE_START] == UNSET || endTime == UNSET ? -1 : endTime - timestamps[RESPONSE_START];
+	}
+
+	/**
+	 * @return the total time of the request, in nanoseconds (-1 if it isn't complete yet)
+	 */
+	public long getTotalTime() {
+		return endTime == UNSET ? -1 : endTime - startTime;
+	}
+
+	/**
+	 * @param nanos A time in nanoseconds (or -1)
+	 * @param builder Where to append the time in milliseconds (or "n/a")
+	 * @return the builder
+	 */
+	private static StringBuilder appendMillis(long nanos, StringBuilder builder) {
+		if (nanos < 0) {
+			return builder.append("n/a");
+		}
+		return builder.append(String.format("%.3f ms", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1)));
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("Request timings: DNS ");
+		appendMillis(getDnsTime(), builder).append(", connect ");
+		appendMillis(getConnectTime(), builder).append(", TLS handshake ");
+		appendMillis(getTlsHandshakeTime(), builder).append(", time to first byte ");
+		appendMillis(getTimeToFirstByte(), builder).append(", transfer ");
+		appendMillis(getTransferTime(), builder).append(", total ");
+		return appendMillis(getTotalTime(), builder).toString();
+	}
+}
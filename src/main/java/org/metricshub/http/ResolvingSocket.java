@@ -0,0 +1,484 @@
+package org.metricshub.http;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * HTTP Java Client
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 MetricsHub
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An unconnected {@link Socket} that connects to the addresses of the server returned by a {@link DnsResolver},
+ * rather than to the one resolved by the JRE.
+ * <p>
+ * The JRE connects the sockets created by {@link ProtocolOverridingSSLSocketFactory#createSocket()} to the host
+ * of the URL, and then layers the SSL socket over them. The JRE has resolved the host name before (and the address
+ * it resolved is ignored, only the host name is kept), or the address is unresolved if the JRE cannot resolve the
+ * name, and the resolver still provides the addresses of the server.
+ * </p>
+ * <p>
+ * The addresses are tried one after the other, alternating the IPv6 and IPv4 addresses, as recommended by
+ * RFC 8305 (<i>Happy Eyeballs</i>). With <i>Happy Eyeballs</i>, the next address is tried when the previous one
+ * hasn't connected within {@link #CONNECTION_ATTEMPT_DELAY_MILLIS}, while the previous attempts continue, and the
+ * first connection established is kept (the other ones are closed). So, when a network path is black-holed, the
+ * connection doesn't wait for the whole connect timeout. Otherwise, the next address is tried only when the
+ * previous one failed.
+ * </p>
+ * <p>
+ * The connection attempts run in the calling thread, with non-blocking channels. Once connected, this socket
+ * delegates its operations to the connection that has been kept.
+ * </p>
+ */
+class ResolvingSocket extends Socket {
+
+	/**
+	 * Time after which the next address is tried, with <i>Happy Eyeballs</i> (recommended by RFC 8305)
+	 */
+	static final long CONNECTION_ATTEMPT_DELAY_MILLIS = 250;
+
+	private final DnsResolver resolver;
+	private final boolean happyEyeballs;
+
+	/**
+	 * The established connection (null until connected)
+	 */
+	private volatile Socket connection;
+	private volatile boolean closed;
+
+	/**
+	 * Options set before the connection, applied to each connection attempt (null to keep the default value)
+	 */
+	private int soTimeout;
+	private Boolean tcpNoDelay;
+	private Boolean keepAlive;
+	private Integer soLinger;
+	private Integer sendBufferSize;
+	private Integer receiveBufferSize;
+
+	/**
+	 * @param resolver Resolves the host name of the server
+	 * @param happyEyeballs Whether to race the connection attempts to the addresses of the server
+	 */
+	ResolvingSocket(final DnsResolver resolver, final boolean happyEyeballs) {
+		this.resolver = resolver;
+		this.happyEyeballs = happyEyeballs;
+
+		// The JRE resolves the host name between the creation of this socket and its connection
+		RequestTimings.mark(RequestTimings.DNS_START);
+	}
+
+	@Override
+	public void connect(final SocketAddress endpoint, final int timeout) throws IOException {
+		if (!(endpoint instanceof InetSocketAddress)) {
+			throw new IllegalArgumentException("Unsupported address type: " + endpoint);
+		}
+		if (closed) {
+			throw new SocketException("Socket is closed");
+		}
+		if (connection != null) {
+			throw new SocketException("Already connected");
+		}
+
+		// Keep the host name with the addresses, so that it is never looked up again
+		InetSocketAddress address = (InetSocketAddress) endpoint;
+		String host = address.getHostString();
+		InetAddress[] addresses = resolver.resolve(host);
+		RequestTimings.mark(RequestTimings.DNS_END);
+		List<InetSocketAddress> targets = new ArrayList<>();
+		for (InetAddress resolved : sortAddresses(addresses)) {
+			targets.add(new InetSocketAddress(InetAddress.getByAddress(host, resolved.getAddress()), address.getPort()));
+		}
+
+		long attemptDelayNanos = happyEyeballs ? TimeUnit.MILLISECONDS.toNanos(CONNECTION_ATTEMPT_DELAY_MILLIS) : -1;
+		// (the TCP connection starts after the DNS phase)
+		RequestTimings.mark(RequestTimings.CONNECT_START);
+		SocketChannel channel = connect(targets, timeout, attemptDelayNanos);
+		RequestTimings.mark(RequestTimings.CONNECT_END);
+		channel.configureBlocking(true);
+		connection = channel.socket();
+		if (closed) {
+			// Closed by another thread in the meantime
+			connection.close();
+			throw new SocketException("Socket is closed");
+		}
+	}
+
+	/**
+	 * Order the addresses of a host as recommended by RFC 8305: the first address of the resolver first, and then
+	 * alternately an address of the other family (IPv4 or IPv6) and of the family of the first address
+	 *
+	 * @param addresses The addresses of the host, as returned by the resolver
+	 * @return the addresses in the order they should be tried
+	 */
+	static List<InetAddress> sortAddresses(final InetAddress[] addresses) {
+		List<InetAddress> preferred = new ArrayList<>();
+		List<InetAddress> others = new ArrayList<>();
+		boolean preferIpv6 = addresses[0] instanceof Inet6Address;
+		for (InetAddress address : addresses) {
+			if ((address instanceof Inet6Address) == preferIpv6) {
+				preferred.add(address);
+			} else {
+				others.add(address);
+			}
+		}
+
+		List<InetAddress> sorted = new ArrayList<>(addresses.length);
+		for (int i = 0; i < Math.max(preferred.size(), others.size()); i++) {
+			if (i < preferred.size()) {
+				sorted.add(preferred.get(i));
+			}
+			if (i < others.size()) {
+				sorted.add(others.get(i));
+			}
+		}
+		return sorted;
+	}
+
+	/**
+	 * Connect to the first of the specified addresses that accepts the connection
+	 *
+	 * @param targets The addresses to try, in this order
+	 * @param timeout Timeout of the whole connection, in milliseconds (0 for no timeout)
+	 * @param attemptDelayNanos Time after which the next address is tried while the previous attempts continue
+	 * (negative to wait for the previous attempts to fail)
+	 * @return the connected channel (non-blocking)
+	 * @throws IOException when no address can be connected to, within the timeout
+	 */
+	SocketChannel connect(final List<InetSocketAddress> targets, final int timeout, final long attemptDelayNanos)
+		throws IOException {
+		long start = System.nanoTime();
+		long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+		List<SocketChannel> pending = new ArrayList<>();
+		SocketChannel connected = null;
+		IOException failure = null;
+		int next = 0;
+		long nextAttemptTime = start;
+
+		try (Selector selector = Selector.open()) {
+			while (connected == null) {
+				long now = System.nanoTime();
+
+				// Start the next attempt when its time has come, or when the previous attempts have failed
+				if (next < targets.size() && (pending.isEmpty() || (attemptDelayNanos >= 0 && now - nextAttemptTime >= 0))) {
+					InetSocketAddress target = targets.get(next++);
+					nextAttemptTime = now + attemptDelayNanos;
+					SocketChannel channel = SocketChannel.open();
+					try {
+						applyOptions(channel.socket());
+						channel.configureBlocking(false);
+						if (channel.connect(target)) {
+							connected = channel;
+							break;
+						}
+						channel.register(selector, SelectionKey.OP_CONNECT, target);
+						pending.add(channel);
+					} catch (IOException e) {
+						channel.close();
+						failure = addFailure(failure, e, target);
+					}
+					continue;
+				}
+
+				// All the attempts have failed
+				if (pending.isEmpty()) {
+					throw failure != null ? failure : new ConnectException("No address to connect to");
+				}
+
+				// Wait for an attempt to complete, until the timeout or the next attempt
+				long waitNanos = timeout > 0 ? timeoutNanos - (now - start) : Long.MAX_VALUE;
+				if (waitNanos <= 0) {
+					throw new SocketTimeoutException("Connect timed out");
+				}
+				if (next < targets.size() && attemptDelayNanos >= 0) {
+					waitNanos = Math.min(waitNanos, nextAttemptTime - now);
+				}
+				if (waitNanos > 0) {
+					selector.select(waitNanos == Long.MAX_VALUE ? 0 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNanos)));
+				}
+				if (Thread.currentThread().isInterrupted()) {
+					throw new InterruptedIOException("Interrupted while connecting to " + targets.get(0));
+				}
+
+				// The first connection established wins
+				for (SelectionKey key : selector.selectedKeys()) {
+					SocketChannel channel = (SocketChannel) key.channel();
+					try {
+						if (channel.finishConnect()) {
+							connected = channel;
+							break;
+						}
+					} catch (IOException e) {
+						key.cancel();
+						pending.remove(channel);
+						channel.close();
+						failure = addFailure(failure, e, (InetSocketAddress) key.attachment());
+					}
+				}
+				selector.selectedKeys().clear();
+			}
+		} finally {
+			// Close the other attempts (the selector is closed too, so the connected channel is not registered any more)
+			for (SocketChannel channel : pending) {
+				if (channel != connected) {
+					channel.close();
+				}
+			}
+		}
+		return connected;
+	}
+
+	/**
+	 * Apply the options set before the connection to the specified connection attempt
+	 *
+	 * @param socket The socket of the connection attempt
+	 * @throws SocketException when an option cannot be set
+	 */
+	private void applyOptions(final Socket socket) throws SocketException {
+		socket.setSoTimeout(soTimeout);
+		if (tcpNoDelay != null) {
+			socket.setTcpNoDelay(tcpNoDelay);
+		}
+		if (keepAlive != null) {
+			socket.setKeepAlive(keepAlive);
+		}
+		if (soLinger != null) {
+			socket.setSoLinger(soLinger >= 0, Math.max(soLinger, 0));
+		}
+		if (sendBufferSize != null) {
+			socket.setSendBufferSize(sendBufferSize);
+		}
+		if (receiveBufferSize != null) {
+			socket.setReceiveBufferSize(receiveBufferSize);
+		}
+	}
+
+	/**
+	 * @param failure The previous failures (may be null)
+	 * @param e The failure of a connection attempt
+	 * @param target The address that has been tried
+	 * @return the first failure, with the next ones as suppressed exceptions
+	 */
+	private static IOException addFailure(final IOException failure, final IOException e, final InetSocketAddress target) {
+		if (failure == null) {
+			return e.getMessage() == null ? new ConnectException("Cannot connect to " + target) : e;
+		}
+		failure.addSuppressed(e);
+		return failure;
+	}
+
+	/**
+	 * @return the established connection
+	 * @throws SocketException when this socket is not connected
+	 */
+	private Socket getConnection() throws SocketException {
+		Socket socket = connection;
+		if (socket == null) {
+			throw new SocketException(closed ? "Socket is closed" : "Socket is not connected");
+		}
+		return socket;
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		return getConnection().getInputStream();
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws IOException {
+		return getConnection().getOutputStream();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		closed = true;
+		if (connection != null) {
+			connection.close();
+		}
+	}
+
+	@Override
+	public boolean isConnected() {
+		return connection != null;
+	}
+
+	@Override
+	public boolean isBound() {
+		return connection != null;
+	}
+
+	@Override
+	public boolean isClosed() {
+		return closed;
+	}
+
+	@Override
+	public void shutdownInput() throws IOException {
+		getConnection().shutdownInput();
+	}
+
+	@Override
+	public void shutdownOutput() throws IOException {
+		getConnection().shutdownOutput();
+	}
+
+	@Override
+	public boolean isInputShutdown() {
+		return connection != null && connection.isInputShutdown();
+	}
+
+	@Override
+	public boolean isOutputShutdown() {
+		return connection != null && connection.isOutputShutdown();
+	}
+
+	@Override
+	public InetAddress getInetAddress() {
+		return connection == null ? null : connection.getInetAddress();
+	}
+
+	@Override
+	public int getPort() {
+		return connection == null ? 0 : connection.getPort();
+	}
+
+	@Override
+	public InetAddress getLocalAddress() {
+		return connection == null ? null : connection.getLocalAddress();
+	}
+
+	@Override
+	public int getLocalPort() {
+		return connection == null ? -1 : connection.getLocalPort();
+	}
+
+	@Override
+	public SocketAddress getRemoteSocketAddress() {
+		return connection == null ? null : connection.getRemoteSocketAddress();
+	}
+
+	@Override
+	public SocketAddress getLocalSocketAddress() {
+		return connection == null ? null : connection.getLocalSocketAddress();
+	}
+
+	@Override
+	public void setSoTimeout(final int timeout) throws SocketException {
+		if (connection == null) {
+			soTimeout = timeout;
+		} else {
+			connection.setSoTimeout(timeout);
+		}
+	}
+
+	@Override
+	public int getSoTimeout() throws SocketException {
+		return connection == null ? soTimeout : connection.getSoTimeout();
+	}
+
+	@Override
+	public void setTcpNoDelay(final boolean on) throws SocketException {
+		if (connection == null) {
+			tcpNoDelay = on;
+		} else {
+			connection.setTcpNoDelay(on);
+		}
+	}
+
+	@Override
+	public boolean getTcpNoDelay() throws SocketException {
+		return connection == null ? Boolean.TRUE.equals(tcpNoDelay) : connection.getTcpNoDelay();
+	}
+
+	@Override
+	public void setKeepAlive(final boolean on) throws SocketException {
+		if (connection == null) {
+			keepAlive = on;
+		} else {
+			connection.setKeepAlive(on);
+		}
+	}
+
+	@Override
+	public boolean getKeepAlive() throws SocketException {
+		return connection == null ? Boolean.TRUE.equals(keepAlive) : connection.getKeepAlive();
+	}
+
+	@Override
+	public void setSoLinger(final boolean on, final int linger) throws SocketException {
+		if (connection == null) {
+			soLinger = on ? linger : -1;
+		} else {
+			connection.setSoLinger(on, linger);
+		}
+	}
+
+	@Override
+	public int getSoLinger() throws SocketException {
+		return connection == null ? (soLinger == null ? -1 : soLinger) : connection.getSoLinger();
+	}
+
+	@Override
+	public void setSendBufferSize(final int size) throws SocketException {
+		if (connection == null) {
+			sendBufferSize = size;
+		} else {
+			connection.setSendBufferSize(size);
+		}
+	}
+
+	@Override
+	public int getSendBufferSize() throws SocketException {
+		return connection == null ? (sendBufferSize == null ? 0 : sendBufferSize) : connection.getSendBufferSize();
+	}
+
+	@Override
+	public void setReceiveBufferSize(final int size) throws SocketException {
+		if (connection == null) {
+			receiveBufferSize = size;
+		} else {
+			connection.setReceiveBufferSize(size);
+		}
+	}
+
+	@Override
+	public int getReceiveBufferSize() throws SocketException {
+		return connection == null ? (receiveBufferSize == null ? 0 : receiveBufferSize) : connection.getReceiveBufferSize();
+	}
+
+	@Override
+	public String toString() {
+		return connection == null ? "ResolvingSocket[unconnected]" : connection.toString();
+	}
+}
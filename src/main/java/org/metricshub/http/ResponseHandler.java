@@ -0,0 +1,46 @@
+package org.metricshub.http;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * HTTP Java Client
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 MetricsHub
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the body of an HTTP response as a stream, as it is received
+ * (see {@link HttpClient#streamRequest(String, String, String, char[], java.util.Map, String, int, ResponseHandler) streamRequest()}).
+ *
+ * @param <T> Type of the result of the handler
+ */
+@FunctionalInterface
+public interface ResponseHandler<T> {
+	/**
+	 * Read the body of the response.
+	 * <p>
+	 * The body stream is closed once this method returns, so it must be entirely processed here.
+	 * </p>
+	 *
+	 * @param response The status code and the headers of the response (its body is empty)
+	 * @param body The body of the response, decoded according to its content encoding (gzip, deflate)
+	 * @return the result, returned by <code>streamRequest()</code>
+	 * @throws IOException when the body cannot be read or processed
+	 */
+	T handle(HttpResponse response, InputStream body) throws IOException;
+}
@@ -0,0 +1,151 @@
+package org.metricshub.http;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * HTTP Java Client
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 MetricsHub
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Properties;
+
+/**
+ * The record of an interrupted download, kept in a sidecar file next to the partially downloaded file
+ * (<code>&lt;file&gt;.resume</code>), so that the download can be resumed where it stopped
+ * (see {@link HttpClient.Builder#resumableDownloads(boolean)}).
+ * <p>
+ * It records the URL of the file, the validator of its version (<code>ETag</code> or <code>Last-Modified</code>),
+ * and the number of bytes already written.
+ * </p>
+ */
+class ResumeRecord {
+
+	/**
+	 * Extension of the sidecar file
+	 */
+	static final String EXTENSION = ".resume";
+
+	private static final String URL_KEY = "url";
+	private static final String VALIDATOR_KEY = "validator";
+	private static final String LENGTH_KEY = "length";
+
+	private final String url;
+	private final String validator;
+	private final long length;
+
+	/**
+	 * @param url URL of the file
+	 * @param validator Strong <code>ETag</code>, or <code>Last-Modified</code> date of the file
+	 * @param length Number of bytes already written
+	 */
+	ResumeRecord(String url, String validator, long length) {
+		this.url = url;
+		this.validator = validator;
+		this.length = length;
+	}
+
+	/**
+	 * @return URL of the file
+	 */
+	String getUrl() {
+		return url;
+	}
+
+	/**
+	 * @return the validator to send in the <code>If-Range</code> header
+	 */
+	String getValidator() {
+		return validator;
+	}
+
+	/**
+	 * @return the number of bytes already written
+	 */
+	long getLength() {
+		return length;
+	}
+
+	/**
+	 * @param file The downloaded file
+	 * @return the path of the sidecar file of the specified file
+	 */
+	static Path getSidecar(Path file) {
+		return file.resolveSibling(file.getFileName() + EXTENSION);
+	}
+
+	/**
+	 * Read the record of the interrupted download of the specified file
+	 *
+	 * @param file The downloaded file
+	 * @param url The URL being downloaded
+	 * @return the record, or null if there is none for this URL, or if it is invalid (e.g. the file is shorter than
+	 * recorded)
+	 */
+	static ResumeRecord read(Path file, String url) {
+		Properties properties = new Properties();
+		try (InputStream in = Files.newInputStream(getSidecar(file))) {
+			properties.load(in);
+			String validator = properties.getProperty(VALIDATOR_KEY);
+			long length = Long.parseLong(properties.getProperty(LENGTH_KEY, "0"));
+			if (
+				url.equals(properties.getProperty(URL_KEY)) &&
+				validator != null &&
+				!validator.isEmpty() &&
+				length > 0 &&
+				Files.size(file) >= length
+			) {
+				return new ResumeRecord(url, validator, length);
+			}
+		} catch (NoSuchFileException e) {
+			// No interrupted download
+		} catch (IOException | NumberFormatException e) {
+			// Invalid record: download the entire file
+		}
+		return null;
+	}
+
+	/**
+	 * Write this record in the sidecar file of the specified file
+	 *
+	 * @param file The downloaded file
+	 * @throws IOException when the sidecar file cannot be written
+	 */
+	void write(Path file) throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty(URL_KEY, url);
+		properties.setProperty(VALIDATOR_KEY, validator);
+		properties.setProperty(LENGTH_KEY, String.valueOf(length));
+		try (OutputStream out = Files.newOutputStream(getSidecar(file))) {
+			properties.store(out, "Interrupted download");
+		}
+	}
+
+	/**
+	 * Delete the sidecar file of the specified file, if any
+	 *
+	 * @param file The downloaded file
+	 * @throws IOException when the sidecar file cannot be deleted
+	 */
+	static void delete(Path file) throws IOException {
+		Files.deleteIfExists(getSidecar(file));
+	}
+}
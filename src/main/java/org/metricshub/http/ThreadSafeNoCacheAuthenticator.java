@@ -21,6 +21,7 @@ package org.metricshub.http;
  */
 
 import java.net.Authenticator;
+import java.net.HttpURLConnection;
 import java.net.PasswordAuthentication;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -53,6 +54,10 @@ import java.util.concurrent.ConcurrentHashMap;
  * unwanted behavior (like getting a successful HTTP response when specifying a wrong password,
  * simply because you provided the proper password once before...)
  * </p>
+ * <p>
+ * With Java 21 and later, the version of this class located in <code>META-INF/versions/21</code>
+ * attaches an authenticator to each connection instead, without any shared state.
+ * </p>
  *
  * To use this class, you will need to do the following:
  * <br>
@@ -151,6 +156,30 @@ class ThreadSafeNoCacheAuthenticator extends Authenticator {
 		credList.put(Thread.currentThread(), new CredEntry(pUsername, pPassword, null, null));
 	}
 
+	/**
+	 * Sets the credentials that will be used by the specified connection, made by this Thread,
+	 * and installs this authenticator as the default one.
+	 * <p>
+	 * <b>IMPORTANT!</b> Make sure to call {@link #clearCredentials()} once finished with the connection.
+	 * </p>
+	 *
+	 * @param connection The connection that is about to be established
+	 * @param pUsername The username to be used to authenticate with the HTTP server
+	 * @param pPassword The associated password
+	 * @param pProxyUsername The user name to be used to authenticate with the proxy server
+	 * @param pProxyPassword The associated password
+	 */
+	static void setCredentials(
+		HttpURLConnection connection,
+		String pUsername,
+		char[] pPassword,
+		String pProxyUsername,
+		char[] pProxyPassword
+	) {
+		setCredentials(pUsername, pPassword, pProxyUsername, pProxyPassword);
+		Authenticator.setDefault(oneSingleAuthenticator);
+	}
+
 	/**
 	 * Removes the credentials associated to this Thread.
 	 * <p>
@@ -0,0 +1,115 @@
+package org.metricshub.http;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * HTTP Java Client
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 MetricsHub
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the TLS handshakes of an {@link HttpClient}, per host, distinguishing the full handshakes
+ * from the abbreviated ones, which resumed a previous TLS session.
+ * <p>
+ * A resumed handshake skips the key exchange and the certificate verification, which are the
+ * most CPU-intensive parts of a TLS connection (especially with RSA keys).
+ * </p>
+ * <p>
+ * Hosts are identified as <code>host:port</code>.
+ * </p>
+ * <p>
+ * Note: the JRE notifies the completion of a handshake asynchronously, so the counters may be
+ * updated shortly after the corresponding request has completed.
+ * </p>
+ */
+public class TlsSessionStatistics {
+
+	private final AtomicLong fullHandshakeCount = new AtomicLong();
+	private final AtomicLong resumedHandshakeCount = new AtomicLong();
+	private final ConcurrentHashMap<String, AtomicLong[]> hostCounts = new ConcurrentHashMap<>();
+
+	/**
+	 * Record a completed handshake
+	 *
+	 * @param hostPort The host and port of the server (<code>host:port</code>)
+	 * @param resumed Whether the handshake resumed a previous session
+	 */
+	void record(String hostPort, boolean resumed) {
+		AtomicLong[] counts = hostCounts.computeIfAbsent(hostPort, k -> new AtomicLong[] { new AtomicLong(), new AtomicLong() });
+		if (resumed) {
+			resumedHandshakeCount.incrementAndGet();
+			counts[1].incrementAndGet();
+		} else {
+			fullHandshakeCount.incrementAndGet();
+			counts[0].incrementAndGet();
+		}
+	}
+
+	/**
+	 * @return the number of full handshakes (new TLS sessions), all hosts
+	 */
+	public long getFullHandshakeCount() {
+		return fullHandshakeCount.get();
+	}
+
+	/**
+	 * @return the number of abbreviated handshakes (resumed TLS sessions), all hosts
+	 */
+	public long getResumedHandshakeCount() {
+		return resumedHandshakeCount.get();
+	}
+
+	/**
+	 * @param hostPort The host and port of the server (<code>host:port</code>)
+	 * @return the number of full handshakes with the specified host
+	 */
+	public long getFullHandshakeCount(String hostPort) {
+		AtomicLong[] counts = hostCounts.get(hostPort);
+		return counts == null ? 0 : counts[0].get();
+	}
+
+	/**
+	 * @param hostPort The host and port of the server (<code>host:port</code>)
+	 * @return the number of abbreviated handshakes with the specified host
+	 */
+	public long getResumedHandshakeCount(String hostPort) {
+		AtomicLong[] counts = hostCounts.get(hostPort);
+		return counts == null ? 0 : counts[1].get();
+	}
+
+	/**
+	 * @return the hosts (<code>host:port</code>) with which at least one handshake has been completed
+	 */
+	public Set<String> getHosts() {
+		return Collections.unmodifiableSet(hostCounts.keySet());
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuilder()
+			.append("TLS handshakes: ")
+			.append(getFullHandshakeCount())
+			.append(" full, ")
+			.append(getResumedHandshakeCount())
+			.append(" resumed")
+			.toString();
+	}
+}
@@ -0,0 +1,74 @@
+package org.metricshub.http;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * HTTP Java Client
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 MetricsHub
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Provides the default {@link Executor} that runs the asynchronous requests of {@link HttpClient}.
+ * <p>
+ * This is the Java 21 version of this class: each request runs in its own virtual thread, so
+ * a request waiting for the server doesn't hold a platform thread, and there is no need to
+ * limit the number of concurrent requests.
+ * </p>
+ */
+class AsyncExecutor {
+
+	/**
+	 * Only static methods, no instance
+	 */
+	private AsyncExecutor() {}
+
+	/**
+	 * Lazy initialization of the default executor, only when an asynchronous request is sent
+	 */
+	private static class Holder {
+
+		private static final Executor DEFAULT_EXECUTOR = createDefaultExecutor();
+	}
+
+	/**
+	 * @return the executor to use when none has been specified in {@link HttpClient.Builder}
+	 */
+	static Executor getDefault() {
+		return Holder.DEFAULT_EXECUTOR;
+	}
+
+	/**
+	 * Creates the executor that starts a new virtual thread for each task.
+	 * <p>
+	 * This source tree is compiled with <code>--release 17</code>, hence the reflection to call
+	 * <code>Executors.newVirtualThreadPerTaskExecutor()</code>, which is always available at runtime
+	 * as this class is only loaded by Java 21 and later.
+	 * </p>
+	 *
+	 * @return the virtual thread executor
+	 * @throws IllegalStateException if virtual threads are not available
+	 */
+	static Executor createDefaultExecutor() {
+		try {
+			return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Virtual threads are not available", e);
+		}
+	}
+}
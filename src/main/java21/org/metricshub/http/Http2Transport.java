@@ -0,0 +1,230 @@
+package org.metricshub.http;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * HTTP Java Client
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 MetricsHub
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.Authenticator;
+import java.net.PasswordAuthentication;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient.Redirect;
+import java.net.http.HttpClient.Version;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+
+/**
+ * Sends the requests of an {@link HttpClient} with the <code>java.net.http</code> client of the JRE,
+ * which negotiates HTTP/2 and multiplexes the concurrent requests to the same server over a single connection.
+ * <p>
+ * This is the Java 21 version of this class. The java.net.http types are fully qualified where their names
+ * clash with the classes of this package.
+ * </p>
+ */
+class Http2Transport {
+
+	/**
+	 * Headers that java.net.http doesn't let us set (it manages them by itself)
+	 */
+	private static final Set<String> RESTRICTED_HEADERS = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+	static {
+		RESTRICTED_HEADERS.add("Connection");
+		RESTRICTED_HEADERS.add("Content-Length");
+		RESTRICTED_HEADERS.add("Expect");
+		RESTRICTED_HEADERS.add("Host");
+		RESTRICTED_HEADERS.add("Upgrade");
+	}
+
+	/**
+	 * The java.net.http client, which holds the connections (one per server with HTTP/2) and multiplexes the
+	 * requests of all timeouts over them (the timeouts are set per request)
+	 */
+	private final java.net.http.HttpClient client;
+
+	/**
+	 * @param client The java.net.http client that sends the requests
+	 */
+	private Http2Transport(java.net.http.HttpClient client) {
+		this.client = client;
+	}
+
+	/**
+	 * Creates the transport
+	 *
+	 * @param sslContext The SSL context of the HTTPS connections
+	 * @param sslProtocols The SSL protocols to enable (null to use the default ones)
+	 * @param proxySelector Selects the proxy to connect through (null for a direct connection)
+	 * @param proxyUsername Username to connect to the proxy (if any)
+	 * @param proxyPassword Password associated to the proxy username
+	 * @return the new transport
+	 */
+	static Http2Transport create(
+		SSLContext sslContext,
+		String[] sslProtocols,
+		ProxySelector proxySelector,
+		String proxyUsername,
+		char[] proxyPassword
+	) {
+		java.net.http.HttpClient.Builder builder = java.net.http.HttpClient
+			.newBuilder()
+			.version(Version.HTTP_2)
+			.followRedirects(Redirect.NORMAL)
+			.sslContext(sslContext);
+
+		// SSL protocols
+		if (sslProtocols != null) {
+			SSLParameters sslParameters = sslContext.getDefaultSSLParameters();
+			sslParameters.setProtocols(sslProtocols);
+			builder.sslParameters(sslParameters);
+		}
+
+		// Proxy, and its credentials (the credentials for the servers are handled by HttpClient, per request)
+		if (proxySelector != null) {
+			builder.proxy(proxySelector);
+			if (proxyUsername != null && !proxyUsername.isEmpty()) {
+				builder.authenticator(
+					new Authenticator() {
+						@Override
+						protected PasswordAuthentication getPasswordAuthentication() {
+							if (getRequestorType() == RequestorType.PROXY) {
+								return new PasswordAuthentication(
+									proxyUsername,
+									proxyPassword == null ? new char[0] : proxyPassword
+								);
+							}
+							return null;
+						}
+					}
+				);
+			}
+		}
+
+		return new Http2Transport(builder.build());
+	}
+
+	/**
+	 * Send an HTTP request
+	 *
+	 * @param url The URL to be requested
+	 * @param method GET|POST|PUT|DELETE or whatever HTTP verb is supported
+	 * @param headers Headers of the request
+	 * @param body Body of the request (null for no body)
+	 * @param timeout Timeout in seconds before the response headers are received, connection included
+	 * @param expectContinue Whether to wait for the server to accept the request before sending the body
+	 * @return the response, or null if this transport cannot send this request (e.g. URL that is not a valid URI)
+	 * @throws IOException when anything wrong happens during the connection
+	 */
+	RawResponse send(
+		URL url,
+		String method,
+		Map<String, String> headers,
+		RequestBody body,
+		int timeout,
+		boolean expectContinue
+	) throws IOException {
+		// java.net.http requires a proper URI (HttpURLConnection is more lenient)
+		URI uri;
+		try {
+			uri = url.toURI();
+		} catch (URISyntaxException e) {
+			return null;
+		}
+
+		java.net.http.HttpRequest.Builder request;
+		try {
+			request = java.net.http.HttpRequest.newBuilder(uri);
+		} catch (IllegalArgumentException e) {
+			// Scheme other than http and https
+			return null;
+		}
+		// (the timeout of the request also covers the connection, when a new one is needed)
+		if (timeout > 0) {
+			request.timeout(Duration.ofSeconds(timeout));
+		}
+
+		// HTTP/2 is negotiated with ALPN over TLS only: don't try to upgrade the cleartext connections
+		if ("http".equalsIgnoreCase(uri.getScheme())) {
+			request.version(Version.HTTP_1_1);
+		}
+
+		// Headers
+		headers.forEach((name, value) -> {
+			if (!RESTRICTED_HEADERS.contains(name)) {
+				request.setHeader(name, value);
+			}
+		});
+
+		// Method and body
+		request.method(method, getBodyPublisher(body));
+		if (body != null && expectContinue) {
+			request.expectContinue(true);
+		}
+
+		// Go!
+		java.net.http.HttpResponse<InputStream> response;
+		try {
+			response = client.send(request.build(), BodyHandlers.ofInputStream());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the response of " + url);
+		}
+
+		return new RawResponse(
+			response.statusCode(),
+			response.headers().map(),
+			response.body(),
+			response.uri().toURL(),
+			response.version() == Version.HTTP_2 ? "HTTP/2" : "HTTP/1.1"
+		);
+	}
+
+	/**
+	 * @param body Body of the request (null for no body)
+	 * @return the publisher that streams the body, with a fixed length if known
+	 */
+	private static BodyPublisher getBodyPublisher(RequestBody body) {
+		long contentLength = body == null ? 0 : body.getContentLength();
+		if (contentLength == 0) {
+			return BodyPublishers.noBody();
+		}
+
+		BodyPublisher publisher = BodyPublishers.ofInputStream(() -> {
+			try {
+				return body.openStream();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+		return contentLength > 0 ? BodyPublishers.fromPublisher(publisher, contentLength) : publisher;
+	}
+}
@@ -0,0 +1,166 @@
+package org.metricshub.http;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * HTTP Java Client
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 MetricsHub
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.net.URL;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Records the requests of {@link HttpClient} as JDK Flight Recorder events.
+ * <p>
+ * This is the Java 21 version of this class: each request is recorded as an
+ * <code>org.metricshub.http.Request</code> event, whose duration is the total time of the request, with the time
+ * of each of its phases (see {@link RequestTimings}), so that the HTTP requests show up in the recordings next to
+ * the garbage collections and the CPU samples.
+ * </p>
+ * <p>
+ * When the <code>jdk.jfr</code> module is not available in the JRE, no event is recorded.
+ * </p>
+ */
+class RequestEvents {
+
+	/**
+	 * Whether the <code>jdk.jfr</code> module is available
+	 */
+	private static final boolean AVAILABLE = ModuleLayer.boot().findModule("jdk.jfr").isPresent();
+
+	/**
+	 * Only static methods, no instance
+	 */
+	private RequestEvents() {}
+
+	/**
+	 * Start the event of a request
+	 *
+	 * @return the event, or null if the requests are not recorded
+	 */
+	static Object begin() {
+		if (!AVAILABLE) {
+			return null;
+		}
+		RequestEvent event = new RequestEvent();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * Record the event of a request, if Flight Recorder is recording it
+	 *
+	 * @param event The event returned by {@link #begin()} (may be null)
+	 * @param timings The timings of the request
+	 * @param method The HTTP method of the request
+	 * @param url The URL of the request
+	 * @param statusCode The HTTP status code of the response (0 if no response was received)
+	 * @param failure Why the request failed (null if it succeeded)
+	 */
+	static void commit(Object event, RequestTimings timings, String method, URL url, int statusCode, Throwable failure) {
+		if (event == null) {
+			return;
+		}
+		RequestEvent requestEvent = (RequestEvent) event;
+		requestEvent.end();
+		if (requestEvent.shouldCommit()) {
+			requestEvent.method = method;
+			requestEvent.url = toEventUrl(url);
+			requestEvent.statusCode = statusCode;
+			requestEvent.dns = toTimespan(timings.getDnsTime());
+			requestEvent.connect = toTimespan(timings.getConnectTime());
+			requestEvent.tlsHandshake = toTimespan(timings.getTlsHandshakeTime());
+			requestEvent.timeToFirstByte = toTimespan(timings.getTimeToFirstByte());
+			requestEvent.transfer = toTimespan(timings.getTransferTime());
+			requestEvent.failure = failure == null ? null : failure.toString();
+			requestEvent.commit();
+		}
+	}
+
+	/**
+	 * @param url The URL of a request
+	 * @return <code>scheme://host:port/path</code>, without the user info and the query of the URL, which may hold
+	 * credentials, since the recordings are shared
+	 */
+	private static String toEventUrl(URL url) {
+		int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+		return url.getProtocol() + "://" + url.getHost() + ":" + port + url.getPath();
+	}
+
+	/**
+	 * @param nanos The time of a phase, in nanoseconds (-1 if it hasn't been measured)
+	 * @return the time of the phase, or Long.MIN_VALUE (displayed as N/A by Flight Recorder) if it hasn't been
+	 * measured
+	 */
+	private static long toTimespan(long nanos) {
+		return nanos < 0 ? Long.MIN_VALUE : nanos;
+	}
+
+	/**
+	 * An HTTP request, with the time of each of its phases (N/A when a phase hasn't been measured)
+	 */
+	@Name("org.metricshub.http.Request")
+	@Label("HTTP Request")
+	@Category({ "MetricsHub", "HTTP" })
+	@Description("An HTTP request sent by the HTTP Java Client, with the time of each of its phases")
+	@StackTrace(false)
+	static class RequestEvent extends Event {
+
+		@Label("Method")
+		String method;
+
+		@Label("URL")
+		@Description("The URL of the request, without its user info and query")
+		String url;
+
+		@Label("Status Code")
+		int statusCode;
+
+		@Label("DNS")
+		@Timespan(Timespan.NANOSECONDS)
+		long dns;
+
+		@Label("Connect")
+		@Timespan(Timespan.NANOSECONDS)
+		long connect;
+
+		@Label("TLS Handshake")
+		@Timespan(Timespan.NANOSECONDS)
+		long tlsHandshake;
+
+		@Label("Time to First Byte")
+		@Timespan(Timespan.NANOSECONDS)
+		long timeToFirstByte;
+
+		@Label("Transfer")
+		@Timespan(Timespan.NANOSECONDS)
+		long transfer;
+
+		@Label("Failure")
+		@Description("Why the request failed")
+		String failure;
+	}
+}
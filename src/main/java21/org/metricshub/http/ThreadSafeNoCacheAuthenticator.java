@@ -1,156 +1,107 @@
 package org.metricshub.http;
 
 import java.net.Authenticator;
+import java.net.HttpURLConnection;
 import java.net.PasswordAuthentication;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The ThreadSafeNoCacheAuthenticator class is used to provide the specified username/password for the
  * Web site itself, or for the proxy.
  * <p>
- * Additionally, it works around the incredibly annoying limitation of Java's UrlConnection
- * class and its underlying authentication mechanism, which is... gasp... not Thread-safe!
+ * This is the Java 21 version of this class: instead of a default Authenticator shared by the entire JVM,
+ * with credentials stored per Thread, each connection gets its own instance of this class, with the credentials
+ * of its request, attached with <code>HttpURLConnection.setAuthenticator()</code>.
  * </p>
  * <p>
- * Also, this class works around the fact that Java's HTTP authentication mechanism uses a
- * cache for all credentials that worked once! Very annoying... again!
+ * There is no shared state, which is safe with any number of (virtual) threads, and nothing to clean up.
  * </p>
  * <p>
- * It must be known that authentication in Java's HTTP client (the HttpUrlConnection class)
- * is based on the Authenticator class, whose only method to specify credentials stores
- * the credentials in a static property.
- * </p>
- * <p>
- * <code>Authenticator.setDefault(Authenticator a)</code> is a joke... an annoying joke!
- * </p>
- * <p>
- * Anyway, we will store the credentials in a ConcurrentHashMap where the key is the current Thread.
- * It's the developer's responsibility to remove the credentials that he doesn't want to keep
- * in memory.
+ * The JRE keeps a separate cache of credentials for each Authenticator instance (and forgets it with the
+ * instance), so the credentials of a request are never reused by another request, like with the
+ * <code>DisabledCache</code> of the Java 8 version (getting a successful HTTP response when specifying a wrong
+ * password, simply because you provided the proper password once before, is not possible).
  * </p>
  *
- * To use this class, you will need to do the following:
- * <br>
- * <code>
- * Authenticator.setDefault(ThreadSafeAuthenticator.getInstance()); <br>
- * <br>
- * ThreadSafeAuthenticator.setCredentials(username, password, proxyUsername, proxyPassword); <br>
- * <br>
- * // Then go ahead with your HttpUrlConnection request <br>
- * </code>
- *
  * @author bertrand
  */
 class ThreadSafeNoCacheAuthenticator extends Authenticator {
 
 	/**
-	 * One set of credentials that will be stored in the ConcurrentHashMap,
-	 * associated to the Thread making the request
-	 * <p>
-	 * @author bertrand
-	 */
-	private static class CredEntry {
-
-		public String username;
-		public char[] password;
-		public String proxyUsername;
-		public char[] proxyPassword;
-
-		CredEntry(String pUsername, char[] pPassword, String pProxyUsername, char[] pProxyPassword) {
-			username = pUsername;
-			password = pPassword;
-			proxyUsername = pProxyUsername;
-			proxyPassword = pProxyPassword;
-		}
-	}
-
-	/**
-	 * Only this class can instantiate itself, as only one instance will ever be required
-	 */
-	private ThreadSafeNoCacheAuthenticator() {
-		/* Nothing do to, it's just ro declare the Constructor as private */
-	}
-
-	/**
-	 * There will be only one instance of this class, because there is no need
-	 * for other instances, as everything is managed in static properties
-	 */
-	private static ThreadSafeNoCacheAuthenticator oneSingleAuthenticator;
-
-	static {
-		// Create the one instance required, as store it statically
-		oneSingleAuthenticator = new ThreadSafeNoCacheAuthenticator();
-	}
-
-	/**
-	 * @return the one single instance of ThreadSafeAuthenticator, to be used in
-	 * <code>Authenticator.setDefault(ThreadSafeAuthenticator.getInstance()</code>
+	 * Authenticator of the connections without any credentials (so that the default Authenticator
+	 * of the JVM, if any, is not used either)
 	 */
-	public static ThreadSafeNoCacheAuthenticator getInstance() {
-		return oneSingleAuthenticator;
-	}
+	private static final ThreadSafeNoCacheAuthenticator NO_CREDENTIALS = new ThreadSafeNoCacheAuthenticator(
+		null,
+		null,
+		null,
+		null
+	);
+
+	private final String username;
+	private final char[] password;
+	private final String proxyUsername;
+	private final char[] proxyPassword;
 
 	/**
-	 * The ConcurrentHashMap that stores the credentials to be used for each Thread.
-	 * Each Thread needs to call <code>setCredentials(...)</code> with the credentials that will be
-	 * used for upcoming HttpUrlConnection requests.
-	 */
-	private static ConcurrentHashMap<Thread, CredEntry> credList = new ConcurrentHashMap<Thread, CredEntry>();
-
-	/**
-	 * Sets the credentials that will be used in HttpUrlConnection requests made by this Thread.
-	 * <p>
-	 * <b>Warning!</b> Each Thread needs to set the credentials it needs to use with HttpUrlConnection
-	 * <p>
-	 * To use this class
+	 * Only this class can instantiate itself, with the credentials of one connection
+	 *
 	 * @param pUsername The username to be used to authenticate with the HTTP server
 	 * @param pPassword The associated password
 	 * @param pProxyUsername The user name to be used to authenticate with the proxy server
 	 * @param pProxyPassword The associated password
 	 */
-	public static void setCredentials(String pUsername, char[] pPassword, String pProxyUsername, char[] pProxyPassword) {
-		credList.put(Thread.currentThread(), new CredEntry(pUsername, pPassword, pProxyUsername, pProxyPassword));
+	private ThreadSafeNoCacheAuthenticator(
+		String pUsername,
+		char[] pPassword,
+		String pProxyUsername,
+		char[] pProxyPassword
+	) {
+		username = pUsername;
+		password = pPassword;
+		proxyUsername = pProxyUsername;
+		proxyPassword = pProxyPassword;
 	}
 
 	/**
-	 * Sets the credentials that will be used in HttpUrlConnection requests made by this Thread.
-	 * <p>
-	 * <b>Warning!</b> Each Thread needs to set the credentials it needs to use with HttpUrlConnection
-	 * <p>
-	 * To use this class
+	 * Sets the credentials that will be used by the specified connection (and only by this connection)
+	 *
+	 * @param connection The connection that is about to be established
 	 * @param pUsername The username to be used to authenticate with the HTTP server
 	 * @param pPassword The associated password
+	 * @param pProxyUsername The user name to be used to authenticate with the proxy server
+	 * @param pProxyPassword The associated password
 	 */
-	public static void setCredentials(String pUsername, char[] pPassword) {
-		credList.put(Thread.currentThread(), new CredEntry(pUsername, pPassword, null, null));
+	static void setCredentials(
+		HttpURLConnection connection,
+		String pUsername,
+		char[] pPassword,
+		String pProxyUsername,
+		char[] pProxyPassword
+	) {
+		if ((pUsername == null || pPassword == null) && (pProxyUsername == null || pProxyPassword == null)) {
+			connection.setAuthenticator(NO_CREDENTIALS);
+		} else {
+			connection.setAuthenticator(
+				new ThreadSafeNoCacheAuthenticator(pUsername, pPassword, pProxyUsername, pProxyPassword)
+			);
+		}
 	}
 
 	/**
-	 * Removes the credentials associated to this Thread.
-	 * <p>
-	 * <b>IMPORTANT!</b> Make sure to clear the credentials once finished with the HttpUrlConnection,
-	 * both for security reasons and to avoid memory leaks!
+	 * Nothing to clear: the credentials are attached to the connection, not to the Thread
 	 */
-	public static void clearCredentials() {
-		credList.remove(Thread.currentThread());
+	static void clearCredentials() {
+		/* Nothing to do */
 	}
 
+	@Override
 	public PasswordAuthentication getPasswordAuthentication() {
-		// Get the credentials of the current Thread
-		CredEntry credEntry = credList.get(Thread.currentThread());
-		if (credEntry == null) {
-			// No credentials? Return null
-			return null;
-		}
-
 		// Return the specified username and password for the server, if it's the server requesting it
-		if (getRequestorType() == RequestorType.SERVER && credEntry.username != null && credEntry.password != null) {
-			return (new PasswordAuthentication(credEntry.username, credEntry.password));
-		} else if (
-			getRequestorType() == RequestorType.PROXY && credEntry.proxyUsername != null && credEntry.proxyPassword != null
-		) {
+		if (getRequestorType() == RequestorType.SERVER && username != null && password != null) {
+			return (new PasswordAuthentication(username, password));
+		} else if (getRequestorType() == RequestorType.PROXY && proxyUsername != null && proxyPassword != null) {
 			// Or send the username and password for the proxy if it's the proxy requesting it
-			return (new PasswordAuthentication(credEntry.proxyUsername, credEntry.proxyPassword));
+			return (new PasswordAuthentication(proxyUsername, proxyPassword));
 		}
 
 		// Return null if we don't have the necessary credentials (which is the default implementation)
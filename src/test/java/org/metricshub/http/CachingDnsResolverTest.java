@@ -0,0 +1,238 @@
+package org.metricshub.http;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Test;
+
+class CachingDnsResolverTest {
+
+	/**
+	 * Resolves all the names to a new address each time (10.0.0.1, 10.0.0.2, etc.), or fails when asked to
+	 */
+	private static class FakeResolver implements DnsResolver {
+
+		private final AtomicInteger resolutionCount = new AtomicInteger();
+		private final AtomicBoolean failing = new AtomicBoolean();
+
+		@Override
+		public InetAddress[] resolve(String host) throws UnknownHostException {
+			if (failing.get()) {
+				throw new UnknownHostException(host + ": DNS unavailable");
+			}
+			int count = resolutionCount.incrementAndGet();
+			return new InetAddress[] { InetAddress.getByAddress(host, new byte[] { 10, 0, 0, (byte) count }) };
+		}
+	}
+
+	@Test
+	void testCached() throws Exception {
+		FakeResolver fake = new FakeResolver();
+		CachingDnsResolver resolver = CachingDnsResolver.builder().delegate(fake).ttl(1, TimeUnit.HOURS).build();
+		InetAddress[] addresses = resolver.resolve("host.example.com");
+		assertArrayEquals(addresses, resolver.resolve("HOST.example.com"));
+		assertEquals(1, fake.resolutionCount.get());
+		assertEquals(1, resolver.getMissCount());
+		assertEquals(1, resolver.getHitCount());
+
+		// IP addresses are not cached
+		resolver.resolve("127.0.0.1");
+		resolver.resolve("::1");
+		assertEquals(3, fake.resolutionCount.get());
+		assertEquals(1, resolver.getEntryCount());
+	}
+
+	@Test
+	void testTtl() throws Exception {
+		FakeResolver fake = new FakeResolver();
+		CachingDnsResolver resolver = CachingDnsResolver
+			.builder()
+			.delegate(fake)
+			.ttl(1, TimeUnit.HOURS)
+			.ttl("short.example.com", 0, TimeUnit.SECONDS)
+			.build();
+		resolver.resolve("long.example.com");
+		resolver.resolve("long.example.com");
+		assertEquals(1, fake.resolutionCount.get());
+
+		// Expired right away: resolved each time
+		resolver.resolve("short.example.com");
+		resolver.resolve("short.example.com");
+		assertEquals(3, fake.resolutionCount.get());
+	}
+
+	@Test
+	void testRefreshAhead() throws Exception {
+		// Refreshed in the background each time it's used (the executor runs the refresh right away)
+		FakeResolver fake = new FakeResolver();
+		CachingDnsResolver resolver = CachingDnsResolver
+			.builder()
+			.delegate(fake)
+			.ttl(1, TimeUnit.HOURS)
+			.refreshAhead(0)
+			.executor(Runnable::run)
+			.build();
+		assertEquals("10.0.0.1", resolver.resolve("host.example.com")[0].getHostAddress());
+		assertEquals("10.0.0.1", resolver.resolve("host.example.com")[0].getHostAddress());
+		assertEquals("10.0.0.2", resolver.resolve("host.example.com")[0].getHostAddress());
+		assertEquals(2, resolver.getRefreshCount());
+		assertEquals(1, resolver.getMissCount());
+
+		// A failed refresh keeps the current address
+		fake.failing.set(true);
+		assertEquals("10.0.0.3", resolver.resolve("host.example.com")[0].getHostAddress());
+		assertEquals("10.0.0.3", resolver.resolve("host.example.com")[0].getHostAddress());
+		assertEquals(2, resolver.getRefreshCount());
+	}
+
+	@Test
+	void testStaleWhileError() throws Exception {
+		FakeResolver fake = new FakeResolver();
+		CachingDnsResolver resolver = CachingDnsResolver
+			.builder()
+			.delegate(fake)
+			.ttl(0, TimeUnit.SECONDS)
+			.negativeTtl(1, TimeUnit.HOURS)
+			.maxStale(1, TimeUnit.HOURS)
+			.build();
+		assertEquals("10.0.0.1", resolver.resolve("host.example.com")[0].getHostAddress());
+
+		// The DNS fails: the expired address is still used, and the DNS is not queried again for a while
+		fake.failing.set(true);
+		assertEquals("10.0.0.1", resolver.resolve("host.example.com")[0].getHostAddress());
+		assertEquals("10.0.0.1", resolver.resolve("host.example.com")[0].getHostAddress());
+		assertEquals(1, resolver.getStaleCount());
+		assertEquals(2, resolver.getMissCount());
+
+		// Without stale address, the failure is remembered
+		UnknownHostException e = assertThrows(UnknownHostException.class, () -> resolver.resolve("other.example.com"));
+		assertEquals("other.example.com: DNS unavailable", e.getMessage());
+		fake.failing.set(false);
+		assertThrows(UnknownHostException.class, () -> resolver.resolve("other.example.com"));
+		assertEquals(1, fake.resolutionCount.get());
+	}
+
+	@Test
+	void testNoStale() throws Exception {
+		FakeResolver fake = new FakeResolver();
+		CachingDnsResolver resolver = CachingDnsResolver
+			.builder()
+			.delegate(fake)
+			.ttl(0, TimeUnit.SECONDS)
+			.maxStale(0, TimeUnit.SECONDS)
+			.build();
+		resolver.resolve("host.example.com");
+		fake.failing.set(true);
+		assertThrows(UnknownHostException.class, () -> resolver.resolve("host.example.com"));
+		assertEquals(0, resolver.getStaleCount());
+	}
+
+	@Test
+	void testEviction() throws Exception {
+		FakeResolver fake = new FakeResolver();
+		CachingDnsResolver resolver = CachingDnsResolver
+			.builder()
+			.delegate(fake)
+			.ttl(1, TimeUnit.HOURS)
+			.maxEntries(2)
+			.build();
+		resolver.resolve("a.example.com");
+		resolver.resolve("b.example.com");
+		resolver.resolve("a.example.com");
+		resolver.resolve("c.example.com");
+		assertEquals(2, resolver.getEntryCount());
+
+		// The least recently used host has been removed
+		resolver.resolve("a.example.com");
+		assertEquals(3, fake.resolutionCount.get());
+		resolver.resolve("b.example.com");
+		assertEquals(4, fake.resolutionCount.get());
+
+		resolver.clear();
+		assertEquals(0, resolver.getEntryCount());
+	}
+
+	@Test
+	void testConcurrentMisses() throws Exception {
+		AtomicInteger resolutionCount = new AtomicInteger();
+		AtomicBoolean failing = new AtomicBoolean();
+		AtomicReference<CountDownLatch> release = new AtomicReference<>(new CountDownLatch(1));
+		CachingDnsResolver resolver = CachingDnsResolver
+			.builder()
+			.delegate(host -> {
+				resolutionCount.incrementAndGet();
+				try {
+					release.get().await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				if (failing.get()) {
+					throw new UnknownHostException(host + ": DNS unavailable");
+				}
+				return new InetAddress[] { InetAddress.getByAddress(host, new byte[] { 10, 0, 0, 1 }) };
+			})
+			.ttl(0, TimeUnit.SECONDS)
+			.maxStale(0, TimeUnit.SECONDS)
+			.negativeTtl(0, TimeUnit.SECONDS)
+			.build();
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			// The threads that miss the same host wait for the same lookup
+			List<Future<InetAddress[]>> futures = new ArrayList<>();
+			for (int i = 0; i < 8; i++) {
+				futures.add(executor.submit(() -> resolver.resolve("slow.example.com")));
+			}
+			while (resolver.getMissCount() < 8) {
+				Thread.sleep(10);
+			}
+			Thread.sleep(100);
+			release.get().countDown();
+			for (Future<InetAddress[]> future : futures) {
+				assertEquals("10.0.0.1", future.get(10, TimeUnit.SECONDS)[0].getHostAddress());
+			}
+			assertEquals(1, resolutionCount.get());
+
+			// A failed lookup fails all the threads that wait for it
+			failing.set(true);
+			release.set(new CountDownLatch(1));
+			futures.clear();
+			for (int i = 0; i < 8; i++) {
+				futures.add(executor.submit(() -> resolver.resolve("failing.example.com")));
+			}
+			while (resolver.getMissCount() < 16) {
+				Thread.sleep(10);
+			}
+			Thread.sleep(100);
+			release.get().countDown();
+			for (Future<InetAddress[]> future : futures) {
+				Throwable cause = assertThrows(Exception.class, () -> future.get(10, TimeUnit.SECONDS)).getCause();
+				assertTrue(cause instanceof UnknownHostException);
+			}
+			assertEquals(2, resolutionCount.get());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	void testInvalidSettings() {
+		assertThrows(IllegalArgumentException.class, () -> CachingDnsResolver.builder().maxEntries(0));
+		assertThrows(IllegalArgumentException.class, () -> CachingDnsResolver.builder().ttl(-1, TimeUnit.SECONDS));
+		assertThrows(IllegalArgumentException.class, () -> CachingDnsResolver.builder().refreshAhead(1.5));
+		assertThrows(IllegalArgumentException.class, () -> CachingDnsResolver.builder().delegate(null));
+	}
+}
@@ -0,0 +1,76 @@
+package org.metricshub.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.URL;
+import org.junit.jupiter.api.Test;
+
+class ConnectionLimiterTest {
+
+	@Test
+	void routeKey() throws Exception {
+		assertEquals("http://host:80", ConnectionLimiter.routeKey(new URL("http://HOST/path"), null, null));
+		assertEquals(
+			"https://host:8443",
+			ConnectionLimiter.routeKey(new URL("https://host:8443/path"), Proxy.NO_PROXY, null)
+		);
+		assertEquals(
+			"https://host:443 TLSv1.2,TLSv1.3",
+			ConnectionLimiter.routeKey(new URL("https://host/"), null, new String[] { "TLSv1.2", "TLSv1.3" })
+		);
+		Proxy proxy = new Proxy(Proxy.Type.HTTP, InetSocketAddress.createUnresolved("proxy", 3128));
+		assertEquals("http://host:80 via proxy:3128", ConnectionLimiter.routeKey(new URL("http://host/"), proxy, null));
+	}
+
+	@Test
+	void activeCount() throws Exception {
+		ConnectionLimiter limiter = new ConnectionLimiter(2);
+
+		ConnectionLimiter.Lease lease = limiter.acquire("http://host:80", 1000);
+		ConnectionLimiter.Lease other = limiter.acquire("http://host:80", 1000);
+		assertEquals(2, limiter.getActiveCount());
+		assertEquals(0, limiter.getWaitCount());
+
+		limiter.release(lease);
+		limiter.release(lease);
+		assertEquals(1, limiter.getActiveCount(), "Releasing twice must not count twice");
+		limiter.release(other);
+		assertEquals(0, limiter.getActiveCount());
+	}
+
+	@Test
+	void maxConnectionsPerRoute() throws Exception {
+		ConnectionLimiter limiter = new ConnectionLimiter(1);
+		ConnectionLimiter.Lease lease = limiter.acquire("http://host:80", 1000);
+		assertThrows(IOException.class, () -> limiter.acquire("http://host:80", 10), "Route is at capacity");
+		assertEquals(1, limiter.getWaitCount());
+
+		// Other routes are not affected
+		limiter.release(limiter.acquire("http://other:80", 10));
+		assertEquals(1, limiter.getWaitCount());
+
+		// The waiting request gets the slot once it is released
+		Thread releaser = new Thread(() -> {
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			limiter.release(lease);
+		});
+		releaser.start();
+		limiter.release(limiter.acquire("http://host:80", 5000));
+		releaser.join();
+		assertEquals(2, limiter.getWaitCount());
+		assertEquals(0, limiter.getActiveCount());
+	}
+
+	@Test
+	void invalidSettings() {
+		assertThrows(IllegalArgumentException.class, () -> new ConnectionLimiter(0));
+	}
+}
@@ -0,0 +1,100 @@
+package org.metricshub.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class HostThrottleTest {
+
+	@Test
+	void testBulkheadFailFast() throws IOException {
+		HostThrottle throttle = HostThrottle.builder().maxConcurrentRequests(2).failFast().build();
+		HostThrottle.Host first = throttle.acquire("a:80");
+		throttle.acquire("a:80");
+		assertEquals(2, throttle.getActiveCount("a:80"));
+		assertThrows(HostThrottle.RejectedRequestException.class, () -> throttle.acquire("a:80"));
+
+		// Other hosts are not affected
+		throttle.acquire("b:80").release();
+
+		first.release();
+		throttle.acquire("a:80");
+		assertEquals(1, throttle.getRejectedCount());
+		assertEquals(1, throttle.getRejectedCount("a:80"));
+		assertEquals(0, throttle.getQueuedCount());
+	}
+
+	@Test
+	void testBulkheadWait() throws Exception {
+		HostThrottle throttle = HostThrottle.builder().maxConcurrentRequests(1).maxWait(5, TimeUnit.SECONDS).build();
+		HostThrottle.Host host = throttle.acquire("a:80");
+		Thread releaser = new Thread(() -> {
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			host.release();
+		});
+		releaser.start();
+		throttle.acquire("a:80").release();
+		releaser.join();
+		assertEquals(1, throttle.getQueuedCount("a:80"));
+		assertEquals(0, throttle.getRejectedCount());
+
+		// Timed out
+		HostThrottle shortWait = HostThrottle.builder().maxConcurrentRequests(1).maxWait(50, TimeUnit.MILLISECONDS).build();
+		shortWait.acquire("a:80");
+		assertThrows(HostThrottle.RejectedRequestException.class, () -> shortWait.acquire("a:80"));
+	}
+
+	@Test
+	void testRateLimit() throws IOException {
+		HostThrottle throttle = HostThrottle.builder().rateLimit(20, 2).build();
+
+		// The burst is sent right away, then 1 request every 50 ms
+		long start = System.nanoTime();
+		for (int i = 0; i < 5; i++) {
+			throttle.acquire("a:80").release();
+		}
+		long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertTrue(elapsedMillis >= 140, "3 requests must wait for a token: " + elapsedMillis + " ms");
+		assertEquals(3, throttle.getQueuedCount("a:80"));
+
+		HostThrottle failFast = HostThrottle.builder().rateLimit(1, 1).failFast().build();
+		failFast.acquire("a:80").release();
+		assertThrows(HostThrottle.RejectedRequestException.class, () -> failFast.acquire("a:80"));
+		assertEquals(1, failFast.getRejectedCount());
+	}
+
+	@Test
+	void testHostOverride() throws IOException {
+		HostThrottle throttle = HostThrottle
+			.builder()
+			.maxConcurrentRequests(10)
+			.host("bmc", 1, 0, 0)
+			.host("storage:8443", 2, 0, 0)
+			.failFast()
+			.build();
+		throttle.acquire("bmc:443");
+		assertThrows(HostThrottle.RejectedRequestException.class, () -> throttle.acquire("bmc:443"));
+		throttle.acquire("storage:8443");
+		throttle.acquire("storage:8443");
+		assertThrows(HostThrottle.RejectedRequestException.class, () -> throttle.acquire("storage:8443"));
+		for (int i = 0; i < 10; i++) {
+			throttle.acquire("storage:443");
+		}
+		assertEquals(2, throttle.getRejectedCount());
+	}
+
+	@Test
+	void testInvalidLimits() {
+		assertThrows(IllegalArgumentException.class, () -> HostThrottle.builder().maxConcurrentRequests(-1));
+		assertThrows(IllegalArgumentException.class, () -> HostThrottle.builder().rateLimit(10, 0));
+		assertThrows(IllegalArgumentException.class, () -> HostThrottle.builder().maxWait(-1, TimeUnit.SECONDS));
+	}
+}
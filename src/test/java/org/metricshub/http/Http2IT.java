@@ -0,0 +1,238 @@
+package org.metricshub.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Integration tests, run against the packaged multi-release jar (and not <code>target/classes</code>), so
+ * that the classes of <code>META-INF/versions/21</code> are used when running with Java 21 and later.
+ */
+class Http2IT {
+
+	/**
+	 * By default, HTTPBIN_SSL_URL points to the public instance of httpbin, which supports HTTP/2:
+	 * <code>https://httpbin.org</code>
+	 * <p>
+	 * When running tests, you can set the <code>HTTPBIN_SSL_URL</code> environment variable
+	 * to specify another address where httpbin is running (with HTTP/2 enabled).
+	 * </p>
+	 */
+	private static final String HTTPBIN_SSL_URL;
+
+	static {
+		String url = System.getenv("HTTPBIN_SSL_URL");
+		if (url == null || url.isEmpty()) {
+			url = "https://httpbin.org";
+		}
+		HTTPBIN_SSL_URL = url;
+	}
+
+	@Test
+	void packagedJar() {
+		String location = HttpClient.class.getProtectionDomain().getCodeSource().getLocation().getPath();
+		assertTrue(location.endsWith(".jar"), "Classes must be loaded from the packaged jar, not from " + location);
+	}
+
+	@Test
+	void http2() throws Exception {
+		HttpClient client = HttpClient.builder().http2(true).build();
+		HttpResponse r = client.sendRequest(HTTPBIN_SSL_URL + "/get", "GET", null, null, null, null, 30, null);
+		assertEquals(200, r.getStatusCode());
+		if (Runtime.version().feature() >= 21) {
+			assertEquals("HTTP/2", r.getProtocol(), "java.net.http must negotiate HTTP/2 with Java 21 and later");
+		} else {
+			assertEquals("HTTP/1.1", r.getProtocol(), "HttpURLConnection must be used before Java 21");
+		}
+
+		r = client.sendRequest(HTTPBIN_SSL_URL + "/basic-auth/user/pass", "GET", "user", "pass".toCharArray(), null, null, 30, null);
+		assertEquals(200, r.getStatusCode(), "Basic authentication must succeed");
+	}
+
+	@Test
+	void http2Local(@TempDir Path tempDir) throws Exception {
+		try (LocalServer server = new LocalServer(tempDir)) {
+			HttpClient client = HttpClient.builder().http2(true).build();
+			HttpResponse r = client.sendRequest(server.getUrl() + "/get", "GET", null, null, null, null, 10, null);
+			assertEquals(200, r.getStatusCode());
+			assertEquals("ok", r.getBody());
+			if (Runtime.version().feature() >= 21) {
+				assertEquals("h2", server.protocols.get(0), "java.net.http must offer h2 with ALPN");
+				assertEquals("HTTP/2", r.getProtocol(), "java.net.http must negotiate HTTP/2 with Java 21 and later");
+
+				// Another timeout: same client, same connection
+				r = client.sendRequest(server.getUrl() + "/get", "GET", null, null, null, null, 20, null);
+				assertEquals("HTTP/2", r.getProtocol());
+				assertEquals(1, server.protocols.size(), "Requests with different timeouts must share the connection");
+			} else {
+				assertEquals("HTTP/1.1", r.getProtocol(), "HttpURLConnection must be used before Java 21");
+			}
+		}
+	}
+
+	/**
+	 * Local TLS server that negotiates <code>h2</code> with ALPN and answers <code>200 ok</code> to each request,
+	 * with HTTP/2 (just enough of it for java.net.http) or HTTP/1.1
+	 */
+	private static class LocalServer implements Closeable {
+
+		private final SSLServerSocket serverSocket;
+
+		/**
+		 * Application protocol negotiated on each connection ("" when the client doesn't use ALPN)
+		 */
+		private final List<String> protocols = new CopyOnWriteArrayList<>();
+
+		LocalServer(Path tempDir) throws Exception {
+			// Self-signed certificate (the client trusts all certificates)
+			File keyStoreFile = tempDir.resolve("server.p12").toFile();
+			Process keytool = new ProcessBuilder(
+				System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool",
+				"-genkeypair",
+				"-alias",
+				"server",
+				"-keyalg",
+				"RSA",
+				"-dname",
+				"CN=localhost",
+				"-storetype",
+				"PKCS12",
+				"-keystore",
+				keyStoreFile.getPath(),
+				"-storepass",
+				"changeit"
+			)
+				.inheritIO()
+				.start();
+			assertEquals(0, keytool.waitFor(), "keytool must create the certificate");
+			KeyStore keyStore = KeyStore.getInstance("PKCS12");
+			try (InputStream in = new FileInputStream(keyStoreFile)) {
+				keyStore.load(in, "changeit".toCharArray());
+			}
+			KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+			keyManagerFactory.init(keyStore, "changeit".toCharArray());
+			SSLContext sslContext = SSLContext.getInstance("TLS");
+			sslContext.init(keyManagerFactory.getKeyManagers(), null, null);
+
+			serverSocket =
+				(SSLServerSocket) sslContext
+					.getServerSocketFactory()
+					.createServerSocket(0, 10, InetAddress.getLoopbackAddress());
+			SSLParameters parameters = serverSocket.getSSLParameters();
+			parameters.setApplicationProtocols(new String[] { "h2", "http/1.1" });
+			serverSocket.setSSLParameters(parameters);
+
+			Thread acceptor = new Thread(() -> {
+				try {
+					while (true) {
+						SSLSocket socket = (SSLSocket) serverSocket.accept();
+						new Thread(() -> serve(socket)).start();
+					}
+				} catch (IOException e) {
+					/* Closed */
+				}
+			});
+			acceptor.setDaemon(true);
+			acceptor.start();
+		}
+
+		String getUrl() {
+			return "https://127.0.0.1:" + serverSocket.getLocalPort();
+		}
+
+		private void serve(SSLSocket socket) {
+			try (SSLSocket s = socket) {
+				s.startHandshake();
+				String protocol = s.getApplicationProtocol();
+				protocols.add(protocol);
+				if ("h2".equals(protocol)) {
+					serveHttp2(new DataInputStream(s.getInputStream()), s.getOutputStream());
+				} else {
+					serveHttp1(s.getInputStream(), s.getOutputStream());
+				}
+			} catch (IOException e) {
+				/* Client gone */
+			}
+		}
+
+		private static void serveHttp1(InputStream in, OutputStream out) throws IOException {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.ISO_8859_1));
+			String line;
+			while ((line = reader.readLine()) != null && !line.isEmpty()) {
+				/* Skip the request */
+			}
+			String response = "HTTP/1.1 200 OK\r\nContent-Length: 2\r\nConnection: close\r\n\r\nok";
+			out.write(response.getBytes(StandardCharsets.US_ASCII));
+			out.flush();
+		}
+
+		private static void serveHttp2(DataInputStream in, OutputStream out) throws IOException {
+			// Connection preface of the client, then ours (empty SETTINGS)
+			in.readFully(new byte[24]);
+			writeFrame(out, 0x4, 0, 0, new byte[0]);
+
+			while (true) {
+				int length = in.readUnsignedShort() << 8 | in.readUnsignedByte();
+				int type = in.readUnsignedByte();
+				int flags = in.readUnsignedByte();
+				int stream = in.readInt() & 0x7fffffff;
+				in.readFully(new byte[length]);
+				if (type == 0x4 && (flags & 0x1) == 0) {
+					// SETTINGS: acknowledge
+					writeFrame(out, 0x4, 0x1, 0, new byte[0]);
+				} else if (type == 0x1 && (flags & 0x1) != 0) {
+					// HEADERS of a complete request: ":status: 200" (index 8 of the HPACK static table), then "ok"
+					writeFrame(out, 0x1, 0x4, stream, new byte[] { (byte) 0x88 });
+					writeFrame(out, 0x0, 0x1, stream, "ok".getBytes(StandardCharsets.US_ASCII));
+				} else if (type == 0x7) {
+					// GOAWAY
+					return;
+				}
+			}
+		}
+
+		private static void writeFrame(OutputStream out, int type, int flags, int stream, byte[] payload)
+			throws IOException {
+			out.write(new byte[] {
+				(byte) (payload.length >>> 16),
+				(byte) (payload.length >>> 8),
+				(byte) payload.length,
+				(byte) type,
+				(byte) flags,
+				(byte) (stream >>> 24),
+				(byte) (stream >>> 16),
+				(byte) (stream >>> 8),
+				(byte) stream
+			});
+			out.write(payload);
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			serverSocket.close();
+		}
+	}
+}
@@ -0,0 +1,208 @@
+package org.metricshub.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class HttpBatchTest {
+
+	@Test
+	void testGetHostKey() throws MalformedURLException {
+		assertEquals("host:443", HttpBatch.getHostKey("https://HOST/path"));
+		assertEquals("host:8080", HttpBatch.getHostKey("http://host:8080/"));
+		assertThrows(MalformedURLException.class, () -> HttpBatch.getHostKey("nope://host/"));
+	}
+
+	@Test
+	void testConcurrencyLimits() throws InterruptedException {
+		List<HttpRequest> requests = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			requests.add(HttpRequest.builder("http://host" + (i % 4) + "/" + i).build());
+		}
+
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		Map<String, AtomicInteger> runningPerHost = new ConcurrentHashMap<>();
+		AtomicInteger maxRunningPerHost = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(16);
+		try {
+			HttpBatch batch = new HttpBatch(
+				requests,
+				6,
+				2,
+				executor,
+				request -> {
+					String host = HttpBatch.getHostKey(request.getUrl());
+					AtomicInteger hostRunning = runningPerHost.computeIfAbsent(host, k -> new AtomicInteger());
+					maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+					maxRunningPerHost.accumulateAndGet(hostRunning.incrementAndGet(), Math::max);
+					try {
+						Thread.sleep(20);
+					} catch (InterruptedException e) {
+						throw new IOException(e);
+					}
+					hostRunning.decrementAndGet();
+					running.decrementAndGet();
+					if (request.getUrl().endsWith("/13")) {
+						throw new IOException("Failed");
+					}
+					HttpResponse response = new HttpResponse();
+					response.setStatusCode(200);
+					return response;
+				}
+			);
+
+			List<HttpBatch.Result> results = new ArrayList<>();
+			batch.forEach(results::add);
+			assertEquals(20, results.size());
+			assertNull(batch.take());
+			assertTrue(batch.isDone());
+			assertEquals(1, results.stream().filter(result -> !result.isSuccess()).count());
+			assertTrue(maxRunning.get() <= 6, "At most 6 requests at the same time");
+			assertTrue(maxRunningPerHost.get() <= 2, "At most 2 requests per host at the same time");
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	void testCancel() throws InterruptedException {
+		List<HttpRequest> requests = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			requests.add(HttpRequest.builder("http://host/" + i).build());
+		}
+		CountDownLatch release = new CountDownLatch(1);
+		ExecutorService executor = Executors.newCachedThreadPool();
+		try {
+			HttpBatch batch = new HttpBatch(
+				requests,
+				10,
+				1,
+				executor,
+				request -> {
+					try {
+						release.await(10, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						throw new IOException(e);
+					}
+					return new HttpResponse();
+				}
+			);
+			assertEquals(1, batch.getRunningCount());
+			assertEquals(4, batch.getQueuedCount());
+			batch.cancel();
+			for (int i = 0; i < 4; i++) {
+				HttpBatch.Result result = batch.take();
+				assertFalse(result.isSuccess());
+				assertTrue(result.getException() instanceof CancellationException);
+			}
+			release.countDown();
+			assertTrue(batch.take().isSuccess());
+			assertNull(batch.take());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	void testSaturatedExecutor() throws InterruptedException {
+		List<HttpRequest> requests = new ArrayList<>();
+		for (int i = 0; i < 5000; i++) {
+			requests.add(HttpRequest.builder("http://host" + (i % 10) + "/" + i).build());
+		}
+		HttpBatch.Sender sender = request -> {
+			HttpResponse response = new HttpResponse();
+			response.setStatusCode(200);
+			return response;
+		};
+
+		// The executor rejects the requests beyond its 2 threads: they are retried, not failed
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 2, 0, TimeUnit.SECONDS, new SynchronousQueue<>());
+		try {
+			HttpBatch batch = new HttpBatch(requests, 64, 8, executor, sender);
+			List<HttpBatch.Result> results = new ArrayList<>();
+			batch.forEach(results::add);
+			assertEquals(5000, results.size());
+			assertTrue(results.stream().allMatch(HttpBatch.Result::isSuccess));
+		} finally {
+			executor.shutdownNow();
+		}
+
+		// The requests run in the caller thread, without nesting the calls
+		HttpBatch batch = new HttpBatch(requests, 64, 8, Runnable::run, sender);
+		assertTrue(batch.isDone());
+		assertEquals(5000, batch.getCompletedCount());
+
+		// Nothing can run the requests: they fail
+		ExecutorService shutdown = Executors.newSingleThreadExecutor();
+		shutdown.shutdown();
+		batch = new HttpBatch(requests, 64, 8, shutdown, sender);
+		assertTrue(batch.isDone());
+		HttpBatch.Result result = batch.take();
+		assertFalse(result.isSuccess());
+		assertTrue(result.getException() instanceof RejectedExecutionException);
+	}
+
+	@Test
+	void testFailingExecutor() throws InterruptedException {
+		List<HttpRequest> requests = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			requests.add(HttpRequest.builder("http://host" + (i % 2) + "/" + i).build());
+		}
+		HttpBatch.Sender sender = request -> {
+			HttpResponse response = new HttpResponse();
+			response.setStatusCode(200);
+			return response;
+		};
+
+		// The executor fails to start every other request, with something else than a rejection
+		AtomicInteger submitted = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			HttpBatch batch = new HttpBatch(
+				requests,
+				4,
+				2,
+				command -> {
+					if (submitted.incrementAndGet() % 2 == 0) {
+						throw new IllegalStateException("Broken executor");
+					}
+					executor.execute(command);
+				},
+				sender
+			);
+			List<HttpBatch.Result> results = new ArrayList<>();
+			batch.forEach(results::add);
+			assertEquals(10, results.size(), "The batch must not hang");
+			assertTrue(results.stream().anyMatch(HttpBatch.Result::isSuccess));
+			assertTrue(
+				results
+					.stream()
+					.filter(result -> !result.isSuccess())
+					.allMatch(result -> result.getException() instanceof IllegalStateException)
+			);
+			assertTrue(batch.isDone());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -1,17 +1,47 @@
 package org.metricshub.http;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTimeout;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NoRouteToHostException;
+import java.net.Proxy;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
@@ -189,6 +219,18 @@ class HttpClientTest {
 				null
 			);
 		assertEquals(200, r.getStatusCode(), "Specifying SSLv2Hello must not break communication");
+
+		IllegalArgumentException e = assertThrows(
+			IllegalArgumentException.class,
+			() -> HttpClient.builder().sslProtocols("SSLv2Hello", "SSLv1", "TLSv0.9").build(),
+			"Unsupported protocols must not fall back to the default ones"
+		);
+		assertTrue(e.getMessage().contains("SSLv1, TLSv0.9"), "Unsupported protocols must be named in " + e.getMessage());
+		assertEquals(
+			Arrays.asList("TLSv1.2"),
+			Arrays.asList(HttpClient.getProtocolsToEnable(new String[] { "TLSv0.9", "TLSv1.2" })),
+			"Only the unsupported protocols must be removed"
+		);
 	}
 
 	@ParameterizedTest
@@ -344,6 +386,47 @@ class HttpClientTest {
 		assertTrue(r.getBody().contains("\"Second\": \"1 + 1\""), "First header must be set" + r.getBody());
 	}
 
+	@Test
+	void clientInstance() throws Exception {
+		HttpClient client = HttpClient
+			.builder()
+			.sslProtocols("TLSv1.2")
+			.userAgent("NCSA_Mosaic/2.0 (Windows 3.1)")
+			.header("first", "1")
+			.header("second", "2")
+			.build();
+		Map<String, String> headers = new HashMap<String, String>();
+		headers.put("second", "1 + 1");
+		HttpResponse r = client.sendRequest(HTTPBIN_SSL_URL + "/headers", "GET", null, null, headers, null, 30, null);
+		assertEquals(200, r.getStatusCode(), "HttpClient instance must work");
+		assertTrue(r.getBody().contains("\"First\": \"1\""), "Default header must be set in " + r.getBody());
+		assertTrue(r.getBody().contains("\"Second\": \"1 + 1\""), "Request header must override default one");
+		assertTrue(r.getBody().contains("NCSA_Mosaic/2.0 (Windows 3.1)"), "User agent must be set properly");
+
+		r = client.sendRequest(HTTPBIN_URL + "/status/204", "GET", null, null, null, null, 30, null);
+		assertEquals(204, r.getStatusCode(), "HttpClient instance must be reusable");
+	}
+
+	@Test
+	void tlsSessionCache() throws Exception {
+		HttpClient client = HttpClient.builder().tlsSessionCache(100, 3600).build();
+		Map<String, String> headers = new HashMap<String, String>();
+		headers.put("Connection", "close");
+		for (int i = 0; i < 3; i++) {
+			HttpResponse r = client.sendRequest(HTTPBIN_SSL_URL + "/status/200", "GET", null, null, headers, null, 30, null);
+			assertEquals(200, r.getStatusCode(), "HTTPS with TLS session cache must work");
+		}
+		TlsSessionStatistics stats = client.getTlsSessionStatistics();
+		for (int i = 0; i < 50 && stats.getFullHandshakeCount() + stats.getResumedHandshakeCount() < 3; i++) {
+			// Handshakes are reported asynchronously
+			Thread.sleep(100);
+		}
+		assertEquals(3, stats.getFullHandshakeCount() + stats.getResumedHandshakeCount(), "Each connection must be counted");
+		assertTrue(stats.getFullHandshakeCount() >= 1, "First connection requires a full handshake");
+		assertTrue(stats.getResumedHandshakeCount() >= 1, "Next connections must resume the TLS session: " + stats);
+		assertEquals(null, HttpClient.builder().build().getTlsSessionStatistics(), "No statistics without own session cache");
+	}
+
 	@Test
 	void deflate() throws Exception {
 		Map<String, String> headers = new HashMap<String, String>();
@@ -395,6 +478,7 @@ class HttpClientTest {
 			r.getHeader().contains("Content-Encoding: gzip"),
 			"Content encoding must be gzip in header: " + r.getHeader()
 		);
+		assertEquals("gzip", r.getHeader("content-encoding"), "Header must be found regardless of its case");
 		assertTrue(r.getBody().contains("\"gzipped\": true"), "Body must have been decoded properly");
 	}
 
@@ -421,6 +505,764 @@ class HttpClientTest {
 		assertTrue(r.getBody().contains("\"data\": \"abcdefjhijklmnopqrstuvwxyz\""), "Body must have been sent properly");
 	}
 
+	@Test
+	void connectionLimiter() throws Exception {
+		ConnectionLimiter limiter = new ConnectionLimiter(1);
+		HttpClient client = HttpClient.builder().connectionLimiter(limiter).build();
+		String url = HTTPBIN_URL + "/get";
+
+		// Route at its maximum: the request waits for the slot, and gives up after its timeout
+		ConnectionLimiter.Lease lease = limiter.acquire(ConnectionLimiter.routeKey(new URL(url), null, null), 1000);
+		IOException e = assertThrows(
+			IOException.class,
+			() -> client.sendRequest(url, "GET", null, null, null, null, 1, null)
+		);
+		assertTrue(e.getMessage().contains("Timed out waiting for a connection"), "Request must wait for the route");
+		assertEquals(1, limiter.getWaitCount());
+
+		// Slot released: the requests go through one after the other
+		limiter.release(lease);
+		for (int i = 0; i < 3; i++) {
+			HttpResponse r = HttpClient.sendRequest(url, "GET", null, null, null, null, 0, null, null, null, null, null, 30, null, limiter);
+			assertEquals(200, r.getStatusCode(), "Limited request must work");
+		}
+		assertEquals(0, limiter.getActiveCount(), "Each request must release its slot");
+		assertEquals(1, limiter.getWaitCount());
+	}
+
+	@Test
+	void sendRequestAsync() throws Exception {
+		HttpClient client = HttpClient.builder().build();
+		List<CompletableFuture<HttpResponse>> futures = new ArrayList<>();
+		for (int status = 200; status < 205; status++) {
+			futures.add(client.sendRequestAsync(HTTPBIN_URL + "/status/" + status, "GET", null, null, null, null, 30, null));
+		}
+		for (int i = 0; i < futures.size(); i++) {
+			assertEquals(200 + i, futures.get(i).get().getStatusCode(), "Asynchronous request must complete");
+		}
+
+		CompletableFuture<HttpResponse> future = HttpClient.sendRequestAsync(
+			HTTPBIN_URL + "/delay/9",
+			"GET",
+			null,
+			null,
+			null,
+			null,
+			0,
+			null,
+			null,
+			null,
+			null,
+			null,
+			2,
+			null
+		);
+		ExecutionException e = assertThrows(ExecutionException.class, future::get, "Timeout must fail the future");
+		assertTrue(e.getCause() instanceof IOException, "Cause must be the IOException");
+	}
+
+	@Test
+	void http2() throws Exception {
+		// java.net.http with Java 21 and later, HttpURLConnection otherwise: same results
+		HttpClient client = HttpClient.builder().http2(true).header("Accept", "application/json").build();
+		HttpResponse r = client.sendRequest(HTTPBIN_SSL_URL + "/post", "POST", null, null, null, "{\"a\":1}", 30, null);
+		assertEquals(200, r.getStatusCode());
+		assertTrue(r.getProtocol().startsWith("HTTP/"), "Protocol must be reported: " + r.getProtocol());
+		assertTrue(r.getBody().contains("application/json"), "Default header must be set in " + r.getBody());
+
+		r = client.sendRequest(HTTPBIN_SSL_URL + "/gzip", "GET", null, null, null, null, 30, null);
+		assertTrue(r.getBody().contains("\"gzipped\": true"), "Body must have been decoded properly");
+
+		r = client.sendRequest(HTTPBIN_SSL_URL + "/basic-auth/user/pass", "GET", "user", "pass".toCharArray(), null, null, 30, null);
+		assertEquals(200, r.getStatusCode(), "Basic authentication must succeed");
+
+		r = client.sendRequest(HTTPBIN_SSL_URL + "/digest-auth/auth/user/pass", "GET", "user", "pass".toCharArray(), null, null, 30, null);
+		assertEquals(200, r.getStatusCode(), "Digest authentication must succeed");
+	}
+
+	@Test
+	void streamRequest() throws Exception {
+		HttpClient client = HttpClient.builder().build();
+		long length = client.streamRequest(
+			HTTPBIN_URL + "/bytes/200000",
+			"GET",
+			null,
+			null,
+			null,
+			null,
+			30,
+			(response, body) -> {
+				assertEquals(200, response.getStatusCode());
+				long count = 0;
+				byte[] buffer = new byte[1000];
+				int bytesCount;
+				while ((bytesCount = body.read(buffer)) != -1) {
+					count += bytesCount;
+				}
+				return count;
+			}
+		);
+		assertEquals(200000, length, "Entire body must be streamed");
+
+		String decoded = client.streamRequest(
+			HTTPBIN_SSL_URL + "/gzip",
+			"GET",
+			null,
+			null,
+			null,
+			null,
+			30,
+			(response, body) ->
+				new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))
+					.lines()
+					.collect(Collectors.joining("\n"))
+		);
+		assertTrue(decoded.contains("\"gzipped\": true"), "Body must be decoded");
+	}
+
+	@Test
+	void preemptiveBasicAuthentication() throws Exception {
+		HttpClient client = HttpClient.builder().preemptiveBasicAuthentication(true).build();
+
+		// The credentials are sent with the first request, without any challenge
+		HttpResponse r = client.sendRequest(HTTPBIN_URL + "/headers", "GET", "user", "pass".toCharArray(), null, null, 30, null);
+		assertTrue(r.getBody().contains("\"Authorization\": \"Basic dXNlcjpwYXNz\""), "Credentials must be sent: " + r.getBody());
+
+		// Nothing is cached
+		r = client.sendRequest(HTTPBIN_URL + "/basic-auth/user/pass", "GET", "user", "pass".toCharArray(), null, null, 30, null);
+		assertEquals(200, r.getStatusCode());
+		r = client.sendRequest(HTTPBIN_URL + "/basic-auth/user/pass", "GET", "user", "wrong".toCharArray(), null, null, 30, null);
+		assertEquals(401, r.getStatusCode(), "Wrong password must be rejected");
+
+		// Other schemes still work
+		r = client.sendRequest(HTTPBIN_URL + "/digest-auth/auth/user/pass", "GET", "user", "pass".toCharArray(), null, null, 30, null);
+		assertEquals(200, r.getStatusCode(), "Digest authentication must succeed");
+
+		assertTrue(HttpClient.acceptsBasicAuthentication(Arrays.asList("Digest realm=\"a\"", "basic realm=\"b\"")));
+		assertTrue(HttpClient.acceptsBasicAuthentication(Arrays.asList("Digest realm=\"a\", Basic realm=\"b\"")));
+		assertFalse(HttpClient.acceptsBasicAuthentication(Arrays.asList("Digest realm=\"Basic\"")));
+	}
+
+	@Test
+	void sendRequestBody() throws Exception {
+		HttpClient client = HttpClient.builder().build();
+
+		// Fixed-length body
+		HttpResponse r = client.send(HTTPBIN_URL + "/post", "POST", null, null, null, RequestBody.of("a=1".getBytes()), 30, null);
+		assertEquals(200, r.getStatusCode());
+		assertTrue(r.getBody().contains("\"data\": \"a=1\""), "Body must be sent: " + r.getBody());
+		assertTrue(r.getBody().contains("\"Content-Length\": \"3\""), "Length must be specified: " + r.getBody());
+
+		// File
+		Path tempPath = Files.createTempFile("test-upload", ".txt");
+		try {
+			Files.write(tempPath, "Hello from a file".getBytes(StandardCharsets.UTF_8));
+			r = client.send(HTTPBIN_URL + "/put", "PUT", null, null, null, RequestBody.of(tempPath), 30, null);
+			assertTrue(r.getBody().contains("\"data\": \"Hello from a file\""), "File must be sent: " + r.getBody());
+		} finally {
+			Files.delete(tempPath);
+		}
+
+		// Stream of unknown length (chunked)
+		r =
+			client.send(
+				HTTPBIN_URL + "/post",
+				"POST",
+				null,
+				null,
+				null,
+				RequestBody.of(new ByteArrayInputStream("streamed".getBytes())),
+				30,
+				null
+			);
+		assertTrue(r.getBody().contains("\"data\": \"streamed\""), "Stream must be sent: " + r.getBody());
+
+		// Body that must be sent again to answer the authentication challenge
+		r =
+			client.send(
+				HTTPBIN_URL + "/basic-auth/user/pass",
+				"POST",
+				"user",
+				"pass".toCharArray(),
+				null,
+				RequestBody.of(new ByteArrayInputStream("streamed".getBytes())),
+				30,
+				null
+			);
+		assertEquals(200, r.getStatusCode(), "Authentication must succeed");
+
+		// Expect: 100-continue
+		client = HttpClient.builder().expectContinue(true).build();
+		r = client.send(HTTPBIN_URL + "/post", "POST", null, null, null, RequestBody.of("a=1"), 30, null);
+		assertTrue(r.getBody().contains("\"data\": \"a=1\""), "Body must be sent: " + r.getBody());
+
+		// Check how the body is actually framed, with a local server that echoes the relevant request headers
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext(
+			"/",
+			exchange -> {
+				byte[] received = exchange.getRequestBody().readAllBytes();
+				String echo = Stream
+					.of("Transfer-Encoding", "Content-Length", "Expect")
+					.map(name -> name + ": " + exchange.getRequestHeaders().getFirst(name))
+					.collect(Collectors.joining("\n", "", "\nLength: " + received.length));
+				byte[] response = echo.getBytes(StandardCharsets.UTF_8);
+				exchange.sendResponseHeaders(200, response.length);
+				try (OutputStream os = exchange.getResponseBody()) {
+					os.write(response);
+				}
+			}
+		);
+		server.start();
+		try {
+			String localUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+			client = HttpClient.builder().build();
+
+			r = client.send(localUrl, "POST", null, null, null, RequestBody.of("a=1".getBytes()), 30, null);
+			assertTrue(r.getBody().contains("Content-Length: 3\n"), "Length must be sent: " + r.getBody());
+			assertTrue(r.getBody().contains("Transfer-Encoding: null"), "Body must not be chunked: " + r.getBody());
+
+			byte[] data = new byte[100_000];
+			r = client.send(localUrl, "POST", null, null, null, RequestBody.of(new ByteArrayInputStream(data)), 30, null);
+			assertTrue(r.getBody().contains("Transfer-Encoding: chunked"), "Stream must be chunked: " + r.getBody());
+			assertTrue(r.getBody().contains("Content-Length: null"), "Stream must not be buffered: " + r.getBody());
+			assertTrue(r.getBody().contains("Length: 100000"), "Stream must be sent entirely: " + r.getBody());
+
+			client = HttpClient.builder().expectContinue(true).build();
+			r = client.send(localUrl, "POST", null, null, null, RequestBody.of("a=1".getBytes()), 30, null);
+			assertTrue(r.getBody().contains("Expect: 100-continue"), "Expect header must be sent: " + r.getBody());
+			assertTrue(r.getBody().contains("Length: 3"), "Body must be sent after 100 Continue: " + r.getBody());
+
+			client = HttpClient.builder().requestCompression("gzip", 100).build();
+			r = client.send(localUrl, "POST", null, null, null, RequestBody.of(data), 30, null);
+			assertTrue(r.getBody().contains("Transfer-Encoding: chunked"), "Compressed body must be chunked: " + r.getBody());
+		} finally {
+			server.stop(0);
+		}
+	}
+
+	@Test
+	void requestCompression() throws Exception {
+		HttpClient client = HttpClient.builder().requestCompression("gzip", 100).build();
+
+		// Large enough to be compressed
+		char[] chars = new char[1000];
+		Arrays.fill(chars, 'x');
+		String large = new String(chars);
+		HttpResponse r = client.sendRequest(HTTPBIN_URL + "/post", "POST", null, null, null, large, 30, null);
+		assertEquals(200, r.getStatusCode());
+		assertTrue(r.getBody().contains("\"Content-Encoding\": \"gzip\""), "Body must be compressed: " + r.getBody());
+		r = client.send(HTTPBIN_URL + "/post", "POST", null, null, null, RequestBody.of(large), 30, null);
+		assertTrue(r.getBody().contains("\"Content-Encoding\": \"gzip\""), "Body must be compressed: " + r.getBody());
+
+		// Too small
+		r = client.sendRequest(HTTPBIN_URL + "/post", "POST", null, null, null, "a=1", 30, null);
+		assertFalse(r.getBody().contains("\"Content-Encoding\""), "Small body must be sent as is: " + r.getBody());
+		assertTrue(r.getBody().contains("\"data\": \"a=1\""), "Small body must be sent as is: " + r.getBody());
+
+		assertThrows(IllegalArgumentException.class, () -> HttpClient.builder().requestCompression("br", 0));
+	}
+
+	@Test
+	void acceptCompression() throws Exception {
+		HttpClient client = HttpClient.builder().build();
+		HttpResponse r = client.sendRequest(HTTPBIN_URL + "/headers", "GET", null, null, null, null, 30, null);
+		assertTrue(
+			r.getBody().contains("\"Accept-Encoding\": \"gzip, deflate\""),
+			"Compression must be advertised: " + r.getBody()
+		);
+
+		client = HttpClient.builder().acceptCompression(false).build();
+		r = client.sendRequest(HTTPBIN_URL + "/headers", "GET", null, null, null, null, 30, null);
+		assertFalse(r.getBody().contains("gzip, deflate"), "Compression must not be advertised: " + r.getBody());
+	}
+
+	@Test
+	void writeToFile() throws Exception {
+		Path tempPath = Files.createTempFile("test-write", ".bin");
+		try {
+			byte[] data = new byte[3 * 1024 * 1024 + 17];
+			new Random(42).nextBytes(data);
+			AtomicLong writtenBytes = new AtomicLong();
+			assertEquals(
+				data.length,
+				HttpClient.writeToFile(new ByteArrayInputStream(data), tempPath, 0, data.length, true, writtenBytes)
+			);
+			assertEquals(data.length, writtenBytes.get());
+			assertArrayEquals(data, Files.readAllBytes(tempPath));
+
+			// Shorter than announced, unknown size, no content
+			assertEquals(10, HttpClient.writeToFile(new ByteArrayInputStream(data, 0, 10), tempPath, 0, 1000, false, null));
+			assertEquals(10, Files.size(tempPath), "File must be truncated to the actual content");
+			assertEquals(data.length, HttpClient.writeToFile(new ByteArrayInputStream(data), tempPath, 0, -1, false, null));
+			assertArrayEquals(data, Files.readAllBytes(tempPath));
+
+			// Append the end of the content to the beginning already written
+			HttpClient.writeToFile(new ByteArrayInputStream(data, 0, 1000), tempPath, 0, -1, false, null);
+			InputStream end = new ByteArrayInputStream(data, 1000, data.length - 1000);
+			assertEquals(data.length, HttpClient.writeToFile(end, tempPath, 1000, data.length, false, null));
+			assertArrayEquals(data, Files.readAllBytes(tempPath));
+			assertEquals(0, HttpClient.writeToFile(null, tempPath, 0, -1, false, null));
+			assertEquals(0, Files.size(tempPath));
+		} finally {
+			Files.delete(tempPath);
+		}
+	}
+
+	@Test
+	void downloadToPath() throws Exception {
+		Path tempPath = Files.createTempFile("test-download", ".bin");
+		try {
+			HttpClient client = HttpClient.builder().syncDownloads(true).build();
+			HttpResponse r = client.sendRequest(
+				HTTPBIN_URL + "/bytes/100000",
+				"GET",
+				null,
+				null,
+				null,
+				null,
+				30,
+				tempPath.toString()
+			);
+			assertEquals(200, r.getStatusCode());
+			assertEquals(tempPath.toString(), r.getBody());
+			assertEquals(100000, Files.size(tempPath));
+
+			// Compressed response, decoded to the file
+			client.sendRequest(HTTPBIN_URL + "/gzip", "GET", null, null, null, null, 30, tempPath.toString());
+			assertTrue(new String(Files.readAllBytes(tempPath), StandardCharsets.UTF_8).contains("\"gzipped\": true"));
+		} finally {
+			Files.delete(tempPath);
+		}
+	}
+
+	@Test
+	void segmentedDownload() throws Exception {
+		Path singlePath = Files.createTempFile("test-download", ".txt");
+		Path segmentedPath = Files.createTempFile("test-download", ".txt");
+		try {
+			HttpClient
+				.builder()
+				.build()
+				.sendRequest(HTTPBIN_URL + "/range/100000", "GET", null, null, null, null, 30, singlePath.toString());
+
+			HttpClient client = HttpClient.builder().segmentedDownloads(4, 1000).build();
+			HttpResponse r = client.sendRequest(
+				HTTPBIN_URL + "/range/100000",
+				"GET",
+				null,
+				null,
+				null,
+				null,
+				30,
+				segmentedPath.toString()
+			);
+			assertEquals(200, r.getStatusCode());
+			assertEquals(segmentedPath.toString(), r.getBody());
+			assertArrayEquals(Files.readAllBytes(singlePath), Files.readAllBytes(segmentedPath));
+
+			// No ranges: single stream
+			r = client.sendRequest(HTTPBIN_URL + "/get", "GET", null, null, null, null, 30, segmentedPath.toString());
+			assertEquals(200, r.getStatusCode());
+			assertTrue(new String(Files.readAllBytes(segmentedPath), StandardCharsets.UTF_8).contains("\"url\""));
+		} finally {
+			Files.delete(singlePath);
+			Files.delete(segmentedPath);
+		}
+	}
+
+	@Test
+	void resumableDownload() throws Exception {
+		Path tempPath = Files.createTempFile("test-download", ".txt");
+		String url = HTTPBIN_URL + "/range/100000";
+		try {
+			HttpClient client = HttpClient.builder().resumableDownloads(true).build();
+			HttpResponse r = client.sendRequest(url, "GET", null, null, null, null, 30, tempPath.toString());
+			assertEquals(200, r.getStatusCode());
+			byte[] content = Files.readAllBytes(tempPath);
+			assertEquals(100000, content.length);
+			assertFalse(Files.exists(ResumeRecord.getSidecar(tempPath)), "Nothing to resume");
+
+			// Interrupted download (with a marker, to verify that the beginning of the file is not downloaded again)
+			byte[] beginning = Arrays.copyOf(content, 40000);
+			beginning[0] = '#';
+			Files.write(tempPath, beginning);
+			new ResumeRecord(url, r.getHeader("ETag"), beginning.length).write(tempPath);
+
+			r = client.sendRequest(url, "GET", null, null, null, null, 30, tempPath.toString());
+			assertEquals(200, r.getStatusCode());
+			byte[] resumed = Files.readAllBytes(tempPath);
+			assertEquals('#', resumed[0], "Beginning of the file must be kept");
+			resumed[0] = content[0];
+			assertArrayEquals(content, resumed);
+			assertFalse(Files.exists(ResumeRecord.getSidecar(tempPath)), "Record must be deleted");
+		} finally {
+			Files.deleteIfExists(ResumeRecord.getSidecar(tempPath));
+			Files.delete(tempPath);
+		}
+	}
+
+	@Test
+	void resumableDownloadKept() throws Exception {
+		// The server stalls after the first 2 MB, and then refuses to resume the download
+		byte[] data = new byte[3_000_000];
+		new Random(42).nextBytes(data);
+		CountDownLatch stalled = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext(
+			"/file",
+			exchange -> {
+				exchange.getResponseHeaders().set("ETag", "\"v1\"");
+				if (exchange.getRequestHeaders().containsKey("Range")) {
+					byte[] busy = "busy".getBytes(StandardCharsets.UTF_8);
+					exchange.sendResponseHeaders(503, busy.length);
+					try (OutputStream os = exchange.getResponseBody()) {
+						os.write(busy);
+					}
+					return;
+				}
+				exchange.sendResponseHeaders(200, data.length);
+				OutputStream os = exchange.getResponseBody();
+				os.write(data, 0, 2_100_000);
+				os.flush();
+				stalled.countDown();
+				try {
+					release.await(30, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				// Close the connection before the end of the content
+				exchange.close();
+			}
+		);
+		server.start();
+		Path tempPath = Files.createTempFile("test-download", ".bin");
+		String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/file";
+		try {
+			HttpClient client = HttpClient.builder().resumableDownloads(true).build();
+			CompletableFuture<HttpResponse> future = client.sendRequestAsync(url, "GET", null, null, null, null, 30, tempPath.toString());
+
+			// The progress is recorded while downloading, not only when the download fails
+			assertTrue(stalled.await(30, TimeUnit.SECONDS));
+			ResumeRecord record = null;
+			for (int i = 0; i < 100 && record == null; i++) {
+				Thread.sleep(50);
+				record = ResumeRecord.read(tempPath, url);
+			}
+			assertFalse(future.isDone(), "Download must still be in progress");
+			assertTrue(record != null && record.getLength() >= 1024 * 1024, "Progress must be recorded during the download");
+			release.countDown();
+			assertThrows(ExecutionException.class, future::get, "Truncated content must fail");
+			record = ResumeRecord.read(tempPath, url);
+			assertEquals(2_100_000, record.getLength(), "All received bytes must be recorded");
+
+			// A failed resume keeps the downloaded bytes and the record
+			IOException e = assertThrows(
+				IOException.class,
+				() -> client.sendRequest(url, "GET", null, null, null, null, 30, tempPath.toString())
+			);
+			assertTrue(e.getMessage().contains("503"), "Status must be reported: " + e.getMessage());
+			assertArrayEquals(Arrays.copyOf(data, 2_100_000), Files.readAllBytes(tempPath), "Downloaded bytes must be kept");
+			assertEquals(2_100_000, ResumeRecord.read(tempPath, url).getLength(), "Record must be kept");
+		} finally {
+			release.countDown();
+			server.stop(0);
+			Files.deleteIfExists(ResumeRecord.getSidecar(tempPath));
+			Files.delete(tempPath);
+		}
+	}
+
+	@Test
+	void responseCache() throws Exception {
+		HttpResponseCache cache = new HttpResponseCache(10, 1024 * 1024);
+		HttpClient client = HttpClient.builder().responseCache(cache).build();
+
+		HttpResponse first = client.sendRequest(HTTPBIN_URL + "/etag/abc", "GET", null, null, null, null, 30, null);
+		assertEquals(200, first.getStatusCode());
+		assertEquals(1, cache.getEntryCount());
+
+		// Revalidated: the server answers 304, and the cached response is returned
+		HttpResponse second = client.sendRequest(HTTPBIN_URL + "/etag/abc", "GET", null, null, null, null, 30, null);
+		assertEquals(200, second.getStatusCode());
+		assertEquals(first.getBody(), second.getBody());
+		assertEquals(1, cache.getHitCount());
+
+		// Last-Modified
+		client.sendRequest(HTTPBIN_URL + "/cache", "GET", null, null, null, null, 30, null);
+		HttpResponse cached = client.sendRequest(HTTPBIN_URL + "/cache", "GET", null, null, null, null, 30, null);
+		assertEquals(200, cached.getStatusCode());
+		assertEquals(2, cache.getHitCount());
+
+		// Not cached
+		client.sendRequest(HTTPBIN_URL + "/get", "GET", null, null, null, null, 30, null);
+		client.sendRequest(HTTPBIN_URL + "/post", "POST", null, null, null, "a=1", 30, null);
+		assertEquals(2, cache.getEntryCount());
+
+		// Another client with other default headers, or another User-Agent, doesn't get these responses
+		HttpClient tenantClient = HttpClient.builder().responseCache(cache).header("X-Tenant", "other").build();
+		assertEquals(
+			200,
+			tenantClient.sendRequest(HTTPBIN_URL + "/etag/abc", "GET", null, null, null, null, 30, null).getStatusCode()
+		);
+		HttpClient agentClient = HttpClient.builder().responseCache(cache).userAgent("Other/1.0").build();
+		assertEquals(
+			200,
+			agentClient.sendRequest(HTTPBIN_URL + "/etag/abc", "GET", null, null, null, null, 30, null).getStatusCode()
+		);
+		assertEquals(2, cache.getHitCount());
+		assertEquals(4, cache.getEntryCount());
+
+		// The responses to authenticated requests are not written to disk
+		Path directory = Files.createTempDirectory("test-cache");
+		try {
+			cache = new HttpResponseCache(10, 1024 * 1024, directory, 1024 * 1024);
+			client = HttpClient.builder().responseCache(cache).build();
+			Map<String, String> headers = new HashMap<String, String>();
+			headers.put("Authorization", "Bearer secret-token");
+			client.sendRequest(HTTPBIN_URL + "/etag/abc", "GET", null, null, headers, null, 30, null);
+			client.sendRequest(HTTPBIN_URL + "/cache", "GET", null, null, null, null, 30, null);
+			assertEquals(2, cache.getEntryCount());
+			assertEquals(1, cache.getDiskEntryCount(), "Only the anonymous response must be written to disk");
+		} finally {
+			cache.clear();
+			try (Stream<Path> files = Files.list(directory)) {
+				for (Path file : (Iterable<Path>) files::iterator) {
+					Files.delete(file);
+				}
+			}
+			Files.delete(directory);
+		}
+	}
+
+	@Test
+	void sendHttpRequest() throws Exception {
+		HttpRequest request = HttpRequest
+			.builder(HTTPBIN_URL + "/post")
+			.method("POST")
+			.header("X-Test", "prepared")
+			.body("{\"key\":\"value\"}")
+			.timeout(30)
+			.build();
+		HttpClient client = HttpClient.builder().build();
+		for (int i = 0; i < 3; i++) {
+			HttpResponse response = client.send(request);
+			assertEquals(200, response.getStatusCode());
+			assertTrue(response.getBody().contains("\"X-Test\": \"prepared\""));
+			assertTrue(response.getBody().contains("\"data\": \"{\\\"key\\\":\\\"value\\\"}\""));
+		}
+		assertEquals(200, client.sendAsync(request).get().getStatusCode());
+	}
+
+	@Test
+	void failoverProxy() throws Exception {
+		// The first proxy refuses the connections, the second one is the server itself
+		URL server = new URL(HTTPBIN_URL);
+		ProxyRegistry registry = new ProxyRegistry(1, 1, TimeUnit.HOURS);
+		HttpClient client = HttpClient
+			.builder()
+			.proxy("127.0.0.1", 1)
+			.failoverProxy(server.getHost(), server.getPort() == -1 ? server.getDefaultPort() : server.getPort())
+			.proxyRegistry(registry)
+			.build();
+		assertEquals(200, client.sendRequest(HTTPBIN_URL + "/get", "GET", null, null, null, null, 30, null).getStatusCode());
+		assertEquals(1, registry.getFailureCount());
+
+		// The failed proxy is set aside
+		assertEquals(200, client.sendRequest(HTTPBIN_URL + "/get", "GET", null, null, null, null, 30, null).getStatusCode());
+		assertEquals(1, registry.getFailureCount());
+		assertEquals(2, registry.getResolutionCount());
+
+		// The first proxy doesn't answer in time (connect timeout, or no route), the second one is the server itself
+		ProxyRegistry blackHoleRegistry = new ProxyRegistry(1, 1, TimeUnit.HOURS);
+		HttpClient blackHoleClient = HttpClient
+			.builder()
+			.proxy("192.0.2.1", 3128)
+			.failoverProxy(server.getHost(), server.getPort() == -1 ? server.getDefaultPort() : server.getPort())
+			.proxyRegistry(blackHoleRegistry)
+			.build();
+		assertEquals(
+			200,
+			blackHoleClient.sendRequest(HTTPBIN_URL + "/get", "GET", null, null, null, null, 1, null).getStatusCode()
+		);
+		assertEquals(1, blackHoleRegistry.getFailureCount());
+	}
+
+	@Test
+	void failoverProxyStalledServer() throws Exception {
+		// The first proxy never answers the CONNECT request: the request fails, but not the proxy
+		try (ServerSocket silentProxy = new ServerSocket(0, 10, InetAddress.getLoopbackAddress())) {
+			ProxyRegistry registry = new ProxyRegistry(1, 1, TimeUnit.HOURS);
+			HttpClient client = HttpClient
+				.builder()
+				.proxy("127.0.0.1", silentProxy.getLocalPort())
+				.failoverProxy("127.0.0.1", 1)
+				.proxyRegistry(registry)
+				.build();
+			assertThrows(
+				SocketTimeoutException.class,
+				() -> client.sendRequest(HTTPBIN_SSL_URL + "/get", "GET", null, null, null, null, 1, null)
+			);
+			assertEquals(0, registry.getFailureCount(), "A slow tunnel must not be blamed on the proxy");
+		}
+
+		// The proxy opens the tunnel, but the server never answers the TLS handshake
+		try (ServerSocket tunnelProxy = new ServerSocket(0, 10, InetAddress.getLoopbackAddress())) {
+			Thread proxyThread = new Thread(() -> {
+				try (Socket socket = tunnelProxy.accept()) {
+					BufferedReader reader = new BufferedReader(
+						new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1)
+					);
+					String line;
+					while ((line = reader.readLine()) != null && !line.isEmpty()) {
+						/* Skip the CONNECT request */
+					}
+					OutputStream out = socket.getOutputStream();
+					out.write("HTTP/1.1 200 Connection established\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+					out.flush();
+
+					// Stall until the client gives up
+					while (socket.getInputStream().read() != -1) {
+						/* Ignore the ClientHello */
+					}
+				} catch (IOException e) {
+					/* Client gone */
+				}
+			});
+			proxyThread.start();
+
+			ProxyRegistry registry = new ProxyRegistry(1, 1, TimeUnit.HOURS);
+			HttpClient client = HttpClient
+				.builder()
+				.proxy("127.0.0.1", tunnelProxy.getLocalPort())
+				.failoverProxy("127.0.0.1", 1)
+				.proxyRegistry(registry)
+				.build();
+			assertThrows(
+				SocketTimeoutException.class,
+				() -> client.sendRequest(HTTPBIN_SSL_URL + "/get", "GET", null, null, null, null, 1, null)
+			);
+			assertEquals(0, registry.getFailureCount(), "A stalled server must not be blamed on the proxy");
+			proxyThread.join(5000);
+		}
+	}
+
+	@Test
+	void isProxyUnreachable() {
+		Proxy proxy = new Proxy(Proxy.Type.HTTP, InetSocketAddress.createUnresolved("proxy.example", 3128));
+		assertTrue(HttpClient.isProxyUnreachable(proxy, new ConnectException("Connection refused")));
+		assertTrue(HttpClient.isProxyUnreachable(proxy, new NoRouteToHostException("No route to host")));
+		assertTrue(HttpClient.isProxyUnreachable(proxy, new SocketTimeoutException("connect timed out")));
+		assertTrue(HttpClient.isProxyUnreachable(proxy, new SocketTimeoutException("Connect timed out")));
+		assertTrue(HttpClient.isProxyUnreachable(proxy, new UnknownHostException("proxy.example")));
+		assertFalse(HttpClient.isProxyUnreachable(proxy, new SocketTimeoutException("Read timed out")));
+		assertFalse(HttpClient.isProxyUnreachable(proxy, new UnknownHostException("server.example")));
+		assertFalse(HttpClient.isProxyUnreachable(proxy, new IOException("Unable to tunnel through proxy")));
+	}
+
+	@Test
+	void dnsResolver() throws Exception {
+		// The JRE cannot resolve this name, only the resolver of the client
+		URL server = new URL(HTTPBIN_SSL_URL);
+		String url = new URL(server.getProtocol(), "httpbin.invalid", server.getPort(), "/get").toString();
+		CachingDnsResolver resolver = CachingDnsResolver
+			.builder()
+			.delegate(host -> InetAddress.getAllByName("httpbin.invalid".equals(host) ? server.getHost() : host))
+			.build();
+		HttpClient client = HttpClient.builder().dnsResolver(resolver).build();
+		assertEquals(200, client.sendRequest(url, "GET", null, null, null, null, 30, null).getStatusCode());
+		assertEquals(1, resolver.getMissCount());
+		assertEquals(1, resolver.getEntryCount());
+
+		// Plain HTTP: the JRE resolves the name, not the resolver
+		assertEquals(
+			200,
+			client.sendRequest(HTTPBIN_URL + "/get", "GET", null, null, null, null, 30, null).getStatusCode()
+		);
+		assertEquals(1, resolver.getMissCount() + resolver.getHitCount());
+	}
+
+	@Test
+	void timings() throws Exception {
+		// Plain HTTP: the JRE resolves the name while connecting, no TLS
+		HttpResponse response = new HttpClient().sendRequest(HTTPBIN_URL + "/get", "GET", null, null, null, null, 30, null);
+		RequestTimings timings = response.getTimings();
+		assertEquals(-1, timings.getDnsTime());
+		assertTrue(timings.getConnectTime() >= 0);
+		assertEquals(-1, timings.getTlsHandshakeTime());
+		assertTrue(timings.getTimeToFirstByte() > 0);
+		assertTrue(timings.getTransferTime() >= 0);
+
+		// HTTPS with a resolver: all the phases are measured
+		CachingDnsResolver resolver = CachingDnsResolver.builder().build();
+		HttpClient client = HttpClient.builder().dnsResolver(resolver).build();
+		timings = client.sendRequest(HTTPBIN_SSL_URL + "/get", "GET", null, null, null, null, 30, null).getTimings();
+		assertTrue(timings.getDnsTime() >= 0);
+		assertTrue(timings.getConnectTime() >= 0);
+		assertTrue(timings.getTlsHandshakeTime() > 0);
+		assertTrue(timings.getTimeToFirstByte() > 0);
+		assertTrue(timings.getTransferTime() >= 0);
+		assertTrue(timings.getTotalTime() >= timings.getTlsHandshakeTime() + timings.getTimeToFirstByte());
+	}
+
+	@Test
+	void happyEyeballs() throws Exception {
+		// The first address of the server doesn't answer (or cannot be reached)
+		URL server = new URL(HTTPBIN_SSL_URL);
+		InetAddress[] addresses = InetAddress.getAllByName(server.getHost());
+		InetAddress[] withBlackHole = new InetAddress[addresses.length + 1];
+		withBlackHole[0] = InetAddress.getByName("192.0.2.1");
+		System.arraycopy(addresses, 0, withBlackHole, 1, addresses.length);
+		HttpClient client = HttpClient.builder().dnsResolver(host -> withBlackHole.clone()).happyEyeballs(true).build();
+		assertTimeout(
+			Duration.ofSeconds(20),
+			() -> assertEquals(200, client.sendRequest(HTTPBIN_SSL_URL + "/get", "GET", null, null, null, null, 30, null).getStatusCode())
+		);
+	}
+
+	@Test
+	void sendBatch() throws Exception {
+		List<HttpRequest> requests = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			requests.add(HttpRequest.builder(HTTPBIN_URL + "/get?i=" + i).timeout(30).build());
+		}
+		requests.add(HttpRequest.builder(HTTPBIN_URL + "/post").method("POST").body("a=1").timeout(30).build());
+		requests.add(HttpRequest.builder("http://127.0.0.1:1/refused").timeout(30).build());
+
+		HttpBatch batch = HttpClient.builder().build().sendBatch(requests, 4, 2);
+		List<HttpBatch.Result> failures = new ArrayList<>();
+		int[] okCount = { 0 };
+		batch.forEach(result -> {
+			if (result.isSuccess()) {
+				assertEquals(200, result.getResponse().getStatusCode());
+				assertTrue(result.getResponse().getBody().contains(result.getRequest().getMethod()));
+				okCount[0]++;
+			} else {
+				failures.add(result);
+			}
+		});
+		assertEquals(11, okCount[0]);
+		assertEquals(1, failures.size(), "Only the refused request must fail");
+		assertEquals(11, failures.get(0).getIndex());
+		assertTrue(failures.get(0).getException() instanceof IOException);
+	}
+
+	@Test
+	void hostThrottle() throws Exception {
+		HostThrottle throttle = HostThrottle.builder().maxConcurrentRequests(1).failFast().build();
+		HttpClient client = HttpClient.builder().hostThrottle(throttle).build();
+		CompletableFuture<HttpResponse> slow = client.sendRequestAsync(HTTPBIN_URL + "/delay/1", "GET", null, null, null, null, 30, null);
+		Thread.sleep(300);
+		IOException e = assertThrows(
+			IOException.class,
+			() -> client.sendRequest(HTTPBIN_URL + "/get", "GET", null, null, null, null, 30, null)
+		);
+		assertTrue(e instanceof HostThrottle.RejectedRequestException);
+		assertEquals(200, slow.get().getStatusCode());
+		assertEquals(200, client.sendRequest(HTTPBIN_URL + "/get", "GET", null, null, null, null, 30, null).getStatusCode());
+		assertEquals(1, throttle.getRejectedCount());
+	}
+
 	@Test
 	void timeoutException() throws Exception {
 		assertThrows(
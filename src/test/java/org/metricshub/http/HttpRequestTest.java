@@ -0,0 +1,58 @@
+package org.metricshub.http;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class HttpRequestTest {
+
+	@Test
+	void testBuild() {
+		char[] password = "secret".toCharArray();
+		Map<String, String> headers = new HashMap<>();
+		headers.put("Accept", "application/json");
+		headers.put("X-Empty", "");
+		HttpRequest.Builder builder = HttpRequest
+			.builder("https://host:8443/api?q=1")
+			.method("PUT")
+			.credentials("user", password)
+			.headers(headers)
+			.body("body")
+			.timeout(10);
+		HttpRequest request = builder.build();
+
+		assertEquals("https://host:8443/api?q=1", request.getUrl());
+		assertEquals(8443, request.getParsedUrl().getPort());
+		assertEquals("PUT", request.getMethod());
+		assertEquals("user", request.getUsername());
+		assertEquals(1, request.getHeaders().size(), "Empty headers must be ignored");
+		assertEquals(4, request.getBody().getContentLength());
+		assertEquals(10, request.getTimeout());
+		assertNull(request.getDownloadToPath());
+		assertEquals("PUT https://host:8443/api?q=1", request.toString());
+
+		// The request doesn't change with the builder, nor with the password
+		password[0] = 'X';
+		builder.header("X-Other", "1");
+		assertArrayEquals("secret".toCharArray(), request.getPassword());
+		assertEquals(1, request.getHeaders().size());
+		assertThrows(UnsupportedOperationException.class, () -> request.getHeaders().put("X", "1"));
+	}
+
+	@Test
+	void testValidation() {
+		assertThrows(IllegalArgumentException.class, () -> HttpRequest.builder("no-protocol"));
+		assertThrows(IllegalArgumentException.class, () -> HttpRequest.builder(null));
+		HttpRequest.Builder builder = HttpRequest.builder("http://host/");
+		assertThrows(IllegalArgumentException.class, () -> builder.header("Bad Name", "1"));
+		assertThrows(IllegalArgumentException.class, () -> builder.header("X-Test", "1\r\nInjected: yes"));
+		assertThrows(IllegalArgumentException.class, () -> builder.method(""));
+		assertThrows(IllegalArgumentException.class, () -> builder.timeout(-1));
+		assertEquals("GET", builder.header("X-Test", "a\tb").build().getMethod());
+	}
+}
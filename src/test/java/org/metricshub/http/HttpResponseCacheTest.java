@@ -0,0 +1,249 @@
+package org.metricshub.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class HttpResponseCacheTest {
+
+	private static HttpResponse response(String etag, String body) {
+		HttpResponse response = new HttpResponse();
+		response.setStatusCode(200);
+		if (etag != null) {
+			response.appendHeader("ETag", etag);
+		}
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		response.setBody(bytes, bytes.length, StandardCharsets.UTF_8);
+		return response;
+	}
+
+	private static HttpResponse notModified() {
+		HttpResponse response = new HttpResponse();
+		response.setStatusCode(304);
+		return response;
+	}
+
+	@Test
+	void testKey() {
+		Map<String, String> headers = new LinkedHashMap<>();
+		headers.put("Accept", "application/json");
+		headers.put("X-Test", "1");
+		Map<String, String> reversedHeaders = new LinkedHashMap<>();
+		reversedHeaders.put("x-test", "1");
+		reversedHeaders.put("Accept", "application/json");
+		String key = HttpResponseCache.key("http://a/", "user", headers);
+		assertEquals(key, HttpResponseCache.key("http://a/", "user", reversedHeaders));
+		assertNotEquals(key, HttpResponseCache.key("http://a/", "other", headers));
+		assertNotEquals(key, HttpResponseCache.key("http://a/", "user", null));
+
+		// The values of the credential headers are hashed, but still distinguish the requests
+		headers.put("Authorization", "Bearer secret-token");
+		String authenticatedKey = HttpResponseCache.key("http://a/", "user", headers);
+		assertFalse(authenticatedKey.contains("secret-token"), "Credentials must not appear in " + authenticatedKey);
+		headers.put("Authorization", "Bearer other-token");
+		assertNotEquals(authenticatedKey, HttpResponseCache.key("http://a/", "user", headers));
+		assertTrue(HttpResponseCache.isCredentialHeader("Cookie"));
+		assertTrue(HttpResponseCache.isCredentialHeader("X-API-Key"));
+		assertFalse(HttpResponseCache.isCredentialHeader("Accept"));
+	}
+
+	@Test
+	void testUpdateAndHit() {
+		HttpResponseCache cache = new HttpResponseCache(10, 1000);
+		cache.update("a", response("\"1\"", "first"));
+		cache.update("b", response(null, "no validator"));
+		HttpResponse noStore = response("\"3\"", "no store");
+		noStore.appendHeader("Cache-Control", "private, no-store");
+		cache.update("c", noStore);
+		assertEquals(1, cache.getEntryCount());
+		assertEquals(5, cache.getSize());
+		assertNull(cache.get("b"));
+		assertNull(cache.get("c"));
+
+		HttpResponseCache.Entry entry = cache.get("a");
+		assertNotNull(entry);
+		assertEquals("\"1\"", entry.getEtag());
+		HttpResponse hit = cache.hit("a", entry, notModified(), false);
+		assertEquals("first", hit.getBody());
+		assertEquals(200, hit.getStatusCode());
+		assertNotSame(hit, cache.hit("a", cache.get("a"), notModified(), false), "Each hit must return a copy");
+		assertEquals(2, cache.getHitCount());
+		assertEquals(3, cache.getMissCount());
+
+		// A new version without validator replaces the cached one
+		cache.update("a", response(null, "second"));
+		assertNull(cache.get("a"));
+		assertEquals(0, cache.getSize());
+	}
+
+	@Test
+	void testEviction() {
+		HttpResponseCache cache = new HttpResponseCache(2, 10);
+		cache.update("a", response("\"a\"", "aaa"));
+		cache.update("b", response("\"b\"", "bbb"));
+		cache.get("a");
+		cache.update("c", response("\"c\"", "ccc"));
+		assertNull(cache.get("b"), "Least recently used must be evicted");
+		assertNotNull(cache.get("a"));
+		assertNotNull(cache.get("c"));
+
+		cache.update("d", response("\"d\"", "dddddddd"));
+		assertEquals(1, cache.getEntryCount(), "Total size must not exceed the maximum");
+		assertEquals(8, cache.getSize());
+		assertEquals(3, cache.getEvictionCount());
+
+		cache.update("e", response("\"e\"", "larger than the cache"));
+		assertNull(cache.get("e"));
+		assertEquals(8, cache.getSize());
+	}
+
+	@Test
+	void testDiskTier(@TempDir Path directory) throws IOException {
+		// The memory tier holds 1 small response, the larger ones are only stored on disk
+		HttpResponseCache cache = new HttpResponseCache(1, 10, directory, 100);
+		HttpResponse large = response("\"a\"", "a body larger than the memory tier");
+		large.appendHeader("Content-Type", "text/plain");
+		cache.update("a", large);
+		cache.update("b", response("\"b\"", "bbb"));
+		assertEquals(1, cache.getEntryCount());
+		assertEquals(2, cache.getDiskEntryCount());
+		assertEquals(37, cache.getDiskSize());
+
+		// Served from disk, through a memory-mapped buffer
+		HttpResponseCache.Entry entry = cache.get("a");
+		assertNotNull(entry);
+		assertEquals("\"a\"", entry.getEtag());
+		HttpResponse hit = cache.hit("a", entry, notModified(), false);
+		assertTrue(hit.getBodyBuffer() instanceof MappedByteBuffer);
+		assertEquals(34, hit.getBodyBuffer().remaining());
+		assertEquals("a body larger than the memory tier", hit.getBody());
+		assertEquals("text/plain", hit.getHeader("content-type"));
+		assertEquals(200, hit.getStatusCode());
+
+		// A new cache on the same directory finds the stored responses
+		HttpResponseCache restarted = new HttpResponseCache(1, 10, directory, 100);
+		assertEquals(2, restarted.getDiskEntryCount());
+		assertEquals(0, restarted.getEntryCount());
+		assertEquals("bbb", restarted.hit("b", restarted.get("b"), notModified(), false).getBody());
+
+		// Replacing and removing a response deletes its previous files
+		restarted.update("a", response("\"a2\"", "new"));
+		assertEquals("\"a2\"", restarted.get("a").getEtag());
+		restarted.update("b", response(null, "no validator"));
+		assertNull(restarted.get("b"));
+		try (Stream<Path> files = Files.list(directory)) {
+			assertEquals(2, files.count(), "Only the .meta and .body files of a must remain");
+		}
+	}
+
+	@Test
+	void testDiskCredentials(@TempDir Path directory) throws IOException {
+		Map<String, String> headers = new LinkedHashMap<>();
+		headers.put("Authorization", "Bearer secret-token");
+		String key = HttpResponseCache.key("http://a/private?q=1", null, headers);
+
+		// By default, the responses to authenticated requests, and the responses that set cookies, stay in memory
+		HttpResponseCache cache = new HttpResponseCache(10, 1000, directory, 1000);
+		cache.update(key, response("\"a\"", "private"), true);
+		HttpResponse cookie = response("\"b\"", "cookie");
+		cookie.appendHeader("Set-Cookie", "session=secret-session");
+		cache.update("b", cookie);
+		assertEquals(2, cache.getEntryCount());
+		assertEquals(0, cache.getDiskEntryCount());
+
+		// Unless specified otherwise, but the request is never written
+		cache = new HttpResponseCache(10, 1000, directory, 1000, true);
+		cache.update(key, response("\"a\"", "private"), true);
+		assertEquals(1, cache.getDiskEntryCount());
+		try (Stream<Path> files = Files.list(directory)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				String content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+				assertFalse(content.contains("secret-token"), "Credentials must not be written in " + file);
+				assertFalse(content.contains("/private"), "Request must not be written in " + file);
+			}
+		}
+		HttpResponseCache restarted = new HttpResponseCache(10, 1000, directory, 1000);
+		assertEquals("private", restarted.hit(key, restarted.get(key), notModified(), true).getBody());
+	}
+
+	@Test
+	void testDiskEviction(@TempDir Path directory) throws IOException {
+		HttpResponseCache cache = new HttpResponseCache(10, 1000, directory, 10);
+		cache.update("a", response("\"a\"", "aaaa"));
+		cache.update("b", response("\"b\"", "bbbb"));
+		cache.update("c", response("\"c\"", "cccc"));
+		assertEquals(2, cache.getDiskEntryCount(), "Total size on disk must not exceed the maximum");
+		assertEquals(8, cache.getDiskSize());
+
+		// The oldest response is not loaded again
+		HttpResponseCache restarted = new HttpResponseCache(10, 1000, directory, 10);
+		assertNull(restarted.get("a"));
+		ByteBuffer body = restarted.hit("c", restarted.get("c"), notModified(), false).getBodyBuffer();
+		assertEquals(4, body.remaining());
+
+		// Incomplete files are deleted when loading the directory
+		Files.write(directory.resolve("orphan.body"), new byte[] { 1 });
+		Files.write(directory.resolve("invalid.meta"), new byte[] { 1 });
+		new HttpResponseCache(10, 1000, directory, 10);
+		assertTrue(Files.notExists(directory.resolve("orphan.body")));
+		assertTrue(Files.notExists(directory.resolve("invalid.meta")));
+	}
+
+	@Test
+	void testRevalidationUpdatesHeaders(@TempDir Path directory) throws IOException {
+		HttpResponseCache cache = new HttpResponseCache(10, 1000, directory, 1000);
+		HttpResponse response = response("W/\"1\"", "body");
+		response.appendHeader("Date", "Mon, 01 Jan 2024 00:00:00 GMT");
+		response.appendHeader("Cache-Control", "max-age=60");
+		response.appendHeader("Content-Length", "4");
+		cache.update("a", response);
+
+		// The headers of the 304 response replace the stored ones, except the ones that describe the body
+		HttpResponse notModified = notModified();
+		notModified.appendHeader("Date", "Tue, 02 Jan 2024 00:00:00 GMT");
+		notModified.appendHeader("Cache-Control", "max-age=120");
+		notModified.appendHeader("ETag", "W/\"2\"");
+		notModified.appendHeader("Content-Length", "0");
+		HttpResponse hit = cache.hit("a", cache.get("a"), notModified, false);
+		assertEquals(200, hit.getStatusCode());
+		assertEquals("body", hit.getBody());
+		assertEquals("Tue, 02 Jan 2024 00:00:00 GMT", hit.getHeader("Date"));
+		assertEquals(1, hit.getHeaders("Date").size());
+		assertEquals("max-age=120", hit.getHeader("Cache-Control"));
+		assertEquals("4", hit.getHeader("Content-Length"));
+
+		// Both in memory and on disk, where the new validator is used for the next revalidation
+		assertEquals("W/\"2\"", cache.get("a").getEtag());
+		HttpResponseCache restarted = new HttpResponseCache(10, 1000, directory, 1000);
+		HttpResponseCache.Entry stored = restarted.get("a");
+		assertEquals("W/\"2\"", stored.getEtag());
+		HttpResponse storedHit = restarted.hit("a", stored, notModified(), false);
+		assertEquals("max-age=120", storedHit.getHeader("Cache-Control"));
+		assertEquals("body", storedHit.getBody());
+		try (Stream<Path> files = Files.list(directory)) {
+			assertEquals(2, files.count(), "The body file must be kept, and only one .meta file must remain");
+		}
+
+		// A 304 that forbids storing removes the response
+		HttpResponse noStore = notModified();
+		noStore.appendHeader("Cache-Control", "no-store");
+		assertEquals("body", restarted.hit("a", stored, noStore, false).getBody());
+		assertNull(restarted.get("a"));
+	}
+}
@@ -1,8 +1,14 @@
 package org.metricshub.http;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import org.junit.jupiter.api.Test;
 
 class HttpResponseTest {
@@ -28,6 +34,21 @@ class HttpResponseTest {
 		assertEquals("first: premier\nsecond: 1 + 1\n", r.getHeader());
 	}
 
+	@Test
+	void testGetHeaderByName() {
+		HttpResponse r = new HttpResponse();
+		assertNull(r.getHeader("ETag"));
+		assertTrue(r.getHeaders("Set-Cookie").isEmpty());
+		r.appendHeader("Content-Type", "application/json");
+		r.appendHeader("Set-Cookie", "a=1");
+		r.appendHeader("set-cookie", "b=2");
+		assertEquals("application/json", r.getHeader("content-type"));
+		assertEquals("application/json", r.getHeader("CONTENT-TYPE"));
+		assertEquals("a=1", r.getHeader("Set-Cookie"));
+		assertEquals(Arrays.asList("a=1", "b=2"), r.getHeaders("SET-COOKIE"));
+		assertEquals("Content-Type: application/json\nSet-Cookie: a=1\nset-cookie: b=2\n", r.getHeader());
+	}
+
 	@Test
 	void testGetBody() {
 		HttpResponse r = new HttpResponse();
@@ -37,6 +58,30 @@ class HttpResponseTest {
 		assertEquals("abcdef", r.getBody());
 	}
 
+	@Test
+	void testGetBodyBytes() {
+		HttpResponse r = new HttpResponse();
+		assertEquals(0, r.getBodyBytes().length);
+
+		// Raw bytes, in a larger buffer
+		byte[] buffer = new byte[10];
+		byte[] latin1 = "caf\u00e9".getBytes(StandardCharsets.ISO_8859_1);
+		System.arraycopy(latin1, 0, buffer, 0, latin1.length);
+		r.setBody(buffer, latin1.length, StandardCharsets.ISO_8859_1);
+		ByteBuffer view = r.getBodyBuffer();
+		assertTrue(view.isReadOnly());
+		assertEquals(4, view.remaining());
+		assertArrayEquals(latin1, r.getBodyBytes());
+		assertSame(r.getBodyBytes(), r.getBodyBytes(), "Bytes must not be copied again");
+		assertEquals("caf\u00e9", r.getBody());
+		assertSame(r.getBody(), r.getBody(), "Body must be decoded once");
+
+		// Appended text
+		r.appendBody("!");
+		assertEquals("caf\u00e9!", r.getBody());
+		assertArrayEquals("caf\u00e9!".getBytes(StandardCharsets.ISO_8859_1), r.getBodyBytes());
+	}
+
 	@Test
 	void testToString() {
 		HttpResponse r = new HttpResponse();
@@ -0,0 +1,130 @@
+package org.metricshub.http;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+import org.junit.jupiter.api.Test;
+
+class InflaterPoolTest {
+
+	private static final byte[] DATA = "Lorem ipsum dolor sit amet, lorem ipsum dolor sit amet, lorem ipsum"
+		.getBytes(StandardCharsets.UTF_8);
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		try (InputStream stream = in) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[7];
+			int bytesCount;
+			while ((bytesCount = stream.read(buffer)) != -1) {
+				out.write(buffer, 0, bytesCount);
+			}
+			return out.toByteArray();
+		}
+	}
+
+	private static byte[] gzip(byte[] data) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzipOut = new GZIPOutputStream(out)) {
+			gzipOut.write(data);
+		}
+		return out.toByteArray();
+	}
+
+	@Test
+	void testGzip() throws IOException {
+		InflaterPool pool = new InflaterPool(1);
+		assertArrayEquals(DATA, readAll(pool.gzip(new ByteArrayInputStream(gzip(DATA)))));
+		assertEquals(1, pool.getIdleCount(), "Inflater must be returned to the pool");
+		assertArrayEquals(DATA, readAll(pool.gzip(new ByteArrayInputStream(gzip(DATA)))));
+		assertEquals(1, pool.getIdleCount(), "Inflater must be reused");
+
+		// Two streams at the same time: the pool keeps only one inflater
+		InputStream first = pool.gzip(new ByteArrayInputStream(gzip(DATA)));
+		InputStream second = pool.gzip(new ByteArrayInputStream(gzip(DATA)));
+		assertArrayEquals(DATA, readAll(first));
+		assertArrayEquals(DATA, readAll(second));
+		assertEquals(1, pool.getIdleCount());
+	}
+
+	@Test
+	void testGzipMembers() throws IOException {
+		// Several members, concatenated (RFC 1952)
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(gzip(DATA));
+		out.write(gzip(new byte[0]));
+		out.write(gzip(DATA));
+		byte[] members = out.toByteArray();
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		expected.write(DATA);
+		expected.write(DATA);
+		InflaterPool pool = new InflaterPool(1);
+		assertArrayEquals(expected.toByteArray(), readAll(pool.gzip(new ByteArrayInputStream(members))));
+
+		// Received byte by byte: the trailers and the next headers are not in the buffer of the inflater
+		InputStream slow = new FilterInputStream(new ByteArrayInputStream(members)) {
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				return super.read(b, off, Math.min(len, 1));
+			}
+		};
+		assertArrayEquals(expected.toByteArray(), readAll(pool.gzip(slow)));
+		assertEquals(1, pool.getIdleCount());
+
+		// The bytes after the last member are ignored, but a corrupt member is not
+		out.write("trailing garbage".getBytes(StandardCharsets.ISO_8859_1));
+		assertArrayEquals(expected.toByteArray(), readAll(pool.gzip(new ByteArrayInputStream(out.toByteArray()))));
+		members[members.length - 8]++;
+		assertThrows(ZipException.class, () -> readAll(pool.gzip(new ByteArrayInputStream(members))));
+	}
+
+	@Test
+	void testGzipHeaderFields() throws IOException {
+		// Header with FEXTRA, FNAME and FCOMMENT
+		byte[] gzipped = gzip(DATA);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(new byte[] { 0x1f, (byte) 0x8b, 8, 4 | 8 | 16, 0, 0, 0, 0, 0, 3 });
+		out.write(new byte[] { 2, 0, 'x', 'y' });
+		out.write("name.txt\0comment\0".getBytes(StandardCharsets.ISO_8859_1));
+		out.write(gzipped, 10, gzipped.length - 10);
+		assertArrayEquals(DATA, readAll(new InflaterPool(1).gzip(new ByteArrayInputStream(out.toByteArray()))));
+	}
+
+	@Test
+	void testGzipErrors() throws IOException {
+		InflaterPool pool = new InflaterPool(1);
+		assertThrows(EOFException.class, () -> pool.gzip(new ByteArrayInputStream(new byte[0])));
+		assertThrows(ZipException.class, () -> pool.gzip(new ByteArrayInputStream(DATA)));
+
+		byte[] corrupt = gzip(DATA);
+		corrupt[corrupt.length - 8]++;
+		assertThrows(ZipException.class, () -> readAll(pool.gzip(new ByteArrayInputStream(corrupt))));
+
+		byte[] gzipped = gzip(DATA);
+		byte[] truncated = new byte[gzipped.length - 3];
+		System.arraycopy(gzipped, 0, truncated, 0, truncated.length);
+		assertThrows(EOFException.class, () -> readAll(pool.gzip(new ByteArrayInputStream(truncated))));
+		assertEquals(1, pool.getIdleCount(), "Inflater must be released in case of error");
+	}
+
+	@Test
+	void testDeflate() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (DeflaterOutputStream deflaterOut = new DeflaterOutputStream(out)) {
+			deflaterOut.write(DATA);
+		}
+		InflaterPool pool = new InflaterPool(1);
+		assertArrayEquals(DATA, readAll(pool.deflate(new ByteArrayInputStream(out.toByteArray()))));
+		assertEquals(1, pool.getIdleCount());
+	}
+}
@@ -0,0 +1,69 @@
+package org.metricshub.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class ProxyRegistryTest {
+
+	private static final InetSocketAddress FIRST = InetSocketAddress.createUnresolved("127.0.0.1", 3128);
+	private static final InetSocketAddress SECOND = InetSocketAddress.createUnresolved("localhost", 8080);
+
+	@Test
+	void testResolvedOnce() {
+		ProxyRegistry registry = new ProxyRegistry(1, 1, TimeUnit.HOURS);
+		Proxy proxy = registry.getProxy(FIRST);
+		assertEquals(Proxy.Type.HTTP, proxy.type());
+		assertFalse(((InetSocketAddress) proxy.address()).isUnresolved());
+		assertSame(proxy, registry.getProxy(InetSocketAddress.createUnresolved("127.0.0.1", 3128)));
+		assertEquals(1, registry.getResolutionCount());
+	}
+
+	@Test
+	void testExpiry() {
+		// Resolved again each time, but the same instance is kept while the address doesn't change
+		ProxyRegistry registry = new ProxyRegistry(0, 1, TimeUnit.HOURS);
+		Proxy proxy = registry.getProxy(FIRST);
+		assertSame(proxy, registry.getProxy(FIRST));
+		assertEquals(2, registry.getResolutionCount());
+
+		registry.clear();
+		Proxy unresolved = registry.getProxy(InetSocketAddress.createUnresolved("unknown.invalid", 3128));
+		assertTrue(((InetSocketAddress) unresolved.address()).isUnresolved());
+	}
+
+	@Test
+	void testFailover() {
+		ProxyRegistry registry = new ProxyRegistry(1, 1, TimeUnit.HOURS);
+		List<InetSocketAddress> addresses = Arrays.asList(FIRST, SECOND);
+		List<Proxy> proxies = registry.select(addresses);
+		assertEquals(2, proxies.size());
+		Proxy first = proxies.get(0);
+
+		// The failed proxy is set aside, but still tried last
+		registry.markFailed(first);
+		assertEquals(1, registry.getFailureCount());
+		proxies = registry.select(addresses);
+		assertSame(first, proxies.get(1));
+
+		// Same with the selector of java.net.http
+		assertSame(first, registry.selector(addresses).select(URI.create("https://host/")).get(1));
+
+		// Back after the cooldown
+		ProxyRegistry noCooldown = new ProxyRegistry(1, 0, TimeUnit.HOURS);
+		noCooldown.markFailed(noCooldown.select(addresses).get(0));
+		assertEquals(
+			"127.0.0.1",
+			((InetSocketAddress) noCooldown.select(addresses).get(0).address()).getHostString()
+		);
+	}
+}
@@ -0,0 +1,81 @@
+package org.metricshub.http;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import org.junit.jupiter.api.Test;
+
+class RequestBodyTest {
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		try (InputStream stream = in) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[1000];
+			int bytesCount;
+			while ((bytesCount = stream.read(buffer)) != -1) {
+				out.write(buffer, 0, bytesCount);
+			}
+			return out.toByteArray();
+		}
+	}
+
+	private static byte[] writeAll(RequestBody body) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		body.writeTo(out);
+		return out.toByteArray();
+	}
+
+	@Test
+	void testOf() throws IOException {
+		RequestBody body = RequestBody.of("héllo");
+		assertEquals(6, body.getContentLength());
+		assertTrue(body.isRepeatable());
+		assertArrayEquals("héllo".getBytes(StandardCharsets.UTF_8), writeAll(body));
+		assertArrayEquals("héllo".getBytes(StandardCharsets.UTF_8), readAll(body.openStream()));
+
+		ByteBuffer buffer = ByteBuffer.allocateDirect(4).put(new byte[] { 1, 2, 3, 4 });
+		buffer.flip().position(1);
+		body = RequestBody.of(buffer);
+		assertEquals(3, body.getContentLength());
+		assertArrayEquals(new byte[] { 2, 3, 4 }, writeAll(body));
+		assertEquals(1, buffer.position(), "Position of the buffer must not change");
+
+		body = RequestBody.of(new ByteArrayInputStream(new byte[10]));
+		assertEquals(-1, body.getContentLength());
+		assertFalse(body.isRepeatable());
+	}
+
+	@Test
+	void testCompress() throws IOException {
+		byte[] data = new byte[300000];
+		Random random = new Random(42);
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) ('a' + random.nextInt(4));
+		}
+
+		RequestBody gzip = RequestBody.compress(RequestBody.of(data), "gzip");
+		assertEquals(-1, gzip.getContentLength());
+		assertTrue(gzip.isRepeatable());
+		byte[] written = writeAll(gzip);
+		assertTrue(written.length < data.length, "Body must be compressed");
+		assertArrayEquals(data, readAll(new GZIPInputStream(new ByteArrayInputStream(written))));
+		assertArrayEquals(data, readAll(new GZIPInputStream(gzip.openStream())), "GZIP trailer must be valid");
+
+		RequestBody deflate = RequestBody.compress(RequestBody.of(data), "deflate");
+		assertArrayEquals(data, readAll(new InflaterInputStream(new ByteArrayInputStream(writeAll(deflate)))));
+		assertArrayEquals(data, readAll(new InflaterInputStream(deflate.openStream())));
+
+		assertFalse(RequestBody.compress(RequestBody.of(new ByteArrayInputStream(data)), "gzip").isRepeatable());
+	}
+}
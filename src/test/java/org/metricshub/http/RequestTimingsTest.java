@@ -0,0 +1,113 @@
+package org.metricshub.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import org.junit.jupiter.api.Test;
+
+class RequestTimingsTest {
+
+	@Test
+	void testPhases() throws Exception {
+		RequestTimings timings = RequestTimings.start("GET", new URL("https://host.example.com/"));
+		assertSame(timings, RequestTimings.current());
+		RequestTimings.mark(RequestTimings.DNS_START);
+		RequestTimings.mark(RequestTimings.DNS_END);
+		RequestTimings.mark(RequestTimings.CONNECT_START);
+		Thread.sleep(5);
+		RequestTimings.markHandshakeStart();
+		RequestTimings.markConnected();
+		RequestTimings.markResponse(200);
+
+		// Not complete yet
+		assertEquals(-1, timings.getTransferTime());
+		assertEquals(-1, timings.getTotalTime());
+
+		timings.finish(null);
+		assertNull(RequestTimings.current());
+		assertTrue(timings.getDnsTime() >= 0);
+		assertTrue(timings.getConnectTime() >= 5_000_000);
+		assertTrue(timings.getTlsHandshakeTime() >= 0);
+		assertTrue(timings.getTimeToFirstByte() >= 0);
+		assertTrue(timings.getTransferTime() >= 0);
+		assertTrue(
+			timings.getTotalTime() >=
+			timings.getDnsTime() +
+			timings.getConnectTime() +
+			timings.getTlsHandshakeTime() +
+			timings.getTimeToFirstByte() +
+			timings.getTransferTime()
+		);
+	}
+
+	@Test
+	void testNotMeasured() throws Exception {
+		// A new connection attempt discards the phases of the previous one
+		RequestTimings timings = RequestTimings.start("GET", new URL("http://host.example.com/"));
+		RequestTimings.markConnectStart();
+		RequestTimings.markHandshakeStart();
+		RequestTimings.markConnectStart();
+		RequestTimings.markConnected();
+		timings.finish(new IOException("Read timed out"));
+
+		assertEquals(-1, timings.getDnsTime());
+		assertTrue(timings.getConnectTime() >= 0);
+		assertEquals(-1, timings.getTlsHandshakeTime());
+		assertEquals(-1, timings.getTimeToFirstByte());
+		assertEquals(-1, timings.getTransferTime());
+		assertTrue(timings.getTotalTime() >= 0);
+		assertTrue(timings.toString().contains("DNS n/a"));
+	}
+
+	@Test
+	void testJvmLookup() throws Exception {
+		// The JRE resolves the name between the creation of the socket and its connection: this is part of the DNS
+		try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+			RequestTimings timings = RequestTimings.start("GET", new URL("https://host.example.com/"));
+			RequestTimings.markConnectStart();
+			try (Socket socket = new ResolvingSocket(host -> new InetAddress[] { InetAddress.getLoopbackAddress() }, false)) {
+				Thread.sleep(20);
+				socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort()), 5000);
+			}
+			RequestTimings.markConnected();
+			timings.finish(null);
+			assertTrue(timings.getDnsTime() >= 20_000_000);
+			assertTrue(timings.getConnectTime() >= 0);
+		}
+	}
+
+	@Test
+	void testRequestAgain() throws Exception {
+		// The response to a previous attempt is discarded
+		RequestTimings timings = RequestTimings.start("GET", new URL("https://host.example.com/"));
+		RequestTimings.markRequestStart();
+		RequestTimings.markResponse(401);
+		RequestTimings.markRequestStart();
+		timings.finish(new IOException("Connection reset"));
+		assertEquals(-1, timings.getTimeToFirstByte());
+	}
+
+	@Test
+	void testNested() throws Exception {
+		RequestTimings outer = RequestTimings.start("GET", new URL("http://outer.example.com/"));
+		RequestTimings inner = RequestTimings.start("GET", new URL("http://inner.example.com/"));
+		RequestTimings.markResponse(404);
+		inner.finish(null);
+		assertSame(outer, RequestTimings.current());
+		assertEquals(-1, outer.getTimeToFirstByte());
+		outer.finish(null);
+		assertNull(RequestTimings.current());
+
+		// Nothing recorded outside of a request
+		RequestTimings.mark(RequestTimings.DNS_START);
+		assertNull(RequestTimings.current());
+	}
+}
@@ -0,0 +1,166 @@
+package org.metricshub.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeout;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class ResolvingSocketTest {
+
+	/**
+	 * Address of the documentation network (TEST-NET-1), which doesn't answer (or cannot be reached)
+	 */
+	private static final String BLACK_HOLE = "192.0.2.1";
+
+	@Test
+	void testSortAddresses() throws Exception {
+		InetAddress v4a = InetAddress.getByName("10.0.0.1");
+		InetAddress v4b = InetAddress.getByName("10.0.0.2");
+		InetAddress v6a = InetAddress.getByName("fd00::1");
+		InetAddress v6b = InetAddress.getByName("fd00::2");
+		InetAddress v6c = InetAddress.getByName("fd00::3");
+
+		// Alternate the families, starting with the family of the first address
+		assertEquals(
+			Arrays.asList(v6a, v4a, v6b, v4b, v6c),
+			ResolvingSocket.sortAddresses(new InetAddress[] { v6a, v6b, v6c, v4a, v4b })
+		);
+		assertEquals(
+			Arrays.asList(v4a, v6a, v4b, v6b, v6c),
+			ResolvingSocket.sortAddresses(new InetAddress[] { v4a, v4b, v6a, v6b, v6c })
+		);
+		assertEquals(Arrays.asList(v4a, v4b), ResolvingSocket.sortAddresses(new InetAddress[] { v4a, v4b }));
+	}
+
+	@Test
+	void testHappyEyeballs() throws Exception {
+		try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+			// The first address doesn't answer: the second one is tried after the attempt delay, not the timeout
+			DnsResolver resolver = host ->
+				new InetAddress[] { InetAddress.getByName(BLACK_HOLE), InetAddress.getLoopbackAddress() };
+			try (Socket socket = new ResolvingSocket(resolver, true)) {
+				socket.setSoTimeout(5000);
+				assertTimeout(
+					Duration.ofSeconds(10),
+					() -> socket.connect(InetSocketAddress.createUnresolved("server.invalid", server.getLocalPort()), 30_000)
+				);
+				assertTrue(socket.isConnected());
+				assertEquals(InetAddress.getLoopbackAddress(), socket.getInetAddress());
+				assertEquals("server.invalid", socket.getInetAddress().getHostName());
+				assertEquals(5000, socket.getSoTimeout());
+
+				// The socket delegates to the connection
+				try (Socket accepted = server.accept()) {
+					socket.getOutputStream().write(42);
+					socket.getOutputStream().flush();
+					assertEquals(42, accepted.getInputStream().read());
+					accepted.getOutputStream().write(43);
+					assertEquals(43, socket.getInputStream().read());
+				}
+			}
+		}
+	}
+
+	@Test
+	void testJvmAddressIgnored() throws Exception {
+		try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+			// The JRE passes the address it resolved: only the addresses of the resolver are connected to
+			byte[] blackHole = InetAddress.getByName(BLACK_HOLE).getAddress();
+			InetAddress jvmAddress = InetAddress.getByAddress("server.example", blackHole);
+			DnsResolver resolver = host -> new InetAddress[] { InetAddress.getLoopbackAddress() };
+			try (Socket socket = new ResolvingSocket(resolver, false)) {
+				assertTimeout(
+					Duration.ofSeconds(10),
+					() -> socket.connect(new InetSocketAddress(jvmAddress, server.getLocalPort()), 30_000)
+				);
+				assertEquals(InetAddress.getLoopbackAddress(), socket.getInetAddress());
+				assertEquals("server.example", socket.getInetAddress().getHostName());
+			}
+		}
+	}
+
+	@Test
+	void testAllFailed() throws Exception {
+		// Find a port that refuses the connections
+		int port;
+		try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+			port = server.getLocalPort();
+		}
+		InetAddress loopback = InetAddress.getLoopbackAddress();
+		Socket socket = new ResolvingSocket(host -> new InetAddress[] { loopback, loopback }, false);
+		assertThrows(ConnectException.class, () -> socket.connect(new InetSocketAddress(loopback, port), 5000));
+		assertFalse(socket.isConnected());
+		socket.close();
+		assertTrue(socket.isClosed());
+	}
+
+	/**
+	 * Fill the backlog of the specified server, which doesn't accept the connections, so that it ignores the next
+	 * connection attempts (like a black-holed network path)
+	 *
+	 * @param server The server, with a backlog of 1
+	 * @return the connections that fill the backlog
+	 * @throws Exception when the connections cannot be established
+	 */
+	private static List<SocketChannel> fillBacklog(ServerSocket server) throws Exception {
+		List<SocketChannel> channels = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			SocketChannel channel = SocketChannel.open();
+			channel.configureBlocking(false);
+			channel.connect(server.getLocalSocketAddress());
+			channels.add(channel);
+		}
+		Thread.sleep(200);
+		return channels;
+	}
+
+	@Test
+	void testRace() throws Exception {
+		try (
+			ServerSocket blackHole = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+			ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())
+		) {
+			List<SocketChannel> backlog = fillBacklog(blackHole);
+			List<InetSocketAddress> targets = Arrays.asList(
+				(InetSocketAddress) blackHole.getLocalSocketAddress(),
+				(InetSocketAddress) server.getLocalSocketAddress()
+			);
+
+			// With Happy Eyeballs, the second address is tried after the attempt delay
+			ResolvingSocket socket = new ResolvingSocket(DnsResolver.system(), true);
+			try (
+				SocketChannel channel = assertTimeout(
+					Duration.ofSeconds(5),
+					() -> socket.connect(targets, 30_000, TimeUnit.MILLISECONDS.toNanos(250))
+				)
+			) {
+				assertEquals(server.getLocalSocketAddress(), channel.getRemoteAddress());
+			}
+
+			// Otherwise, the first address takes the whole timeout
+			assertThrows(
+				SocketTimeoutException.class,
+				() -> new ResolvingSocket(DnsResolver.system(), false).connect(targets, 500, -1)
+			);
+
+			for (SocketChannel channel : backlog) {
+				channel.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package org.metricshub.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class TlsSessionStatisticsTest {
+
+	@Test
+	void record() {
+		TlsSessionStatistics stats = new TlsSessionStatistics();
+		assertTrue(stats.getHosts().isEmpty());
+
+		stats.record("host1:443", false);
+		stats.record("host1:443", true);
+		stats.record("host1:443", true);
+		stats.record("host2:8443", false);
+
+		assertEquals(2, stats.getFullHandshakeCount());
+		assertEquals(2, stats.getResumedHandshakeCount());
+		assertEquals(1, stats.getFullHandshakeCount("host1:443"));
+		assertEquals(2, stats.getResumedHandshakeCount("host1:443"));
+		assertEquals(0, stats.getResumedHandshakeCount("host2:8443"));
+		assertEquals(0, stats.getFullHandshakeCount("unknown:443"));
+		assertEquals(2, stats.getHosts().size());
+		assertEquals("TLS handshakes: 2 full, 2 resumed", stats.toString());
+	}
+}